@@ -21,11 +21,15 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.opensextant.giscore.data.DocumentTypeRegistration;
 import org.opensextant.giscore.data.FactoryDocumentTypeRegistry;
 import org.opensextant.giscore.input.IGISInputStream;
+import org.opensextant.giscore.input.XmlInputStream;
 import org.opensextant.giscore.output.IGISOutputStream;
 
 /**
@@ -38,10 +42,33 @@ public class GISFactory {
 	
 	
 	/**
-	 * The size of the buffer that should be used when buffering content
-	 * in memory. Right now this is a per feature class buffer size.
+	 * The number of objects an {@link org.opensextant.giscore.utils.ObjectBuffer}
+	 * created without an explicit size holds in memory. The buffers of a
+	 * {@link org.opensextant.giscore.output.FeatureSorter} are sized from
+	 * {@link #sorterMemoryBudget} instead.
 	 */
 	public final static AtomicInteger inMemoryBufferSize = new AtomicInteger(2000);
+
+	/**
+	 * The directory for the files holding buffered content that does not fit
+	 * in memory. If <code>null</code> the default temporary-file directory is
+	 * used.
+	 */
+	public final static AtomicReference<File> spillDirectory = new AtomicReference<File>();
+
+	/**
+	 * Whether buffered content that does not fit in memory is compressed when
+	 * written to a file, which trades CPU for less disk I/O.
+	 */
+	public final static AtomicBoolean spillCompression = new AtomicBoolean(false);
+
+	/**
+	 * The approximate number of bytes of buffered content that a
+	 * {@link org.opensextant.giscore.output.FeatureSorter} holds in memory
+	 * across all of its feature classes before spilling the largest buffers
+	 * into a file.
+	 */
+	public final static AtomicLong sorterMemoryBudget = new AtomicLong(64L * 1024 * 1024);
 	
 	/**
 	 * Input stream factory
@@ -54,7 +81,8 @@ public class GISFactory {
 	 *            <code>KmlReader</code> should used instead.
 	 * @param arguments
 	 *            the additional arguments needed by the constructor, the type
-	 *            or types depend on the constructor
+	 *            or types depend on the constructor. For KML the XML parsing
+	 *            engine may be selected with an {@link XmlInputStream.Engine}
 	 * @return a gis input stream, never <code>null</code>
 	 * @throws IOException
 	 *             if an I/O error occurs
@@ -97,7 +125,8 @@ public class GISFactory {
 	 *            used instead.
 	 * @param arguments
 	 *            the additional arguments needed by the constructor, the type
-	 *            or types depend on the constructor
+	 *            or types depend on the constructor. For KML the XML parsing
+	 *            engine may be selected with an {@link XmlInputStream.Engine}
 	 * @return a gis input stream, never <code>null</code>
 	 * @throws IOException
 	 *             if an I/O error occurs
@@ -29,6 +29,7 @@ import javax.annotation.Resource;
 import org.opensextant.giscore.DocumentType;
 import org.opensextant.giscore.IAcceptSchema;
 import org.opensextant.giscore.events.Schema;
+import org.opensextant.giscore.input.XmlInputStream;
 import org.opensextant.giscore.input.atom.GeoAtomInputStream;
 import org.opensextant.giscore.input.csv.CsvInputStream;
 import org.opensextant.giscore.input.gdb.FileGdbInputStream;
@@ -90,6 +91,8 @@ public class FactoryDocumentTypeRegistry {
 	static {
 		DocumentTypeRegistration reg = new DocumentTypeRegistration(DocumentType.KML);
 		reg.setInputStreamClass(KmlInputStream.class);
+		reg.setInputStreamArgs(new Class[] { XmlInputStream.Engine.class });
+		reg.setInputStreamArgsRequired(new boolean[] { false });
 		reg.setOutputStreamArgs(new Class[] { String.class });
 		reg.setOutputStreamArgsRequired(new boolean[] { false });
 		reg.setOutputStreamClass(KmlOutputStream.class);
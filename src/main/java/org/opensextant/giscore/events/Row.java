@@ -76,13 +76,8 @@ public class Row extends AbstractObject implements IDataSerializable {
 			e2.initCause(e);
 			throw e2;
 		}
-		int cnt = in.readInt();
 		extendedData.clear();
-		for(int i = 0; i < cnt; i++) {
-			SimpleField field = (SimpleField) in.readObject();
-			Object val = in.readScalar();
-			extendedData.put(field, val);
-		}
+		in.readFieldValues(extendedData);
 		extendedElements.clear();
 		extendedElements = in.readNonNullObjectCollection();
 	}
@@ -93,12 +88,7 @@ public class Row extends AbstractObject implements IDataSerializable {
 	public void writeData(SimpleObjectOutputStream out) throws IOException {
 		super.writeData(out);
 		out.writeString(schema != null ? schema.toString() : null);
-		int cnt = extendedData.size();
-		out.writeInt(cnt);
-		for(Map.Entry<SimpleField, Object> entry : extendedData.entrySet()) {
-			out.writeObject(entry.getKey());
-			out.writeScalar(entry.getValue());
-		}
+		out.writeFieldValues(extendedData);
 		out.writeObjectCollection(extendedElements);
 	}
 
@@ -26,6 +26,7 @@ import java.util.Map;
 import org.apache.commons.lang.mutable.MutableInt;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
+import org.opensextant.giscore.geometry.CoordinateSequence;
 import org.opensextant.giscore.geometry.Geometry;
 import org.opensextant.giscore.geometry.Line;
 import org.opensextant.giscore.geometry.LinearRing;
@@ -71,7 +72,7 @@ public class Row extends GDB {
 			// Decode
 			Short type = (Short) shapeInfo[0];
 			Boolean hasz = (Boolean) shapeInfo[1];
-			List<Point>[] lists;
+			CoordinateSequence[] lists;
 			switch(type) {
 			case 0: { // Point
 				MutableInt ptr = new MutableInt(4);
@@ -79,19 +80,19 @@ public class Row extends GDB {
 				break;
 			}
 			case 1: // Multipoint
-				lists = getPointLists(shapeInfo, hasz);
+				lists = getCoordinateLists(shapeInfo, hasz);
 				geo = new MultiPoint(lists[0]);
 				break;
 			case 2: // Polyline
-				lists = getPointLists(shapeInfo, hasz);
+				lists = getCoordinateLists(shapeInfo, hasz);
 				List<Line> lines = new ArrayList<Line>();
-				for(List<Point> pts : lists) {
+				for(CoordinateSequence pts : lists) {
 					lines.add(new Line(pts));
 				}
 				geo = new MultiLine(lines);
 				break;
 			case 3: // Polygon
-				lists = getPointLists(shapeInfo, hasz);
+				lists = getCoordinateLists(shapeInfo, hasz);
 				if (lists.length == 0) break;
 				LinearRing outerRing = new LinearRing(lists[0]);
 				List<LinearRing> innerRings = new ArrayList<LinearRing>();
@@ -116,13 +117,13 @@ public class Row extends GDB {
 	 * shapeInfo array are the shapeType, the hasz boolean, the point
 	 * count and the part count. The next two things are then the
 	 * part array and the point array. This method handles turning
-	 * the part array and point array into an array of point lists.
+	 * the part array and point array into an array of coordinate sequences.
 	 * @param ptr
 	 * @param shapeInfo
 	 * @param hasz
 	 * @return
 	 */
-	private List<Point>[] getPointLists(Object[] shapeInfo, boolean hasz) {
+	private CoordinateSequence[] getCoordinateLists(Object[] shapeInfo, boolean hasz) {
 		int pointcount = (Integer) shapeInfo[2];
 		int partcount = (Integer) shapeInfo[3];
 		int[] partarray = new int[partcount == 0 ? 1 : partcount];
@@ -139,21 +140,31 @@ public class Row extends GDB {
 				partarray[i] = upper - lower;
 			}
 		}
-		@SuppressWarnings("unchecked")
-		List<Point>[] rval = new List[partcount];
+		CoordinateSequence[] rval = new CoordinateSequence[partcount];
 		for(int i = 0; i < partcount; i++) {
 			int count = partarray[i];
-			rval[i] = getPointList(ptr, count, shapeInfo, hasz);
+			rval[i] = getCoordinates(ptr, count, shapeInfo, hasz);
 		}
 		return rval;
 	}
 	
-	private List<Point> getPointList(MutableInt ptr, int count, Object[] shapeInfo, boolean hasz) {
-		List<Point> pts = new ArrayList<Point>();
+	private CoordinateSequence getCoordinates(MutableInt ptr, int count, Object[] shapeInfo, boolean hasz) {
+		// Points are always created with an elevation, see getPoint
+		double[] coords = new double[count * 3];
 		for(int j = 0; j < count; j++) {
-			pts.add(getPoint(ptr, shapeInfo, hasz));
+			Double lon = (Double) shapeInfo[ptr.intValue()];
+			ptr.increment();
+			Double lat = (Double) shapeInfo[ptr.intValue()];
+			ptr.increment();
+			double[] transformedLongLat = transform(lon, lat);
+			coords[j * 3] = transformedLongLat[0];
+			coords[j * 3 + 1] = transformedLongLat[1];
+			if (hasz) {
+				coords[j * 3 + 2] = (Double) shapeInfo[ptr.intValue()];
+				ptr.increment();
+			}
 		}
-		return pts;
+		return CoordinateSequence.fromDegrees(coords, true);
 	}
 	
 	private Point getPoint(MutableInt ptr, Object[] shapeInfo, boolean hasz) {
@@ -0,0 +1,427 @@
+/****************************************************************************************
+ *  CoordinateSequence.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.geometry;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.opensextant.geodesy.Geodetic2DPoint;
+import org.opensextant.geodesy.Geodetic3DPoint;
+import org.opensextant.geodesy.Latitude;
+import org.opensextant.geodesy.Longitude;
+
+/**
+ * An immutable sequence of coordinates packed into a single
+ * <code>double[]</code> as (longitude, latitude) or (longitude, latitude,
+ * elevation) tuples. Angles are held in radians, normalized the same way as
+ * {@link Longitude} and {@link Latitude}, so a {@link Point} created from a
+ * sequence is equal to the point the coordinates were read from.
+ * <p/>
+ * A vertex kept here costs 16 or 24 bytes instead of the several objects
+ * behind each {@link Point}. {@link Line}, {@link LinearRing} and
+ * {@link MultiPoint} can be created directly from a sequence, in which case
+ * the points returned by their <code>getPoints()</code> method are created on
+ * demand.
+ */
+public class CoordinateSequence implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final double HALF_PI = Math.PI / 2.0;
+	private static final double TWO_PI = 2.0 * Math.PI;
+
+	/**
+	 * Packed coordinates, longitude and latitude in radians and elevation in
+	 * meters
+	 */
+	@NonNull
+	private final double[] coords;
+
+	private final int size;
+
+	private final boolean is3D;
+
+	private CoordinateSequence(double[] coords, int size, boolean is3D) {
+		this.coords = coords;
+		this.size = size;
+		this.is3D = is3D;
+	}
+
+	/**
+	 * Create a sequence from packed coordinates in degrees. The array holds
+	 * (longitude, latitude) pairs or, if <code>is3D</code> is set,
+	 * (longitude, latitude, elevation) triples. The values are converted in
+	 * place, so the array is owned by the sequence afterwards.
+	 *
+	 * @param lonLat packed coordinates in degrees, never null
+	 * @param is3D   <code>true</code> if the array holds elevations
+	 * @return the sequence, never null
+	 * @throws IllegalArgumentException if the array length is not a multiple
+	 *                                  of the dimension or a latitude is
+	 *                                  beyond the poles
+	 */
+	@NonNull
+	public static CoordinateSequence fromDegrees(double[] lonLat, boolean is3D) {
+		if (lonLat == null)
+			throw new IllegalArgumentException("coordinates should never be null");
+		int dim = is3D ? 3 : 2;
+		if (lonLat.length % dim != 0)
+			throw new IllegalArgumentException("coordinate array length must be a multiple of " + dim);
+		for (int i = 0; i < lonLat.length; i += dim) {
+			lonLat[i] = toLongitudeRadians(lonLat[i]);
+			lonLat[i + 1] = toLatitudeRadians(lonLat[i + 1]);
+		}
+		return new CoordinateSequence(lonLat, lonLat.length / dim, is3D);
+	}
+
+	/**
+	 * Create a sequence from a list of points. If the points have mixed
+	 * dimensions the sequence is 2d, matching the downgrade done by the
+	 * geometries themselves. If the list is the point view of a sequence
+	 * then that sequence is returned.
+	 *
+	 * @param pts the points, never null
+	 * @return the sequence, never null
+	 * @throws IllegalArgumentException if pts is null
+	 */
+	@NonNull
+	public static CoordinateSequence fromPoints(List<Point> pts) {
+		if (pts == null)
+			throw new IllegalArgumentException("pts should never be null");
+		if (pts instanceof PointList) {
+			return ((PointList) pts).seq;
+		}
+		boolean threeD = !pts.isEmpty();
+		for (Point p : pts) {
+			if (!p.is3D()) {
+				threeD = false;
+				break;
+			}
+		}
+		int dim = threeD ? 3 : 2;
+		double[] coords = new double[pts.size() * dim];
+		int k = 0;
+		for (Point p : pts) {
+			Geodetic2DPoint gp = p.asGeodetic2DPoint();
+			coords[k++] = gp.getLongitude().inRadians();
+			coords[k++] = gp.getLatitude().inRadians();
+			if (threeD) coords[k++] = ((Geodetic3DPoint) gp).getElevation();
+		}
+		return new CoordinateSequence(coords, pts.size(), threeD);
+	}
+
+	/**
+	 * @return the number of coordinates in this sequence
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return <code>true</code> if the coordinates have elevations
+	 */
+	public boolean is3D() {
+		return is3D;
+	}
+
+	/**
+	 * @param i the coordinate index
+	 * @return the longitude in degrees
+	 */
+	public double getLongitude(int i) {
+		return Math.toDegrees(getLongitudeRadians(i));
+	}
+
+	/**
+	 * @param i the coordinate index
+	 * @return the latitude in degrees
+	 */
+	public double getLatitude(int i) {
+		return Math.toDegrees(getLatitudeRadians(i));
+	}
+
+	/**
+	 * @param i the coordinate index
+	 * @return the longitude in radians
+	 */
+	public double getLongitudeRadians(int i) {
+		return coords[offset(i)];
+	}
+
+	/**
+	 * @param i the coordinate index
+	 * @return the latitude in radians
+	 */
+	public double getLatitudeRadians(int i) {
+		return coords[offset(i) + 1];
+	}
+
+	/**
+	 * @param i the coordinate index
+	 * @return the elevation in meters or 0 if the sequence is 2d
+	 */
+	public double getElevation(int i) {
+		return is3D ? coords[offset(i) + 2] : 0.0;
+	}
+
+	/**
+	 * Create the point for a coordinate. A new point is returned on every
+	 * call.
+	 *
+	 * @param i the coordinate index
+	 * @return the point, never null
+	 */
+	@NonNull
+	public Point getPoint(int i) {
+		int k = offset(i);
+		Longitude lon = new Longitude(coords[k]);
+		Latitude lat = new Latitude(coords[k + 1]);
+		return new Point(is3D ? new Geodetic3DPoint(lon, lat, coords[k + 2])
+				: new Geodetic2DPoint(lon, lat));
+	}
+
+	/**
+	 * @return an unmodifiable list view of the coordinates as points, which
+	 *         creates the points as they are accessed
+	 */
+	@NonNull
+	public List<Point> asPointList() {
+		return new PointList(this);
+	}
+
+	/**
+	 * @return <code>true</code> if the first and last coordinates are the same
+	 */
+	public boolean isClosed() {
+		return size > 0 && getPoint(0).equals(getPoint(size - 1));
+	}
+
+	/**
+	 * @return a copy of this sequence with the first coordinate appended
+	 */
+	@NonNull
+	public CoordinateSequence close() {
+		if (size == 0) return this;
+		int dim = getDimension();
+		double[] copy = Arrays.copyOf(coords, coords.length + dim);
+		System.arraycopy(coords, 0, copy, coords.length, dim);
+		return new CoordinateSequence(copy, size + 1, is3D);
+	}
+
+	/**
+	 * @return a copy of this sequence with the coordinates in reverse order
+	 */
+	@NonNull
+	public CoordinateSequence reverse() {
+		int dim = getDimension();
+		double[] copy = new double[coords.length];
+		for (int i = 0; i < size; i++) {
+			System.arraycopy(coords, i * dim, copy, (size - 1 - i) * dim, dim);
+		}
+		return new CoordinateSequence(copy, size, is3D);
+	}
+
+	/**
+	 * @return 3 if the coordinates have elevations, 2 otherwise
+	 */
+	public int getDimension() {
+		return is3D ? 3 : 2;
+	}
+
+	private int offset(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		return is3D ? i * 3 : i * 2;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof CoordinateSequence)) return false;
+		CoordinateSequence other = (CoordinateSequence) obj;
+		return is3D == other.is3D && size == other.size
+				&& Arrays.equals(coords, other.coords);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(coords) + (is3D ? 1 : 0);
+	}
+
+	public String toString() {
+		return "CoordinateSequence of " + size + (is3D ? " 3d" : " 2d") + " coordinates";
+	}
+
+	/**
+	 * Test a coordinate with the same range checks done by {@link Longitude}
+	 * and {@link Latitude}, which are also the checks done when adding a
+	 * coordinate to a sequence.
+	 *
+	 * @param lon longitude in degrees
+	 * @param lat latitude in degrees
+	 * @return <code>true</code> if the coordinate is accepted
+	 */
+	public static boolean isValid(double lon, double lat) {
+		double x = Math.toRadians(lon);
+		double y = Math.toRadians(lat);
+		if (Math.abs(x) > 4.0 * TWO_PI || Math.abs(y) > 4.0 * TWO_PI)
+			return false;
+		y = normalize(y);
+		return y >= -HALF_PI && y <= HALF_PI;
+	}
+
+	/**
+	 * Convert a longitude the same way as {@link Longitude}
+	 */
+	static double toLongitudeRadians(double degrees) {
+		return normalize(Math.toRadians(degrees));
+	}
+
+	/**
+	 * Convert a latitude the same way as {@link Latitude}
+	 */
+	static double toLatitudeRadians(double degrees) {
+		double r = normalize(Math.toRadians(degrees));
+		if (r < -HALF_PI || r > HALF_PI)
+			throw new IllegalArgumentException("Latitude value exceeds pole value");
+		return r;
+	}
+
+	/**
+	 * Normalize an angle to [-PI, PI) as done by the geodesy Angle class
+	 */
+	private static double normalize(double r) {
+		if (Math.abs(r) > 4.0 * TWO_PI)
+			throw new IllegalArgumentException("Angle " + r + " radians is too big");
+		while (r >= Math.PI) r -= TWO_PI;
+		while (r < -Math.PI) r += TWO_PI;
+		return r;
+	}
+
+	/**
+	 * Collects coordinates for a sequence whose length is not known in
+	 * advance. If both 2d and 3d coordinates are added the sequence is 2d.
+	 */
+	public static class Builder {
+		private double[] buf;
+		private int count;
+		private boolean all3D = true;
+
+		public Builder() {
+			this(16);
+		}
+
+		/**
+		 * @param capacity the expected number of coordinates
+		 */
+		public Builder(int capacity) {
+			buf = new double[Math.max(capacity, 1) * 3];
+		}
+
+		/**
+		 * Add a 2d coordinate.
+		 *
+		 * @param lon longitude in degrees
+		 * @param lat latitude in degrees
+		 * @return this builder
+		 * @throws IllegalArgumentException if the latitude is beyond the poles
+		 */
+		public Builder add(double lon, double lat) {
+			all3D = false;
+			return put(lon, lat, 0.0);
+		}
+
+		/**
+		 * Add a 3d coordinate.
+		 *
+		 * @param lon       longitude in degrees
+		 * @param lat       latitude in degrees
+		 * @param elevation elevation in meters
+		 * @return this builder
+		 * @throws IllegalArgumentException if the latitude is beyond the poles
+		 */
+		public Builder add(double lon, double lat, double elevation) {
+			return put(lon, lat, elevation);
+		}
+
+		private Builder put(double lon, double lat, double elevation) {
+			if (count * 3 == buf.length) {
+				buf = Arrays.copyOf(buf, buf.length * 2);
+			}
+			int k = count * 3;
+			buf[k] = toLongitudeRadians(lon);
+			buf[k + 1] = toLatitudeRadians(lat);
+			buf[k + 2] = elevation;
+			count++;
+			return this;
+		}
+
+		/**
+		 * @return the number of coordinates added so far
+		 */
+		public int size() {
+			return count;
+		}
+
+		/**
+		 * @return the sequence of the coordinates added so far, never null
+		 */
+		@NonNull
+		public CoordinateSequence build() {
+			boolean threeD = all3D && count > 0;
+			double[] coords;
+			if (threeD) {
+				coords = Arrays.copyOf(buf, count * 3);
+			} else {
+				coords = new double[count * 2];
+				for (int i = 0; i < count; i++) {
+					coords[i * 2] = buf[i * 3];
+					coords[i * 2 + 1] = buf[i * 3 + 1];
+				}
+			}
+			return new CoordinateSequence(coords, count, threeD);
+		}
+	}
+
+	/**
+	 * List view over a sequence, points are created as they are accessed.
+	 * Equality and hash codes follow the {@link List} contract so a geometry
+	 * backed by a sequence is equal to one backed by the same points.
+	 */
+	private static class PointList extends AbstractList<Point> implements RandomAccess, Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final CoordinateSequence seq;
+
+		PointList(CoordinateSequence seq) {
+			this.seq = seq;
+		}
+
+		@Override
+		public Point get(int index) {
+			return seq.getPoint(index);
+		}
+
+		@Override
+		public int size() {
+			return seq.size();
+		}
+	}
+}
@@ -81,6 +81,21 @@ public class Line extends GeometryBase implements Iterable<Point> {
         init(pts);
     }
 
+    /**
+     * This Constructor takes a packed coordinate sequence and initializes a Line
+     * backed by it. The points returned by {@link #getPoints()} are created as
+     * they are accessed.
+     *
+     * @param coords the coordinates of this Line, never null
+     * @throws IllegalArgumentException error if coords is null or has fewer than 2 coordinates
+     */
+    public Line(CoordinateSequence coords) throws IllegalArgumentException {
+        if (coords == null || coords.size() < 2)
+            throw new IllegalArgumentException("Line must contain at least 2 Points");
+        is3D = coords.is3D();
+        pointList = coords.asPointList();
+    }
+
 	/**
      * This Constructor takes a bounding box and initializes a Line Object
      * for it. This points will be in a clockwise direction starting at the
@@ -150,6 +165,18 @@ public class Line extends GeometryBase implements Iterable<Point> {
 		return Collections.unmodifiableList(pointList);
 	}
 
+	/**
+	 * This method returns the coordinates of this line as a packed sequence.
+	 * If the line was created from a {@code CoordinateSequence} then that
+	 * sequence is returned, otherwise one is created from the points.
+	 *
+	 * @return the coordinate sequence, never null
+	 */
+    @NonNull
+	public CoordinateSequence getCoordinates() {
+		return CoordinateSequence.fromPoints(pointList);
+	}
+
     /**
      * Initialize given a set of points
      * @param pts
@@ -34,7 +34,9 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
@@ -85,6 +87,12 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
     @NonNull
     private List<Point> pointList;
 
+    /**
+     * Packed coordinates of the points, created when first needed so the
+     * topological predicates do not copy the points on every call
+     */
+    private transient CoordinateSequence coordinates;
+
     private boolean idlWrap;  // International Date Line Wrap
 
 	/**
@@ -130,6 +138,32 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
         init(pts, validateTopology);
     }
 
+    /**
+     * This Constructor takes a packed coordinate sequence and initializes a Ring backed
+     * by it. The points returned by {@link #getPoints()} are created as they are
+     * accessed. By default, it does not do topology validation.
+     *
+     * @param coords the coordinates to use as Ring vertices, never null
+     * @throws IllegalArgumentException error if coords is null
+     *          or number of coordinates is less than 4
+     */
+    public LinearRing(CoordinateSequence coords) throws IllegalArgumentException {
+        init(coords, false);
+    }
+
+    /**
+     * This Constructor takes a packed coordinate sequence and initializes a Ring backed
+     * by it, performing topology validation if requested.
+     *
+     * @param coords           the coordinates to use as Ring vertices, never null
+     * @param validateTopology boolean flag indicating that Ring topology should be validated
+     * @throws IllegalArgumentException error if coords is null
+     *          or number of coordinates is less than 4
+     */
+    public LinearRing(CoordinateSequence coords, boolean validateTopology) throws IllegalArgumentException {
+        init(coords, validateTopology);
+    }
+
     /**
      * This Constructor takes a bounding box and initializes a LinearRing Object
      * for it. This ring points will be clockwise direction starting at the
@@ -194,50 +228,55 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
 		return Collections.unmodifiableList(pointList);
 	}
 
+	/**
+	 * This method returns the coordinates of this ring as a packed sequence.
+	 * If the ring was created from a {@code CoordinateSequence} then that
+	 * sequence is returned, otherwise one is created from the points on the
+	 * first call.
+	 *
+	 * @return the coordinate sequence, never null
+	 */
+    @NonNull
+	public CoordinateSequence getCoordinates() {
+		CoordinateSequence coords = coordinates;
+		if (coords == null) {
+			// the sequence is immutable so a race only creates it twice
+			coordinates = coords = CoordinateSequence.fromPoints(pointList);
+		}
+		return coords;
+	}
+
     // This method will check that this LinearRing is closed and non-self-intersecting.
-    private void validateTopology(List<Point> pts) throws IllegalArgumentException {
+    private void validateTopology(CoordinateSequence pts) throws IllegalArgumentException {
         int n = pts.size();
         // Verify that ring is closed, i.e. that beginning and ending point are equal
-        if (!pts.get(0).equals(pts.get(n - 1)))
+        if (!pts.isClosed())
             throw new IllegalArgumentException("LinearRing must start and end with the same point.");
 
-        // Look at each line segment in turn, and compare to every other non-neighbor
         // For neighbor segments, make sure distance to non-shared endpoint is positive.
-        // This requires (n*(n-1)/2) comparisons
 		// TODO: if points are at polar projection and wrap IDL then test fails
-        Geodetic2DPoint gp1, gp2, gp3, gp4;
         for (int i = 0; i < n - 2; i++) {
-            gp1 = pts.get(i).asGeodetic2DPoint();
-            double x1 = gp1.getLongitude().inRadians();
-            double y1 = gp1.getLatitude().inRadians();
-            gp2 = pts.get(i + 1).asGeodetic2DPoint();
-            double x2 = gp2.getLongitude().inRadians();
-            double y2 = gp2.getLatitude().inRadians();
-            for (int j = i + 1; j < n - 1; j++) {
-                gp3 = pts.get(j).asGeodetic2DPoint();
-                double x3 = gp3.getLongitude().inRadians();
-                double y3 = gp3.getLatitude().inRadians();
-                gp4 = pts.get(j + 1).asGeodetic2DPoint();
-                double x4 = gp4.getLongitude().inRadians();
-                double y4 = gp4.getLatitude().inRadians();
-                boolean inv;
-                if ((j - i) == 1) {
-                    // make sure non-zero distance from (x1, y1)->(x2, y2) to (x4, y4)
-                    inv = (ptLineDist(x1, y1, x2, y2, x4, y4) == 0.0);
-                } else if ((i == 0) && (j == (n - 2))) {
-                    // make sure non-zero distance from (x1, y1)->(x2, y2) to (x3, y3)
-                    inv = (ptLineDist(x1, y1, x2, y2, x3, y3) == 0.0);
-                } else {
-                    // make sure non-adjacent segments do not intersect
-                    inv = linesIntersect(x1, y1, x2, y2, x3, y3, x4, y4);
-                }
-                if (inv) {
-                    if (log.isDebugEnabled())
-                        log.debug(String.format("LinearRing self-intersects at i=%d j=%d", i, j));
-                    throw new IllegalArgumentException("LinearRing cannot self-intersect");
-                }
+            double x1 = pts.getLongitudeRadians(i);
+            double y1 = pts.getLatitudeRadians(i);
+            double x2 = pts.getLongitudeRadians(i + 1);
+            double y2 = pts.getLatitudeRadians(i + 1);
+            // make sure non-zero distance from (x1, y1)->(x2, y2) to the end of the next segment
+            boolean inv = ptLineDist(x1, y1, x2, y2, pts.getLongitudeRadians(i + 2),
+                    pts.getLatitudeRadians(i + 2)) == 0.0;
+            if (!inv && i == 0) {
+                // make sure non-zero distance from (x1, y1)->(x2, y2) to the start of the last segment
+                inv = ptLineDist(x1, y1, x2, y2, pts.getLongitudeRadians(n - 2),
+                        pts.getLatitudeRadians(n - 2)) == 0.0;
+            }
+            if (inv) {
+                if (log.isDebugEnabled())
+                    log.debug(String.format("LinearRing self-intersects at segment i=%d", i));
+                throw new IllegalArgumentException("LinearRing cannot self-intersect");
             }
         }
+        // make sure non-adjacent segments do not intersect
+        if (sweep(Collections.singletonList(pts), true, false))
+            throw new IllegalArgumentException("LinearRing cannot self-intersect");
     }
 
     /**
@@ -250,7 +289,7 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
     private void init(List<Point> pts, boolean validateTopology) throws IllegalArgumentException {
         if (pts == null || pts.size() < 4)
             throw new IllegalArgumentException("LinearRing must contain at least 4 Points");
-        if (validateTopology) validateTopology(pts);
+        if (validateTopology) validateTopology(CoordinateSequence.fromPoints(pts));
         else {
             int n = pts.size();
             // ring expected to be closed, i.e. that beginning and ending point are equal
@@ -273,6 +312,27 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
             }
         }
         pointList = pts;
+        coordinates = null;
+    }
+
+    /**
+     * Private init method shared by the coordinate sequence Constructors
+     * @param coords
+     * @param validateTopology
+     * @throws IllegalArgumentException error if coords is null
+     *          or number of coordinates is less than 4
+     */
+    private void init(CoordinateSequence coords, boolean validateTopology) throws IllegalArgumentException {
+        if (coords == null || coords.size() < 4)
+            throw new IllegalArgumentException("LinearRing must contain at least 4 Points");
+        if (validateTopology) validateTopology(coords);
+        else if (!coords.isClosed()) {
+            log.warn("LinearRing should start and end with the same point, closing the ring");
+            coords = coords.close();
+        }
+        is3D = coords.is3D();
+        pointList = coords.asPointList();
+        coordinates = coords;
     }
 
 	/* (non-Javadoc)
@@ -336,13 +396,11 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
      * @return true if this Ring's points are in clockwise order, false otherwise
      */
     public boolean clockwise() {
-        Geodetic2DPoint gp1, gp2;
+        CoordinateSequence coords = getCoordinates();
         double doubleArea = 0.0;
-        for (int i = 0; i < pointList.size() - 1; i++) {
-            gp1 = pointList.get(i).asGeodetic2DPoint();
-            gp2 = pointList.get(i + 1).asGeodetic2DPoint();
-            doubleArea += gp1.getLongitude().inRadians() * gp2.getLatitude().inRadians();
-            doubleArea -= gp1.getLatitude().inRadians() * gp2.getLongitude().inRadians();
+        for (int i = 0; i < coords.size() - 1; i++) {
+            doubleArea += coords.getLongitudeRadians(i) * coords.getLatitudeRadians(i + 1);
+            doubleArea -= coords.getLatitudeRadians(i) * coords.getLongitudeRadians(i + 1);
         }
         return (doubleArea < 0);
     }
@@ -356,20 +414,22 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
      * @return true if the test point is inside of this ring of points
      */
     public boolean contains(Geodetic2DPoint p) {
+        return contains(getCoordinates(), p.getLongitude().inRadians(), p.getLatitude().inRadians());
+    }
+
+    static boolean contains(CoordinateSequence coords, double x, double y) {
         boolean in = false;
-        double x = p.getLongitude().inRadians();
-        double y = p.getLatitude().inRadians();
-        Geodetic2DPoint gp1, gp2;
-        for (int i = 0; i < pointList.size() - 1; i++) {
-            gp1 = pointList.get(i).asGeodetic2DPoint();
-            gp2 = pointList.get(i + 1).asGeodetic2DPoint();
-            double xi = gp1.getLongitude().inRadians();
-            double yi = gp1.getLatitude().inRadians();
-            double xj = gp2.getLongitude().inRadians();
-            double yj = gp2.getLatitude().inRadians();
+        if (coords.size() == 0) return in;
+        double xi = coords.getLongitudeRadians(0);
+        double yi = coords.getLatitudeRadians(0);
+        for (int i = 0; i < coords.size() - 1; i++) {
+            double xj = coords.getLongitudeRadians(i + 1);
+            double yj = coords.getLatitudeRadians(i + 1);
             if ((((yi <= y) && (y < yj)) || ((yj <= y) && (y < yi))) &&
                     (x < (xj - xi) * (y - yi) / (yj - yi) + xi))
                 in = !in;
+            xi = xj;
+            yi = yj;
         }
         return in;
     }
@@ -381,28 +441,140 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
      * @return true if this Ring overlaps the specified Ring 'that'
      */
     public boolean overlaps(LinearRing that) {
-        // Compare each segment in this ring to every segment in that ring to see if they cross.
-        // Short-circuit exit as soon as any pair of segments being compared cross.
-        Geodetic2DPoint gp1, gp2, gp3, gp4;
-        int n1 = this.pointList.size();
-        int n2 = that.pointList.size();
-        for (int i = 0; i < n1 - 1; i++) {
-            gp1 = this.pointList.get(i).asGeodetic2DPoint();
-            double x1 = gp1.getLongitude().inRadians();
-            double y1 = gp1.getLatitude().inRadians();
-            gp2 = this.pointList.get(i + 1).asGeodetic2DPoint();
-            double x2 = gp2.getLongitude().inRadians();
-            double y2 = gp2.getLatitude().inRadians();
-            for (int j = 0; j < n2 - 1; j++) {
-                gp3 = that.pointList.get(j).asGeodetic2DPoint();
-                double x3 = gp3.getLongitude().inRadians();
-                double y3 = gp3.getLatitude().inRadians();
-                gp4 = that.pointList.get(j + 1).asGeodetic2DPoint();
-                double x4 = gp4.getLongitude().inRadians();
-                double y4 = gp4.getLatitude().inRadians();
-                if (linesIntersect(x1, y1, x2, y2, x3, y3, x4, y4))
+        return overlaps(this.getCoordinates(), that.getCoordinates());
+    }
+
+    private static boolean overlaps(CoordinateSequence c1, CoordinateSequence c2) {
+        // Compare the segments in this ring to the segments in that ring with overlapping
+        // bounding boxes to see if they cross, if the rings' bounding boxes overlap.
+        int n1 = c1.size();
+        int n2 = c2.size();
+        if (n1 < 2 || n2 < 2) return false;
+        double b1[] = getBounds(c1);
+        double b2[] = getBounds(c2);
+        if (b1[1] < b2[0] || b1[0] > b2[1] || b1[3] < b2[2] || b1[2] > b2[3])
+            return false;
+        return sweep(Arrays.asList(c1, c2), false, false);
+    }
+
+    /**
+     * @return the smallest and largest longitude and latitude in radians
+     */
+    private static double[] getBounds(CoordinateSequence c) {
+        double b[] = { Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE };
+        for (int i = 0; i < c.size(); i++) {
+            double x = c.getLongitudeRadians(i);
+            double y = c.getLatitudeRadians(i);
+            if (x < b[0]) b[0] = x;
+            if (x > b[1]) b[1] = x;
+            if (y < b[2]) b[2] = y;
+            if (y > b[3]) b[3] = y;
+        }
+        return b;
+    }
+
+    /**
+     * Test whether any segment of the first ring crosses a segment of
+     * another ring, or with <code>firstOnly</code> false whether any two of
+     * the rings cross.
+     *
+     * @param rings the rings
+     * @param firstOnly true to only test segments of the first ring against
+     *                  the others
+     * @return true if a pair of segments from different rings intersects
+     */
+    static boolean crosses(List<CoordinateSequence> rings, boolean firstOnly) {
+        return sweep(rings, false, firstOnly);
+    }
+
+    /**
+     * Sweep over the segments of the rings in order of their smallest
+     * longitude, keeping the segments whose longitude range reaches the
+     * current one, and test each pair whose bounding boxes overlap. This is
+     * O(n log n) plus the number of pairs tested rather than testing all
+     * n<sup>2</sup> pairs. Pairs are tested in the order of the rings and
+     * segments so the result is the same as testing them all.
+     *
+     * @param rings the rings
+     * @param self  true to test the non-adjacent segments of a single closed
+     *              ring, false to test segments from different rings
+     * @param firstOnly true to only test segments of the first ring against
+     *                  the others
+     * @return true if a tested pair of segments intersects
+     */
+    private static boolean sweep(List<CoordinateSequence> rings, boolean self, boolean firstOnly) {
+        int total = 0;
+        for (CoordinateSequence c : rings) {
+            if (c.size() > 1) total += c.size() - 1;
+        }
+        final double minX[] = new double[total];
+        double maxX[] = new double[total];
+        double minY[] = new double[total];
+        double maxY[] = new double[total];
+        int ring[] = new int[total];
+        int seg[] = new int[total];
+        Integer order[] = new Integer[total];
+        int k = 0;
+        for (int r = 0; r < rings.size(); r++) {
+            CoordinateSequence c = rings.get(r);
+            for (int i = 0; i < c.size() - 1; i++) {
+                double x1 = c.getLongitudeRadians(i);
+                double y1 = c.getLatitudeRadians(i);
+                double x2 = c.getLongitudeRadians(i + 1);
+                double y2 = c.getLatitudeRadians(i + 1);
+                minX[k] = Math.min(x1, x2);
+                maxX[k] = Math.max(x1, x2);
+                minY[k] = Math.min(y1, y2);
+                maxY[k] = Math.max(y1, y2);
+                ring[k] = r;
+                seg[k] = i;
+                order[k] = k;
+                k++;
+            }
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(minX[a], minX[b]);
+            }
+        });
+        int active[] = new int[total];
+        int count = 0;
+        for (Integer o : order) {
+            int s = o;
+            int keep = 0;
+            for (int a = 0; a < count; a++) {
+                int t = active[a];
+                // segments are added by smallest longitude so this one is done
+                if (maxX[t] < minX[s]) continue;
+                active[keep++] = t;
+                if (maxY[t] < minY[s] || minY[t] > maxY[s]) continue;
+                if (self) {
+                    int d = Math.abs(seg[t] - seg[s]);
+                    if (d == 1 || d == total - 1) continue; // neighbors
+                } else if (ring[t] == ring[s] || (firstOnly && ring[t] != 0 && ring[s] != 0)) {
+                    continue;
+                }
+                int p = t;
+                int q = s;
+                if (ring[t] > ring[s] || (ring[t] == ring[s] && seg[t] > seg[s])) {
+                    p = s;
+                    q = t;
+                }
+                CoordinateSequence c1 = rings.get(ring[p]);
+                CoordinateSequence c2 = rings.get(ring[q]);
+                int i = seg[p];
+                int j = seg[q];
+                if (linesIntersect(c1.getLongitudeRadians(i), c1.getLatitudeRadians(i),
+                        c1.getLongitudeRadians(i + 1), c1.getLatitudeRadians(i + 1),
+                        c2.getLongitudeRadians(j), c2.getLatitudeRadians(j),
+                        c2.getLongitudeRadians(j + 1), c2.getLatitudeRadians(j + 1))) {
+                    if (log.isDebugEnabled())
+                        log.debug(String.format("Segments intersect at i=%d j=%d", i, j));
                     return true;
+                }
             }
+            count = keep;
+            active[count++] = s;
         }
         return false;
     }
@@ -418,8 +590,10 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
      */
     public boolean contains(LinearRing that) {
         // If not overlapping, then all points are either in or they're out, so only test one
-        return (!this.overlaps(that) &&
-                this.contains(that.pointList.get(0).asGeodetic2DPoint()));
+        CoordinateSequence c1 = this.getCoordinates();
+        CoordinateSequence c2 = that.getCoordinates();
+        return (!overlaps(c1, c2) &&
+                contains(c1, c2.getLongitudeRadians(0), c2.getLatitudeRadians(0)));
     }
 
     /**
@@ -431,9 +605,11 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
      */
     public boolean intersects(LinearRing that) {
         // If not overlapping, then see if a point from this is in that, or vice versa
-        return (this.overlaps(that) ||
-                this.contains(that.pointList.get(0).asGeodetic2DPoint()) ||
-                that.contains(this.pointList.get(0).asGeodetic2DPoint()));
+        CoordinateSequence c1 = this.getCoordinates();
+        CoordinateSequence c2 = that.getCoordinates();
+        return (overlaps(c1, c2) ||
+                contains(c1, c2.getLongitudeRadians(0), c2.getLatitudeRadians(0)) ||
+                contains(c2, c1.getLongitudeRadians(0), c1.getLatitudeRadians(0)));
     }
 
 	/**
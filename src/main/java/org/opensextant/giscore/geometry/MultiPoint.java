@@ -74,6 +74,21 @@ public class MultiPoint extends Geometry implements Iterable<Point> {
         init(pts);
     }
 
+    /**
+     * This Constructor takes a packed coordinate sequence and initializes a MultiPoint
+     * backed by it. The points returned by {@link #getPoints()} are created as
+     * they are accessed.
+     *
+     * @param coords the coordinates of this MultiPoint, never null
+     * @throws IllegalArgumentException error if coords is null or empty
+     */
+    public MultiPoint(CoordinateSequence coords) throws IllegalArgumentException {
+        if (coords == null || coords.size() == 0)
+            throw new IllegalArgumentException("MultiPoint must contain at least 1 Point");
+        is3D = coords.is3D();
+        pointList = coords.asPointList();
+    }
+
     /**
      * This method returns an iterator for cycling through the geodetic Points in this MultiPoint.
      * This class supports use of Java 'for each' syntax to cycle through the geodetic Points.
@@ -97,6 +112,18 @@ public class MultiPoint extends Geometry implements Iterable<Point> {
 		return Collections.unmodifiableList(pointList);
 	}
 
+	/**
+	 * This method returns the coordinates of this {@code MultiPoint} as a packed
+	 * sequence. If it was created from a {@code CoordinateSequence} then that
+	 * sequence is returned, otherwise one is created from the points.
+	 *
+	 * @return the coordinate sequence, never null
+	 */
+    @NonNull
+	public CoordinateSequence getCoordinates() {
+		return CoordinateSequence.fromPoints(pointList);
+	}
+
     /**
      * Initialize
      * @param pts
@@ -173,23 +173,30 @@ public class Polygon extends GeometryBase implements Iterable<LinearRing> {
         // Verify that all the inner rings are in counter-clockwise point order, are fully
         // contained in the outer ring, and are non-intersecting with each other.
 		final int n = rings.size();
-        for (int i = 0; i < n; i++) {
-            LinearRing inner = rings.get(i);
+        if (n == 0) return;
+        CoordinateSequence outer = outerRing.getCoordinates();
+        List<CoordinateSequence> coords = new ArrayList<CoordinateSequence>(n + 1);
+        coords.add(outer);
+        for (LinearRing inner : rings) {
             if (inner.clockwise())
                 throw new IllegalArgumentException("All inner rings in Polygon must be " +
                     "in counter-clockwise point order");
-            // Verify that inner rings are properly contained inside outer ring 
-            if (!outerRing.contains(inner))
+            CoordinateSequence c = inner.getCoordinates();
+            // A ring that does not cross the outer ring is inside if any point is inside
+            if (!LinearRing.contains(outer, c.getLongitudeRadians(0), c.getLatitudeRadians(0)))
                 throw new IllegalArgumentException("All inner rings in Polygon must be " +
                     "properly contained in outer ring");
-            // Verify that inner rings don't overlap with each other
-            if (i < n -1)
-                for (int j = i + 1; j < n; j++) {
-                    if (inner.overlaps(rings.get(j)))
-                        throw new IllegalArgumentException("Inner rings in Polygon must not " +
-                                "overlap with each other");
-                }
+            coords.add(c);
         }
+        // Verify that inner rings are properly contained inside outer ring, testing
+        // only segments with overlapping bounding boxes
+        if (LinearRing.crosses(coords, true))
+            throw new IllegalArgumentException("All inner rings in Polygon must be " +
+                    "properly contained in outer ring");
+        // Verify that inner rings don't overlap with each other
+        if (n > 1 && LinearRing.crosses(coords.subList(1, n + 1), false))
+            throw new IllegalArgumentException("Inner rings in Polygon must not " +
+                    "overlap with each other");
     }
 
     // Private init method shared by Constructors
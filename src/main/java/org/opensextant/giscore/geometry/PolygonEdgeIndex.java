@@ -0,0 +1,248 @@
+/****************************************************************************************
+ *  PolygonEdgeIndex.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.geometry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.opensextant.geodesy.Geodetic2DPoint;
+
+/**
+ * The edges of the rings of one or more polygons in primitive arrays, indexed
+ * by bands of latitude. A point is tested by counting the crossings of the
+ * edges in its band, which is the same test as
+ * {@link LinearRing#contains(Geodetic2DPoint)} for each ring, without walking
+ * every edge. The index is immutable and may be shared between threads.
+ */
+final class PolygonEdgeIndex {
+
+	/**
+	 * Bound on the average number of bands each edge is listed in, which
+	 * limits the number of bands when edges are long
+	 */
+	private static final int MAX_ENTRIES_PER_EDGE = 4;
+
+	private static final int MAX_BANDS = 1 << 16;
+
+	/**
+	 * Start and end longitude and latitude of each edge in radians
+	 */
+	private final double edges[];
+
+	/**
+	 * Ring of each edge
+	 */
+	private final int edgeRing[];
+
+	/**
+	 * Polygon of each ring
+	 */
+	private final int ringPolygon[];
+
+	/**
+	 * Whether each ring is a hole, the outer ring of a polygon comes first
+	 */
+	private final boolean ringHole[];
+
+	private final double minY;
+
+	private final double maxY;
+
+	private final double scale;
+
+	/**
+	 * The edges of band i are <code>bandEdges[bandStart[i]]</code> up to
+	 * <code>bandEdges[bandStart[i + 1]]</code>, in ring order.
+	 */
+	private final int bandStart[];
+
+	private final int bandEdges[];
+
+	/**
+	 * Ctor
+	 *
+	 * @param polygons the polygons, never <code>null</code>
+	 * @throws IllegalArgumentException if polygons is null
+	 */
+	PolygonEdgeIndex(Collection<Polygon> polygons) {
+		if (polygons == null)
+			throw new IllegalArgumentException("polygons should never be null");
+		List<CoordinateSequence> rings = new ArrayList<CoordinateSequence>();
+		List<Integer> polygonIndex = new ArrayList<Integer>();
+		int p = 0;
+		for (Polygon polygon : polygons) {
+			rings.add(polygon.getOuterRing().getCoordinates());
+			polygonIndex.add(p);
+			for (LinearRing ring : polygon.getLinearRings()) {
+				rings.add(ring.getCoordinates());
+				polygonIndex.add(p);
+			}
+			p++;
+		}
+		ringPolygon = new int[rings.size()];
+		ringHole = new boolean[rings.size()];
+		// horizontal edges never cross the ray from a point so are left out
+		int n = 0;
+		for (int r = 0; r < rings.size(); r++) {
+			ringPolygon[r] = polygonIndex.get(r);
+			ringHole[r] = r > 0 && ringPolygon[r - 1] == ringPolygon[r];
+			CoordinateSequence c = rings.get(r);
+			for (int i = 0; i < c.size() - 1; i++) {
+				if (c.getLatitudeRadians(i) != c.getLatitudeRadians(i + 1)) n++;
+			}
+		}
+		edges = new double[4 * n];
+		edgeRing = new int[n];
+		double low = Double.MAX_VALUE;
+		double high = -Double.MAX_VALUE;
+		int e = 0;
+		for (int r = 0; r < rings.size(); r++) {
+			CoordinateSequence c = rings.get(r);
+			for (int i = 0; i < c.size() - 1; i++) {
+				double yi = c.getLatitudeRadians(i);
+				double yj = c.getLatitudeRadians(i + 1);
+				if (yi == yj) continue;
+				edges[4 * e] = c.getLongitudeRadians(i);
+				edges[4 * e + 1] = yi;
+				edges[4 * e + 2] = c.getLongitudeRadians(i + 1);
+				edges[4 * e + 3] = yj;
+				edgeRing[e++] = r;
+				low = Math.min(low, Math.min(yi, yj));
+				high = Math.max(high, Math.max(yi, yj));
+			}
+		}
+		minY = low;
+		maxY = high;
+		// one band per edge unless the edges are long compared to the height
+		double span = 0;
+		for (e = 0; e < n; e++) {
+			span += Math.abs(edges[4 * e + 3] - edges[4 * e + 1]);
+		}
+		double height = maxY - minY;
+		int bands = Math.max(1, Math.min(n, MAX_BANDS));
+		if (n > 0 && span * bands > MAX_ENTRIES_PER_EDGE * n * height) {
+			bands = Math.max(1, (int) (MAX_ENTRIES_PER_EDGE * n * height / span));
+		}
+		scale = n == 0 ? 0 : bands / height;
+		bandStart = new int[bands + 1];
+		for (e = 0; e < n; e++) {
+			int last = lastBand(e);
+			for (int b = firstBand(e); b <= last; b++) {
+				bandStart[b + 1]++;
+			}
+		}
+		for (int b = 0; b < bands; b++) {
+			bandStart[b + 1] += bandStart[b];
+		}
+		bandEdges = new int[bandStart[bands]];
+		int fill[] = new int[bands];
+		System.arraycopy(bandStart, 0, fill, 0, bands);
+		for (e = 0; e < n; e++) {
+			int last = lastBand(e);
+			for (int b = firstBand(e); b <= last; b++) {
+				bandEdges[fill[b]++] = e;
+			}
+		}
+	}
+
+	private int firstBand(int e) {
+		return band(Math.min(edges[4 * e + 1], edges[4 * e + 3]));
+	}
+
+	private int lastBand(int e) {
+		return band(Math.max(edges[4 * e + 1], edges[4 * e + 3]));
+	}
+
+	private int band(double y) {
+		int b = (int) ((y - minY) * scale);
+		return b < 0 ? 0 : Math.min(b, bandStart.length - 2);
+	}
+
+	/**
+	 * Test whether a point is inside the outer ring of one of the polygons
+	 * and not inside any of its holes.
+	 *
+	 * @param x longitude in radians
+	 * @param y latitude in radians
+	 * @return true if the point is contained
+	 */
+	boolean contains(double x, double y) {
+		if (!(y >= minY && y < maxY)) return false;
+		int b = band(y);
+		int end = bandStart[b + 1];
+		int ring = -1;
+		boolean in = false;
+		boolean inOuter = false;
+		for (int k = bandStart[b]; k < end; k++) {
+			int e = bandEdges[k];
+			int r = edgeRing[e];
+			if (r != ring) {
+				if (ring != -1) {
+					if (ringPolygon[r] != ringPolygon[ring]) {
+						// all rings of the last polygon are done
+						if (ringHole[ring] ? inOuter && !in : in) return true;
+						inOuter = false;
+					} else if (in) {
+						if (ringHole[ring]) inOuter = false;
+						else inOuter = true;
+					}
+				}
+				ring = r;
+				in = false;
+			}
+			double yi = edges[4 * e + 1];
+			double yj = edges[4 * e + 3];
+			if (((yi <= y) && (y < yj)) || ((yj <= y) && (y < yi))) {
+				double xi = edges[4 * e];
+				double xj = edges[4 * e + 2];
+				if (x < (xj - xi) * (y - yi) / (yj - yi) + xi) in = !in;
+			}
+		}
+		return ring != -1 && (ringHole[ring] ? inOuter && !in : in);
+	}
+
+	/**
+	 * Test points given in degrees.
+	 *
+	 * @param lonLat longitude and latitude pairs in degrees
+	 * @param results the result for each point, may be <code>null</code>
+	 * @return the number of points contained
+	 * @throws IllegalArgumentException if the array length is odd, the result
+	 *                                  array is too short or a latitude is
+	 *                                  beyond the poles
+	 */
+	int containsAll(double lonLat[], boolean results[]) {
+		if (lonLat == null)
+			throw new IllegalArgumentException("coordinates should never be null");
+		if (lonLat.length % 2 != 0)
+			throw new IllegalArgumentException("coordinate array length must be a multiple of 2");
+		int n = lonLat.length / 2;
+		if (results != null && results.length < n)
+			throw new IllegalArgumentException("results array must have room for " + n + " points");
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			boolean in = contains(CoordinateSequence.toLongitudeRadians(lonLat[2 * i]),
+					CoordinateSequence.toLatitudeRadians(lonLat[2 * i + 1]));
+			if (in) count++;
+			if (results != null) results[i] = in;
+		}
+		return count;
+	}
+
+	boolean contains(Geodetic2DPoint p) {
+		return contains(p.getLongitude().inRadians(), p.getLatitude().inRadians());
+	}
+}
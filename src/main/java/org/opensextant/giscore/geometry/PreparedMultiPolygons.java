@@ -0,0 +1,87 @@
+/****************************************************************************************
+ *  PreparedMultiPolygons.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.geometry;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import org.opensextant.geodesy.Geodetic2DPoint;
+
+/**
+ * A MultiPolygons prepared for testing many points. The edges of the rings
+ * of all the polygons share one index of latitude bands, so a point test only
+ * looks at the edges near the point's latitude whatever the number of
+ * polygons.
+ * <p/>
+ * A point is contained if it is contained by any of the polygons as by
+ * {@link PreparedPolygon#contains(Geodetic2DPoint)}.
+ * <p/>
+ * Instances are immutable and may be shared between threads. Later changes
+ * to the polygons are not seen.
+ */
+public class PreparedMultiPolygons {
+
+    @NonNull
+    private final MultiPolygons polygons;
+
+    private final PolygonEdgeIndex index;
+
+    /**
+     * Prepare a MultiPolygons
+     *
+     * @param polygons the polygons, never <code>null</code>
+     * @throws IllegalArgumentException if polygons is null
+     */
+    public PreparedMultiPolygons(MultiPolygons polygons) {
+        if (polygons == null)
+            throw new IllegalArgumentException("polygons should never be null");
+        this.polygons = polygons;
+        index = new PolygonEdgeIndex(polygons.getPolygons());
+    }
+
+    /**
+     * @return the polygons, never <code>null</code>
+     */
+    @NonNull
+    public MultiPolygons getPolygons() {
+        return polygons;
+    }
+
+    /**
+     * Test whether any of the polygons contains a point.
+     *
+     * @param p the point, never <code>null</code>
+     * @return true if the point is inside the outer ring and not in a hole
+     *         of one of the polygons
+     */
+    public boolean contains(Geodetic2DPoint p) {
+        return index.contains(p);
+    }
+
+    /**
+     * Test whether the polygons contain each of many points.
+     *
+     * @param lonLat  longitude and latitude pairs in degrees
+     * @param results array for the result of each point, may be
+     *                <code>null</code> to only count the points contained
+     * @return the number of points contained, which is half the array length
+     *         if all points are contained
+     * @throws IllegalArgumentException if the array length is odd, the result
+     *                                  array is too short or a latitude is
+     *                                  beyond the poles
+     */
+    public int containsAll(double[] lonLat, boolean[] results) {
+        return index.containsAll(lonLat, results);
+    }
+}
@@ -0,0 +1,91 @@
+/****************************************************************************************
+ *  PreparedPolygon.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.geometry;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.util.Collections;
+
+import org.opensextant.geodesy.Geodetic2DPoint;
+
+/**
+ * A Polygon prepared for testing many points. The edges of its rings are
+ * copied into primitive arrays and indexed by bands of latitude, so a point
+ * test only looks at the edges near the point's latitude instead of walking
+ * every edge of every ring.
+ * <p/>
+ * A point is contained if it is inside the outer ring and not inside any of
+ * the inner rings, where inside a ring is as by
+ * {@link LinearRing#contains(Geodetic2DPoint)}. Like the other topological
+ * predicates this assumes the polygon does not wrap around the international
+ * date line.
+ * <p/>
+ * Instances are immutable and may be shared between threads. Later changes
+ * to the polygon are not seen.
+ */
+public class PreparedPolygon {
+
+    @NonNull
+    private final Polygon polygon;
+
+    private final PolygonEdgeIndex index;
+
+    /**
+     * Prepare a polygon
+     *
+     * @param polygon the polygon, never <code>null</code>
+     * @throws IllegalArgumentException if polygon is null
+     */
+    public PreparedPolygon(Polygon polygon) {
+        if (polygon == null)
+            throw new IllegalArgumentException("polygon should never be null");
+        this.polygon = polygon;
+        index = new PolygonEdgeIndex(Collections.singletonList(polygon));
+    }
+
+    /**
+     * @return the polygon, never <code>null</code>
+     */
+    @NonNull
+    public Polygon getPolygon() {
+        return polygon;
+    }
+
+    /**
+     * Test whether the polygon contains a point.
+     *
+     * @param p the point, never <code>null</code>
+     * @return true if the point is inside the outer ring and not in a hole
+     */
+    public boolean contains(Geodetic2DPoint p) {
+        return index.contains(p);
+    }
+
+    /**
+     * Test whether the polygon contains each of many points.
+     *
+     * @param lonLat  longitude and latitude pairs in degrees
+     * @param results array for the result of each point, may be
+     *                <code>null</code> to only count the points contained
+     * @return the number of points contained, which is half the array length
+     *         if all points are contained
+     * @throws IllegalArgumentException if the array length is odd, the result
+     *                                  array is too short or a latitude is
+     *                                  beyond the poles
+     */
+    public int containsAll(double[] lonLat, boolean[] results) {
+        return index.containsAll(lonLat, results);
+    }
+}
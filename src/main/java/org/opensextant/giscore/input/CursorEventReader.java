@@ -0,0 +1,216 @@
+/****************************************************************************************
+ *  CursorEventReader.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+/**
+ * Event reader that keeps hold of the underlying <code>XMLStreamReader</code>
+ * cursor so callers can skip content, read element text and step over
+ * whitespace, comments and processing instructions without allocating an
+ * <code>XMLEvent</code> for every node. Events returned through the normal
+ * <code>XMLEventReader</code> methods are identical to those of an event
+ * reader created directly from the same input.
+ * <p>
+ * The cursor is only used directly when no event has been peeked ahead,
+ * otherwise the operations fall back to the event API.
+ */
+public class CursorEventReader extends EventReaderDelegate {
+
+	private final SkippingStreamReader cursor;
+
+	/**
+	 * True if the cursor is positioned at the last event returned, i.e.
+	 * an event has been consumed and none has been peeked since.
+	 */
+	private boolean synced;
+
+	/**
+	 * Create event reader over a new cursor from the given factory.
+	 *
+	 * @param factory XML input factory, never <code>null</code>
+	 * @param reader  the cursor, never <code>null</code>
+	 * @throws XMLStreamException if the event reader cannot be created
+	 */
+	public CursorEventReader(XMLInputFactory factory, XMLStreamReader reader)
+			throws XMLStreamException {
+		this(factory, new SkippingStreamReader(reader));
+	}
+
+	private CursorEventReader(XMLInputFactory factory, SkippingStreamReader cursor)
+			throws XMLStreamException {
+		super(factory.createXMLEventReader(cursor));
+		this.cursor = cursor;
+	}
+
+	public XMLEvent nextEvent() throws XMLStreamException {
+		XMLEvent event = super.nextEvent();
+		synced = true;
+		return event;
+	}
+
+	public Object next() {
+		Object event = super.next();
+		synced = true;
+		return event;
+	}
+
+	public XMLEvent nextTag() throws XMLStreamException {
+		XMLEvent event = super.nextTag();
+		synced = true;
+		return event;
+	}
+
+	public XMLEvent peek() throws XMLStreamException {
+		XMLEvent event = super.peek();
+		if (event != null) synced = false;
+		return event;
+	}
+
+	public String getElementText() throws XMLStreamException {
+		if (synced && cursor.getEventType() == XMLStreamConstants.START_ELEMENT) {
+			// avoids allocating the end element event
+			return cursor.getElementText();
+		}
+		String text = super.getElementText();
+		synced = true;
+		return text;
+	}
+
+	/**
+	 * Return the next start or end element, end document or <code>null</code>
+	 * if the end of the stream is reached. Characters, comments and other
+	 * events in between are skipped and never allocated.
+	 *
+	 * @return next element event
+	 * @throws XMLStreamException if there is an error with the underlying XML
+	 * @throws java.util.NoSuchElementException if there are no more events
+	 */
+	public XMLEvent nextElementEvent() throws XMLStreamException {
+		XMLEvent event;
+		cursor.skipping = true;
+		try {
+			do {
+				// a peeked event is returned first and may be of any type
+				event = nextEvent();
+			} while (!event.isStartElement() && !event.isEndElement()
+					&& !event.isEndDocument());
+		} finally {
+			cursor.skipping = false;
+		}
+		return event;
+	}
+
+	/**
+	 * Skip to the end tag with the given name without allocating events.
+	 *
+	 * @param name the qualified name of the element
+	 * @throws XMLStreamException if there is an error with the underlying XML
+	 */
+	public void skipTo(QName name) throws XMLStreamException {
+		if (!synced) {
+			while (true) {
+				XMLEvent next = nextEvent();
+				if (next == null || next.isEndElement()
+						&& next.asEndElement().getName().equals(name)) {
+					return;
+				}
+			}
+		}
+		while (cursor.hasNext()) {
+			if (cursor.next() == XMLStreamConstants.END_ELEMENT
+					&& name.getLocalPart().equals(cursor.getLocalName())
+					&& name.getNamespaceURI().equals(nullToEmpty(cursor.getNamespaceURI()))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Read the text of the current element into the given buffer, skipping
+	 * comments and processing instructions as <code>getElementText()</code>
+	 * does but without creating a String. The reader must be positioned at a
+	 * start element and is left at the matching end element.
+	 *
+	 * @param buf buffer the text is appended to, never <code>null</code>
+	 * @throws XMLStreamException if the element has child elements or there
+	 *                            is an error with the underlying XML
+	 */
+	public void readElementText(StringBuilder buf) throws XMLStreamException {
+		if (!synced || cursor.getEventType() != XMLStreamConstants.START_ELEMENT) {
+			buf.append(getElementText());
+			return;
+		}
+		while (true) {
+			int type = cursor.next();
+			switch (type) {
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+				case XMLStreamConstants.ENTITY_REFERENCE:
+					buf.append(cursor.getTextCharacters(), cursor.getTextStart(),
+							cursor.getTextLength());
+					break;
+				case XMLStreamConstants.COMMENT:
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					return;
+				case XMLStreamConstants.END_DOCUMENT:
+					throw new XMLStreamException("unexpected end of document when reading element text content",
+							cursor.getLocation());
+				default:
+					throw new XMLStreamException("elementGetText() function expects text only elment but START_ELEMENT was encountered.",
+							cursor.getLocation());
+			}
+		}
+	}
+
+	private static String nullToEmpty(String s) {
+		return s == null ? "" : s;
+	}
+
+	/**
+	 * Cursor that can step over everything but element boundaries when the
+	 * event reader asks for the next event.
+	 */
+	private static class SkippingStreamReader extends StreamReaderDelegate {
+
+		boolean skipping;
+
+		SkippingStreamReader(XMLStreamReader reader) {
+			super(reader);
+		}
+
+		public int next() throws XMLStreamException {
+			int type = super.next();
+			if (skipping) {
+				while (type != START_ELEMENT && type != END_ELEMENT
+						&& type != END_DOCUMENT) {
+					type = super.next();
+				}
+			}
+			return type;
+		}
+	}
+}
@@ -58,6 +58,22 @@ public abstract class XmlInputStream extends GISInputStreamBase {
 	static {
 		ms_fact = XMLInputFactory.newInstance();
 	}
+	/**
+	 * XML parsing engine used to read the stream.
+	 */
+	public enum Engine {
+		/**
+		 * Read all content as <code>XMLEvent</code> objects
+		 */
+		EVENT,
+		/**
+		 * Use the <code>XMLStreamReader</code> cursor directly where possible
+		 * to skip content and read text without allocating events. Produces
+		 * the same objects as {@link #EVENT}.
+		 */
+		CURSOR
+	}
+
 	protected InputStream is;
 	protected XMLEventReader stream;
 
@@ -71,13 +87,27 @@ public abstract class XmlInputStream extends GISInputStreamBase {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public XmlInputStream(InputStream inputStream) throws IOException {
+		this(inputStream, Engine.EVENT);
+	}
+
+	/**
+	 * Ctor
+	 * 
+	 * @param inputStream
+	 * @param engine parsing engine, <code>null</code> for {@link Engine#EVENT}
+	 * @throws IOException if an I/O error occurs
+	 */
+	public XmlInputStream(InputStream inputStream, Engine engine) throws IOException {
 		if (inputStream == null) {
 			throw new IllegalArgumentException(
 					"inputStream should never be null");
 		}
 		is = inputStream;
 		try {
-			this.stream = ms_fact.createXMLEventReader(is);
+			if (engine == Engine.CURSOR)
+				this.stream = new CursorEventReader(ms_fact, ms_fact.createXMLStreamReader(is));
+			else
+				this.stream = ms_fact.createXMLEventReader(is);
 		} catch (XMLStreamException e) {
 			throw new IOException(e);
 		}
@@ -394,6 +424,10 @@ public abstract class XmlInputStream extends GISInputStreamBase {
 	 */
 	protected void skipNextElement(XMLEventReader element, QName name)
 			throws XMLStreamException {
+		if (element instanceof CursorEventReader) {
+			((CursorEventReader) element).skipTo(name);
+			return;
+		}
 		while (true) {
 			XMLEvent next = element.nextEvent();
 			if (next == null || foundEndTag(next, name)) {
@@ -402,4 +436,43 @@ public abstract class XmlInputStream extends GISInputStreamBase {
 		}
 	}
 
-}
\ No newline at end of file
+
+	/**
+	 * Return the next start or end element event skipping any characters,
+	 * comments or other events in between.
+	 *
+	 * @return next start element, end element or end document event
+	 * @throws XMLStreamException
+	 *             if there is an error with the underlying XML.
+	 * @throws java.util.NoSuchElementException
+	 *             if there are no more events
+	 */
+	protected XMLEvent nextElementEvent() throws XMLStreamException {
+		if (stream instanceof CursorEventReader) {
+			return ((CursorEventReader) stream).nextElementEvent();
+		}
+		while (true) {
+			XMLEvent next = stream.nextEvent();
+			if (next.isStartElement() || next.isEndElement() || next.isEndDocument())
+				return next;
+		}
+	}
+
+	/**
+	 * Read text of the current element into a buffer as with
+	 * {@link XMLEventReader#getElementText()}.
+	 *
+	 * @param buf buffer the text is appended to, never <code>null</code>
+	 * @throws XMLStreamException
+	 *             if the current event is not a START_ELEMENT or if a non text
+	 *             element is encountered
+	 */
+	protected void readElementText(StringBuilder buf) throws XMLStreamException {
+		if (stream instanceof CursorEventReader) {
+			((CursorEventReader) stream).readElementText(buf);
+		} else {
+			buf.append(stream.getElementText());
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+/****************************************************************************************
+ *  DbfColumnBatch.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.dbf;
+
+import java.util.List;
+
+import org.opensextant.giscore.events.SimpleField;
+import org.opensextant.giscore.events.SimpleField.Type;
+
+/**
+ * Block of dbf records held as one array per field. Columns of SHORT, INT
+ * and LONG fields are <code>long[]</code>, DOUBLE fields are
+ * <code>double[]</code>, DATE fields are <code>long[]</code> holding
+ * milliseconds since the epoch, BOOL fields are <code>boolean[]</code> and
+ * STRING fields are <code>String[]</code>. Use {@link #isNull(int, int)} to
+ * check for null values in the primitive columns.
+ * <p>
+ * A batch is created by {@link DbfInputStream#createBatch(int)} and reused
+ * for each call to {@link DbfInputStream#readBatch(DbfColumnBatch)}, which
+ * overwrites the values of the previous block. Only the first
+ * {@link #size()} elements of each column are valid.
+ */
+public class DbfColumnBatch {
+
+	/**
+	 * Indexes of the fields in the dbf record
+	 */
+	final int[] indexes;
+
+	private final SimpleField[] fields;
+
+	final Object[] columns;
+
+	final boolean[][] nulls;
+
+	int size;
+
+	DbfColumnBatch(int[] indexes, List<SimpleField> fields, int capacity) {
+		this.indexes = indexes;
+		this.fields = fields.toArray(new SimpleField[fields.size()]);
+		columns = new Object[indexes.length];
+		nulls = new boolean[indexes.length][capacity];
+		for (int i = 0; i < columns.length; i++) {
+			switch (this.fields[i].getType()) {
+				case SHORT:
+				case INT:
+				case LONG:
+				case DATE:
+					columns[i] = new long[capacity];
+					break;
+				case DOUBLE:
+					columns[i] = new double[capacity];
+					break;
+				case BOOL:
+					columns[i] = new boolean[capacity];
+					break;
+				default:
+					columns[i] = new String[capacity];
+			}
+		}
+	}
+
+	/**
+	 * @return number of records in the batch
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return maximum number of records the batch can hold
+	 */
+	public int getCapacity() {
+		return nulls.length == 0 ? 0 : nulls[0].length;
+	}
+
+	public int getColumnCount() {
+		return fields.length;
+	}
+
+	/**
+	 * @param column the zero based column number
+	 * @return the field of the column
+	 */
+	public SimpleField getField(int column) {
+		return fields[column];
+	}
+
+	/**
+	 * @param name the name of a field
+	 * @return the column of the field or -1 if not in the batch
+	 */
+	public int getColumn(String name) {
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].getName().equals(name)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param column the zero based column number
+	 * @param row    the zero based record number within the batch
+	 * @return true if the value is null
+	 */
+	public boolean isNull(int column, int row) {
+		return nulls[column][row];
+	}
+
+	/**
+	 * @param column the zero based column number of a SHORT, INT, LONG or DATE field
+	 * @return the values of the column
+	 * @throws IllegalArgumentException if the column has another type
+	 */
+	public long[] getLongColumn(int column) {
+		return (long[]) getColumn(column, long[].class);
+	}
+
+	/**
+	 * @param column the zero based column number of a DOUBLE field
+	 * @return the values of the column
+	 * @throws IllegalArgumentException if the column has another type
+	 */
+	public double[] getDoubleColumn(int column) {
+		return (double[]) getColumn(column, double[].class);
+	}
+
+	/**
+	 * @param column the zero based column number of a BOOL field
+	 * @return the values of the column
+	 * @throws IllegalArgumentException if the column has another type
+	 */
+	public boolean[] getBooleanColumn(int column) {
+		return (boolean[]) getColumn(column, boolean[].class);
+	}
+
+	/**
+	 * @param column the zero based column number of a STRING field
+	 * @return the values of the column, <code>null</code> elements for null values
+	 * @throws IllegalArgumentException if the column has another type
+	 */
+	public String[] getStringColumn(int column) {
+		return (String[]) getColumn(column, String[].class);
+	}
+
+	private Object getColumn(int column, Class<?> arrayClass) {
+		Object values = columns[column];
+		if (values.getClass() != arrayClass) {
+			Type type = fields[column].getType();
+			throw new IllegalArgumentException("column " + column + " of type "
+					+ type + " is not " + arrayClass.getSimpleName());
+		}
+		return values;
+	}
+}
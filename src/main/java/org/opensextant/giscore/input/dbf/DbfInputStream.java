@@ -18,14 +18,25 @@
  ***************************************************************************************/
 package org.opensextant.giscore.input.dbf;
 
+import edu.umd.cs.findbugs.annotations.NonNull;
+
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 import java.util.TimeZone;
 
 import org.opensextant.giscore.events.IGISObject;
@@ -61,6 +72,12 @@ public class DbfInputStream extends GISInputStreamBase implements
      */
     private BinaryInputStream stream;
 
+    /**
+     * Channel of the dbf file, <code>null</code> if reading from a stream.
+     * Used to position the stream when seeking to a record.
+     */
+    private FileChannel channel;
+
     /**
      * The schema, derived from the dbf file
      */
@@ -71,6 +88,11 @@ public class DbfInputStream extends GISInputStreamBase implements
      */
     private int count = 0;
 
+    /**
+     * The size of the header in bytes, i.e. the offset of the first record
+     */
+    private int headerLength = 0;
+
     /**
      * The size of the records in bytes
      */
@@ -86,8 +108,47 @@ public class DbfInputStream extends GISInputStreamBase implements
      */
     private byte[] dataBuffer;
 
+    /**
+     * The fields in the order they appear in a record
+     */
+    private SimpleField[] fields;
+
+    /**
+     * Offset of each field in a record
+     */
+    private int[] offsets;
+
+    /**
+     * Indexes of the fields that are decoded, in the order they are decoded
+     */
+    private int[] projection;
+
     private transient SimpleDateFormat dateFormatter;
 
+    private transient Calendar utcCalendar;
+
+    /**
+     * Integer or decimal value found by the last call to scanNumber
+     */
+    private long scannedLong;
+    private double scannedDouble;
+    private boolean scannedPlus;
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final int NUM_NONE = 0;
+    private static final int NUM_INTEGER = 1;
+    private static final int NUM_DECIMAL = 2;
+
+    /**
+     * Powers of ten that are exactly representable as doubles
+     */
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+            1e21, 1e22
+    };
+
     /**
      * @param file
      * @param arguments
@@ -102,7 +163,8 @@ public class DbfInputStream extends GISInputStreamBase implements
         if (!file.exists()) {
             throw new IllegalArgumentException("file does not exist: " + file);
         }
-        InputStream is = new FileInputStream(file);
+        FileInputStream is = new FileInputStream(file);
+        channel = is.getChannel();
         init(is, arguments);
     }
 
@@ -153,7 +215,8 @@ public class DbfInputStream extends GISInputStreamBase implements
         // Read record count, header length (used to compute the number of
         // fields), and record length
         count = stream.readInt(ByteOrder.LITTLE_ENDIAN);
-        int numFields = (stream.readShort(ByteOrder.LITTLE_ENDIAN) - 33) / 32;
+        headerLength = stream.readShort(ByteOrder.LITTLE_ENDIAN) & 0xffff;
+        int numFields = (headerLength - 33) / 32;
         recordSize = stream.readShort(ByteOrder.LITTLE_ENDIAN);
 
         // Skip over bytes we don't care about
@@ -162,6 +225,9 @@ public class DbfInputStream extends GISInputStreamBase implements
 
         schema = new Schema();
         addFirst(schema);
+        fields = new SimpleField[numFields];
+        offsets = new int[numFields];
+        int offset = 1; // skip over record delete flag
 
         for (int i = 0; i < numFields; i++) {
             // Read the field name, padded with null bytes
@@ -220,6 +286,9 @@ public class DbfInputStream extends GISInputStreamBase implements
             if (stream.read(headBuffer, 0, 14) != 14)
                 throw new EOFException();
             schema.put(field);
+            fields[i] = field;
+            offsets[i] = offset;
+            offset += len;
         }
         // Validate end-of-header (EOH) carriage-return character (hex 0x0d)
         byte term = stream.readByte();
@@ -228,6 +297,7 @@ public class DbfInputStream extends GISInputStreamBase implements
                     "Expecting dbf end-of-header flag (hex '0d'),"
                             + " found hex '" + byteToHex(term) + "'");
         dataBuffer = new byte[recordSize];
+        setProjection(null);
     }
 
     /**
@@ -249,6 +319,54 @@ public class DbfInputStream extends GISInputStreamBase implements
             }
             stream = null;
         }
+        channel = null;
+    }
+
+    /**
+     * @return the number of records in the dbf file
+     */
+    public int getRecordCount() {
+        return count;
+    }
+
+    /**
+     * @return the zero based number of the record that will be returned by
+     *         the next call to read
+     */
+    public int getCurrentRecord() {
+        return current;
+    }
+
+    /**
+     * Position the stream so the next call to read returns the given record.
+     * Records before the current record can only be reached if the dbf was
+     * opened from a file, a dbf read from a stream can only skip forward.
+     *
+     * @param record the zero based record number, may equal the record count
+     *               to position at the end of the file
+     * @throws IOException if an I/O error occurs or if seeking backwards in a
+     *                     dbf read from a stream
+     * @throws IllegalArgumentException if record is out of range
+     */
+    public void seek(int record) throws IOException {
+        if (record < 0 || record > count) {
+            throw new IllegalArgumentException("record " + record
+                    + " out of range, record count is " + count);
+        }
+        if (record == current) return;
+        if (channel != null) {
+            channel.position(headerLength + (long) record * recordSize);
+        } else if (record > current) {
+            long remaining = (long) (record - current) * recordSize;
+            while (remaining > 0) {
+                long skipped = stream.skip(remaining);
+                if (skipped <= 0) throw new EOFException();
+                remaining -= skipped;
+            }
+        } else {
+            throw new IOException("Cannot seek backwards in a dbf read from a stream");
+        }
+        current = record;
     }
 
   /**
@@ -280,9 +398,53 @@ public class DbfInputStream extends GISInputStreamBase implements
         }
     }
 
+    /**
+     * Restrict the fields that are decoded when reading records to the given
+     * subset. Rows read afterwards only hold data for these fields and
+     * batches created afterwards have a column for each of them. The schema
+     * still describes all fields of the file.
+     *
+     * @param names names of the fields to decode in the order batch columns
+     *              are returned, or <code>null</code> to decode all fields
+     * @throws IllegalArgumentException if a name is not a field of the file
+     */
+    public void setProjection(Collection<String> names) {
+        if (names == null) {
+            projection = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) projection[i] = i;
+            return;
+        }
+        int[] indexes = new int[names.size()];
+        int n = 0;
+        for (String name : names) {
+            int index = -1;
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].getName().equals(name)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index == -1)
+                throw new IllegalArgumentException("field not found: " + name);
+            indexes[n++] = index;
+        }
+        projection = indexes;
+    }
+
+    /**
+     * @return fields that are decoded when reading records, never <code>null</code>
+     */
+    @NonNull
+    public List<SimpleField> getProjection() {
+        List<SimpleField> list = new ArrayList<SimpleField>(projection.length);
+        for (int index : projection) list.add(fields[index]);
+        return list;
+    }
+
     /**
      * Read the next row into the given row data item. This method will also be
      * called with Feature objects when we are dealing with a shapefile.
+     * Only fields of the projection are decoded.
      *
      * @param row row to be populated, never <code>null</code>
      * @return
@@ -293,6 +455,68 @@ public class DbfInputStream extends GISInputStreamBase implements
         if (row == null) {
             throw new IllegalArgumentException("row should never be null");
         }
+        if (!readRecordBytes())
+            return false; // EOF
+        for (int index : projection) {
+            // Create the appropriate type of Object for this data field and add
+            // it to list
+            row.putData(fields[index], decodeField(index));
+        }
+        current++; // Point to next
+        return true;
+    }
+
+    /**
+     * Create a batch with a column for each field of the current projection.
+     *
+     * @param capacity maximum number of records read into the batch at a time
+     * @return new batch, never <code>null</code>
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    @NonNull
+    public DbfColumnBatch createBatch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        return new DbfColumnBatch(projection, getProjection(), capacity);
+    }
+
+    /**
+     * Read the next records into the columns of a batch, decoding numbers,
+     * dates and logical values straight into primitive arrays. The batch is
+     * filled up to its capacity or until the last record is read.
+     *
+     * @param batch batch created by {@link #createBatch(int)}, never <code>null</code>
+     * @return number of records read into the batch, 0 at the end of the file
+     * @throws IOException if an I/O error occurs or if a value cannot be parsed
+     * @throws IllegalArgumentException if the batch does not match the current projection
+     */
+    public int readBatch(DbfColumnBatch batch) throws IOException {
+        if (batch == null) {
+            throw new IllegalArgumentException("batch should never be null");
+        }
+        if (!Arrays.equals(batch.indexes, projection)) {
+            throw new IllegalArgumentException("batch does not match the projection");
+        }
+        int n = 0;
+        int capacity = batch.getCapacity();
+        while (n < capacity && readRecordBytes()) {
+            for (int col = 0; col < projection.length; col++) {
+                decodeInto(batch, col, projection[col], n);
+            }
+            current++;
+            n++;
+        }
+        batch.size = n;
+        return n;
+    }
+
+    /**
+     * Read the bytes of the next record into the data buffer.
+     *
+     * @return false if there are no more records
+     */
+    private boolean readRecordBytes() throws IOException {
         if (current >= count)
             return false; // EOF
         int numRead = stream.read(dataBuffer, 0, recordSize);
@@ -308,24 +532,197 @@ public class DbfInputStream extends GISInputStreamBase implements
         if (dataBuffer[0] != ROK)
             throw new IOException("Record " + current
                     + " has deletion flag of hex " + byteToHex(dataBuffer[0]));
-        int start = 1; // skip over record delete flag
-        for (String fieldname : schema.getKeys()) {
-            SimpleField field = schema.get(fieldname);
-            // Create the appropriate type of Object for this data field and add
-            // it to list
-            String valStr = new String(dataBuffer, start, field.getLength(),
-                    "US-ASCII").trim();
-            try {
-                row.putData(field, parseValStr(field.getType(), valStr));
-            } catch (ParseException e) {
-                final IOException e2 = new IOException();
-                e2.initCause(e);
-                throw e2;
+        return true;
+    }
+
+    /**
+     * Decode a field of the current record. Numbers and dates are parsed
+     * from the record bytes and only values outside the fast path are
+     * converted to a String first, giving the same value as
+     * {@link #parseValStr(Type, String)}.
+     */
+    @SuppressWarnings("fallthrough")
+    private Object decodeField(int index) throws IOException {
+        byte[] b = dataBuffer;
+        int start = offsets[index];
+        int end = start + fields[index].getLength();
+        // trim as String.trim() would
+        while (start < end && (b[start] & 0xff) <= ' ') start++;
+        while (end > start && (b[end - 1] & 0xff) <= ' ') end--;
+        if (start == end) {
+            // null values represented as all spaces
+            return null;
+        }
+        Type type = fields[index].getType();
+        switch (type) {
+            case STRING:
+                return new String(b, start, end - start, US_ASCII);
+
+            case SHORT:
+            case INT:
+            case LONG:
+            case DOUBLE:
+                int kind = scanNumber(b, start, end);
+                if (kind == NUM_DECIMAL) return scannedDouble;
+                if (kind == NUM_INTEGER) {
+                    long v = scannedLong;
+                    switch (type) {
+                        case SHORT:
+                            if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE)
+                                return (short) v;
+                            // fall through
+                        case INT:
+                            if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE)
+                                return (int) v;
+                            // fall through
+                        case LONG:
+                            return v;
+                        default:
+                            // a leading '+' is parsed as DOUBLE
+                            if (scannedPlus) break;
+                            int len = end - start;
+                            if (len < 5) return (short) v;
+                            if (len < 10) return (int) v;
+                            return v;
+                    }
+                }
+                break;
+
+            case DATE:
+                Date date = parseDate(b, start, end);
+                if (date != null) return date;
+                break;
+
+            case BOOL:
+                final char c = (char) b[start];
+                // null value for boolean represented as '?'
+                return (c == '?') ? null : (c == 'Y') || (c == 'y') || (c == 'T')
+                        || (c == 't');
+        }
+        try {
+            return parseValStr(type, new String(b, start, end - start, US_ASCII));
+        } catch (ParseException e) {
+            final IOException e2 = new IOException();
+            e2.initCause(e);
+            throw e2;
+        }
+    }
+
+    /**
+     * Decode a field of the current record into a column of a batch.
+     */
+    private void decodeInto(DbfColumnBatch batch, int col, int index, int row)
+            throws IOException {
+        byte[] b = dataBuffer;
+        int start = offsets[index];
+        int end = start + fields[index].getLength();
+        while (start < end && (b[start] & 0xff) <= ' ') start++;
+        while (end > start && (b[end - 1] & 0xff) <= ' ') end--;
+        Object column = batch.columns[col];
+        if (column instanceof long[] && fields[index].getType() != Type.DATE
+                && start < end && scanNumber(b, start, end) == NUM_INTEGER) {
+            ((long[]) column)[row] = scannedLong;
+            batch.nulls[col][row] = false;
+            return;
+        }
+        if (column instanceof double[] && start < end) {
+            int kind = scanNumber(b, start, end);
+            if (kind != NUM_NONE) {
+                ((double[]) column)[row] = kind == NUM_DECIMAL ? scannedDouble : scannedLong;
+                batch.nulls[col][row] = false;
+                return;
             }
-            start += field.getLength();
         }
-        current++; // Point to next
-        return true;
+        Object value = decodeField(index);
+        batch.nulls[col][row] = value == null;
+        if (column instanceof String[]) {
+            ((String[]) column)[row] = (String) value;
+        } else if (value == null) {
+            // primitive value of a null is left as is
+        } else if (column instanceof boolean[]) {
+            ((boolean[]) column)[row] = (Boolean) value;
+        } else if (column instanceof double[]) {
+            ((double[]) column)[row] = ((Number) value).doubleValue();
+        } else if (value instanceof Date) {
+            ((long[]) column)[row] = ((Date) value).getTime();
+        } else {
+            Number n = (Number) value;
+            if (n instanceof Double && n.doubleValue() != Math.rint(n.doubleValue())) {
+                throw new IOException("Record " + current + " has non-integer value "
+                        + n + " in field " + fields[index].getName());
+            }
+            ((long[]) column)[row] = n.longValue();
+        }
+    }
+
+    /**
+     * Scan a trimmed numeric value of an optional sign followed by digits
+     * with an optional decimal point. The value is only accepted if it can be
+     * converted exactly: at most 18 digits for an integer, and at most 15
+     * significant digits and 22 decimal places for a decimal, so dividing by
+     * an exact power of ten gives the same correctly rounded result as
+     * <code>Double.parseDouble()</code>.
+     *
+     * @return NUM_INTEGER or NUM_DECIMAL with the value in scannedLong or
+     *         scannedDouble, or NUM_NONE if not accepted
+     */
+    private int scanNumber(byte[] b, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        scannedPlus = false;
+        if (b[i] == '-') {
+            negative = true;
+            i++;
+        } else if (b[i] == '+') {
+            scannedPlus = true;
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            int c = b[i];
+            if (c >= '0' && c <= '9') {
+                if (++digits > 18) return NUM_NONE;
+                mantissa = mantissa * 10 + (c - '0');
+                if (scale >= 0) scale++;
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                return NUM_NONE;
+            }
+        }
+        if (digits == 0) return NUM_NONE;
+        if (scale < 0) {
+            scannedLong = negative ? -mantissa : mantissa;
+            return NUM_INTEGER;
+        }
+        if (digits > 15 || scale >= POW10.length) return NUM_NONE;
+        double d = scale == 0 ? mantissa : mantissa / POW10[scale];
+        scannedDouble = negative ? -d : d;
+        return NUM_DECIMAL;
+    }
+
+    /**
+     * Parse a date of exactly 8 digits as the lenient <code>yyyyMMdd</code>
+     * date format does.
+     *
+     * @return the date or <code>null</code> if not 8 digits
+     */
+    private Date parseDate(byte[] b, int start, int end) {
+        if (end - start != 8) return null;
+        int v = 0;
+        for (int i = start; i < end; i++) {
+            int c = b[i] - '0';
+            if (c < 0 || c > 9) return null;
+            v = v * 10 + c;
+        }
+        if (utcCalendar == null) {
+            utcCalendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.US);
+        }
+        utcCalendar.clear();
+        utcCalendar.set(v / 10000, (v / 100) % 100 - 1, v % 100);
+        return utcCalendar.getTime();
     }
 
     /**
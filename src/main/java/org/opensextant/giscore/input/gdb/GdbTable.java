@@ -0,0 +1,962 @@
+/****************************************************************************************
+ *  GdbTable.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.gdb;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.Row;
+import org.opensextant.giscore.events.Schema;
+import org.opensextant.giscore.events.SimpleField;
+import org.opensextant.giscore.geometry.CoordinateSequence;
+import org.opensextant.giscore.geometry.Geometry;
+import org.opensextant.giscore.geometry.Line;
+import org.opensextant.giscore.geometry.LinearRing;
+import org.opensextant.giscore.geometry.MultiLine;
+import org.opensextant.giscore.geometry.MultiPoint;
+import org.opensextant.giscore.geometry.MultiPolygons;
+import org.opensextant.giscore.geometry.Point;
+import org.opensextant.giscore.geometry.Polygon;
+import org.opensextant.giscore.utils.PolyHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read a single table of a File Geodatabase directly from its .gdbtable and
+ * .gdbtablx files without the ESRI FileGDB API. Both files are memory mapped
+ * and each row is decoded from the mapped bytes, the geometry blobs straight
+ * into coordinate arrays. The layout read here is that of 10.x geodatabases:
+ * <ul>
+ * <li>the .gdbtablx file holds a little endian offset into the .gdbtable
+ * file for each object id, zero for a deleted row, in blocks of 1024
+ * entries that may be sparse
+ * <li>the .gdbtable file starts with a 40 byte header followed by the
+ * field definitions, each row is its size, a bitmap of the null nullable
+ * fields and the values of the other fields in field order
+ * <li>geometries are compressed ESRI shapes, with the coordinates as
+ * varint deltas scaled by the origin and scale of the geometry field
+ * </ul>
+ * Raster fields are not supported, curves are read as their vertices and
+ * multipatches have no geometry. Coordinates are transformed to WGS84 if
+ * the spatial reference of the geometry field can be parsed, the same as
+ * the FileGDB API based reader. Otherwise they are taken as degrees, unless
+ * the spatial reference is projected or the extent is not in degrees, in
+ * which case {@link #canReadGeometry()} is false and only the attributes
+ * can be read.
+ * <p>
+ * Reading only uses absolute positions in the mapped buffers so a table may
+ * be read by several threads at once.
+ */
+public final class GdbTable {
+	private static final Logger logger = LoggerFactory.getLogger(GdbTable.class);
+
+	// Field types
+	public static final int TYPE_INT16 = 0;
+	public static final int TYPE_INT32 = 1;
+	public static final int TYPE_FLOAT32 = 2;
+	public static final int TYPE_FLOAT64 = 3;
+	public static final int TYPE_STRING = 4;
+	public static final int TYPE_DATETIME = 5;
+	public static final int TYPE_OBJECTID = 6;
+	public static final int TYPE_GEOMETRY = 7;
+	public static final int TYPE_BINARY = 8;
+	public static final int TYPE_RASTER = 9;
+	public static final int TYPE_GUID = 10;
+	public static final int TYPE_GLOBALID = 11;
+	public static final int TYPE_XML = 12;
+
+	private static final int SHAPE_POINT = 1;
+	private static final int SHAPE_MULTIPOINT = 2;
+	private static final int SHAPE_POLYLINE = 3;
+	private static final int SHAPE_POLYGON = 4;
+	private static final int SHAPE_MULTIPATCH = 5;
+
+	private static final int CURVES_FLAG = 0x20000000;
+	private static final int M_FLAG = 0x40000000;
+	private static final int Z_FLAG = 0x80000000;
+
+	/**
+	 * Size of each mapped segment of the .gdbtable file, every segment is
+	 * extended by the largest row so a row never spans two segments
+	 */
+	private static final long SEGMENT_SIZE = 1L << 30;
+
+	/**
+	 * Days from the datetime epoch of 1899-12-30 to 1970-01-01
+	 */
+	private static final double EPOCH_DAYS = 25569.0;
+
+	private static final double MILLIS_PER_DAY = 86400000.0;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Charset UTF16 = Charset.forName("UTF-16LE");
+
+	private final File file;
+
+	private final ByteBuffer segments[];
+
+	private final ByteBuffer tablx;
+
+	private final int offsetSize;
+
+	/**
+	 * Block of the .gdbtablx file holding each 1024 object ids, -1 if the
+	 * block is not present, <code>null</code> if all blocks are present
+	 */
+	private final int blockMap[];
+
+	private final int rowCount;
+
+	private final int maxObjectId;
+
+	private final String names[];
+
+	private final String aliases[];
+
+	private final int types[];
+
+	private final int widths[];
+
+	private final boolean nullable[];
+
+	private final int nullableCount;
+
+	private final int geometryField;
+
+	private final int geometryType;
+
+	private final boolean layerHasZ;
+
+	private final boolean layerHasM;
+
+	private String wkt;
+
+	private double xOrigin, yOrigin, xyScale;
+
+	private double zOrigin, zScale = Double.NaN;
+
+	private final double extent[] = new double[4];
+
+	private MathTransform transform;
+
+	/**
+	 * Whether the coordinates are in degrees or can be transformed to them
+	 */
+	private boolean degrees;
+
+	/**
+	 * Open a table.
+	 *
+	 * @param file the .gdbtable file, the .gdbtablx file must be next to it
+	 * @throws IllegalArgumentException if file is null or not a .gdbtable file
+	 * @throws IOException if an error occurs reading the files, they are
+	 *             not a 10.x table or the table has a raster field
+	 */
+	public GdbTable(File file) throws IOException {
+		if (file == null)
+			throw new IllegalArgumentException("file should never be null");
+		String name = file.getName();
+		if (!name.endsWith(".gdbtable"))
+			throw new IllegalArgumentException("file must have the .gdbtable extension");
+		this.file = file;
+		File tablxFile = new File(file.getParentFile(),
+				name.substring(0, name.length() - ".gdbtable".length()) + ".gdbtablx");
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		ByteBuffer header;
+		ByteBuffer fields;
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size < 40)
+				throw new IOException(file + " is not a gdbtable file");
+			header = channel.map(MapMode.READ_ONLY, 0, 40).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt(0) != 3)
+				throw new IOException(file + " is not a 10.x gdbtable file");
+			rowCount = header.getInt(4);
+			long maxRowSize = 4L + (header.getInt(8) & 0xffffffffL);
+			long fieldsOffset = header.getLong(32);
+			if (fieldsOffset < 40 || fieldsOffset + 4 > size)
+				throw new IOException(file + " has an invalid field section offset");
+			ByteBuffer fieldsSize = channel.map(MapMode.READ_ONLY, fieldsOffset, 4).order(ByteOrder.LITTLE_ENDIAN);
+			long fieldsLength = 4L + (fieldsSize.getInt(0) & 0xffffffffL);
+			if (fieldsOffset + fieldsLength > size)
+				throw new IOException(file + " has a truncated field section");
+			fields = channel.map(MapMode.READ_ONLY, fieldsOffset, fieldsLength).order(ByteOrder.LITTLE_ENDIAN);
+			int n = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+			segments = new ByteBuffer[n];
+			for (int i = 0; i < n; i++) {
+				long start = i * SEGMENT_SIZE;
+				segments[i] = channel.map(MapMode.READ_ONLY, start,
+						Math.min(size - start, Math.min(SEGMENT_SIZE + maxRowSize, Integer.MAX_VALUE)));
+			}
+		} finally {
+			raf.close();
+		}
+		raf = new RandomAccessFile(tablxFile, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() < 16 || channel.size() > Integer.MAX_VALUE)
+				throw new IOException(tablxFile + " is not a gdbtablx file");
+			tablx = channel.map(MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close();
+		}
+		int blocks = tablx.getInt(4);
+		maxObjectId = tablx.getInt(8);
+		offsetSize = tablx.getInt(12);
+		if (offsetSize < 4 || offsetSize > 6 || blocks < 0 || maxObjectId < 0)
+			throw new IOException(tablxFile + " has an invalid header");
+		blockMap = readBlockMap(tablxFile, blocks);
+
+		// field definitions
+		int flags = fields.getInt(8);
+		geometryType = flags & 0xff;
+		layerHasZ = (flags & Z_FLAG) != 0;
+		layerHasM = (flags & M_FLAG) != 0;
+		int count = fields.getShort(12);
+		names = new String[count];
+		aliases = new String[count];
+		types = new int[count];
+		widths = new int[count];
+		nullable = new boolean[count];
+		int geometry = -1;
+		int nulls = 0;
+		fields.position(14);
+		for (int i = 0; i < count; i++) {
+			names[i] = readUtf16(fields, fields.get() & 0xff);
+			aliases[i] = readUtf16(fields, fields.get() & 0xff);
+			types[i] = fields.get();
+			switch (types[i]) {
+			case TYPE_OBJECTID:
+			case TYPE_BINARY:
+			case TYPE_GUID:
+			case TYPE_GLOBALID:
+			case TYPE_XML:
+				widths[i] = fields.get() & 0xff;
+				nullable[i] = (fields.get() & 1) != 0;
+				break;
+			case TYPE_STRING:
+				widths[i] = fields.getInt();
+				nullable[i] = (fields.get() & 1) != 0;
+				skip(fields, readVarUInt(fields)); // default value
+				break;
+			case TYPE_INT16:
+			case TYPE_INT32:
+			case TYPE_FLOAT32:
+			case TYPE_FLOAT64:
+			case TYPE_DATETIME:
+				widths[i] = fields.get() & 0xff;
+				nullable[i] = (fields.get() & 1) != 0;
+				skip(fields, fields.get() & 0xff); // default value
+				break;
+			case TYPE_GEOMETRY:
+				fields.get();
+				nullable[i] = (fields.get() & 1) != 0;
+				readGeometryField(fields);
+				geometry = i;
+				break;
+			case TYPE_RASTER:
+				throw new IOException(file + " has raster field " + names[i] + " which is not supported");
+			default:
+				throw new IOException(file + " has field " + names[i] + " of unknown type " + types[i]);
+			}
+			if (nullable[i]) nulls++;
+		}
+		geometryField = geometry;
+		nullableCount = nulls;
+	}
+
+	/**
+	 * Read the bitmap of the blocks present in a sparse .gdbtablx file,
+	 * which follows the offsets of the blocks that are present.
+	 */
+	@CheckForNull
+	private int[] readBlockMap(File tablxFile, int blocks) throws IOException {
+		long pos = 16L + (long) blocks * 1024 * offsetSize;
+		if (pos + 16 > tablx.capacity())
+			throw new IOException(tablxFile + " is truncated");
+		int words = tablx.getInt((int) pos);
+		if (words == 0) {
+			if ((long) blocks * 1024 < maxObjectId)
+				throw new IOException(tablxFile + " has too few blocks for " + maxObjectId + " rows");
+			return null;
+		}
+		int total = tablx.getInt((int) pos + 4);
+		if (total < 0 || pos + 16 + 4L * words > tablx.capacity() || 32L * words < total)
+			throw new IOException(tablxFile + " has an invalid block bitmap");
+		int map[] = new int[total];
+		int present = 0;
+		for (int i = 0; i < total; i++) {
+			int word = tablx.getInt((int) pos + 16 + 4 * (i / 32));
+			map[i] = (word & (1 << (i % 32))) != 0 ? present++ : -1;
+		}
+		if (present > blocks)
+			throw new IOException(tablxFile + " has more blocks in its bitmap than in the file");
+		return map;
+	}
+
+	private void readGeometryField(ByteBuffer fields) throws IOException {
+		wkt = readUtf16(fields, (fields.getShort() & 0xffff) / 2);
+		int flags = fields.get();
+		boolean hasM = (flags & 2) != 0;
+		boolean hasZ = (flags & 4) != 0;
+		xOrigin = fields.getDouble();
+		yOrigin = fields.getDouble();
+		xyScale = fields.getDouble();
+		if (hasM) {
+			fields.getDouble(); // m origin
+			fields.getDouble(); // m scale
+		}
+		if (hasZ) {
+			zOrigin = fields.getDouble();
+			zScale = fields.getDouble();
+		}
+		fields.getDouble(); // xy tolerance
+		if (hasM) fields.getDouble();
+		if (hasZ) fields.getDouble();
+		for (int i = 0; i < 4; i++) {
+			extent[i] = fields.getDouble();
+		}
+		// the z and m extents that follow vary by version, skip them up to
+		// the spatial index grid sizes which start with a zero byte and a
+		// count of 1 to 3
+		while (fields.remaining() >= 5 && !(fields.get(fields.position()) == 0
+				&& fields.getInt(fields.position() + 1) >= 1 && fields.getInt(fields.position() + 1) <= 3)) {
+			skip(fields, 8);
+		}
+		if (fields.remaining() < 5)
+			throw new IOException(file + " has a truncated geometry field definition");
+		fields.get();
+		skip(fields, 8 * fields.getInt());
+		if (!(xyScale > 0))
+			throw new IOException(file + " has an invalid xy scale " + xyScale);
+		if (StringUtils.isNotBlank(wkt)) {
+			try {
+				CoordinateReferenceSystem crs = CRS.parseWKT(wkt);
+				if (crs != null) {
+					transform = CRS.findMathTransform(crs, DefaultGeographicCRS.WGS84, true);
+				}
+			} catch (FactoryException e) {
+				logger.warn("Cannot transform the spatial reference of " + file + " to WGS84", e);
+			}
+		}
+		degrees = transform != null || !(wkt.startsWith("PROJCS")
+				|| Math.abs(extent[0]) > 360 || Math.abs(extent[2]) > 360
+				|| Math.abs(extent[1]) > 90 || Math.abs(extent[3]) > 90);
+	}
+
+	/**
+	 * @return the .gdbtable file, never <code>null</code>
+	 */
+	@NonNull
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the number of rows that are not deleted
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return the largest object id, object ids start at 1
+	 */
+	public int getMaxObjectId() {
+		return maxObjectId;
+	}
+
+	/**
+	 * @return true if the table is a feature class
+	 */
+	public boolean hasGeometry() {
+		return geometryField >= 0;
+	}
+
+	/**
+	 * @return the geometry type of the table from the field section, 1 for
+	 *         points, 2 for multipoints, 3 for polylines, 4 for polygons, 9
+	 *         for multipatches and 0 if the table has no geometry
+	 */
+	public int getGeometryType() {
+		return geometryType;
+	}
+
+	/**
+	 * @return true if the geometries of the table have z values
+	 */
+	public boolean hasZ() {
+		return layerHasZ;
+	}
+
+	/**
+	 * @return true if the geometries of the table have m values, which are
+	 *         not read
+	 */
+	public boolean hasM() {
+		return layerHasM;
+	}
+
+	/**
+	 * @return true if the table has geometry and its coordinates are in
+	 *         degrees or can be transformed to WGS84, if false reading a
+	 *         row with its geometry fails
+	 */
+	public boolean canReadGeometry() {
+		return hasGeometry() && degrees;
+	}
+
+	/**
+	 * @return the spatial reference of the geometry field as well known
+	 *         text, <code>null</code> if the table has no geometry
+	 */
+	@CheckForNull
+	public String getSpatialReference() {
+		return wkt;
+	}
+
+	/**
+	 * @return the extent of the geometries as xmin, ymin, xmax and ymax in
+	 *         the spatial reference of the table, NaN if unknown
+	 */
+	@NonNull
+	public double[] getExtent() {
+		return hasGeometry() ? extent.clone()
+				: new double[] { Double.NaN, Double.NaN, Double.NaN, Double.NaN };
+	}
+
+	/**
+	 * @return the fields of the table except the geometry field, in table
+	 *         order, never <code>null</code>
+	 */
+	@NonNull
+	public List<SimpleField> getFields() {
+		List<SimpleField> fields = new ArrayList<SimpleField>(names.length);
+		for (int i = 0; i < names.length; i++) {
+			if (i == geometryField) continue;
+			SimpleField field = new SimpleField(names[i]);
+			field.setType(getFieldType(types[i]));
+			field.setLength(widths[i]);
+			field.setRequired(!nullable[i]);
+			if (StringUtils.isNotBlank(aliases[i]) && !aliases[i].equals(names[i])) {
+				field.setAliasName(aliases[i]);
+			}
+			fields.add(field);
+		}
+		return fields;
+	}
+
+	private static SimpleField.Type getFieldType(int type) {
+		switch (type) {
+		case TYPE_INT16:
+			return SimpleField.Type.SHORT;
+		case TYPE_INT32:
+			return SimpleField.Type.INT;
+		case TYPE_FLOAT32:
+			return SimpleField.Type.FLOAT;
+		case TYPE_FLOAT64:
+			return SimpleField.Type.DOUBLE;
+		case TYPE_STRING:
+			return SimpleField.Type.STRING;
+		case TYPE_DATETIME:
+			return SimpleField.Type.DATE;
+		case TYPE_OBJECTID:
+			return SimpleField.Type.OID;
+		case TYPE_BINARY:
+			return SimpleField.Type.BLOB;
+		case TYPE_GUID:
+			return SimpleField.Type.GUID;
+		case TYPE_GLOBALID:
+			return SimpleField.Type.ID;
+		case TYPE_XML:
+			return SimpleField.Type.CLOB;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Find the offset of a row in the .gdbtable file.
+	 *
+	 * @return the offset, zero if the row is deleted or not present
+	 */
+	private long getRowOffset(int objectId) {
+		if (objectId < 1 || objectId > maxObjectId) return 0;
+		int index = objectId - 1;
+		if (blockMap != null) {
+			int block = index / 1024;
+			if (block >= blockMap.length || blockMap[block] < 0) return 0;
+			index = blockMap[block] * 1024 + index % 1024;
+		}
+		int pos = 16 + index * offsetSize;
+		long offset = 0;
+		for (int i = offsetSize - 1; i >= 0; i--) {
+			offset = (offset << 8) | (tablx.get(pos + i) & 0xff);
+		}
+		return offset;
+	}
+
+	/**
+	 * Read the values of a row.
+	 *
+	 * @param objectId the object id of the row, starting at 1
+	 * @return the value of each field in table order, the geometry field as
+	 *         a {@link Geometry}, or <code>null</code> if the row is deleted
+	 *         or the object id is out of range
+	 * @throws IOException if the row cannot be decoded or its geometry
+	 *             cannot be read, see {@link #canReadGeometry()}
+	 */
+	@CheckForNull
+	public Object[] readValues(int objectId) throws IOException {
+		return readValues(objectId, true);
+	}
+
+	/**
+	 * Read the values of a row, optionally without decoding the geometry,
+	 * which is faster when only the attributes are needed.
+	 *
+	 * @param objectId the object id of the row, starting at 1
+	 * @param readGeometry false to leave the value of the geometry field
+	 *            <code>null</code>
+	 * @return the value of each field in table order or <code>null</code> if
+	 *         the row is deleted or the object id is out of range
+	 * @throws IOException if the row cannot be decoded
+	 */
+	@CheckForNull
+	public Object[] readValues(int objectId, boolean readGeometry) throws IOException {
+		long offset = getRowOffset(objectId);
+		if (offset == 0) return null;
+		ByteBuffer segment = segments[(int) (offset / SEGMENT_SIZE)];
+		int start = (int) (offset % SEGMENT_SIZE);
+		ByteBuffer buffer = segment.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			int size = buffer.getInt(start);
+			if (size < 0 || start + 4L + size > buffer.capacity())
+				throw new IOException(file + " has an invalid size for row " + objectId);
+			buffer.limit(start + 4 + size);
+			buffer.position(start + 4);
+			int nullBits = buffer.position();
+			skip(buffer, (nullableCount + 7) / 8);
+			Object values[] = new Object[types.length];
+			int nullIndex = 0;
+			for (int i = 0; i < types.length; i++) {
+				if (nullable[i]) {
+					int bit = nullIndex++;
+					if ((buffer.get(nullBits + bit / 8) & (1 << (bit % 8))) != 0) continue;
+				}
+				if (types[i] == TYPE_GEOMETRY && !readGeometry) {
+					skip(buffer, readVarUInt(buffer));
+				} else {
+					values[i] = readValue(buffer, types[i], objectId);
+				}
+			}
+			return values;
+		} catch (RuntimeException e) {
+			// underflow or bad offsets
+			throw new IOException(file + " has an invalid row " + objectId, e);
+		}
+	}
+
+	private Object readValue(ByteBuffer buffer, int type, int objectId) throws IOException {
+		switch (type) {
+		case TYPE_OBJECTID:
+			return objectId;
+		case TYPE_INT16:
+			return buffer.getShort();
+		case TYPE_INT32:
+			return buffer.getInt();
+		case TYPE_FLOAT32:
+			return buffer.getFloat();
+		case TYPE_FLOAT64:
+			return buffer.getDouble();
+		case TYPE_DATETIME:
+			return new Date(Math.round((buffer.getDouble() - EPOCH_DAYS) * MILLIS_PER_DAY));
+		case TYPE_STRING:
+		case TYPE_XML: {
+			byte bytes[] = new byte[readVarUInt(buffer)];
+			buffer.get(bytes);
+			return new String(bytes, UTF8);
+		}
+		case TYPE_BINARY: {
+			byte bytes[] = new byte[readVarUInt(buffer)];
+			buffer.get(bytes);
+			return bytes;
+		}
+		case TYPE_GUID:
+		case TYPE_GLOBALID:
+			return readGuid(buffer);
+		case TYPE_GEOMETRY: {
+			int length = readVarUInt(buffer);
+			int end = buffer.position() + length;
+			int limit = buffer.limit();
+			buffer.limit(end);
+			Geometry geo = readGeometry(buffer);
+			buffer.limit(limit);
+			buffer.position(end);
+			return geo;
+		}
+		default:
+			throw new IllegalStateException("Unexpected field type " + type);
+		}
+	}
+
+	/**
+	 * Read a GUID stored in the byte order of a Windows GUID structure and
+	 * format it as {XXXXXXXX-XXXX-XXXX-XXXX-XXXXXXXXXXXX}.
+	 */
+	private static String readGuid(ByteBuffer buffer) {
+		byte b[] = new byte[16];
+		buffer.get(b);
+		StringBuilder sb = new StringBuilder(38);
+		sb.append('{');
+		hex(sb, b, 3, 2, 1, 0);
+		sb.append('-');
+		hex(sb, b, 5, 4);
+		sb.append('-');
+		hex(sb, b, 7, 6);
+		sb.append('-');
+		hex(sb, b, 8, 9);
+		sb.append('-');
+		hex(sb, b, 10, 11, 12, 13, 14, 15);
+		return sb.append('}').toString();
+	}
+
+	private static void hex(StringBuilder sb, byte b[], int... index) {
+		for (int i : index) {
+			sb.append(Character.toUpperCase(Character.forDigit((b[i] >> 4) & 0xf, 16)));
+			sb.append(Character.toUpperCase(Character.forDigit(b[i] & 0xf, 16)));
+		}
+	}
+
+	/**
+	 * Read a row as a giscore row, or a feature if the table has geometry.
+	 *
+	 * @param objectId the object id of the row, starting at 1
+	 * @param schema the schema of the table, its fields are looked up by
+	 *            name, fields missing from the schema are left out
+	 * @return the row or feature, <code>null</code> if the row is deleted or
+	 *         the object id is out of range
+	 * @throws IllegalArgumentException if schema is null
+	 * @throws IOException if the row cannot be decoded
+	 */
+	@CheckForNull
+	public Row readRow(int objectId, Schema schema) throws IOException {
+		if (schema == null)
+			throw new IllegalArgumentException("schema should never be null");
+		Object values[] = readValues(objectId);
+		if (values == null) return null;
+		Row row;
+		if (hasGeometry()) {
+			Feature feature = new Feature();
+			feature.setGeometry((Geometry) values[geometryField]);
+			row = feature;
+		} else {
+			row = new Row();
+		}
+		for (int i = 0; i < names.length; i++) {
+			if (i == geometryField) continue;
+			SimpleField field = schema.get(names[i]);
+			if (field != null) row.putData(field, values[i]);
+		}
+		row.setSchema(schema.getId());
+		return row;
+	}
+
+	/**
+	 * Read a range of rows, see {@link #readRow(int, Schema)}. Deleted rows
+	 * are left out.
+	 *
+	 * @param from first object id
+	 * @param to object id after the last one
+	 * @param schema the schema of the table
+	 * @return the rows in object id order, never <code>null</code>
+	 * @throws IllegalArgumentException if schema is null
+	 * @throws IOException if a row cannot be decoded
+	 */
+	@NonNull
+	public List<Row> readRows(int from, int to, Schema schema) throws IOException {
+		from = Math.max(from, 1);
+		to = Math.min(to, maxObjectId + 1);
+		if (from >= to) return Collections.emptyList();
+		List<Row> rows = new ArrayList<Row>(to - from);
+		for (int id = from; id < to; id++) {
+			Row row = readRow(id, schema);
+			if (row != null) rows.add(row);
+		}
+		return rows;
+	}
+
+	// Geometry
+
+	/**
+	 * Decode a compressed shape. A multipoint with one point is returned as
+	 * a <code>Point</code>, a polyline with one part as a <code>Line</code>
+	 * and polygon rings are sorted into polygons, as the shapefile reader
+	 * does rather than the FileGDB API based reader.
+	 *
+	 * @return the geometry, <code>null</code> if empty or a multipatch
+	 */
+	@CheckForNull
+	private Geometry readGeometry(ByteBuffer buffer) throws IOException {
+		if (!degrees)
+			throw new IOException(file + " has projected coordinates that cannot be transformed to WGS84");
+		// the z, m and curve flags of the general types are in the high bits
+		int type = (int) readVarULong(buffer);
+		int shape = getShape(type & 0xff);
+		boolean hasZ = hasZ(type) && !Double.isNaN(zScale);
+		switch (shape) {
+		case SHAPE_POINT: {
+			long x = readVarULong(buffer);
+			long y = readVarULong(buffer);
+			if (x == 0) return null;
+			double coords[] = { (x - 1) / xyScale + xOrigin, (y - 1) / xyScale + yOrigin };
+			transform(coords, 1);
+			if (hasZ) {
+				double z = (readVarULong(buffer) - 1) / zScale + zOrigin;
+				return new Point(coords[1], coords[0], z);
+			}
+			return new Point(coords[1], coords[0]);
+		}
+		case SHAPE_MULTIPOINT:
+		case SHAPE_POLYLINE:
+		case SHAPE_POLYGON: {
+			int nPoints = readVarUInt(buffer);
+			if (nPoints == 0) return null;
+			int nParts = shape == SHAPE_MULTIPOINT ? 1 : readVarUInt(buffer);
+			if (shape != SHAPE_MULTIPOINT && (type & CURVES_FLAG) != 0) {
+				readVarUInt(buffer); // curves are read as their vertices
+			}
+			for (int i = 0; i < 4; i++) {
+				readVarULong(buffer); // bounding box
+			}
+			int parts[] = new int[nParts + 1];
+			for (int i = 1; i < nParts; i++) {
+				parts[i] = parts[i - 1] + readVarUInt(buffer);
+			}
+			parts[nParts] = nPoints;
+			if (nParts < 1 || parts[nParts - 1] > nPoints)
+				throw new IOException("Invalid part sizes in " + file);
+			double coords[] = readCoordinates(buffer, nPoints, hasZ);
+			if (shape == SHAPE_MULTIPOINT) {
+				CoordinateSequence seq = getPart(coords, 0, nPoints, hasZ);
+				return nPoints == 1 ? seq.getPoint(0) : new MultiPoint(seq);
+			} else if (shape == SHAPE_POLYLINE) {
+				List<Line> lines = new ArrayList<Line>(nParts);
+				for (int i = 0; i < nParts; i++) {
+					lines.add(new Line(getPart(coords, parts[i], parts[i + 1], hasZ)));
+				}
+				return lines.size() == 1 ? lines.get(0) : new MultiLine(lines);
+			} else {
+				return getPolygon(coords, parts, hasZ);
+			}
+		}
+		case SHAPE_MULTIPATCH:
+			return null;
+		default:
+			throw new IOException("Unknown shape type " + (type & 0xff) + " in " + file);
+		}
+	}
+
+	/**
+	 * Read the xy deltas, and the z deltas if present, into packed x, y and
+	 * optional z tuples in degrees.
+	 */
+	private double[] readCoordinates(ByteBuffer buffer, int nPoints, boolean hasZ) throws IOException {
+		double xy[] = new double[2 * nPoints];
+		long dx = 0;
+		long dy = 0;
+		for (int i = 0; i < nPoints; i++) {
+			dx += readVarLong(buffer);
+			dy += readVarLong(buffer);
+			xy[2 * i] = dx / xyScale + xOrigin;
+			xy[2 * i + 1] = dy / xyScale + yOrigin;
+		}
+		transform(xy, nPoints);
+		if (!hasZ) return xy;
+		double coords[] = new double[3 * nPoints];
+		long dz = 0;
+		for (int i = 0; i < nPoints; i++) {
+			dz += readVarLong(buffer);
+			coords[3 * i] = xy[2 * i];
+			coords[3 * i + 1] = xy[2 * i + 1];
+			coords[3 * i + 2] = dz / zScale + zOrigin;
+		}
+		return coords;
+	}
+
+	private void transform(double xy[], int nPoints) throws IOException {
+		if (transform == null || transform.isIdentity()) return;
+		try {
+			transform.transform(xy, 0, xy, 0, nPoints);
+		} catch (TransformException e) {
+			throw new IOException("Cannot transform coordinates of " + file + " to WGS84", e);
+		}
+	}
+
+	// Take the points from start (inclusive) to end (exclusive) as a coordinate sequence
+	private static CoordinateSequence getPart(double coords[], int start, int end, boolean hasZ) {
+		int dim = hasZ ? 3 : 2;
+		double part[] = new double[(end - start) * dim];
+		System.arraycopy(coords, start * dim, part, 0, part.length);
+		return CoordinateSequence.fromDegrees(part, hasZ);
+	}
+
+	/**
+	 * Sort the rings into polygons the same way as shapefiles: outer rings
+	 * are clockwise, each inner ring goes with the outer ring containing it
+	 * and an inner ring with no outer ring is reversed into a polygon of
+	 * its own.
+	 */
+	private static Geometry getPolygon(double coords[], int parts[], boolean hasZ) {
+		List<PolyHolder> holders = new ArrayList<PolyHolder>();
+		List<LinearRing> inner = new ArrayList<LinearRing>();
+		for (int i = 0; i + 1 < parts.length; i++) {
+			LinearRing ring = new LinearRing(getPart(coords, parts[i], parts[i + 1], hasZ));
+			if (ring.clockwise()) {
+				PolyHolder holder = new PolyHolder();
+				holder.setOuterRing(ring);
+				holders.add(holder);
+			} else {
+				inner.add(ring);
+			}
+		}
+		List<Polygon> polygons = new ArrayList<Polygon>();
+		for (LinearRing ring : inner) {
+			PolyHolder found = null;
+			for (PolyHolder holder : holders) {
+				if (holder.getOuterRing().contains(ring)) {
+					found = holder;
+					break;
+				}
+			}
+			if (found != null) {
+				found.addInnerRing(ring);
+			} else {
+				polygons.add(new Polygon(new LinearRing(ring.getCoordinates().reverse())));
+			}
+		}
+		for (PolyHolder holder : holders) {
+			polygons.add(holder.toPolygon());
+		}
+		return polygons.size() == 1 ? polygons.get(0) : new MultiPolygons(polygons);
+	}
+
+	/**
+	 * Map a shape type, including the extended z and m types and the general
+	 * types, to one of the SHAPE constants.
+	 */
+	private static int getShape(int type) {
+		switch (type) {
+		case 1: case 9: case 11: case 21: case 52:
+			return SHAPE_POINT;
+		case 8: case 18: case 20: case 28: case 53:
+			return SHAPE_MULTIPOINT;
+		case 3: case 10: case 13: case 23: case 50:
+			return SHAPE_POLYLINE;
+		case 5: case 15: case 19: case 25: case 51:
+			return SHAPE_POLYGON;
+		case 31: case 32: case 54:
+			return SHAPE_MULTIPATCH;
+		default:
+			return 0;
+		}
+	}
+
+	private boolean hasZ(int type) {
+		switch (type & 0xff) {
+		case 9: case 11: case 18: case 20: case 10: case 13: case 15: case 19:
+			return true;
+		case 50: case 51: case 52: case 53: case 54:
+			return (type & Z_FLAG) != 0;
+		default:
+			return false;
+		}
+	}
+
+	// Primitive decoding
+
+	private static String readUtf16(ByteBuffer buffer, int chars) {
+		byte bytes[] = new byte[2 * chars];
+		buffer.get(bytes);
+		return new String(bytes, UTF16);
+	}
+
+	private static void skip(ByteBuffer buffer, int n) {
+		buffer.position(buffer.position() + n);
+	}
+
+	private static int readVarUInt(ByteBuffer buffer) throws IOException {
+		long value = readVarULong(buffer);
+		if (value > Integer.MAX_VALUE)
+			throw new IOException("Unsigned varint " + value + " is out of range");
+		return (int) value;
+	}
+
+	/**
+	 * Read an unsigned varint, 7 bits per byte with the high bit set on all
+	 * but the last byte.
+	 */
+	private static long readVarULong(ByteBuffer buffer) {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = buffer.get();
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0 && shift < 64);
+		return value;
+	}
+
+	/**
+	 * Read a signed varint, the first byte holds the sign in bit 6 and the
+	 * low 6 bits of the value.
+	 */
+	private static long readVarLong(ByteBuffer buffer) {
+		int b = buffer.get();
+		long value = b & 0x3f;
+		boolean negative = (b & 0x40) != 0;
+		int shift = 6;
+		while ((b & 0x80) != 0 && shift < 64) {
+			b = buffer.get();
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		}
+		return negative ? -value : value;
+	}
+}
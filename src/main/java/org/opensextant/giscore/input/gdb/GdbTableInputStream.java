@@ -0,0 +1,348 @@
+/****************************************************************************************
+ *  GdbTableInputStream.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.gdb;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.opensextant.giscore.IAcceptSchema;
+import org.opensextant.giscore.events.ContainerEnd;
+import org.opensextant.giscore.events.ContainerStart;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.events.Row;
+import org.opensextant.giscore.events.Schema;
+import org.opensextant.giscore.events.SimpleField;
+import org.opensextant.giscore.input.GISInputStreamBase;
+import org.opensextant.giscore.utils.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read a File Geodatabase directory with {@link GdbTable} instead of the
+ * ESRI FileGDB API used by {@link FileGdbInputStream}, so no native library
+ * is needed. The output has the same shape: the tables without geometry
+ * come first and then the feature classes, each as its schema, a folder
+ * container start, its rows or features and a container end. The tables
+ * are found in the system catalog table a00000001.gdbtable, the GDB_ system
+ * tables and tables whose files are missing are left out, as are tables
+ * that cannot be read and feature classes whose projected coordinates
+ * cannot be transformed to WGS84, with a warning.
+ * <p>
+ * The content differs from {@link FileGdbInputStream} in a few ways, so
+ * check callers when switching readers:
+ * <ul>
+ * <li>geometries are built as {@link GdbTable} does, like the shapefile
+ * reader: a multipoint with one point is a <code>Point</code> and a
+ * polyline with one part a <code>Line</code>, where the FileGDB API reader
+ * always returns a <code>MultiPoint</code> or <code>MultiLine</code>
+ * <li>polygon rings are sorted into outer rings and their holes, giving a
+ * <code>Polygon</code> or <code>MultiPolygons</code>, where the FileGDB API
+ * reader returns one <code>Polygon</code> with the first ring as the outer
+ * ring
+ * <li>the container name, schema name and schema id use the table name
+ * alone, while the FileGDB API reader uses the path: its container name
+ * keeps the leading <tt>\</tt> and the names and ids of feature classes
+ * inside a feature dataset include the dataset
+ * </ul>
+ * <p>
+ * Given more than one thread the rows of each table are decoded in ranges of
+ * object ids by worker threads and returned in object id order, so the
+ * output is the same as reading with one thread. Only a bounded number of
+ * ranges are read ahead of the caller.
+ */
+public class GdbTableInputStream extends GISInputStreamBase {
+	private static final Logger logger = LoggerFactory.getLogger(GdbTableInputStream.class);
+
+	/**
+	 * Number of object ids read at a time
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 2000;
+
+	private static final String CATALOG = "a00000001.gdbtable";
+
+	private final List<String> names = new ArrayList<String>();
+
+	private final List<GdbTable> tables = new ArrayList<GdbTable>();
+
+	private final IAcceptSchema acceptor;
+
+	private final ExecutorService executor;
+
+	private final int maxPending;
+
+	/**
+	 * Index of the current table, -1 before the first
+	 */
+	private int index = -1;
+
+	private GdbTable currentTable;
+
+	private Schema currentSchema;
+
+	/**
+	 * First object id of the next range to read
+	 */
+	private int nextId;
+
+	/**
+	 * Ranges submitted but not yet returned, in object id order
+	 */
+	private final LinkedList<Future<List<Row>>> pending = new LinkedList<Future<List<Row>>>();
+
+	private Iterator<Row> currentChunk = Collections.<Row>emptyList().iterator();
+
+	/**
+	 * Read a geodatabase with one thread.
+	 *
+	 * @param path the .gdb directory
+	 * @param args optional {@link IAcceptSchema} to select tables
+	 * @throws IllegalArgumentException if path is null or does not exist
+	 * @throws IOException if the system catalog cannot be read
+	 */
+	public GdbTableInputStream(File path, Object[] args) throws IOException {
+		this(path, 1, args);
+	}
+
+	/**
+	 * Read a geodatabase.
+	 *
+	 * @param path the .gdb directory
+	 * @param threads number of threads decoding rows, at least 1
+	 * @param args optional {@link IAcceptSchema} to select tables
+	 * @throws IllegalArgumentException if path is null or does not exist or
+	 *             threads is less than 1
+	 * @throws IOException if the system catalog cannot be read
+	 */
+	public GdbTableInputStream(File path, int threads, Object[] args) throws IOException {
+		if (path == null) {
+			throw new IllegalArgumentException("path should never be null");
+		}
+		if (!path.isDirectory()) {
+			throw new IllegalArgumentException("path must be an existing directory");
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		Args argv = new Args(args);
+		acceptor = (IAcceptSchema) argv.get(IAcceptSchema.class, 0);
+		openTables(path);
+		maxPending = threads * 2;
+		if (threads > 1) {
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "gdb-reader");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		} else {
+			executor = null;
+		}
+	}
+
+	/**
+	 * Open the user tables listed in the system catalog, tables without
+	 * geometry first.
+	 */
+	private void openTables(File path) throws IOException {
+		GdbTable catalog = new GdbTable(new File(path, CATALOG));
+		Schema catalogSchema = new Schema();
+		for (SimpleField field : catalog.getFields()) {
+			catalogSchema.put(field);
+		}
+		SimpleField nameField = catalogSchema.get("Name");
+		if (nameField == null) {
+			throw new IOException(path + " has no Name field in its system catalog");
+		}
+		List<String> featureNames = new ArrayList<String>();
+		List<GdbTable> featureTables = new ArrayList<GdbTable>();
+		for (int id = 1; id <= catalog.getMaxObjectId(); id++) {
+			Row row = catalog.readRow(id, catalogSchema);
+			if (row == null) continue;
+			Object name = row.getData(nameField);
+			if (name == null || name.toString().startsWith("GDB_")) continue;
+			File file = new File(path, String.format("a%08x.gdbtable", id));
+			if (!file.exists()) {
+				logger.debug("Skipping table " + name + ", " + file.getName() + " is missing");
+				continue;
+			}
+			GdbTable table;
+			try {
+				table = new GdbTable(file);
+			} catch (IOException e) {
+				logger.warn("Skipping table " + name, e);
+				continue;
+			}
+			if (table.hasGeometry() && !table.canReadGeometry()) {
+				logger.warn("Skipping table " + name + ", its spatial reference cannot be transformed to WGS84");
+				continue;
+			}
+			if (table.hasGeometry()) {
+				featureNames.add(name.toString());
+				featureTables.add(table);
+			} else {
+				names.add(name.toString());
+				tables.add(table);
+			}
+		}
+		names.addAll(featureNames);
+		tables.addAll(featureTables);
+	}
+
+	@CheckForNull
+	public IGISObject read() throws IOException {
+		if (hasSaved()) {
+			return readSaved();
+		}
+		if (currentTable == null) {
+			return nextTable();
+		}
+		while (!currentChunk.hasNext()) {
+			if (!nextChunk()) {
+				currentTable = null;
+				currentSchema = null;
+				return new ContainerEnd();
+			}
+		}
+		return currentChunk.next();
+	}
+
+	/**
+	 * Move to the next accepted table and return its schema, queuing the
+	 * container start.
+	 *
+	 * @return the schema, <code>null</code> if there are no more tables
+	 */
+	@CheckForNull
+	private Schema nextTable() {
+		while (++index < tables.size()) {
+			String name = names.get(index);
+			Schema schema = getSchema(name, tables.get(index));
+			if (acceptor != null && !acceptor.accept(schema)) {
+				continue;
+			}
+			currentTable = tables.get(index);
+			currentSchema = schema;
+			nextId = 1;
+			ContainerStart cs = new ContainerStart("Folder");
+			cs.setSchema(schema.getId());
+			cs.setName(name);
+			addLast(cs);
+			return schema;
+		}
+		return null;
+	}
+
+	/**
+	 * @throws IllegalStateException if the name violates RFC&nbsp;2396 for
+	 *             URI construction
+	 */
+	private static Schema getSchema(String name, GdbTable table) {
+		Schema schema;
+		try {
+			schema = new Schema(new URI("uri:/" + name));
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException("Unexpected failure due to URI exception", e);
+		}
+		for (SimpleField field : table.getFields()) {
+			schema.put(field);
+		}
+		schema.setName(name);
+		return schema;
+	}
+
+	/**
+	 * Read the next range of the current table, with one thread directly and
+	 * otherwise from the workers.
+	 *
+	 * @return false if all object ids of the table have been read
+	 */
+	private boolean nextChunk() throws IOException {
+		if (executor == null) {
+			if (nextId > currentTable.getMaxObjectId()) return false;
+			int from = nextId;
+			nextId = nextRangeEnd(from);
+			currentChunk = currentTable.readRows(from, nextId, currentSchema).iterator();
+			return true;
+		}
+		submitChunks();
+		if (pending.isEmpty()) return false;
+		currentChunk = waitFor(pending.removeFirst()).iterator();
+		return true;
+	}
+
+	private int nextRangeEnd(int from) {
+		return (int) Math.min((long) from + DEFAULT_CHUNK_SIZE, currentTable.getMaxObjectId() + 1L);
+	}
+
+	/**
+	 * Submit ranges of the current table until the read ahead limit is
+	 * reached or all object ids have been submitted.
+	 */
+	private void submitChunks() {
+		final GdbTable table = currentTable;
+		final Schema schema = currentSchema;
+		while (pending.size() < maxPending && nextId <= table.getMaxObjectId()) {
+			final int from = nextId;
+			final int to = nextRangeEnd(from);
+			nextId = to;
+			pending.add(executor.submit(new Callable<List<Row>>() {
+				public List<Row> call() throws Exception {
+					return table.readRows(from, to, schema);
+				}
+			}));
+		}
+	}
+
+	private List<Row> waitFor(Future<List<Row>> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading geodatabase", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Stop the workers.
+	 */
+	public void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		pending.clear();
+		currentTable = null;
+	}
+}
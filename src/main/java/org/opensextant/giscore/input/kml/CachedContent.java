@@ -0,0 +1,111 @@
+/****************************************************************************************
+ *  CachedContent.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.kml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Content of a URL held in a {@link UrlContentCache} together with the
+ * validators used to revalidate it with the server.
+ */
+public class CachedContent {
+
+	private final URL url;
+	private final File file;
+	private final String contentType;
+	private final String eTag;
+	private final long lastModified;
+	private final long size;
+
+	/**
+	 * @param url          the URL, never <code>null</code>
+	 * @param file         file holding the content, never <code>null</code>
+	 * @param contentType  content type, may be <code>null</code>
+	 * @param eTag         ETag value, may be <code>null</code>
+	 * @param lastModified Last-Modified value in milliseconds, 0 if not known
+	 * @param size         size of the content in bytes
+	 */
+	public CachedContent(URL url, File file, String contentType, String eTag,
+						 long lastModified, long size) {
+		if (url == null) throw new IllegalArgumentException("url should never be null");
+		if (file == null) throw new IllegalArgumentException("file should never be null");
+		this.url = url;
+		this.file = file;
+		this.contentType = contentType;
+		this.eTag = eTag;
+		this.lastModified = lastModified;
+		this.size = size;
+	}
+
+	@NonNull
+	public URL getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return local file holding the content, never <code>null</code>
+	 */
+	@NonNull
+	public File getFile() {
+		return file;
+	}
+
+	@CheckForNull
+	public String getContentType() {
+		return contentType;
+	}
+
+	@CheckForNull
+	public String getETag() {
+		return eTag;
+	}
+
+	/**
+	 * @return Last-Modified value in milliseconds since the epoch, 0 if not known
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return size of the content in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Open the cached content for reading.
+	 *
+	 * @return input stream, never <code>null</code>
+	 * @throws IOException if the content has been removed from the cache
+	 */
+	@NonNull
+	public InputStream openStream() throws IOException {
+		return new BufferedInputStream(new FileInputStream(file));
+	}
+
+	public String toString() {
+		return url + " [" + size + " bytes]";
+	}
+}
@@ -0,0 +1,454 @@
+/****************************************************************************************
+ *  CoordinateScanner.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.kml;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opensextant.geodesy.Angle;
+import org.opensextant.geodesy.Geodetic2DPoint;
+import org.opensextant.geodesy.Geodetic3DPoint;
+import org.opensextant.geodesy.Latitude;
+import org.opensextant.geodesy.Longitude;
+import org.opensextant.giscore.geometry.CoordinateSequence;
+import org.opensextant.giscore.geometry.Point;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Character level scanner for the text of a KML <code>coordinates</code>
+ * element. Numbers are converted straight from the characters into primitive
+ * arrays without creating intermediate strings or geodesy objects, and the
+ * decimal to double conversion is exact (the same value as
+ * {@link Double#parseDouble(String)}).
+ * <p/>
+ * The scanner accepts the same loose input as Google Earth and as the
+ * tokenizer based parser it replaces: whitespace may appear anywhere,
+ * commas may separate tuples, missing values are taken as 0 and other
+ * text is ignored. Tuples with a longitude or latitude out of range are
+ * dropped.
+ * <p/>
+ * A scanner reuses its buffers between calls so is not thread-safe.
+ */
+class CoordinateScanner {
+
+	// warnings are reported under the KmlInputStream logger as before
+	private static final Logger log = LoggerFactory.getLogger(KmlInputStream.class);
+
+	/**
+	 * Largest mantissa that is exactly representable as a double
+	 */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	/**
+	 * Powers of ten that are exactly representable as a double
+	 */
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	/**
+	 * Scanned tuples as (lon, lat, elev) in degrees
+	 */
+	private double[] coords = new double[48];
+
+	/**
+	 * Whether each tuple had an elevation
+	 */
+	private boolean[] hasElevation = new boolean[16];
+
+	private int count;
+
+	private boolean whitespaceInTuple;
+
+	// tuple state
+	private int numparts;
+	private boolean seenComma;
+	private double lon, lat, elev;
+
+	// value of the last number scanned
+	private double nval;
+
+	/**
+	 * Scan the coordinate text.
+	 *
+	 * @param text the coordinate text, never null
+	 * @return the number of valid tuples found
+	 */
+	int scan(CharSequence text) {
+		count = 0;
+		numparts = 0;
+		seenComma = false;
+		whitespaceInTuple = false;
+		lon = lat = elev = 0;
+		final int len = text.length();
+		boolean commaThenSpace = false;
+		int i = 0;
+		while (i < len) {
+			char c = text.charAt(i);
+			if (c <= ' ') {
+				// whitespace
+				if (seenComma) commaThenSpace = true;
+				i++;
+			} else if (isNumberStart(c)) {
+				int end = scanNumber(text, i, len);
+				if (end < 0) {
+					// a lone minus sign
+					log.warn("ignore invalid character in coordinate string: (-)");
+					i++;
+				} else {
+					if (commaThenSpace && c != '-') whitespaceInTuple = true;
+					handleNumber();
+					i = end;
+				}
+				commaThenSpace = false;
+			} else if (isWordChar(c)) {
+				int start = i;
+				do {
+					i++;
+				} while (i < len && (isWordChar(text.charAt(i)) || isNumberStart(text.charAt(i))));
+				log.warn("ignore invalid string in coordinate: \"" + text.subSequence(start, i) + "\"");
+				commaThenSpace = false;
+			} else if (c == ',') {
+				handleComma();
+				commaThenSpace = false;
+				i++;
+			} else {
+				if (c == '/') {
+					// comment character, skip to the end of the line
+					while (i < len && text.charAt(i) != '\r' && text.charAt(i) != '\n') i++;
+					commaThenSpace = false;
+					continue;
+				}
+				if (c == '"' || c == '\'') {
+					// quoted text is ignored
+					i++;
+					while (i < len) {
+						char q = text.charAt(i);
+						if (q == '\r' || q == '\n') break;
+						i++;
+						if (q == c) break;
+						if (q == '\\') i++;
+					}
+				} else {
+					i++;
+				}
+				log.warn("ignore invalid character in coordinate string: (" + c + ")");
+				commaThenSpace = false;
+			}
+		}
+
+		// add last coord
+		switch (numparts) {
+			case 1:
+				add(lon, 0, 0, false);
+				break;
+			case 2:
+				add(lon, lat, 0, false);
+				break;
+			case 3:
+				add(lon, lat, elev, true);
+		}
+		return count;
+	}
+
+	/**
+	 * @return <code>true</code> if whitespace was found within a tuple in the
+	 * last scan (ATC 3)
+	 */
+	boolean hasWhitespaceInTuple() {
+		return whitespaceInTuple;
+	}
+
+	/**
+	 * @return the number of tuples found by the last scan
+	 */
+	int size() {
+		return count;
+	}
+
+	/**
+	 * Get the tuples of the last scan as a coordinate sequence. If some tuples
+	 * have no elevation then the sequence is 2d.
+	 *
+	 * @return the coordinate sequence, never null
+	 */
+	@NonNull
+	CoordinateSequence toSequence() {
+		boolean is3D = count > 0;
+		for (int i = 0; i < count; i++) {
+			if (!hasElevation[i]) {
+				is3D = false;
+				break;
+			}
+		}
+		double[] packed;
+		if (is3D) {
+			packed = Arrays.copyOf(coords, count * 3);
+		} else {
+			packed = new double[count * 2];
+			for (int i = 0; i < count; i++) {
+				packed[i * 2] = coords[i * 3];
+				packed[i * 2 + 1] = coords[i * 3 + 1];
+			}
+		}
+		return CoordinateSequence.fromDegrees(packed, is3D);
+	}
+
+	/**
+	 * @param i the tuple index
+	 * @return the point for a tuple of the last scan, 3d if the tuple had
+	 * an elevation
+	 */
+	@NonNull
+	Point getPoint(int i) {
+		Longitude lon = new Longitude(coords[i * 3], Angle.DEGREES);
+		Latitude lat = new Latitude(coords[i * 3 + 1], Angle.DEGREES);
+		return new Point(hasElevation[i]
+				? new Geodetic3DPoint(lon, lat, coords[i * 3 + 2])
+				: new Geodetic2DPoint(lon, lat));
+	}
+
+	/**
+	 * @return the tuples of the last scan as a list of points
+	 */
+	@NonNull
+	List<Point> toPoints() {
+		List<Point> list = new ArrayList<Point>(count);
+		for (int i = 0; i < count; i++) {
+			list.add(getPoint(i));
+		}
+		return list;
+	}
+
+	private void handleNumber() {
+		if (numparts == 3) {
+			if (seenComma) {
+				log.warn("comma found instead of whitespace between tuples before " + nval);
+				// handle commas appearing between tuples
+				// Google Earth interprets input with: "1,2,3,4,5,6" as two tuples: {1,2,3}  {4,5,6}.
+				seenComma = false;
+			}
+			// add last coord to list and reset counter
+			add(lon, lat, elev, true);
+			numparts = 0; // reset state for start of new tuple
+		}
+
+		switch (++numparts) {
+			case 1:
+				if (seenComma) {
+					lat = nval;
+					lon = 0; // skipped longitude (use 0 degrees)
+					numparts = 2;
+				} else {
+					// starting new coordinate
+					lon = nval;
+					if (log.isDebugEnabled() && Math.abs(nval) > 180)
+						log.debug("longitude out of range: " + nval);
+				}
+				break;
+
+			case 2:
+				if (seenComma) {
+					lat = nval;
+				} else {
+					add(lon, 0, 0, false);
+					// start new tuple
+					lon = nval;
+					if (log.isDebugEnabled() && Math.abs(nval) > 180)
+						log.debug("longitude out of range: " + nval);
+					numparts = 1;
+				}
+				break;
+
+			case 3:
+				if (seenComma) {
+					elev = nval;
+				} else {
+					add(lon, lat, 0, false);
+					// start new tuple
+					lon = nval;
+					if (log.isDebugEnabled() && Math.abs(nval) > 180)
+						log.debug("longitude out of range: " + nval);
+					numparts = 1;
+				}
+				break;
+		}
+		seenComma = false;
+	}
+
+	private void handleComma() {
+		if (!seenComma) {
+			// start of next coordinate component
+			seenComma = true;
+			if (numparts == 0) {
+				lon = 0; // skipped longitude (use 0 degrees)
+				numparts = 1;
+			}
+		} else if (numparts == 1) {
+			lat = 0; // skipped Latitude (use 0 degrees)
+			numparts = 2;
+		} else if (numparts == 0) {
+			lon = 0; // skipped longitude (use 0 degrees)
+			numparts = 1;
+		}
+	}
+
+	private void add(double lon, double lat, double elev, boolean is3D) {
+		if (!CoordinateSequence.isValid(lon, lat)) {
+			// bad lat/longitude; e.g. out of valid range
+			log.error("Invalid coordinate: " + lon + "," + lat);
+			return;
+		}
+		if (count == hasElevation.length) {
+			hasElevation = Arrays.copyOf(hasElevation, count * 2);
+			coords = Arrays.copyOf(coords, count * 6);
+		}
+		coords[count * 3] = lon;
+		coords[count * 3 + 1] = lat;
+		coords[count * 3 + 2] = elev;
+		hasElevation[count++] = is3D;
+	}
+
+	private static boolean isNumberStart(char c) {
+		return (c >= '0' && c <= '9') || c == '.' || c == '-';
+	}
+
+	private static boolean isWordChar(char c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c >= 160;
+	}
+
+	/**
+	 * Scan a number starting at <code>start</code> and set {@link #nval}. A
+	 * number is an optional minus sign, digits with at most one decimal
+	 * point and an optional exponent. A dangling exponent marker (e.g.
+	 * <tt>1.5e</tt>) is consumed and ignored, and a number without any
+	 * digits is taken as 0.
+	 *
+	 * @return the index after the number or -1 if only a minus sign was found
+	 */
+	private int scanNumber(CharSequence text, int start, int len) {
+		int i = start;
+		boolean negative = false;
+		if (text.charAt(i) == '-') {
+			negative = true;
+			i++;
+			if (i == len || !(isDigit(text.charAt(i)) || text.charAt(i) == '.')) {
+				return -1;
+			}
+		}
+		long mantissa = 0;
+		int digits = 0; // significant digits in mantissa
+		int scale = 0; // decimal exponent adjustment for the mantissa
+		boolean haveDecimal = false;
+		boolean haveDigit = false;
+		boolean exact = true;
+		for (; i < len; i++) {
+			char c = text.charAt(i);
+			if (isDigit(c)) {
+				haveDigit = true;
+				if (mantissa == 0 && c == '0') {
+					// leading zeros are not significant
+					if (haveDecimal) scale--;
+				} else if (digits < 18) {
+					mantissa = mantissa * 10 + (c - '0');
+					digits++;
+					if (haveDecimal) scale--;
+				} else {
+					// too many digits for the fast path
+					exact = false;
+					if (!haveDecimal) scale++;
+				}
+			} else if (c == '.' && !haveDecimal) {
+				haveDecimal = true;
+			} else {
+				break;
+			}
+		}
+		int mantissaEnd = i;
+		int exponent = 0;
+		int exponentStart = -1;
+		if (i < len && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+			i++;
+			boolean negativeExp = false;
+			if (i < len && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+				negativeExp = text.charAt(i) == '-';
+				i++;
+			}
+			if (i < len && isDigit(text.charAt(i))) {
+				exponentStart = i;
+				do {
+					if (exponent < 100000)
+						exponent = exponent * 10 + (text.charAt(i) - '0');
+					i++;
+				} while (i < len && isDigit(text.charAt(i)));
+				if (negativeExp) exponent = -exponent;
+			}
+		}
+		if (!haveDigit) {
+			nval = 0;
+		} else if (exact && mantissa <= MAX_EXACT_MANTISSA) {
+			nval = toDouble(mantissa, scale + exponent, text, start, mantissaEnd, exponentStart, i);
+			if (negative) nval = -nval;
+		} else {
+			nval = parse(text, start, mantissaEnd, exponentStart, i);
+		}
+		return i;
+	}
+
+	/**
+	 * Convert mantissa * 10^exp10 to the nearest double. Both operands of the
+	 * multiplication or division are exact when the mantissa fits in 53 bits
+	 * and the power of ten is at most 10^22, so the result is correctly
+	 * rounded. Other values are handed to {@link Double#parseDouble}.
+	 */
+	private static double toDouble(long mantissa, int exp10, CharSequence text,
+	                               int start, int mantissaEnd, int exponentStart, int end) {
+		if (mantissa == 0) return 0.0;
+		if (exp10 >= 0 && exp10 < POWERS_OF_TEN.length) {
+			return mantissa * POWERS_OF_TEN[exp10];
+		} else if (exp10 < 0 && -exp10 < POWERS_OF_TEN.length) {
+			return mantissa / POWERS_OF_TEN[-exp10];
+		}
+		return Math.abs(parse(text, start, mantissaEnd, exponentStart, end));
+	}
+
+	/**
+	 * Slow path for numbers outside the exact fast path
+	 */
+	private static double parse(CharSequence text, int start, int mantissaEnd, int exponentStart, int end) {
+		StringBuilder buf = new StringBuilder(end - start + 1);
+		buf.append(text, start, mantissaEnd);
+		if (exponentStart > 0) {
+			buf.append('e');
+			if (text.charAt(exponentStart - 1) == '-') buf.append('-');
+			buf.append(text, exponentStart, end);
+		}
+		try {
+			return Double.parseDouble(buf.toString());
+		} catch (NumberFormatException e) {
+			// e.g. "-." is taken as 0
+			return 0;
+		}
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
@@ -0,0 +1,341 @@
+/****************************************************************************************
+ *  DiskContentCache.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.kml;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link UrlContentCache} that keeps content in files in a directory so it
+ * survives between runs. The total size of the cached content is bounded and
+ * the least recently used entries are evicted first when it is exceeded.
+ * Each entry is stored as a data file and a properties file holding the URL,
+ * content type and validators. The last access time is kept as the
+ * modification time of the data file so the LRU order is restored when an
+ * existing cache directory is opened again.
+ */
+public class DiskContentCache implements UrlContentCache {
+
+	private static final Logger log = LoggerFactory.getLogger(DiskContentCache.class);
+
+	private static final String META_EXT = ".meta";
+	private static final String DATA_EXT = ".data";
+
+	private final File directory;
+	private final long maxSize;
+
+	/**
+	 * Entries keyed by URL string in access order, least recently used first
+	 */
+	private final LinkedHashMap<String, CachedContent> entries =
+			new LinkedHashMap<String, CachedContent>(16, 0.75f, true);
+
+	private long size;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Create or open a cache in the given directory.
+	 *
+	 * @param directory directory holding the cached content, created if
+	 *                  it does not exist
+	 * @param maxSize   maximum total size of the cached content in bytes
+	 * @throws IllegalArgumentException if directory is null or is not a
+	 *                                  directory, or if maxSize is not positive
+	 */
+	public DiskContentCache(File directory, long maxSize) {
+		if (directory == null) throw new IllegalArgumentException("directory should never be null");
+		if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive");
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IllegalArgumentException("Cannot create cache directory " + directory);
+		this.directory = directory;
+		this.maxSize = maxSize;
+		load();
+	}
+
+	/**
+	 * Read the entries of an existing cache directory in least recently
+	 * used order, removing incomplete entries.
+	 */
+	private void load() {
+		File[] metaFiles = directory.listFiles();
+		if (metaFiles == null) return;
+		List<CachedContent> found = new ArrayList<CachedContent>();
+		for (File file : metaFiles) {
+			String name = file.getName();
+			if (name.endsWith(".tmp")) {
+				// left over from an interrupted put
+				delete(file);
+			} else if (name.endsWith(META_EXT)) {
+				CachedContent entry = readMeta(file);
+				if (entry == null) {
+					delete(file);
+				} else {
+					found.add(entry);
+				}
+			}
+		}
+		CachedContent[] sorted = found.toArray(new CachedContent[found.size()]);
+		Arrays.sort(sorted, new Comparator<CachedContent>() {
+			public int compare(CachedContent a, CachedContent b) {
+				long ta = a.getFile().lastModified();
+				long tb = b.getFile().lastModified();
+				return ta < tb ? -1 : ta == tb ? 0 : 1;
+			}
+		});
+		for (CachedContent entry : sorted) {
+			entries.put(entry.getUrl().toExternalForm(), entry);
+			size += entry.getSize();
+		}
+		evict();
+	}
+
+	private CachedContent readMeta(File metaFile) {
+		Properties props = new Properties();
+		InputStream is = null;
+		try {
+			is = new FileInputStream(metaFile);
+			props.load(is);
+			File data = new File(directory, props.getProperty("file", ""));
+			long length = Long.parseLong(props.getProperty("size", "-1"));
+			if (!data.isFile() || data.length() != length) {
+				log.debug("Remove incomplete cache entry {}", metaFile);
+				delete(data);
+				return null;
+			}
+			String lastModified = props.getProperty("lastModified");
+			return new CachedContent(new URL(props.getProperty("url")), data,
+					props.getProperty("contentType"), props.getProperty("eTag"),
+					lastModified == null ? 0 : Long.parseLong(lastModified), length);
+		} catch (IOException e) {
+			log.warn("Failed to read cache entry " + metaFile + ": " + e);
+		} catch (NumberFormatException e) {
+			log.warn("Invalid cache entry " + metaFile + ": " + e);
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+		return null;
+	}
+
+	public synchronized CachedContent get(URL url) {
+		String key = url.toExternalForm();
+		CachedContent entry = entries.get(key);
+		if (entry != null) {
+			if (!entry.getFile().isFile()) {
+				// removed outside of the cache
+				remove(key);
+				return null;
+			}
+			// keep access order for the next time the cache is opened
+			entry.getFile().setLastModified(System.currentTimeMillis());
+		}
+		return entry;
+	}
+
+	public CachedContent put(URL url, String contentType, String eTag, long lastModified,
+							 InputStream content) throws IOException {
+		String key = url.toExternalForm();
+		String base = getBaseName(key);
+		// copy content outside the lock since it may be a slow download
+		File temp = File.createTempFile(base, ".tmp", directory);
+		long length;
+		OutputStream os = new FileOutputStream(temp);
+		try {
+			length = IOUtils.copyLarge(content, os);
+		} catch (IOException e) {
+			IOUtils.closeQuietly(os);
+			delete(temp);
+			throw e;
+		} finally {
+			IOUtils.closeQuietly(os);
+		}
+		synchronized (this) {
+			remove(key);
+			// unique data file name since readers may still have the previous content open
+			File data = new File(directory, base + "-" + System.currentTimeMillis() + DATA_EXT);
+			for (int i = 1; data.exists(); i++) {
+				data = new File(directory, base + "-" + System.currentTimeMillis() + "-" + i + DATA_EXT);
+			}
+			if (!temp.renameTo(data)) {
+				delete(temp);
+				throw new IOException("Failed to store cache entry for " + url);
+			}
+			CachedContent entry = new CachedContent(url, data, contentType, eTag, lastModified, length);
+			writeMeta(new File(directory, base + META_EXT), entry);
+			entries.put(key, entry);
+			size += length;
+			evict();
+			return entry;
+		}
+	}
+
+	private void writeMeta(File metaFile, CachedContent entry) throws IOException {
+		Properties props = new Properties();
+		props.setProperty("url", entry.getUrl().toExternalForm());
+		props.setProperty("file", entry.getFile().getName());
+		props.setProperty("size", Long.toString(entry.getSize()));
+		if (entry.getContentType() != null)
+			props.setProperty("contentType", entry.getContentType());
+		if (entry.getETag() != null)
+			props.setProperty("eTag", entry.getETag());
+		if (entry.getLastModified() != 0)
+			props.setProperty("lastModified", Long.toString(entry.getLastModified()));
+		OutputStream os = new FileOutputStream(metaFile);
+		try {
+			props.store(os, null);
+		} finally {
+			os.close();
+		}
+	}
+
+	public synchronized void remove(URL url) {
+		remove(url.toExternalForm());
+	}
+
+	private void remove(String key) {
+		CachedContent entry = entries.remove(key);
+		if (entry != null) {
+			size -= entry.getSize();
+			delete(entry.getFile());
+			delete(new File(directory, getBaseName(key) + META_EXT));
+		}
+	}
+
+	/**
+	 * Evict least recently used entries until the cache fits its maximum
+	 * size. The most recent entry is kept even if it alone is too large.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, CachedContent>> it = entries.entrySet().iterator();
+		while (size > maxSize && entries.size() > 1) {
+			Map.Entry<String, CachedContent> eldest = it.next();
+			CachedContent entry = eldest.getValue();
+			it.remove();
+			size -= entry.getSize();
+			delete(entry.getFile());
+			delete(new File(directory, getBaseName(eldest.getKey()) + META_EXT));
+			evictions++;
+			log.debug("Evict cache entry {}", entry);
+		}
+	}
+
+	public synchronized void recordHit(CachedContent entry) {
+		hits++;
+	}
+
+	public synchronized void recordMiss(URL url) {
+		misses++;
+	}
+
+	/**
+	 * Remove all entries from the cache. The hit and miss counts are kept.
+	 */
+	public synchronized void clear() {
+		for (String key : new ArrayList<String>(entries.keySet())) {
+			remove(key);
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return total size of the cached content in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * @return number of fetches served from the cache
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * @return number of fetches that downloaded the content
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * @return number of entries evicted to keep the cache within its maximum size
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	public String toString() {
+		return "DiskContentCache[" + directory + ", entries=" + getEntryCount()
+				+ ", size=" + getSize() + ", hits=" + getHitCount()
+				+ ", misses=" + getMissCount() + "]";
+	}
+
+	private static String getBaseName(String key) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] digest = md.digest(key.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+						.append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-1 is required on all Java platforms
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			// UTF-8 is required on all Java platforms
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void delete(File file) {
+		if (file.exists() && !file.delete()) {
+			log.debug("Failed to delete {}", file);
+		}
+	}
+}
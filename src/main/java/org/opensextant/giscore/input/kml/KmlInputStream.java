@@ -26,7 +26,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -35,7 +34,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
@@ -76,6 +74,7 @@ import org.opensextant.giscore.events.SimpleField;
 import org.opensextant.giscore.events.Style;
 import org.opensextant.giscore.events.StyleMap;
 import org.opensextant.giscore.events.TaggedMap;
+import org.opensextant.giscore.geometry.CoordinateSequence;
 import org.opensextant.giscore.geometry.Geometry;
 import org.opensextant.giscore.geometry.GeometryBag;
 import org.opensextant.giscore.geometry.GeometryBase;
@@ -88,7 +87,6 @@ import org.opensextant.giscore.geometry.Polygon;
 import org.opensextant.giscore.input.XmlInputStream;
 import org.opensextant.giscore.utils.Color;
 import org.opensextant.giscore.utils.DateTime;
-import org.opensextant.giscore.utils.NumberStreamTokenizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -220,8 +218,6 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 
 	public static final Logger log = LoggerFactory.getLogger(KmlInputStream.class);
 
-	private static final Pattern WHITESPACE_PAT = Pattern.compile(",\\s+\\.?\\d");
-
 	private static final Set<String> ms_kml_ns = new HashSet<String>(8);
 
 	static {
@@ -241,13 +237,23 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 	private static final Set<String> ms_attributes = new HashSet<String>(2); // open, metadata
 	private static final Set<String> ms_geometries = new HashSet<String>(6); // Point, LineString, etc.
 
-	private static final Longitude COORD_ERROR = new Longitude();
+	private static final CoordinateSequence EMPTY_COORDS = CoordinateSequence.fromDegrees(new double[0], false);
 	private static final QName ID_ATTR = new QName(ID);
 
 	private Map<String, String> schemaAliases;
 	private final Map<String, Schema> schemata = new HashMap<String, Schema>();
 	private boolean dupAltitudeModeWarn;
 
+	/**
+	 * Scanner for coordinate text, reused for every coordinates element
+	 */
+	private final CoordinateScanner coordScanner = new CoordinateScanner();
+
+	/**
+	 * Reusable buffer for the text of coordinates elements
+	 */
+	private final StringBuilder coordText = new StringBuilder();
+
 	static {
 		// all non-container elements that extend kml:AbstractFeatureType base type in KML Schema
 		ms_features.add(PLACEMARK);
@@ -277,18 +283,33 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 	public KmlInputStream(InputStream input) throws IOException {
 		this(input, new Object[0]);
 	}
-	
+
+	/**
+	 * Creates a <code>KmlInputStream</code> using the given parsing engine.
+	 *
+	 * @param input  input stream for the kml file, never <code>null</code>
+	 * @param engine parsing engine, <code>null</code> for {@link Engine#EVENT}
+	 * @throws IOException              if an I/O or parsing error occurs
+	 * @throws IllegalArgumentException if input is null
+	 */
+	public KmlInputStream(InputStream input, Engine engine) throws IOException {
+		this(input, new Object[] { engine });
+	}
+
 	/**
 	 * Creates a <code>KmlInputStream</code>
 	 * and saves its argument, the input stream
 	 * <code>input</code>, for later use.
 	 *
 	 * @param input input stream for the kml file, never <code>null</code>
+	 * @param args  optional arguments, the first may be the {@link Engine}
+	 *              used to parse the XML
 	 * @throws IOException              if an I/O or parsing error occurs
 	 * @throws IllegalArgumentException if input is null
 	 */
 	public KmlInputStream(InputStream input, Object[] args) throws IOException {
-		super(input);
+		super(input, args != null && args.length > 0 && args[0] instanceof Engine
+				? (Engine) args[0] : Engine.EVENT);
 		DocumentStart ds = new DocumentStart(DocumentType.KML);
 		addLast(ds);
 		try {
@@ -365,7 +386,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 		} else {
 			try {
 				while (true) {
-					XMLEvent e = stream.nextEvent();
+					XMLEvent e = nextElementEvent();
 					if (e == null) {
 						return null;
 					}
@@ -594,7 +615,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 		// should never be null => empty string if no namespace
 		String rootNS = name.getNamespaceURI();
 		while (true) {
-			next = stream.nextEvent();
+			next = nextElementEvent();
 			if (foundEndTag(next, name)) {
 				return;
 			}
@@ -682,7 +703,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 		Schema schema = schemata.get(uri);
 
 		while (true) {
-			next = stream.nextEvent();
+			next = nextElementEvent();
 			if (foundEndTag(next, qname)) {
 				return;
 			}
@@ -718,7 +739,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 		XMLEvent next;
 		String rval = null;
 		while (true) {
-			next = stream.nextEvent();
+			next = nextElementEvent();
 			if (foundEndTag(next, name)) { // also checks if next == null
 				return rval;
 			}
@@ -756,7 +777,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 			throws XMLStreamException {
 		TaggedMap region = new TaggedMap(REGION);
 		while (true) {
-			XMLEvent next = stream.nextEvent();
+			XMLEvent next = nextElementEvent();
 			if (foundEndTag(next, name)) {
 				// must have at least one value from either Lod or LatLonAltBox
 				if (!region.isEmpty()) {
@@ -804,7 +825,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 		}
 
 		while (true) {
-			next = stream.nextEvent();
+			next = nextElementEvent();
 			if (foundEndTag(next, name)) {
 				return sm;
 			}
@@ -974,7 +995,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 		// otherwise out of order style or inline style in StyleMap
 
 		while (true) {
-			next = stream.nextEvent();
+			next = nextElementEvent();
 			if (foundEndTag(next, name)) {
 				return style;
 			}
@@ -1694,7 +1715,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 		if (id != null) fs.setId(id.getValue());
 
 		while (true) {
-			XMLEvent ee = stream.nextEvent();
+			XMLEvent ee = nextElementEvent();
 			// Note: if element has undeclared namespace then throws XMLStreamException
 			// Message: http://www.w3.org/TR/1999/REC-xml-names-19990114#ElementPrefixUnbound
 			if (foundEndTag(ee, name)) {
@@ -2058,7 +2079,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 		} else if (localname.equals(MULTI_GEOMETRY)) {
 			List<Geometry> geometries = new ArrayList<Geometry>();
 			while (true) {
-				XMLEvent event = stream.nextEvent();
+				XMLEvent event = nextElementEvent();
 				if (foundEndTag(event, name)) {
 					break;
 				}
@@ -2105,7 +2126,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 			// we don't really have a way to represent this yet
 			Model model = new Model();
 			while (true) {
-				XMLEvent event = stream.nextEvent();
+				XMLEvent event = nextElementEvent();
 				if (foundEndTag(event, name)) {
 					break;
 				}
@@ -2156,12 +2177,12 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 				log.warn("LineString geometry fails constraint to contain at least two coordinate tuples [ATC 15]");
 			}
 			if (geom.size() == 1) {
-				Point pt = geom.points.get(0);
+				Point pt = geom.coords.getPoint(0);
 				log.info("line with single coordinate converted to point: {}", pt);
 				return getGeometry(geom, pt);
 			} else {
 				// if geom.size() == 0 throws IllegalArgumentException
-				return getGeometry(geom, new Line(geom.points));
+				return getGeometry(geom, new Line(geom.coords));
 			}
 		} else if (localname.equals(LINEAR_RING)) {
 			GeometryGroup geom = parseCoordinates(name);
@@ -2173,15 +2194,15 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 				log.warn("LinearRing geometry fails constraint to contain at least 4 coordinate tuples [ATC 16]");
 			}
 			if (geom.size() == 1) {
-				Point pt = geom.points.get(0);
+				Point pt = geom.coords.getPoint(0);
 				log.info("ring with single coordinate converted to point: {}", pt);
 				return getGeometry(geom, pt);
 			} else if (geom.size() != 0 && geom.size() < 4) {
 				log.info("ring with {} coordinates converted to line: {}", geom.size(), geom);
-				return getGeometry(geom, new Line(geom.points));
+				return getGeometry(geom, new Line(geom.coords));
 			} else {
 				// if geom.size() == 0 throws IllegalArgumentException
-				return getGeometry(geom, new LinearRing(geom.points));
+				return getGeometry(geom, new LinearRing(geom.coords));
 			}
 		} else if (localname.equals(POLYGON)) {
 			// contains one outer ring and 0 or more inner rings
@@ -2189,7 +2210,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 			GeometryGroup geom = new GeometryGroup();
 			List<LinearRing> inners = new ArrayList<LinearRing>();
 			while (true) {
-				XMLEvent event = stream.nextEvent();
+				XMLEvent event = nextElementEvent();
 				if (foundEndTag(event, name)) {
 					break;
 				}
@@ -2208,21 +2229,21 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 							log.warn("Polygon/LinearRing geometry fails constraint to contain at least 4 coordinate tuples [ATC 16]");
 						}
 						if (nPoints == 1) {
-							Point pt = geom.points.get(0);
+							Point pt = geom.coords.getPoint(0);
 							log.info("polygon with single coordinate converted to point: {}", pt);
 							return getGeometry(geom, pt);
 						} else if (nPoints != 0 && nPoints < 4) {
 							// less than 4 points - use line for the shape
 							log.info("polygon with {} coordinates converted to line: {}", nPoints, geom);
-							Line line = new Line(geom.points);
+							Line line = new Line(geom.coords);
 							return getGeometry(geom, line);
 						}
 						// if geom.size() == 0 throws IllegalArgumentException
-						outer = new LinearRing(geom.points);
+						outer = new LinearRing(geom.coords);
 					} else if (INNER_BOUNDARY_IS.equals(localPart)) {
 						GeometryGroup innerRing = parseCoordinates(qname);
 						if (innerRing.size() != 0)
-							inners.add(new LinearRing(innerRing.points));
+							inners.add(new LinearRing(innerRing.coords));
 					} else {
 						parseGeomAttr(geom, qname, localPart);
 					}
@@ -2265,7 +2286,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 		Longitude longitude = null;
 		Double altitude = null;
 		while (true) {
-			XMLEvent event = stream.nextEvent();
+			XMLEvent event = nextElementEvent();
 			if (foundEndTag(event, qname)) {
 				break;
 			}
@@ -2322,7 +2343,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 	 */
 	private void parseCoordinates(QName qname, GeometryGroup geom) throws XMLStreamException {
 		while (true) {
-			XMLEvent event = stream.nextEvent();
+			XMLEvent event = nextElementEvent();
 			if (foundEndTag(event, qname)) {
 				break;
 			}
@@ -2330,16 +2351,18 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 				final QName name = event.asStartElement().getName();
 				final String localPart = name.getLocalPart();
 				if (COORDINATES.equals(localPart)) {
-					String text = getNonEmptyElementText();
-					if (text != null) {
-						geom.points = parseCoord(text);
+					coordText.setLength(0);
+					readElementText(coordText);
+					if (!isBlank(coordText)) {
+						scan(coordScanner, coordText);
+						geom.coords = coordScanner.toSequence();
 					}
 				} else {
 					parseGeomAttr(geom, name, localPart);
 				}
 			}
 		}
-		if (geom.points == null) geom.points = Collections.emptyList();
+		if (geom.coords == null) geom.coords = EMPTY_COORDS;
 	}
 
 	/**
@@ -2419,7 +2442,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 		String altitudeMode = null;
 		Boolean extrude = null;
 		while (true) {
-			XMLEvent event = stream.nextEvent();
+			XMLEvent event = nextElementEvent();
 			if (foundEndTag(event, name)) {
 				break;
 			}
@@ -2460,16 +2483,17 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 	 * @throws IllegalArgumentException error if coordinates values are out of range
 	 */
 	@Nullable
-	private static Point parsePointCoord(String coord) {
-		List<Point> list = parseCoord(coord);
-		if (log.isDebugEnabled() && list.size() != 1) {
+	private Point parsePointCoord(String coord) {
+		scan(coordScanner, coord);
+		int size = coordScanner.size();
+		if (log.isDebugEnabled() && size != 1) {
 			// ATC 14: Point [OGC-07-147r2: cl. 10.3.2]
 			// Check that the kml:coordinates element in a kml:Point geometry contains exactly one coordinate tuple
 			// http://service.kmlvalidator.com/ets/ogc-kml/2.2/#Point
 			// NOTE: log level checked at debug level but logged at warn level to be picked up with KmlMetaDataDump
 			log.warn("Point geometry fails constraint to contain exactly one coordinate tuple [ATC 14]");
 		}
-		return list.isEmpty() ? null : list.get(0);
+		return size == 0 ? null : coordScanner.getPoint(0);
 	}
 
 	/**
@@ -2483,170 +2507,44 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 	 * had been found so far.
 	 * <li> Extra whitespace is allowed anywhere in the string.
 	 * <li> Invalid text in input is ignored.
+	 * <li> Coordinates with out of range lat/lon values are dropped.
 	 * </ul>
 	 *
 	 * @param coord Coordinate string
 	 * @return list of coordinates. Returns empty list if no coordinates are valid, never null
-	 * @throws IllegalArgumentException error if lat/lon coordinate values are out of range
 	 */
 	@NonNull
 	public static List<Point> parseCoord(String coord) {
-		List<Point> list = new ArrayList<Point>();
-		NumberStreamTokenizer st = new NumberStreamTokenizer(coord);
-		st.ordinaryChar(',');
-		boolean seenComma = false;
-		int numparts = 0;
-		double elev = 0;
-		Longitude lon = null;
-		Latitude lat = null;
-
-		if (log.isDebugEnabled() && WHITESPACE_PAT.matcher(coord).find()) {
+		CoordinateScanner scanner = new CoordinateScanner();
+		scan(scanner, coord);
+		return scanner.toPoints();
+	}
+
+	/**
+	 * Parse coordinates with the same rules as {@link #parseCoord(String)}
+	 * into a packed coordinate sequence, without creating a {@code Point}
+	 * per coordinate. If only some of the coordinates have an altitude
+	 * then the sequence is 2d.
+	 *
+	 * @param coord Coordinate text
+	 * @return the coordinates, empty if no coordinates are valid, never null
+	 */
+	@NonNull
+	public static CoordinateSequence parseCoordSequence(CharSequence coord) {
+		CoordinateScanner scanner = new CoordinateScanner();
+		scan(scanner, coord);
+		return scanner.toSequence();
+	}
+
+	private static void scan(CoordinateScanner scanner, CharSequence coord) {
+		if (coord == null) coord = "";
+		scanner.scan(coord);
+		if (log.isDebugEnabled() && scanner.hasWhitespaceInTuple()) {
 			// ATC 3: Geometry coordinates
 			// http://service.kmlvalidator.com/ets/ogc-kml/2.2/#Geometry-Coordinates
 			log.warn("Whitespace found within coordinate tuple [ATC 3]");
 			// NOTE: log level checked at debug level but logged at warn level to be picked up with KmlMetaDataDump
 		}
-		// note the NumberStreamTokenizer may introduce some floating-error (e.g., 5.5 -> 5.499999999999999)
-		try {
-			while (st.nextToken() != NumberStreamTokenizer.TT_EOF) {
-				switch (st.ttype) {
-					case NumberStreamTokenizer.TT_WORD:
-						//s = "STRING:" + st.sval; // Already a String
-						log.warn("ignore invalid string in coordinate: \"" + st.sval + "\"");
-						//if (seenComma) System.out.println("\tXXX: WORD: seenComma");
-						//if (numparts != 0) System.out.println("\tXXX: WORD: numparts=" + numparts);
-						break;
-
-					case NumberStreamTokenizer.TT_NUMBER:
-						try {
-							if (numparts == 3) {
-								if (seenComma) {
-									log.warn("comma found instead of whitespace between tuples before " + st.nval);
-									// handle commas appearing between tuples
-									// Google Earth interprets input with: "1,2,3,4,5,6" as two tuples: {1,2,3}  {4,5,6}.
-									seenComma = false;
-								}
-								// add last coord to list and reset counter
-								if (lon != COORD_ERROR)
-									list.add(new Point(new Geodetic3DPoint(lon, lat, elev)));
-								numparts = 0; // reset state for start of new tuple
-							}
-
-							switch (++numparts) {
-								case 1:
-									if (seenComma) {
-										// note: this branch might not be possible: if numparts==0 then seenComma should be false
-										lat = new Latitude(st.nval, Angle.DEGREES);
-										lon = new Longitude(); // skipped longitude (use 0 degrees)
-										numparts = 2;
-									} else {
-										// starting new coordinate (numparts => 1)
-										lon = new Longitude(st.nval, Angle.DEGREES);
-										if (log.isDebugEnabled() && Math.abs(st.nval) > 180)
-											log.debug("longitude out of range: " + st.nval);
-									}
-									break;
-
-								case 2:
-									if (seenComma) {
-										//System.out.println("lat=" + st.nval);
-										lat = new Latitude(st.nval, Angle.DEGREES);
-									} else {
-										if (lon != COORD_ERROR)
-											list.add(new Point(new Geodetic2DPoint(
-													lon, new Latitude())));
-										//else System.out.println("\tERROR: drop bad coord");
-										// start new tuple
-										lon = new Longitude(st.nval, Angle.DEGREES);
-										if (log.isDebugEnabled() && Math.abs(st.nval) > 180)
-											log.debug("longitude out of range: " + st.nval);
-										numparts = 1;
-									}
-									break;
-
-								case 3:
-									if (seenComma) {
-										elev = st.nval;
-									} else {
-										if (lon != COORD_ERROR)
-											list.add(new Point(new Geodetic2DPoint(lon, lat)));
-										//else System.out.println("\tERROR: drop bad coord");
-										// start new tuple
-										lon = new Longitude(st.nval, Angle.DEGREES);
-										if (log.isDebugEnabled() && Math.abs(st.nval) > 180)
-											log.debug("longitude out of range: " + st.nval);
-										numparts = 1;
-									}
-									break;
-							}
-
-							//s = "NUM:" + Double.toString(st.nval);
-                            /*
-                                    double nval = st.nval;
-                                    if (st.nextToken() == StreamTokenizer.TT_WORD && expPattern.matcher(st.sval).matches()) {
-                                        s = "ENUM:" + Double.valueOf(Double.toString(nval) + st.sval).toString();
-                                    } else {
-                                        s = "NUM:" + Double.toString(nval);
-                                        st.pushBack();
-                                    }
-                                    */
-						} catch (IllegalArgumentException e) {
-							// bad lat/longitude; e.g. out of valid range
-							log.error("Invalid coordinate: " + st.nval, e);
-							if (numparts != 0) lon = COORD_ERROR;
-						}
-						seenComma = false; // reset flag
-						break;
-
-					default: // single character in ttype
-						if (st.ttype == ',') {
-							if (!seenComma) {
-								// start of next coordinate component
-								seenComma = true;
-								if (numparts == 0) {
-									//System.out.println("\tXXX: WARN: COMMA0: seenComma w/numparts=" + numparts);
-									lon = new Longitude(); // skipped longitude (use 0 degrees)
-									numparts = 1;
-								}
-							} else
-								// seenComma -> true
-								if (numparts == 1) {
-									//System.out.println("\tXXX: WARN: COMMA2: seenComma w/numparts=" + numparts);
-									lat = new Latitude();  // skipped Latitude (use 0 degrees)
-									numparts = 2;
-								} else if (numparts == 0) {
-									// note this branch may never occur since seenComa=true implies numparts > 0
-									//System.out.println("\tXXX: WARN: COMMA1: seenComma w/numparts=" + numparts);
-									lon = new Longitude(); // skipped longitude (use 0 degrees)
-									numparts = 1;
-								}
-							//else System.out.println("\tXXX: ** ERROR: COMMA3: seenComma w/numparts=" + numparts);
-						} else
-							log.warn("ignore invalid character in coordinate string: (" + (char) st.ttype + ")");
-						//s = "CHAR:" + String.valueOf((char) st.ttype);
-				}
-				//System.out.println("\t" + s);
-			} // while
-		} catch (IOException e) {
-			// we're using StringReader. this should never happen
-			log.error("Failed to parse coord string: " + coord == null || coord.length() <= 20
-					? coord : coord.substring(0, 20) + "...", e);
-		}
-
-		// add last coord if valid
-		if (numparts != 0 && lon != COORD_ERROR)
-			switch (numparts) {
-				case 1:
-					list.add(new Point(new Geodetic2DPoint(lon, new Latitude())));
-					break;
-				case 2:
-					list.add(new Point(new Geodetic2DPoint(lon, lat)));
-					break;
-				case 3:
-					list.add(new Point(new Geodetic3DPoint(lon, lat, elev)));
-			}
-
-		return list;
 	}
 
 	/**
@@ -2671,6 +2569,13 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 		}
 	}
 
+	private static boolean isBlank(CharSequence text) {
+		for (int i = 0, len = text.length(); i < len; i++) {
+			if (!Character.isWhitespace(text.charAt(i))) return false;
+		}
+		return true;
+	}
+
 	/**
 	 * @param e
 	 * @return
@@ -2688,18 +2593,18 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 	}
 
 	private static class GeometryGroup {
-		List<Point> points;
+		CoordinateSequence coords;
 		String altitudeMode;
 		Integer drawOrder;
 		Boolean extrude;
 		Boolean tessellate;
 
 		int size() {
-			return points == null ? 0 : points.size();
+			return coords == null ? 0 : coords.size();
 		}
 
 		public String toString() {
-			return String.valueOf(points);
+			return String.valueOf(coords);
 		}
 	}
 
@@ -32,11 +32,21 @@ import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -90,11 +100,24 @@ public class KmlReader extends KmlBaseReader implements IGISInputStream {
 
 	private Proxy proxy;
 
+	private UrlContentCache contentCache;
+
+	/**
+	 * KMZ archives opened while importing NetworkLinks keyed by URL, each a
+	 * task that opens the archive once and yields null if it could not be
+	 * opened
+	 */
+	private final Map<String, FutureTask<KmzArchive>> kmzArchives = new HashMap<String, FutureTask<KmzArchive>>();
+
     private boolean rewriteStyleUrls;
 
 	private boolean ignoreInactiveRegionNetworkLinks;
 
 	private int skipCount;
+
+	private int importThreads = 1;
+	private int maxConnectionsPerHost = 4;
+	private boolean orderedImport = true;
     /**
 	 * Creates a <code>KmlStreamReader</code> and attempts to read
 	 * all GISObjects from a stream created from the <code>URL</code>.
@@ -118,8 +141,28 @@ public class KmlReader extends KmlBaseReader implements IGISInputStream {
 	 * @throws NullPointerException if url is <tt>null</tt>
 	 */
 	public KmlReader(URL url, Proxy proxy) throws IOException {
-        this.proxy = proxy;
-        iStream = UrlRef.getInputStream(url, proxy);
+		this(url, proxy, null);
+	}
+
+	/**
+	 * Creates a <code>KmlStreamReader</code> and attempts to read
+	 * all GISObjects from a stream created from the <code>URL</code>
+	 * using a cache for content fetched over HTTP.
+	 *
+	 * @param url   the KML or KMZ URL to be opened for reading, never <tt>null</tt>.
+	 * @param proxy the Proxy through which this connection
+	 *             will be made. If direct connection is desired,
+	 *             <code>null</code> should be specified.
+	 * @param cache cache for the URL and its NetworkLinks, <code>null</code>
+	 *             if content is not cached
+	 *
+	 * @throws java.io.IOException if an I/O error occurs
+	 * @throws NullPointerException if url is <tt>null</tt>
+	 */
+	public KmlReader(URL url, Proxy proxy, UrlContentCache cache) throws IOException {
+		this.proxy = proxy;
+		this.contentCache = cache;
+		iStream = UrlRef.getInputStream(url, proxy, cache);
 		try {
 			kis = new KmlInputStream(iStream);
 		} catch (IOException e) {
@@ -322,6 +365,65 @@ public class KmlReader extends KmlBaseReader implements IGISInputStream {
 		return maxLinkCountExceeded;
 	}
 
+	/**
+	 * Get number of threads used to fetch and parse NetworkLinks when
+	 * importing nested KML content. Default=1.
+	 */
+	public int getImportThreads() {
+		return importThreads;
+	}
+
+	/**
+	 * Set number of threads used to fetch and parse NetworkLinks in
+	 * {@link #importFromNetworkLinks()}. With a single thread links are
+	 * imported one at a time as they are read. With more threads several
+	 * links are fetched and parsed at once and the objects of each link are
+	 * delivered on the calling thread once the link has been read.
+	 * The visited links and the {@link #setMaxLinkCount(int) maxLinkCount}
+	 * limit are the same in both modes.
+	 *
+	 * @param threads number of threads, at least 1
+	 * @throws IllegalArgumentException if threads is less than 1
+	 */
+	public void setImportThreads(int threads) {
+		if (threads < 1) throw new IllegalArgumentException("threads must be at least 1");
+		this.importThreads = threads;
+	}
+
+	/**
+	 * Get maximum number of NetworkLinks fetched at the same time from
+	 * any one host when importing with more than one thread. Default=4.
+	 */
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	/**
+	 * Set maximum number of NetworkLinks fetched at the same time from
+	 * any one host when importing with more than one thread.
+	 * @param max Maximum concurrent fetches per host. Set <tt>max</tt> = 0
+	 * 	to only limit by the number of threads.
+	 */
+	public void setMaxConnectionsPerHost(int max) {
+		this.maxConnectionsPerHost = max <= 0 ? Integer.MAX_VALUE : max;
+	}
+
+	public boolean isOrderedImport() {
+		return orderedImport;
+	}
+
+	/**
+	 * Set flag to deliver objects from NetworkLinks in the same order as a
+	 * single threaded import when importing with more than one thread.
+	 * Otherwise the objects of each link are delivered as soon as the link has
+	 * been read, and nested links are followed in the order they are found.
+	 * Default=true.
+	 * @param ordered True to preserve the single threaded order
+	 */
+	public void setOrderedImport(boolean ordered) {
+		this.orderedImport = ordered;
+	}
+
 	/**
 	 * Reads next gis object from the stream.
 	 * @return the next gis object present in the source, or <code>null</code>
@@ -334,6 +436,15 @@ public class KmlReader extends KmlBaseReader implements IGISInputStream {
 	}
 
 	private IGISObject read(IGISInputStream inputStream, UrlRef parent, List<URI> networkLinks) throws IOException {
+		return read(inputStream, parent, networkLinks, null);
+	}
+
+	/**
+	 * Read next object, if task is non-null then NetworkLink hrefs and
+	 * skipped links are recorded on the task rather than on this reader.
+	 */
+	private IGISObject read(IGISInputStream inputStream, UrlRef parent, List<URI> networkLinks,
+							LinkTask task) throws IOException {
 		IGISObject gisObj = inputStream.read();
 		if (gisObj == null) return null;
 
@@ -359,7 +470,8 @@ public class KmlReader extends KmlBaseReader implements IGISInputStream {
 			// check/ignore networklinks if region not in view
 			if (ignoreInactiveRegionNetworkLinks && checkRegion(region)) {
 				log.debug("ignore out of region NetworkLink");
-				skipCount++;
+				if (task != null) task.skipped++;
+				else skipCount++;
 			} else {
             checkStyleUrl(parent, link);
 			// adjust URL with httpQuery and viewFormat parameters
@@ -368,10 +480,12 @@ public class KmlReader extends KmlBaseReader implements IGISInputStream {
 			URI uri = getLinkHref(parent, link.getLink());
 			if (uri != null) {
 				//log.debug(">link href=" + link.getLink());
-				if (!gisNetworkLinks.contains(uri)) {
-					gisNetworkLinks.add(uri);
-					if (networkLinks != null) networkLinks.add(uri);
-				} else log.debug("duplicate NetworkLink href");
+				if (task != null) {
+					// duplicates are checked when the task is delivered
+					task.addLink(uri);
+				} else {
+					addNetworkLink(uri, networkLinks);
+				}
 			} else
 				log.debug("NetworkLink href is empty or missing");
 			// Note: NetworkLinks can have inline Styles & StyleMaps
@@ -410,6 +524,13 @@ public class KmlReader extends KmlBaseReader implements IGISInputStream {
 		return gisObj;
 	}
 
+	private void addNetworkLink(URI uri, List<URI> networkLinks) {
+		if (!gisNetworkLinks.contains(uri)) {
+			gisNetworkLinks.add(uri);
+			if (networkLinks != null) networkLinks.add(uri);
+		} else log.debug("duplicate NetworkLink href");
+	}
+
     /**
      * Check for relative URLs in styleUrl value and rewrite
      * to absolute URLs with respect to its parent URL context.
@@ -539,6 +660,14 @@ public class KmlReader extends KmlBaseReader implements IGISInputStream {
 	private List<IGISObject> _importFromNetworkLinks(ImportEventHandler handler) {
 		if (iStream != null) throw new IllegalArgumentException("reader must first be closed");
 		if (gisNetworkLinks.isEmpty()) return Collections.emptyList();
+		try {
+			return importThreads > 1 ? importInParallel(handler) : importSequential(handler);
+		} finally {
+			closeKmzArchives();
+		}
+	}
+
+	private List<IGISObject> importSequential(ImportEventHandler handler) {
 		List<IGISObject> linkedFeatures = new ArrayList<IGISObject>();
 
 		// keep track of URLs visited to prevent revisits
@@ -559,7 +688,7 @@ public class KmlReader extends KmlBaseReader implements IGISInputStream {
 					// NOTE: if network link is a KML file with a .kmz extension or vice versa then it may fail.
 					// Determination also uses the HTTP mime type for the resource.
 					try {
-						is = ref.getInputStream(proxy);
+						is = openLink(ref);
 						if (is == null) continue;
 					} catch(FileNotFoundException nfe) {
 						// If href does not exist in KMZ then try with respect to parent context.
@@ -567,7 +696,7 @@ public class KmlReader extends KmlBaseReader implements IGISInputStream {
 						// e.g. http://kml-samples.googlecode.com/svn/trunk/kml/kmz/networklink/hier.kmz
 						final URL tempUrl = new URL(ref.getURL(), ref.getKmzRelPath());
 						//log.info("XXX: tryURL\n\t{}", tempUrl); // debug
-						is = UrlRef.getInputStream(tempUrl, proxy);
+						is = UrlRef.getInputStream(tempUrl, proxy, contentCache);
 						if (is == null) continue;
 						ref = new UrlRef(tempUrl, null);
 					}
@@ -615,6 +744,274 @@ public class KmlReader extends KmlBaseReader implements IGISInputStream {
 		return linkedFeatures;
 	}
 
+	/**
+	 * Open a NetworkLink. Entries of a KMZ file are read from an archive that
+	 * is opened once per import, falling back to scanning the KMZ stream if
+	 * the archive cannot be opened with random access.
+	 */
+	private InputStream openLink(UrlRef ref) throws IOException {
+		if (ref.isKmz()) {
+			KmzArchive archive = getKmzArchive(ref.getURL());
+			if (archive != null) return archive.getInputStream(ref.getKmzRelPath());
+		}
+		return ref.getInputStream(proxy, contentCache);
+	}
+
+	/**
+	 * Get archive for a KMZ URL, opening it on first use. The archive is
+	 * opened outside the lock on the map so only threads that need the same
+	 * URL wait while it is downloaded.
+	 * @return the archive or null if it cannot be opened
+	 */
+	private KmzArchive getKmzArchive(final URL url) {
+		String key = url.toExternalForm();
+		FutureTask<KmzArchive> task;
+		synchronized (kmzArchives) {
+			task = kmzArchives.get(key);
+			if (task == null) {
+				task = new FutureTask<KmzArchive>(new Callable<KmzArchive>() {
+					public KmzArchive call() {
+						try {
+							return KmzArchive.open(url, proxy, contentCache);
+						} catch (IOException e) {
+							// some KMZ files fail validation using ZipFile but work with ZipInputStream
+							log.debug("Failed to open KMZ archive: " + url + "\n" + e);
+							return null;
+						}
+					}
+				}) {
+					protected void set(KmzArchive archive) {
+						super.set(archive);
+						// closed here if the import ended while it was opening
+						if (isCancelled() && archive != null) archive.close();
+					}
+				};
+				kmzArchives.put(key, task);
+			}
+		}
+		// only the first caller opens the archive, the others wait for it
+		task.run();
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	private void closeKmzArchives() {
+		synchronized (kmzArchives) {
+			for (FutureTask<KmzArchive> task : kmzArchives.values()) {
+				// a task that is cancelled closes its own archive
+				if (!task.cancel(false)) {
+					try {
+						KmzArchive archive = task.get();
+						if (archive != null) archive.close();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (ExecutionException e) {
+						// nothing was opened
+					}
+				}
+			}
+			kmzArchives.clear();
+		}
+	}
+
+	/**
+	 * Import NetworkLinks using a pool of {@link #importThreads} threads.
+	 * Links are admitted in the order they are found, applying the visited set
+	 * and max link count exactly as the single threaded import does. Admitted
+	 * links are fetched and parsed by the pool, with at most
+	 * {@link #maxConnectionsPerHost} fetches per host, and only a bounded
+	 * number of links are read ahead of delivery. Delivery to the handler and
+	 * following of nested links happen on the calling thread, either in
+	 * admission order or as each link completes.
+	 *
+	 * @param handler ImportEventHandler, null to return the objects
+	 * @return list of imported objects if handler is null otherwise empty list
+	 */
+	private List<IGISObject> importInParallel(ImportEventHandler handler) {
+		List<IGISObject> linkedFeatures = new ArrayList<IGISObject>();
+		Set<URI> visited = new HashSet<URI>();
+		LinkedList<URI> networkLinks = new LinkedList<URI>(gisNetworkLinks);
+		// admitted links not yet delivered in admission order
+		LinkedList<LinkTask> admitted = new LinkedList<LinkTask>();
+		Map<String, Integer> hostCounts = new HashMap<String, Integer>();
+		final int window = importThreads * 4;
+		ExecutorService executor = Executors.newFixedThreadPool(importThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "kml-networklink-reader");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		CompletionService<LinkTask> completion = new ExecutorCompletionService<LinkTask>(executor);
+		int running = 0;
+		boolean admitting = true;
+		try {
+			while (true) {
+				while (admitting && admitted.size() < window && !networkLinks.isEmpty()) {
+					URI uri = networkLinks.removeFirst();
+					if (visited.add(uri)) {
+						if (visited.size() > maxLinkCount) {
+							log.warn("Max NetworkLink count exceeded: max links=" + maxLinkCount);
+							maxLinkCountExceeded = true;
+							admitting = false;
+						} else {
+							admitted.add(new LinkTask(uri));
+						}
+					}
+				}
+				for (LinkTask task : admitted) {
+					if (running >= importThreads) break;
+					if (task.started) continue;
+					Integer count = hostCounts.get(task.host);
+					int n = count == null ? 0 : count;
+					if (n >= maxConnectionsPerHost) continue;
+					hostCounts.put(task.host, n + 1);
+					task.started = true;
+					completion.submit(task);
+					running++;
+				}
+				if (running == 0) break; // nothing admitted or in progress
+				LinkTask task;
+				try {
+					task = completion.take().get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					log.warn("Interrupted while importing network links");
+					break;
+				} catch (ExecutionException e) {
+					// LinkTask.call() catches all exceptions
+					throw new IllegalStateException(e.getCause());
+				}
+				running--;
+				hostCounts.put(task.host, hostCounts.get(task.host) - 1);
+				task.finished = true;
+				boolean proceed = true;
+				if (orderedImport) {
+					while (proceed && !admitted.isEmpty() && admitted.getFirst().finished) {
+						proceed = deliver(admitted.removeFirst(), handler, networkLinks, linkedFeatures);
+					}
+				} else {
+					admitted.remove(task);
+					proceed = deliver(task, handler, networkLinks, linkedFeatures);
+				}
+				if (!proceed) {
+					// abort following networkLinks
+					break;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return linkedFeatures;
+	}
+
+	/**
+	 * Hand the objects of a completed link to the handler or the result list
+	 * and queue its nested links.
+	 *
+	 * @return false if the handler aborted the import
+	 */
+	private boolean deliver(LinkTask task, ImportEventHandler handler,
+							List<URI> networkLinks, List<IGISObject> linkedFeatures) {
+		skipCount += task.skipped;
+		int next = 0;
+		for (int i = 0; i < task.objects.size(); i++) {
+			// queue links in the order the single threaded import finds them
+			while (next < task.links.size() && task.linkIndex.get(next) <= i) {
+				addNetworkLink(task.links.get(next++), networkLinks);
+			}
+			IGISObject gisObj = task.objects.get(i);
+			if (handler != null) {
+				if (!handler.handleEvent(task.ref, gisObj)) {
+					log.info("Abort following networkLinks");
+					networkLinks.clear();
+					return false;
+				}
+			} else
+				linkedFeatures.add(gisObj);
+		}
+		while (next < task.links.size()) {
+			addNetworkLink(task.links.get(next++), networkLinks);
+		}
+		if (task.error != null) {
+			// objects read before the error have been delivered as in the single threaded import
+			Exception e = task.error;
+			if (e instanceof java.net.ConnectException || e instanceof FileNotFoundException)
+				log.error("Failed to import from network link: " + task.uri + "\n" + e);
+			else
+				log.error("Failed to import from network link: " + task.uri, e);
+			if (handler != null) handler.handleError(task.uri, e);
+		}
+		return true;
+	}
+
+	/**
+	 * Fetch and parse a single NetworkLink collecting its objects and the
+	 * hrefs of nested NetworkLinks.
+	 */
+	private class LinkTask implements Callable<LinkTask> {
+		final URI uri;
+		final String host;
+		UrlRef ref;
+		final List<IGISObject> objects = new ArrayList<IGISObject>();
+		final List<URI> links = new ArrayList<URI>();
+		// index of object each link was found in
+		final List<Integer> linkIndex = new ArrayList<Integer>();
+		int skipped;
+		Exception error;
+		boolean started, finished;
+
+		LinkTask(URI uri) {
+			this.uri = uri;
+			String h = uri.getHost();
+			host = h == null ? "" : h.toLowerCase();
+		}
+
+		void addLink(URI link) {
+			links.add(link);
+			linkIndex.add(objects.size());
+		}
+
+		public LinkTask call() {
+			InputStream is = null;
+			try {
+				ref = new UrlRef(uri);
+				try {
+					is = openLink(ref);
+				} catch (FileNotFoundException nfe) {
+					// If href does not exist in KMZ then try with respect to parent context.
+					final URL tempUrl = new URL(ref.getURL(), ref.getKmzRelPath());
+					is = UrlRef.getInputStream(tempUrl, proxy, contentCache);
+					ref = new UrlRef(tempUrl, null);
+				}
+				if (is == null) return this;
+				KmlInputStream kis = new KmlInputStream(is);
+				log.debug("Parse networkLink: {}", ref);
+				try {
+					IGISObject gisObj;
+					while ((gisObj = read(kis, ref, null, this)) != null) {
+						objects.add(gisObj);
+					}
+				} finally {
+					kis.close();
+				}
+			} catch (Exception e) {
+				error = e;
+			} finally {
+				IOUtils.closeQuietly(is);
+			}
+			return this;
+		}
+	}
+
 	/**
 	 * Short-cut help method to read all GISObjects closing the stream and returning
 	 * the list of GIS objects.  This is useful for most KML documents that can fit into memory
@@ -668,6 +1065,21 @@ public class KmlReader extends KmlBaseReader implements IGISInputStream {
         return proxy;
     }
 
+	/**
+	 * Set cache for content fetched over HTTP by <code>importFromNetworkLinks()</code>.
+	 * Cached links are fetched with a conditional request and only downloaded
+	 * again if modified on the server.
+	 * @param cache the cache, <code>null</code> to always download content
+	 * @see DiskContentCache
+	 */
+	public void setContentCache(UrlContentCache cache) {
+		this.contentCache = cache;
+	}
+
+	public UrlContentCache getContentCache() {
+		return contentCache;
+	}
+
     public boolean isRewriteStyleUrls() {
         return rewriteStyleUrls;
     }
@@ -0,0 +1,203 @@
+/****************************************************************************************
+ *  KmzArchive.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.kml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Proxy;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Random access to the entries of a KMZ file. The central directory is read
+ * once when the archive is opened and entries are then read directly from
+ * their offset in the file rather than by scanning the archive from the start
+ * with a <code>ZipInputStream</code>. A KMZ resource that is not a local file
+ * is first copied to a temporary file, which is deleted when the archive is
+ * closed.
+ * <p>
+ * Entries are looked up by normalized name where escaped whitespace
+ * (<tt>%20</tt>) is unescaped, backslashes are treated as forward slashes and
+ * any leading <tt>/</tt> or <tt>./</tt> is removed, so a link href matches the
+ * name as stored in the archive. An archive may be used by multiple threads.
+ */
+public class KmzArchive implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(KmzArchive.class);
+
+	private final ZipFile zipFile;
+	private final File spoolFile;
+	private final Map<String, ZipEntry> entries = new HashMap<String, ZipEntry>();
+	private ZipEntry rootEntry;
+
+	/**
+	 * Open a local KMZ file.
+	 *
+	 * @param file the KMZ file, never <code>null</code>
+	 * @throws java.util.zip.ZipException if the file is not a valid ZIP archive
+	 * @throws IOException if an I/O error occurs
+	 */
+	public KmzArchive(File file) throws IOException {
+		this(file, false);
+	}
+
+	private KmzArchive(File file, boolean spooled) throws IOException {
+		zipFile = new ZipFile(file);
+		spoolFile = spooled ? file : null;
+		Enumeration<? extends ZipEntry> e = zipFile.entries();
+		while (e.hasMoreElements()) {
+			ZipEntry entry = e.nextElement();
+			if (entry.isDirectory()) continue;
+			String name = normalize(entry.getName());
+			// first entry wins as it would when scanning the stream
+			if (!entries.containsKey(name)) entries.put(name, entry);
+			// see note on KMZ in UrlRef.getInputStream() method for more detail
+			if (rootEntry == null && name.toLowerCase().endsWith(".kml")) rootEntry = entry;
+		}
+	}
+
+	/**
+	 * Open a KMZ resource, copying it to a temporary file first if it is not
+	 * a local file.
+	 *
+	 * @param url   the KMZ URL, never <code>null</code>
+	 * @param proxy the Proxy through which the connection will be made,
+	 *              <code>null</code> for a direct connection
+	 * @param cache cache for HTTP content, <code>null</code> if not cached
+	 * @return the archive, never <code>null</code>
+	 * @throws java.util.zip.ZipException if the resource is not a valid ZIP archive
+	 * @throws IOException if an I/O error occurs
+	 */
+	@NonNull
+	public static KmzArchive open(URL url, Proxy proxy, UrlContentCache cache) throws IOException {
+		if ("file".equals(url.getProtocol())) {
+			try {
+				return new KmzArchive(new File(url.toURI()));
+			} catch (URISyntaxException e) {
+				// fall through and read through the URL
+			} catch (IllegalArgumentException e) {
+				// not a hierarchical file URI so read through the URL
+			}
+		}
+		File file = File.createTempFile("kmz", ".kmz");
+		boolean ok = false;
+		try {
+			InputStream is = UrlRef.openContentStream(url, proxy, cache);
+			try {
+				OutputStream os = new FileOutputStream(file);
+				try {
+					IOUtils.copyLarge(is, os);
+				} finally {
+					os.close();
+				}
+			} finally {
+				IOUtils.closeQuietly(is);
+			}
+			log.debug("Spooled {} to {}", url, file);
+			KmzArchive archive = new KmzArchive(file, true);
+			ok = true;
+			return archive;
+		} finally {
+			if (!ok && !file.delete()) file.deleteOnExit();
+		}
+	}
+
+	/**
+	 * Find an entry by its path within the archive.
+	 *
+	 * @param path relative path within the archive (e.g. <tt>kml/hi.kml</tt>)
+	 * @return the entry or <code>null</code> if not found
+	 */
+	@CheckForNull
+	public ZipEntry getEntry(String path) {
+		return entries.get(normalize(path));
+	}
+
+	/**
+	 * Get the main KML document of the archive, which is the first KML file
+	 * regardless of name or folder as Google Earth does.
+	 *
+	 * @return the entry or <code>null</code> if the archive has no KML file
+	 */
+	@CheckForNull
+	public ZipEntry getRootEntry() {
+		return rootEntry;
+	}
+
+	/**
+	 * Open an entry by its path within the archive.
+	 *
+	 * @param path relative path within the archive (e.g. <tt>kml/hi.kml</tt>)
+	 * @return input stream for the content of the entry
+	 * @throws FileNotFoundException if there is no entry for the path
+	 * @throws IOException if an I/O error occurs
+	 */
+	@NonNull
+	public InputStream getInputStream(String path) throws IOException {
+		ZipEntry entry = getEntry(path);
+		if (entry == null)
+			throw new FileNotFoundException("Relative URL not found in KMZ: " + path);
+		return zipFile.getInputStream(entry);
+	}
+
+	/**
+	 * @return number of file entries in the archive
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Close the archive and delete the temporary copy if any.
+	 */
+	public void close() {
+		try {
+			zipFile.close();
+		} catch (IOException e) {
+			log.debug("Failed to close " + zipFile.getName(), e);
+		}
+		if (spoolFile != null && spoolFile.exists() && !spoolFile.delete()) {
+			log.debug("Failed to delete {}", spoolFile);
+			spoolFile.deleteOnExit();
+		}
+	}
+
+	static String normalize(String name) {
+		if (name.indexOf('%') != -1)
+			name = name.replace("%20", " "); // unescape all escaped whitespace chars
+		if (name.indexOf('\\') != -1)
+			name = name.replace('\\', '/');
+		while (name.startsWith("/")) name = name.substring(1);
+		while (name.startsWith("./")) name = name.substring(2);
+		return name;
+	}
+}
@@ -0,0 +1,83 @@
+/****************************************************************************************
+ *  UrlContentCache.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.kml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Cache of content fetched over HTTP by {@link UrlRef}. Before a URL is fetched
+ * the cached entry, if any, is used to make a conditional request with the
+ * <tt>ETag</tt> and <tt>Last-Modified</tt> values returned by the server. If the
+ * server replies that the content has not been modified then the cached copy
+ * is used, otherwise the new content is stored in the cache.
+ * <p>
+ * Implementations must be safe for use by multiple threads.
+ *
+ * @see DiskContentCache
+ * @see KmlReader#setContentCache(UrlContentCache)
+ */
+public interface UrlContentCache {
+
+	/**
+	 * Get cached content for a URL.
+	 *
+	 * @param url the URL, never <code>null</code>
+	 * @return cached entry or <code>null</code> if the URL is not cached
+	 */
+	@CheckForNull
+	CachedContent get(URL url);
+
+	/**
+	 * Store content fetched from a URL, replacing any previous entry.
+	 *
+	 * @param url          the URL, never <code>null</code>
+	 * @param contentType  content type returned by the server, may be <code>null</code>
+	 * @param eTag         ETag header value, may be <code>null</code>
+	 * @param lastModified Last-Modified header value in milliseconds since
+	 *                     the epoch, 0 if not known
+	 * @param content      the content which is read to the end but not closed
+	 * @return the new entry, never <code>null</code>
+	 * @throws IOException if an I/O error occurs reading or storing the content
+	 */
+	@NonNull
+	CachedContent put(URL url, String contentType, String eTag, long lastModified,
+					  InputStream content) throws IOException;
+
+	/**
+	 * Remove any cached content for the URL.
+	 *
+	 * @param url the URL, never <code>null</code>
+	 */
+	void remove(URL url);
+
+	/**
+	 * Record that the cached content was used without downloading it again.
+	 *
+	 * @param entry the entry, never <code>null</code>
+	 */
+	void recordHit(CachedContent entry);
+
+	/**
+	 * Record that content for the URL had to be downloaded.
+	 *
+	 * @param url the URL, never <code>null</code>
+	 */
+	void recordMiss(URL url);
+}
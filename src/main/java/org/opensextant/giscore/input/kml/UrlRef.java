@@ -300,9 +300,27 @@ public final class UrlRef implements java.io.Serializable {
 	 * @throws IOException		   if an I/O error occurs
 	 */
 	public InputStream getInputStream(Proxy proxy) throws IOException {
+		return getInputStream(proxy, null);
+	}
+
+	/**
+	 * Opens a connection to this <code>UrlRef</code> and returns an
+	 * <code>InputStream</code> for reading from that connection. If a cache
+	 * is given then HTTP resources are fetched with a conditional request
+	 * and served from the cache if not modified.
+	 *
+	 * @param proxy the Proxy through which this connection
+	 *              will be made. If direct connection is desired,
+	 *              <code>null</code> should be specified.
+	 * @param cache cache for HTTP content, <code>null</code> if not cached
+	 * @return an input stream for reading from the resource represented by the <code>UrlRef</code>.
+	 * @throws FileNotFoundException if referenced link was not found in the parent KMZ resource
+	 * @throws IOException		   if an I/O error occurs
+	 */
+	public InputStream getInputStream(Proxy proxy, UrlContentCache cache) throws IOException {
 		// check if non-KMZ URI
 		if (kmzRelPath == null)
-			return getInputStream(url, proxy);
+			return getInputStream(url, proxy, cache);
 
 		String kmzPath = kmzRelPath;
 		// if whitespace appears in networkLink URLs then it's commonly escaped to %20
@@ -311,8 +329,8 @@ public final class UrlRef implements java.io.Serializable {
 		if (isEscaped) {
 			kmzPath = kmzPath.replace("%20", " "); // unescape all escaped whitespace chars
 		}
-		URLConnection conn = getConnection(url, proxy);
-		ZipInputStream zis = new ZipInputStream(conn.getInputStream());
+		Content content = openContent(url, proxy, cache);
+		ZipInputStream zis = new ZipInputStream(content.getInputStream());
 		boolean closeOnExit = true;
 		try {
 			ZipEntry entry;
@@ -380,8 +398,30 @@ public final class UrlRef implements java.io.Serializable {
 	 * @throws NullPointerException	 if url is <tt>null</tt>
 	 */
 	public static InputStream getInputStream(URL url, Proxy proxy) throws IOException {
+		return getInputStream(url, proxy, null);
+	}
+
+	/**
+	 * This method gets the correct input stream for a URL as
+	 * {@link #getInputStream(URL, Proxy)} does. If a cache is given then
+	 * HTTP resources are fetched with a conditional request using the
+	 * <tt>ETag</tt> and <tt>Last-Modified</tt> values of the cached copy,
+	 * which is used if the server replies that it is not modified or the
+	 * server cannot be reached.
+	 *
+	 * @param url   The url to the KML or KMZ file, never <tt>null</tt>
+	 * @param proxy the Proxy through which this connection
+	 *              will be made. If direct connection is desired,
+	 *              <code>null</code> should be specified.
+	 * @param cache cache for HTTP content, <code>null</code> if not cached
+	 * @return The InputStream used to read the KML source.
+	 * @throws FileNotFoundException	if a root KML file is not found in the KMZ resource
+	 * @throws IOException			  if an I/O error has occurred
+	 * @throws NullPointerException	 if url is <tt>null</tt>
+	 */
+	public static InputStream getInputStream(URL url, Proxy proxy, UrlContentCache cache) throws IOException {
 		// Open the connection
-		URLConnection conn = getConnection(url, proxy);
+		Content conn = openContent(url, proxy, cache);
 
 		// Note: just looking at file extension may not be enough to indicate its KMZ vs KML (misnamed, etc.)
 		// proper way might be to use PushbackInputStream and check first characters of stream.
@@ -432,7 +472,7 @@ public final class UrlRef implements java.io.Serializable {
 			}
 			// if here then did not find any ZipEntries so can probably assume stream is mis-categorized
 			// and not KMZ so try again as raw KML bytes...
-			conn = getConnection(url, proxy);
+			// the next call to getInputStream() opens a new connection
 			//return new BufferedInputStream(conn.getInputStream());
 		}
 
@@ -441,7 +481,68 @@ public final class UrlRef implements java.io.Serializable {
 		// TODO: if resource mis-categorized and really KMZ then may want strategy to re-try as ZipInputStream
 	}
 
-	private static URLConnection getConnection(URL url, Proxy proxy) throws IOException {
+	/**
+	 * Open the content of a URL either through a connection or from the cache.
+	 * The connection is made right away so the content type is known.
+	 */
+	private static Content openContent(URL url, Proxy proxy, UrlContentCache cache) throws IOException {
+		if (cache == null || !isHttp(url))
+			return new Content(url, proxy, getConnection(url, proxy, null));
+		CachedContent cached = cache.get(url);
+		URLConnection conn;
+		int code;
+		try {
+			conn = getConnection(url, proxy, cached);
+			code = ((HttpURLConnection) conn).getResponseCode();
+		} catch (IOException e) {
+			if (cached == null) throw e;
+			// server cannot be reached so use the stale copy
+			log.debug("Failed to revalidate " + url + ", using cached content: " + e);
+			cache.recordHit(cached);
+			return new Content(url, proxy, cached);
+		}
+		if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+			IOUtils.closeQuietly(conn.getInputStream());
+			cache.recordHit(cached);
+			return new Content(url, proxy, cached);
+		}
+		cache.recordMiss(url);
+		if (code == HttpURLConnection.HTTP_OK) {
+			String eTag = conn.getHeaderField("ETag");
+			long lastModified = conn.getLastModified();
+			if (eTag != null || lastModified != 0) {
+				InputStream is = conn.getInputStream();
+				try {
+					cached = cache.put(url, conn.getContentType(), eTag, lastModified, is);
+				} finally {
+					IOUtils.closeQuietly(is);
+				}
+				return new Content(url, proxy, cached);
+			}
+		}
+		// content cannot be revalidated or is no longer available
+		if (cached != null) cache.remove(url);
+		return new Content(url, proxy, conn);
+	}
+
+	/**
+	 * Open the raw content of a URL, e.g. the bytes of a KMZ file, through
+	 * the cache if given.
+	 */
+	static InputStream openContentStream(URL url, Proxy proxy, UrlContentCache cache) throws IOException {
+		return openContent(url, proxy, cache).getInputStream();
+	}
+
+	private static boolean isHttp(URL url) {
+		String protocol = url.getProtocol();
+		return "http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol);
+	}
+
+	/**
+	 * @param cached cached content used to make a conditional request,
+	 *               <code>null</code> for an unconditional request
+	 */
+	private static URLConnection getConnection(URL url, Proxy proxy, CachedContent cached) throws IOException {
 		URLConnection conn = proxy == null ? url.openConnection() : url.openConnection(proxy);
 
 		// Set HTTP headers to emulate a typical Google Earth client
@@ -463,6 +564,12 @@ public final class UrlRef implements java.io.Serializable {
 			HttpURLConnection httpConn = (HttpURLConnection) conn;
 			httpConn.setRequestProperty("Accept", ACCEPT_STRING);
 			httpConn.setRequestProperty("User-Agent", USER_AGENT);
+			if (cached != null) {
+				if (cached.getETag() != null)
+					httpConn.setRequestProperty("If-None-Match", cached.getETag());
+				if (cached.getLastModified() != 0)
+					httpConn.setIfModifiedSince(cached.getLastModified());
+			}
 			if (httpConn instanceof HttpsURLConnection) {
 				HttpsURLConnection conn1 = (HttpsURLConnection) httpConn;
 				conn1.setHostnameVerifier(new HostnameVerifier() {
@@ -1454,4 +1561,41 @@ public final class UrlRef implements java.io.Serializable {
 			conn.setSSLSocketFactory(sslFactory);
 		}
 	}
+
+	/**
+	 * Content of a URL from either a connection or the cache. The stream
+	 * can be opened more than once, making a new connection if needed.
+	 */
+	private static final class Content {
+
+		private final URL url;
+		private final Proxy proxy;
+		private final CachedContent cached;
+		private URLConnection conn;
+
+		Content(URL url, Proxy proxy, URLConnection conn) {
+			this.url = url;
+			this.proxy = proxy;
+			this.conn = conn;
+			this.cached = null;
+		}
+
+		Content(URL url, Proxy proxy, CachedContent cached) {
+			this.url = url;
+			this.proxy = proxy;
+			this.cached = cached;
+		}
+
+		String getContentType() {
+			return cached != null ? cached.getContentType() : conn.getContentType();
+		}
+
+		InputStream getInputStream() throws IOException {
+			if (cached != null) return cached.openStream();
+			if (conn == null) conn = getConnection(url, proxy, null);
+			InputStream is = conn.getInputStream();
+			conn = null;
+			return is;
+		}
+	}
 }
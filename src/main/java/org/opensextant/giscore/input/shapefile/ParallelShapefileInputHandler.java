@@ -0,0 +1,257 @@
+/****************************************************************************************
+ *  ParallelShapefileInputHandler.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.shapefile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import org.opensextant.geodesy.Geodetic2DBounds;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.events.Schema;
+import org.opensextant.giscore.input.GISInputStreamBase;
+import org.opensextant.giscore.input.IGISInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read a single shapefile using several threads. The records are split into
+ * disjoint ranges using the shx index, each range is read by a worker thread
+ * with its own {@link SingleShapefileInputHandler}, and the results are
+ * returned in record order, so the output is the same as reading the
+ * shapefile sequentially. Only a bounded number of ranges are read ahead of
+ * the caller.
+ */
+public class ParallelShapefileInputHandler extends GISInputStreamBase implements
+        IGISInputStream {
+    private static final Logger logger = LoggerFactory.getLogger(ParallelShapefileInputHandler.class);
+
+    /**
+     * Default number of records handed to a worker at a time
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 5000;
+
+    /**
+     * Handlers available to the workers, one per thread
+     */
+    private final BlockingQueue<SingleShapefileInputHandler> handlers =
+            new LinkedBlockingQueue<SingleShapefileInputHandler>();
+
+    /**
+     * All handlers created, so they can be closed
+     */
+    private final List<SingleShapefileInputHandler> allHandlers =
+            new ArrayList<SingleShapefileInputHandler>();
+
+    /**
+     * Ranges submitted but not yet returned, in record order
+     */
+    private final LinkedList<Future<List<Feature>>> pending =
+            new LinkedList<Future<List<Feature>>>();
+
+    private final ExecutorService executor;
+
+    private final int recordCount;
+
+    private final int chunkSize;
+
+    private final int maxPending;
+
+    /**
+     * First record of the next range to submit
+     */
+    private int nextChunkStart = 0;
+
+    /**
+     * Features of the range currently being returned
+     */
+    private Iterator<Feature> currentChunk = Collections.<Feature>emptyList().iterator();
+
+    /**
+     * Create a parallel handler using {@link #DEFAULT_CHUNK_SIZE}.
+     *
+     * @param inputDirectory input directory, must exist
+     * @param shapefilename  base shape file name without the .shp extension
+     * @param threads        number of worker threads, at least 1
+     * @throws IllegalArgumentException if the directory or shapefile is
+     *                                  missing or has no shx index
+     * @throws IOException              if an I/O error occurs
+     */
+    public ParallelShapefileInputHandler(File inputDirectory, String shapefilename,
+            int threads) throws IOException {
+        this(inputDirectory, shapefilename, threads, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create a parallel handler.
+     *
+     * @param inputDirectory input directory, must exist
+     * @param shapefilename  base shape file name without the .shp extension
+     * @param threads        number of worker threads, at least 1
+     * @param chunkSize      number of records read by a worker at a time
+     * @throws IllegalArgumentException if the directory or shapefile is
+     *                                  missing or has no shx index, or if
+     *                                  threads or chunkSize are less than 1
+     * @throws IOException              if an I/O error occurs
+     */
+    public ParallelShapefileInputHandler(File inputDirectory, String shapefilename,
+            int threads, int chunkSize) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1");
+        }
+        this.chunkSize = chunkSize;
+        maxPending = threads * 2;
+        try {
+            for (int i = 0; i < threads; i++) {
+                SingleShapefileInputHandler handler =
+                        new SingleShapefileInputHandler(inputDirectory, shapefilename);
+                allHandlers.add(handler);
+                handlers.add(handler);
+            }
+        } catch (IOException e) {
+            closeHandlers();
+            throw e;
+        }
+        SingleShapefileInputHandler first = allHandlers.get(0);
+        if (!first.hasIndex()) {
+            closeHandlers();
+            throw new IllegalArgumentException("SHX file missing for shapefile "
+                    + shapefilename);
+        }
+        recordCount = first.getRecordCount();
+        Schema schema = first.getSchema();
+        if (schema != null) {
+            addFirst(schema);
+        }
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "shapefile-reader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @return the number of records in the shapefile
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Only return features whose bounding box intersects the given bounds,
+     * see {@link SingleShapefileInputHandler#setBoundsFilter(Geodetic2DBounds)}.
+     * Must be set before the first feature is read.
+     *
+     * @param bounds the bounds, <code>null</code> to return all features
+     * @throws IllegalStateException if reading has already started
+     */
+    public void setBoundsFilter(Geodetic2DBounds bounds) {
+        if (nextChunkStart > 0) {
+            throw new IllegalStateException("Bounds filter must be set before reading");
+        }
+        for (SingleShapefileInputHandler handler : allHandlers) {
+            handler.setBoundsFilter(bounds);
+        }
+    }
+
+    public IGISObject read() throws IOException {
+        if (hasSaved()) {
+            return readSaved();
+        }
+        while (!currentChunk.hasNext()) {
+            submitChunks();
+            if (pending.isEmpty()) {
+                return null;
+            }
+            currentChunk = waitFor(pending.removeFirst()).iterator();
+        }
+        return currentChunk.next();
+    }
+
+    /**
+     * Submit ranges until the read ahead limit is reached or all records
+     * have been submitted.
+     */
+    private void submitChunks() {
+        while (pending.size() < maxPending && nextChunkStart < recordCount) {
+            final int from = nextChunkStart;
+            final int to = (int) Math.min((long) from + chunkSize, recordCount);
+            nextChunkStart = to;
+            pending.add(executor.submit(new Callable<List<Feature>>() {
+                public List<Feature> call() throws Exception {
+                    SingleShapefileInputHandler handler = handlers.take();
+                    try {
+                        return handler.readRange(from, to);
+                    } finally {
+                        handlers.add(handler);
+                    }
+                }
+            }));
+        }
+    }
+
+    private List<Feature> waitFor(Future<List<Feature>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading shapefile", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Stop the workers and close all shapefile handlers.
+     */
+    public void close() {
+        executor.shutdownNow();
+        pending.clear();
+        closeHandlers();
+    }
+
+    private void closeHandlers() {
+        for (SingleShapefileInputHandler handler : allHandlers) {
+            try {
+                handler.close();
+            } catch (IllegalStateException e) {
+                logger.warn("Problem closing shapefile handler", e);
+            }
+        }
+        allHandlers.clear();
+        handlers.clear();
+    }
+}
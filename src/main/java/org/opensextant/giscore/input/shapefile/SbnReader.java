@@ -0,0 +1,120 @@
+/****************************************************************************************
+ *  SbnReader.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.shapefile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.io.FileUtils;
+import org.opensextant.geodesy.Angle;
+import org.opensextant.geodesy.Geodetic2DBounds;
+import org.opensextant.geodesy.Geodetic2DPoint;
+import org.opensextant.geodesy.Latitude;
+import org.opensextant.geodesy.Longitude;
+import org.opensextant.giscore.utils.SpatialIndex;
+
+/**
+ * Read the record bounds from an ESRI .sbn spatial index into a
+ * {@link SpatialIndex}. The .sbn format is not published, the layout read
+ * here is the one found in files written by ArcGIS:
+ * <ul>
+ * <li>a 100 byte header like that of the shp file, except that the bounds
+ * are big endian, with the number of shapes at byte 28
+ * <li>a bin header record of the tree nodes, each with its first bin and
+ * feature count, which is skipped here
+ * <li>bin records, each with a big endian id and length in 16 bit words
+ * followed by 8 byte features: the west, south, east and north of the
+ * record bounds scaled to a byte over the bounds of the file, then the
+ * one based record number
+ * </ul>
+ * Every feature of every bin is read, so the tree itself is not used. The
+ * scaled bounds are widened by one step when converted back to degrees so
+ * the index finds every record that intersects a query, along with a few
+ * that only come close. The .sbx file only holds the offsets of the bins and
+ * is not needed.
+ */
+final class SbnReader {
+
+    /**
+     * The first 8 bytes of an sbn or sbx file
+     */
+    private static final long SIGNATURE = 0x0000270afffffe70L;
+
+    /**
+     * Largest longitude kept as is, 180 itself would become -180 and turn a
+     * box reaching the east edge into one that crosses the anti-meridian
+     */
+    private static final double MAX_LONGITUDE = Math.nextAfter(180.0, 0.0);
+
+    private SbnReader() {
+        // no instances
+    }
+
+    /**
+     * Read an sbn file.
+     *
+     * @param file        the sbn file, never <code>null</code>
+     * @param recordCount the number of records in the shapefile
+     * @return the index with the zero based record number of each feature,
+     *         never <code>null</code>
+     * @throws IOException if an error occurs reading the file, it is not an
+     *                     sbn file or it does not match the record count
+     */
+    static SpatialIndex read(File file, int recordCount) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(FileUtils.readFileToByteArray(file));
+        if (buffer.capacity() < 108 || buffer.getLong(0) != SIGNATURE) {
+            throw new IOException(file + " is not an sbn file");
+        }
+        int shapes = buffer.getInt(28);
+        if (shapes != recordCount) {
+            throw new IOException(file + " has " + shapes
+                    + " shapes but the shapefile has " + recordCount + " records");
+        }
+        double xMin = buffer.getDouble(32);
+        double yMin = buffer.getDouble(40);
+        double xStep = (buffer.getDouble(48) - xMin) / 255.0;
+        double yStep = (buffer.getDouble(56) - yMin) / 255.0;
+        SpatialIndex.Builder builder = new SpatialIndex.Builder();
+        // skip the bin header and its node entries
+        int pos = 108 + 2 * buffer.getInt(104);
+        while (pos + 8 <= buffer.capacity()) {
+            int end = pos + 8 + 2 * buffer.getInt(pos + 4);
+            if (end > buffer.capacity()) {
+                throw new IOException(file + " has a truncated bin at " + pos);
+            }
+            for (pos += 8; pos + 8 <= end; pos += 8) {
+                int record = buffer.getInt(pos + 4) - 1;
+                if (record < 0 || record >= recordCount) {
+                    throw new IOException(file + " has invalid record number "
+                            + (record + 1) + " at " + pos);
+                }
+                double west = xMin + ((buffer.get(pos) & 0xff) - 1) * xStep;
+                double south = yMin + ((buffer.get(pos + 1) & 0xff) - 1) * yStep;
+                double east = xMin + ((buffer.get(pos + 2) & 0xff) + 1) * xStep;
+                double north = yMin + ((buffer.get(pos + 3) & 0xff) + 1) * yStep;
+                builder.add(new Geodetic2DBounds(point(west, south), point(east, north)), record);
+            }
+            pos = end;
+        }
+        return builder.build();
+    }
+
+    private static Geodetic2DPoint point(double lon, double lat) {
+        return new Geodetic2DPoint(
+                new Longitude(Math.max(-180.0, Math.min(MAX_LONGITUDE, lon)), Angle.DEGREES),
+                new Latitude(Math.max(-90.0, Math.min(90.0, lat)), Angle.DEGREES));
+    }
+}
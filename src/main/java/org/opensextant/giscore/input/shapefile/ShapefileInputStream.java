@@ -34,10 +34,12 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.opensextant.geodesy.Geodetic2DBounds;
 import org.opensextant.giscore.IAcceptSchema;
 import org.opensextant.giscore.events.IGISObject;
 import org.opensextant.giscore.events.Schema;
 import org.opensextant.giscore.input.GISInputStreamBase;
+import org.opensextant.giscore.input.IGISInputStream;
 import org.opensextant.giscore.input.dbf.DbfInputStream;
 import org.opensextant.giscore.utils.Args;
 
@@ -84,7 +86,20 @@ public class ShapefileInputStream extends GISInputStreamBase {
 	 * against the accepter to decide if the shapefile will be used or not. If
 	 * it won't then we will move onto the next shapefile.
 	 */
-	private SingleShapefileInputHandler handler;
+	private IGISInputStream handler;
+
+	/**
+	 * Number of threads used to read each shapefile, if more than one then
+	 * shapefiles with a shx index are read with a
+	 * {@link ParallelShapefileInputHandler}.
+	 */
+	private int readThreads = 1;
+
+	/**
+	 * Features whose bounding box misses these bounds are skipped, may be
+	 * <code>null</code>.
+	 */
+	private Geodetic2DBounds boundsFilter;
 
 	/**
 	 * This tracks if we're using a temp directory
@@ -224,6 +239,49 @@ public class ShapefileInputStream extends GISInputStreamBase {
 		}
 	}
 
+	/**
+	 * @return the number of threads used to read each shapefile
+	 */
+	public int getReadThreads() {
+		return readThreads;
+	}
+
+	/**
+	 * Set the number of threads used to read each shapefile. Shapefiles that
+	 * have a shx index are split into record ranges that are read in parallel,
+	 * features are still returned in record order. Shapefiles without an index
+	 * are read sequentially. Defaults to 1.
+	 *
+	 * @param readThreads the number of threads, at least 1
+	 * @throws IllegalArgumentException if readThreads is less than 1
+	 */
+	public void setReadThreads(int readThreads) {
+		if (readThreads < 1) {
+			throw new IllegalArgumentException("readThreads must be at least 1");
+		}
+		this.readThreads = readThreads;
+	}
+
+	/**
+	 * @return the bounds filter or <code>null</code> if not filtering
+	 */
+	public Geodetic2DBounds getBoundsFilter() {
+		return boundsFilter;
+	}
+
+	/**
+	 * Only return features whose bounding box intersects the given bounds.
+	 * Records are tested using the bounding box in the shp record header, so
+	 * records that miss the bounds are skipped along with their dbf rows
+	 * without building any geometry. Applies to shapefiles opened after the
+	 * call.
+	 *
+	 * @param boundsFilter the bounds, <code>null</code> to return all features
+	 */
+	public void setBoundsFilter(Geodetic2DBounds boundsFilter) {
+		this.boundsFilter = boundsFilter;
+	}
+
 	public void close() {
 		if (handler != null) {
 			handler.close();
@@ -285,6 +343,16 @@ public class ShapefileInputStream extends GISInputStreamBase {
 		String basename = shapefile.getName();
 		int i = basename.indexOf(".shp");
 		basename = basename.substring(0, i);
-		handler = new SingleShapefileInputHandler(workingDir, basename);
+		if (readThreads > 1 && new File(workingDir, basename + ".shx").exists()) {
+			ParallelShapefileInputHandler parallel =
+					new ParallelShapefileInputHandler(workingDir, basename, readThreads);
+			parallel.setBoundsFilter(boundsFilter);
+			handler = parallel;
+		} else {
+			SingleShapefileInputHandler single =
+					new SingleShapefileInputHandler(workingDir, basename);
+			single.setBoundsFilter(boundsFilter);
+			handler = single;
+		}
 	}
 }
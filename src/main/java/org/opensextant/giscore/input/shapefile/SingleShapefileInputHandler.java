@@ -29,12 +29,13 @@ import java.io.UnsupportedEncodingException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -50,6 +51,7 @@ import org.opensextant.geodesy.Longitude;
 import org.opensextant.giscore.events.Feature;
 import org.opensextant.giscore.events.IGISObject;
 import org.opensextant.giscore.events.Schema;
+import org.opensextant.giscore.geometry.CoordinateSequence;
 import org.opensextant.giscore.geometry.Geometry;
 import org.opensextant.giscore.geometry.Line;
 import org.opensextant.giscore.geometry.LinearRing;
@@ -61,7 +63,9 @@ import org.opensextant.giscore.geometry.Polygon;
 import org.opensextant.giscore.input.GISInputStreamBase;
 import org.opensextant.giscore.input.IGISInputStream;
 import org.opensextant.giscore.input.dbf.DbfInputStream;
+import org.opensextant.giscore.output.shapefile.SingleShapefileOutputHandler;
 import org.opensextant.giscore.utils.PolyHolder;
+import org.opensextant.giscore.utils.SpatialIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -86,10 +90,17 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
     protected static final int MULTINESTEDRINGS_TYPE = 5;  // 5 is Polygon    15 is PolygonZ
     protected static final int MULTIPOINT_TYPE = 8;        // 8 is MultiPoint 18 is MultiPointZ
 
-    /*
-      * Schema, derived from the read dbf file
-      */
-    // private Schema schema;
+    /**
+     * Default size of the memory mapped window over the shp file. Files up to
+     * this size are mapped exactly once, larger files are mapped in segments
+     * of this size.
+     */
+    public static final long DEFAULT_MAP_WINDOW_SIZE = 1L << 30; // 1 GB
+
+    /**
+     * Schema, derived from the read dbf file
+     */
+    private Schema schema;
 
     /*
       * Style derived from the shm file if present
@@ -123,7 +134,24 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
      * Ensures that we don't read bytes out of order when reading from an
      * InputStream.
      */
-    private int plainFileOffsetSanity = 0;
+    private long plainFileOffsetSanity = 0;
+
+    /**
+     * Size of the window mapped over the shp file, zero or negative to
+     * map each record individually.
+     */
+    private long mapWindowSize = DEFAULT_MAP_WINDOW_SIZE;
+
+    /**
+     * The currently mapped segment of the shp file, <code>null</code> until
+     * the first read or if mapping per record.
+     */
+    private MappedByteBuffer mappedSegment;
+
+    /**
+     * Offset of the currently mapped segment within the shp file
+     */
+    private long mappedSegmentStart;
     
     /**
      * Geometry type for this shapefile
@@ -133,14 +161,68 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
     /**
      * Where we are in the shpFile currently
      */
-    private int fileOffset = 0;
+    private long fileOffset = 0;
+
+    /**
+     * The total length of the file in bytes, used to know if we are at the end
+     * of the shp, in particular when we don't have an associated dbf but always
+     * useful in case of some sort of error.
+     */
+    private long fileLength = 0;
+
+    /**
+     * The zero based number of the next record returned by sequential reads
+     */
+    private int nextRecord = 0;
 
     /**
-     * The total length of the file, used to know if we are at the end of the
-     * shp, in particular when we don't have an associated dbf but always useful
-     * in case of some sort of error.
+     * File offset just past the record last read by readRecord
      */
-    private int fileLength = 0;
+    private long recordEnd;
+
+    /**
+     * The shx file holding the record offsets, <code>null</code> if missing
+     * or if reading from streams.
+     */
+    private File shxFile;
+
+    /**
+     * Mapped content of the shx file, loaded on first random access.
+     */
+    private ByteBuffer shxIndex;
+
+    /**
+     * Records whose bounding box misses these bounds are skipped,
+     * <code>null</code> to return all records.
+     */
+    private Geodetic2DBounds boundsFilter;
+
+    /*
+     * The bounds filter in degrees, prepared for testing the record headers
+     */
+    private double filterWest, filterEast, filterSouth, filterNorth;
+    private boolean filterAllLongitudes;
+
+    /**
+     * The spatial index file, either the .gsi written with the shapefile by
+     * giscore or an ESRI .sbn, <code>null</code> if there is none, no shx or
+     * if reading from streams.
+     */
+    private File spatialIndexFile;
+
+    /**
+     * Spatial index of the record bounds, loaded when first needed and
+     * <code>null</code> if there is none or it could not be read.
+     */
+    private SpatialIndex spatialIndex;
+
+    private boolean spatialIndexLoaded;
+
+    /**
+     * Ascending numbers of the records the spatial index finds for the
+     * bounds filter, <code>null</code> until first needed.
+     */
+    private long candidates[];
 
     /*
       * Holds the current record length, used to figure out if a geometry read
@@ -178,7 +260,7 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
             }
             final InputStream dbfStream = otherStreams.get(ShapefileComponent.DBF);
             if(dbfStream != null) {
-                loadDbf(dbfStream, shapefilename);
+                loadDbf(new DbfInputStream(dbfStream, null), shapefilename);
             }
         }
         plainChannel = Channels.newChannel(shpStream);
@@ -213,6 +295,7 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
         File dbfFile = new File(inputDirectory, shapefilename + ".dbf");
         File shpFile = new File(inputDirectory, shapefilename + ".shp");
         File prjFile = new File(inputDirectory, shapefilename + ".prj");
+        File indexFile = new File(inputDirectory, shapefilename + ".shx");
 
         if (!shpFile.exists()) {
             throw new IllegalArgumentException(
@@ -223,7 +306,20 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
         }
 
         if (dbfFile.exists()) {
-            loadDbf(new FileInputStream(dbfFile), shapefilename);
+            // Opened from the file so the dbf supports seeking for random access
+            loadDbf(new DbfInputStream(dbfFile, null), shapefilename);
+        }
+
+        if (indexFile.exists()) {
+            shxFile = indexFile;
+            // a spatial index is only useful with the record offsets
+            File gsiFile = new File(inputDirectory, shapefilename + ".gsi");
+            File sbnFile = new File(inputDirectory, shapefilename + ".sbn");
+            if (gsiFile.exists()) {
+                spatialIndexFile = gsiFile;
+            } else if (sbnFile.exists()) {
+                spatialIndexFile = sbnFile;
+            }
         }
 
         FileInputStream fis = new FileInputStream(shpFile);
@@ -261,14 +357,14 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
         }
     }
 
-    private void loadDbf(InputStream stream, String shapefilename) throws IOException {
-        dbf = new DbfInputStream(stream, null);
+    private void loadDbf(DbfInputStream dbfStream, String shapefilename) throws IOException {
+        dbf = dbfStream;
         dbf.setRowClass(Feature.class);
         
         // First thing in the dbf should be a schema
         IGISObject ob = dbf.read();
         if (ob instanceof Schema) {
-            Schema schema = (Schema) ob;
+            schema = (Schema) ob;
             schema.setName(shapefilename);
             addFirst(schema);
         } else {
@@ -277,9 +373,38 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
         }
     }
     
-    private ByteBuffer readFromChannel(int position, int size) throws IOException {
+    /**
+     * Get the size of the window mapped over the shp file.
+     *
+     * @return the window size in bytes, zero or negative if each record is
+     *         mapped individually
+     */
+    public long getMapWindowSize() {
+        return mapWindowSize;
+    }
+
+    /**
+     * Set the size of the window mapped over the shp file. By default the
+     * shp file is mapped once if smaller than {@link #DEFAULT_MAP_WINDOW_SIZE},
+     * otherwise in segments of that size, and records are decoded from slices
+     * of the mapped segment. A value of zero or less maps every record
+     * individually. Only applies when reading from a file, streams are always
+     * read sequentially.
+     *
+     * @param mapWindowSize the window size in bytes, values larger than
+     *                      <code>Integer.MAX_VALUE</code> are reduced to that
+     */
+    public void setMapWindowSize(long mapWindowSize) {
+        this.mapWindowSize = Math.min(mapWindowSize, Integer.MAX_VALUE);
+        mappedSegment = null;
+    }
+
+    private ByteBuffer readFromChannel(long position, int size) throws IOException {
         if(fileChannel != null) {
-            return fileChannel.map(MapMode.READ_ONLY, position, size);
+            if (mapWindowSize <= 0) {
+                return fileChannel.map(MapMode.READ_ONLY, position, size);
+            }
+            return sliceFromSegment(position, size);
         } else {
             if(position != plainFileOffsetSanity) {
                 throw new AssertionError("Stream reading was not fully sequential, requested: " + position + " furthest seen: " + plainFileOffsetSanity);
@@ -296,6 +421,29 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
         }
     }
 
+    /**
+     * Return a slice of the mapped segment covering the requested bytes,
+     * mapping a new segment starting at position if the current one does
+     * not contain them.
+     */
+    private ByteBuffer sliceFromSegment(long position, int size) throws IOException {
+        if (mappedSegment == null || position < mappedSegmentStart
+                || position + size > mappedSegmentStart + mappedSegment.capacity()) {
+            long remaining = fileChannel.size() - position;
+            if (remaining < size) {
+                throw new IOException("Unexpected EOF while reading at: " + position + " len: " + size);
+            }
+            long len = Math.max(size, Math.min(mapWindowSize, remaining));
+            mappedSegment = fileChannel.map(MapMode.READ_ONLY, position, len);
+            mappedSegmentStart = position;
+        }
+        ByteBuffer dup = mappedSegment.duplicate();
+        int start = (int) (position - mappedSegmentStart);
+        dup.position(start);
+        dup.limit(start + size);
+        return dup.slice();
+    }
+
     /**
      * Closes this input stream and releases any system resources
      * associated with the stream.
@@ -312,6 +460,10 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
             }
             fileChannel = null;
         }
+        mappedSegment = null;
+        shxIndex = null;
+        spatialIndex = null;
+        candidates = null;
         if (plainChannel != null) {
             try {
                 plainChannel.close();
@@ -336,6 +488,280 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
         }
     }
 
+    /**
+     * @return the bounds filter or <code>null</code> if not filtering
+     */
+    public Geodetic2DBounds getBoundsFilter() {
+        return boundsFilter;
+    }
+
+    /**
+     * Only return features whose bounding box intersects the given bounds.
+     * The test uses the point or the bounding box in each record header, so
+     * records that miss the bounds (and their dbf rows) are skipped without
+     * decoding any coordinates. Records with a null shape are also skipped.
+     * Bounds that cross the anti-meridian are supported. Applies to
+     * {@link #read()} and {@link #readRange(int, int)}, not to
+     * {@link #read(int)}.
+     * <p>
+     * If the shapefile has a {@link #hasSpatialIndex() spatial index} then
+     * only the records it finds are read, using the offsets from the shx
+     * index, and the others are never touched.
+     *
+     * @param bounds the bounds, <code>null</code> to return all features
+     */
+    public void setBoundsFilter(Geodetic2DBounds bounds) {
+        boundsFilter = bounds;
+        candidates = null;
+        if (bounds != null) {
+            filterWest = bounds.getWestLon().inDegrees();
+            filterEast = bounds.getEastLon().inDegrees();
+            filterSouth = bounds.getSouthLat().inDegrees();
+            filterNorth = bounds.getNorthLat().inDegrees();
+            // Equal west and east longitudes is either a single meridian or
+            // the whole world, ask the bounds which one
+            filterAllLongitudes = filterWest == filterEast && bounds.contains(
+                    new Geodetic2DPoint(new Longitude(filterWest + 180.0, Angle.DEGREES),
+                            new Latitude((filterSouth + filterNorth) / 2.0, Angle.DEGREES)));
+        }
+    }
+
+    /**
+     * Get the schema derived from the dbf file.
+     *
+     * @return the schema or <code>null</code> if the shapefile has no dbf
+     */
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return <code>true</code> if the shapefile was opened from a directory
+     *         that holds the shx index, which is required for random access
+     */
+    public boolean hasIndex() {
+        return shxFile != null && fileChannel != null;
+    }
+
+    /**
+     * Test for a spatial index of the record bounds, which is used to find
+     * the records that may pass the {@link #setBoundsFilter bounds filter}.
+     * The index is read from the .gsi file that
+     * {@link SingleShapefileOutputHandler} writes with a shapefile if asked
+     * to, or else from an ESRI .sbn file. An index that can not be read or
+     * does not match the length, record count or bounding box of the
+     * shapefile is ignored.
+     *
+     * @return <code>true</code> if a spatial index and the shx index are
+     *         available
+     */
+    public boolean hasSpatialIndex() {
+        return getSpatialIndex() != null;
+    }
+
+    private SpatialIndex getSpatialIndex() {
+        if (!spatialIndexLoaded && spatialIndexFile != null && hasIndex()) {
+            spatialIndexLoaded = true;
+            try {
+                SpatialIndex index;
+                if (spatialIndexFile.getName().endsWith(".sbn")) {
+                    index = SbnReader.read(spatialIndexFile, getRecordCount());
+                } else {
+                    index = openGsi();
+                }
+                spatialIndex = index;
+            } catch (IOException e) {
+                logger.warn("Ignoring spatial index: " + e.getMessage());
+            }
+        }
+        return spatialIndex;
+    }
+
+    /**
+     * Open the .gsi spatial index, checking that its header matches the
+     * length, record count and header bounding box of the shapefile so an
+     * index left over from another version of the shapefile is not used.
+     *
+     * @return the index, never <code>null</code>
+     * @throws IOException if the index can not be read or does not match
+     */
+    private SpatialIndex openGsi() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SingleShapefileOutputHandler.GSI_HEADER_LENGTH);
+        FileInputStream fis = new FileInputStream(spatialIndexFile);
+        try {
+            FileChannel gsiChannel = fis.getChannel();
+            while (header.hasRemaining() && gsiChannel.read(header) != -1) {
+                // read the whole header
+            }
+        } finally {
+            IOUtils.closeQuietly(fis);
+        }
+        header.flip();
+        if (header.remaining() < SingleShapefileOutputHandler.GSI_HEADER_LENGTH
+                || header.getInt() != SingleShapefileOutputHandler.GSI_SIGNATURE) {
+            throw new IOException(spatialIndexFile + " is not a spatial index");
+        }
+        long shpLength = header.getLong();
+        int count = header.getInt();
+        boolean matches = shpLength == fileChannel.size() && count == getRecordCount();
+        ByteBuffer shpHeader = readFromChannel(36, 32).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 4; i++) {
+            matches &= Double.compare(header.getDouble(), shpHeader.getDouble(8 * i)) == 0;
+        }
+        if (!matches) {
+            throw new IOException(spatialIndexFile + " does not match the shapefile");
+        }
+        SpatialIndex index = SpatialIndex.open(spatialIndexFile,
+                SingleShapefileOutputHandler.GSI_HEADER_LENGTH);
+        if (index.size() != count) {
+            throw new IOException(spatialIndexFile + " has " + index.size()
+                    + " entries but the shapefile has " + count + " records");
+        }
+        return index;
+    }
+
+    /**
+     * Get the numbers of the records the spatial index finds for the bounds
+     * filter. Every record that passes the filter is among them.
+     *
+     * @return the record numbers in ascending order or <code>null</code> if
+     *         there is no filter or spatial index
+     */
+    private long[] getCandidates() throws IOException {
+        if (candidates == null && boundsFilter != null && getSpatialIndex() != null) {
+            long found[] = spatialIndex.query(boundsFilter);
+            // drop any entries past the last record
+            int n = Arrays.binarySearch(found, getRecordCount());
+            candidates = n < 0 ? Arrays.copyOf(found, -n - 1) : Arrays.copyOf(found, n);
+        }
+        return candidates;
+    }
+
+    /**
+     * Get the number of records in the shapefile from the shx index.
+     *
+     * @return the record count
+     * @throws IOException if an I/O error occurs reading the index
+     * @throws IllegalStateException if there is no shx index available
+     */
+    public int getRecordCount() throws IOException {
+        return (getIndex().capacity() - 100) / 8;
+    }
+
+    /**
+     * Read the feature for a given record using the offset from the shx index.
+     * Random access may be mixed freely with sequential calls to
+     * {@link #read()}.
+     *
+     * @param recordNumber the zero based record number
+     * @return the feature, never <code>null</code>
+     * @throws IOException if an I/O error occurs or the dbf has too few records
+     * @throws IllegalArgumentException if recordNumber is out of range
+     * @throws IllegalStateException if there is no shx index available
+     */
+    public Feature read(int recordNumber) throws IOException {
+        if (recordNumber < 0 || recordNumber >= getRecordCount()) {
+            throw new IllegalArgumentException("recordNumber " + recordNumber
+                    + " out of range, record count is " + getRecordCount());
+        }
+        long offset = getRecordOffset(recordNumber);
+        Feature f = readAttributes(recordNumber);
+        if (f == null) {
+            throw new IOException("dbf is missing record " + recordNumber);
+        }
+        f.setGeometry(getGeometry(readRecord(offset), is3D(shpType), isM(shpType)));
+        return f;
+    }
+
+    /**
+     * Read the features for a range of records using the shx index. If a
+     * bounds filter is set then only the records that pass the filter are
+     * returned, and with a spatial index only the records it finds are read.
+     *
+     * @param from the zero based number of the first record, inclusive
+     * @param to   the zero based number of the last record, exclusive
+     * @return the features in record order, never <code>null</code>
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if the range is invalid
+     * @throws IllegalStateException if there is no shx index available
+     */
+    public List<Feature> readRange(int from, int to) throws IOException {
+        if (from < 0 || to < from || to > getRecordCount()) {
+            throw new IllegalArgumentException("Invalid record range " + from
+                    + " to " + to);
+        }
+        List<Feature> features = new ArrayList<Feature>();
+        long found[] = getCandidates();
+        if (found == null) {
+            for (int i = from; i < to; i++) {
+                readFiltered(i, features);
+            }
+        } else {
+            int i = Arrays.binarySearch(found, from);
+            for (i = i < 0 ? -i - 1 : i; i < found.length && found[i] < to; i++) {
+                readFiltered((int) found[i], features);
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Read a record and add its feature to the list if it passes the bounds
+     * filter.
+     */
+    private void readFiltered(int recordNumber, List<Feature> features) throws IOException {
+        ByteBuffer content = readRecord(getRecordOffset(recordNumber));
+        if (boundsFilter != null && !passesFilter(content)) return;
+        Feature f = readAttributes(recordNumber);
+        if (f == null) {
+            throw new IOException("dbf is missing record " + recordNumber);
+        }
+        f.setGeometry(getGeometry(content, is3D(shpType), isM(shpType)));
+        features.add(f);
+    }
+
+    /**
+     * @return the offset of a record in the shp file from the shx index
+     */
+    private long getRecordOffset(int recordNumber) throws IOException {
+        return 2L * (getIndex().getInt(100 + 8 * recordNumber) & 0xffffffffL);
+    }
+
+    private ByteBuffer getIndex() throws IOException {
+        if (shxIndex == null) {
+            if (!hasIndex()) {
+                throw new IllegalStateException(
+                        "Random access requires a file based shapefile with a shx index");
+            }
+            FileInputStream fis = new FileInputStream(shxFile);
+            try {
+                FileChannel channel = fis.getChannel();
+                shxIndex = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                IOUtils.closeQuietly(fis);
+            }
+            shxIndex.order(ByteOrder.BIG_ENDIAN);
+        }
+        return shxIndex;
+    }
+
+    /**
+     * Read the dbf row for the given record, positioning the dbf first if
+     * needed.
+     *
+     * @return a feature holding the attributes, a feature with no attributes
+     *         if there is no dbf, or <code>null</code> if the dbf is exhausted
+     */
+    private Feature readAttributes(int record) throws IOException {
+        if (dbf == null) {
+            return new Feature();
+        }
+        if (dbf.getCurrentRecord() != record) {
+            dbf.seek(record);
+        }
+        return (Feature) dbf.read();
+    }
+
     /**
      * Read the next feature from the shapefile. A shapefile will contain a
      * uniform set of geometry features.
@@ -345,36 +771,62 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
      * @throws IllegalArgumentException if unable to read a valid geometry
      */
     private IGISObject readNext() throws IOException {
-        if (fileOffset >= (2 * fileLength)) return null;
-
-        Feature f;
-        if (dbf != null) {
-            f = (Feature) dbf.read();
-        } else {
-            f = new Feature();
-        }
         boolean is3D = is3D(shpType);
         boolean includeM = isM(shpType);
-        if (f != null) {
-            Geometry geo = getGeometry(is3D, includeM);
-            f.setGeometry(geo);
+        long found[] = getCandidates();
+        while (fileOffset < fileLength) {
+            if (found != null) {
+                // Seek to the next record found by the spatial index
+                int i = Arrays.binarySearch(found, nextRecord);
+                if (i < 0) i = -i - 1;
+                if (i == found.length) {
+                    fileOffset = fileLength;
+                    break;
+                }
+                if (found[i] != nextRecord) {
+                    nextRecord = (int) found[i];
+                    fileOffset = getRecordOffset(nextRecord);
+                }
+            }
+            ByteBuffer content = readRecord(fileOffset);
+            if (boundsFilter != null && !passesFilter(content)) {
+                // Skip the record, the dbf row is skipped by seeking
+                fileOffset = recordEnd;
+                nextRecord++;
+                continue;
+            }
+            Feature f = readAttributes(nextRecord);
+            if (f != null) {
+                Geometry geo = getGeometry(content, is3D, includeM);
+                f.setGeometry(geo);
+                fileOffset = recordEnd; // Reposition for next call
+                nextRecord++;
+            }
+            return f;
         }
-        return f;
+        return null;
     }
 
-    // Read the next Geometry Object and validate type. Return null at valid EOF.
-    private Geometry getGeometry(boolean is3D, boolean includeM)
-            throws IOException, IllegalArgumentException {
+    // Read the record at position and return its content positioned at the
+    // shape type. Sets recordEnd to the position of the following record.
+    private ByteBuffer readRecord(long position) throws IOException {
         // EOF is OK if it occurs here, otherwise we'll throw the exception to caller
-        ByteBuffer buffer = readFromChannel(fileOffset, 8);
+        ByteBuffer buffer = readFromChannel(position, 8);
         int num = readInt(buffer, ByteOrder.BIG_ENDIAN);
         int contentLen = readInt(buffer, ByteOrder.BIG_ENDIAN); // In 16 bit words
-        int nextFilePos = 2 * (contentLen + 4) + fileOffset;
+        long nextFilePos = 2L * (contentLen + 4) + position;
         if (contentLen <= 4)
             throw new IOException("Shapefile contains badly formatted record");
-        Geometry geomObj = null;
         int recLen = contentLen * 2;
-        buffer = readFromChannel(fileOffset + 8, recLen);
+        buffer = readFromChannel(position + 8, recLen);
+        recordEnd = nextFilePos;
+        return buffer;
+    }
+
+    // Decode the Geometry Object from the record content and validate type.
+    private Geometry getGeometry(ByteBuffer buffer, boolean is3D, boolean includeM)
+            throws IOException, IllegalArgumentException {
+        Geometry geomObj = null;
         int recShapeType = readInt(buffer, ByteOrder.LITTLE_ENDIAN);
         if (recShapeType != NULL_TYPE) {
             if (recShapeType != shpType)
@@ -393,10 +845,43 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
                             shpType + ") that is currently unsupported");
             }
         }
-        fileOffset = nextFilePos; // Reposition for next call
         return geomObj;
     }
 
+    /**
+     * Test the record content against the bounds filter using the point of
+     * a point record or the bounding box stored ahead of the coordinates for
+     * other shape types. The buffer position is not changed.
+     *
+     * @return <code>true</code> if the record should be returned
+     */
+    private boolean passesFilter(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int start = buffer.position();
+        int recShapeType = buffer.getInt(start);
+        if (recShapeType == NULL_TYPE) return false; // no location
+        double xMin = buffer.getDouble(start + 4);
+        double yMin = buffer.getDouble(start + 12);
+        double xMax, yMax;
+        // the Z (1x) and M (2x) types start like their base type, MultiPatch
+        // (31) has a bounding box
+        int st = recShapeType < 30 ? recShapeType % 10 : recShapeType;
+        if (st == POINT_TYPE) {
+            xMax = xMin;
+            yMax = yMin;
+        } else {
+            xMax = buffer.getDouble(start + 20);
+            yMax = buffer.getDouble(start + 28);
+        }
+        if (yMax < filterSouth || yMin > filterNorth) return false;
+        if (filterAllLongitudes) return true;
+        if (filterWest <= filterEast) {
+            return xMax >= filterWest && xMin <= filterEast;
+        }
+        // filter crosses the anti-meridian
+        return xMax >= filterWest || xMin <= filterEast;
+    }
+
     /**
      * Utility method to test for 3D geometry based on shapeType code
      *
@@ -440,7 +925,7 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
         // Skip over unused bytes in header
         for (int i = 0; i < 5; i++) readInt(buffer, ByteOrder.BIG_ENDIAN);
         // Read the file length (total number of 2-byte words, including header)
-        fileLength = readInt(buffer, ByteOrder.BIG_ENDIAN);  // fileLen (not used)
+        fileLength = 2L * (readInt(buffer, ByteOrder.BIG_ENDIAN) & 0xffffffffL);
         // Read and validate the shapefile version (should be 1000)
         int version = readInt(buffer, ByteOrder.LITTLE_ENDIAN);
         if (version != VERSION)
@@ -506,39 +991,27 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
         return parts;
     }
 
-    // Read PolyLine and Polygon point values and return Geodetic point array
-    private Geodetic2DPoint[] getPolyPoints(ByteBuffer buffer, int nPoints, boolean is3D, boolean includeM) {
-        Geodetic2DPoint[] pts;
-        // Read the X and Y points into arrays
-        double[] x = new double[nPoints];
-        double[] y = new double[nPoints];
+    // Read PolyLine and Polygon point values and return them packed as (x, y) or
+    // (x, y, z) tuples in degrees
+    private double[] getPolyPoints(ByteBuffer buffer, int nPoints, boolean is3D, boolean includeM) {
+        int dim = is3D ? 3 : 2;
+        double[] coords = new double[nPoints * dim];
+        // Read the X and Y points
         for (int i = 0; i < nPoints; i++) {
-            x[i] = readDouble(buffer, ByteOrder.LITTLE_ENDIAN); // Longitude
-            y[i] = readDouble(buffer, ByteOrder.LITTLE_ENDIAN); // Latitude
+            coords[i * dim] = readDouble(buffer, ByteOrder.LITTLE_ENDIAN); // Longitude
+            coords[i * dim + 1] = readDouble(buffer, ByteOrder.LITTLE_ENDIAN); // Latitude
         }
         // If 3D, read the Z bounds + values and skip over rest of record (M bounds and values)
         if (is3D) {
             readDouble(buffer, ByteOrder.LITTLE_ENDIAN); // skip Zmin
             readDouble(buffer, ByteOrder.LITTLE_ENDIAN); // skip Zmax
-            double[] z = new double[nPoints];
             try {
                 for (int i = 0; i < nPoints; i++) {
-                    z[i] = readDouble(buffer, ByteOrder.LITTLE_ENDIAN);
+                    coords[i * 3 + 2] = readDouble(buffer, ByteOrder.LITTLE_ENDIAN);
                 }
             } catch (BufferUnderflowException bfe) {
                 logger.warn("Found too few z-values, the rest will be taken as 0.0");
             }
-            // Convert x, y, and z values into Geodetic points, ignoring the m values
-            pts = new Geodetic3DPoint[nPoints];
-            for (int i = 0; i < nPoints; i++)
-                pts[i] = new Geodetic3DPoint(new Longitude(x[i], Angle.DEGREES),
-                        new Latitude(y[i], Angle.DEGREES), z[i]);
-        } else {
-            // Convert x and y values into Geodetic points
-            pts = new Geodetic2DPoint[nPoints];
-            for (int i = 0; i < nPoints; i++)
-                pts[i] = new Geodetic2DPoint(new Longitude(x[i], Angle.DEGREES),
-                        new Latitude(y[i], Angle.DEGREES));
         }
         // Do the following just to get the spanning right, we ignore the m 
         // values
@@ -553,7 +1026,13 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
                 logger.warn("Found too few m-values, but they were being ignored anyway");
             }
         }
-        return pts;
+        return coords;
+    }
+
+    // Take the points from start (inclusive) to end (exclusive) as a coordinate sequence
+    private static CoordinateSequence getPart(double[] coords, int start, int end, boolean is3D) {
+        int dim = is3D ? 3 : 2;
+        return CoordinateSequence.fromDegrees(Arrays.copyOfRange(coords, start * dim, end * dim), is3D);
     }
 
     // Read next MultiLine (ESRI Polyline or PolylineZ) record
@@ -562,15 +1041,11 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
         int nParts = readInt(buffer, ByteOrder.LITTLE_ENDIAN);
         int nPoints = readInt(buffer, ByteOrder.LITTLE_ENDIAN);  // total numPoints
         int[] parts = getPartOffsets(buffer, nParts, nPoints);
-        Geodetic2DPoint[] pts = getPolyPoints(buffer, nPoints, is3D, includeM);
+        double[] pts = getPolyPoints(buffer, nPoints, is3D, includeM);
         ArrayList<Line> lnList = new ArrayList<Line>();
-        // Collect up the Geodetic points into the line parts
-        int k = 0; // point index
+        // Collect up the points into the line parts
         for (int j = 1; j <= nParts; j++) {
-            ArrayList<Point> ptList = new ArrayList<Point>();
-            int n = parts[j] - parts[j - 1];
-            for (int i = 0; i < n; i++) ptList.add(new Point(pts[k++]));
-            lnList.add(new Line(ptList));
+            lnList.add(new Line(getPart(pts, parts[j - 1], parts[j], is3D)));
         }
         if (lnList.size() == 1)
             return lnList.get(0);
@@ -596,18 +1071,14 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
         int nParts = readInt(buffer, ByteOrder.LITTLE_ENDIAN);
         int nPoints = readInt(buffer, ByteOrder.LITTLE_ENDIAN);  // total numPoints
         int[] parts = getPartOffsets(buffer, nParts, nPoints);
-        Geodetic2DPoint[] pts = getPolyPoints(buffer, nPoints, is3D, includeM);
+        double[] pts = getPolyPoints(buffer, nPoints, is3D, includeM);
         // Shapefiles allow multiple outer rings intermixed with multiple inner rings
         // Our MultiLinearRings Object requires 1 outer and 0 or more inner.  We'll assume
         // inner rings follow their outer ring, and use direction as a list delimiter.
         ArrayList<PolyHolder> polyholders = new ArrayList<PolyHolder>();
         ArrayList<LinearRing> savedRings = new ArrayList<LinearRing>();
-        int k = 0; // point index
         for (int j = 1; j <= nParts; j++) {
-            ArrayList<Point> ptList = new ArrayList<Point>();
-            int n = parts[j] - parts[j - 1];
-            for (int i = 0; i < n; i++) ptList.add(new Point(pts[k++]));
-            LinearRing r = new LinearRing(ptList);
+            LinearRing r = new LinearRing(getPart(pts, parts[j - 1], parts[j], is3D));
             if (r.clockwise()) {
                 PolyHolder newPoly = new PolyHolder();
                 newPoly.setOuterRing(r);
@@ -644,10 +1115,7 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
             if (!found) {
                 // If we don't find something then we'll treat the ring as a
                 // poly itself
-                List<Point> rpts = new ArrayList<Point>();
-                rpts.addAll(saved.getPoints());
-                Collections.reverse(rpts);
-                Polygon poly = new Polygon(new LinearRing(rpts));
+                Polygon poly = new Polygon(new LinearRing(saved.getCoordinates().reverse()));
                 polyList.add(poly);
             }
         }
@@ -679,13 +1147,12 @@ public class SingleShapefileInputHandler extends GISInputStreamBase implements
     // Read next MultiPoint (ESRI MultiPoint or MultiPointZ) record
     private Geometry getMultipoint(ByteBuffer buffer, boolean is3D, boolean includeM) {
         int nPoints = readInt(buffer, ByteOrder.LITTLE_ENDIAN);  // total numPoints
-        Geodetic2DPoint[] pts = getPolyPoints(buffer, nPoints, is3D, includeM);
-        ArrayList<Point> ptList = new ArrayList<Point>();
-        for (int i = 0; i < nPoints; i++) ptList.add(new Point(pts[i]));
-        if (ptList.size() == 1)
-            return ptList.get(0);
+        CoordinateSequence pts = getPart(getPolyPoints(buffer, nPoints, is3D, includeM),
+                0, nPoints, is3D);
+        if (pts.size() == 1)
+            return pts.getPoint(0);
         else
-            return new MultiPoint(ptList);
+            return new MultiPoint(pts);
     }
 
     /**
@@ -37,6 +37,7 @@ import org.opensextant.geodesy.Latitude;
 import org.opensextant.geodesy.Longitude;
 import org.opensextant.giscore.events.IGISObject;
 import org.opensextant.giscore.events.Schema;
+import org.opensextant.giscore.geometry.CoordinateSequence;
 import org.opensextant.giscore.geometry.Geometry;
 import org.opensextant.giscore.geometry.GeometryBag;
 import org.opensextant.giscore.geometry.Line;
@@ -155,7 +156,7 @@ public class WKTInputStream implements IGISInputStream {
 	}
 	
 	private IGISObject readLine() throws IOException {
-		return new Line(readPointList()); 
+		return new Line(readCoordinates());
 	}
 	
 	private IGISObject readPolygon() throws IOException {
@@ -172,8 +173,7 @@ public class WKTInputStream implements IGISInputStream {
 				} else if ('(' == ch) {
 					lexer.push(token);
 					// A ring
-					List<Point> pnts = readPointList();
-					LinearRing ring = new LinearRing(pnts);
+					LinearRing ring = new LinearRing(readCoordinates());
 					if (outerRing == null) {
 						outerRing = ring;
 					} else {
@@ -191,7 +191,7 @@ public class WKTInputStream implements IGISInputStream {
 	}
 	
 	private IGISObject readMultiPoint() throws IOException {
-		return new MultiPoint(readPointList());
+		return new MultiPoint(readCoordinates());
 	}
 	
 	private IGISObject readMultiLineString() throws IOException {
@@ -207,8 +207,7 @@ public class WKTInputStream implements IGISInputStream {
 				} else if ('(' == ch) {
 					lexer.push(token);
 					// A line
-					List<Point> pnts = readPointList();
-					lines.add(new Line(pnts));
+					lines.add(new Line(readCoordinates()));
 				} else if (',' == ch) {
 					// Ignore, it's a separator
 				} else {
@@ -273,17 +272,17 @@ public class WKTInputStream implements IGISInputStream {
 		}		
 	}
 		
-	private List<Point> readPointList() throws IOException {
+	private CoordinateSequence readCoordinates() throws IOException {
 		expectParen();
 		// Read a token and see if we're at the thesis, a comma or the next
 		// coordinate
 		WKTToken token = lexer.nextToken();
-		List<Point> pnts = new ArrayList<Point>();
+		CoordinateSequence.Builder pnts = new CoordinateSequence.Builder();
 		while(true) {
 			if (token.getType().equals(WKTToken.TokenType.CHAR)) {
 				int ch = token.getChar();
 				if (')' == ch) {
-					return pnts;
+					return pnts.build();
 				} else if (',' == ch) {
 					// Ignore, it's a separator
 				} else {
@@ -292,7 +291,7 @@ public class WKTInputStream implements IGISInputStream {
 				}				
 			} else if (token.getType().equals(WKTToken.TokenType.NUMBER)) {
 				lexer.push(token);
-				pnts.add(new Point(readCoordinate()));
+				readCoordinate(pnts);
 			} else {
 				throw new IOException("Found an unexpected identifier in LINESTRING: " + token);
 			}
@@ -340,6 +339,37 @@ public class WKTInputStream implements IGISInputStream {
 		}
 	}
 
+	/**
+	 * Read 2, 3 or 4 numbers depending on the values of isM and isZ and add
+	 * the coordinate to the given sequence builder.
+	 * @param pnts the builder to add the coordinate to
+	 * @throws IOException if an error occurs
+	 */
+	private void readCoordinate(CoordinateSequence.Builder pnts) throws IOException {
+		WKTToken x, y, z = null;
+		
+		x = lexer.nextToken();
+		y = lexer.nextToken();
+		if (isZ) {
+			z = lexer.nextToken();
+		}
+		if (isM) {
+			lexer.nextToken(); // Just to consumer, we don't use it
+		}
+		
+		if (x.getType().equals(WKTToken.TokenType.NUMBER) && 
+				y.getType().equals(WKTToken.TokenType.NUMBER)) {
+			if (!isZ) {
+				pnts.add(x.getDouble(), y.getDouble());
+				return;
+			} else if (z.getType().equals(WKTToken.TokenType.NUMBER)) {
+				pnts.add(x.getDouble(), y.getDouble(), z.getDouble());
+				return;
+			}
+		}
+		throw new IllegalStateException("One of these tokens was not a number: " + x + ", " + y + (isZ ? ", " + z : ""));
+	}
+
 	/**
 	 * Expect a ')' to close a parenthetical expression
 	 * @throws IOException 
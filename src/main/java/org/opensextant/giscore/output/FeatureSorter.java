@@ -24,6 +24,7 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -35,8 +36,10 @@ import org.opensextant.giscore.events.Row;
 import org.opensextant.giscore.events.Schema;
 import org.opensextant.giscore.events.SimpleField;
 import org.opensextant.giscore.geometry.Geometry;
-import org.opensextant.giscore.utils.FieldCachingObjectBuffer;
+import org.opensextant.giscore.GISFactory;
+import org.opensextant.giscore.utils.IDataSerializable;
 import org.opensextant.giscore.utils.ObjectBuffer;
+import org.opensextant.giscore.utils.ObjectBufferPool;
 
 /**
  * The esri formats require that the features be sorted into uniform bins where
@@ -44,6 +47,13 @@ import org.opensextant.giscore.utils.ObjectBuffer;
  * takes care of the sorting of features into temporary files that hold a
  * uniform set of features, and which allows the consumer to then get the
  * features back out by category.
+ * <p>
+ * The buffers of all categories share one memory budget and one temporary
+ * file (see {@link ObjectBufferPool}), so the number of open files does not
+ * grow with the number of categories, and the largest buffers are written
+ * to the file first when the budget is exceeded. Within each category the
+ * features are returned in the order they were added unless an order is set
+ * with {@link #setOrder(Comparator)}.
  * 
  * @author DRAND
  */
@@ -83,6 +93,21 @@ public class FeatureSorter {
 	 * sets need to be written for one type at a time.
 	 */
 	private Map<FeatureKey, ObjectBuffer> bufferMap = null;
+	/**
+	 * The approximate number of bytes of features held in memory by all
+	 * buffers.
+	 */
+	private final long memoryBudget;
+	/**
+	 * Creates the buffers, holds their memory budget and the file they spill
+	 * into.
+	 */
+	private ObjectBufferPool pool = null;
+	/**
+	 * The order of the rows within each buffer, <code>null</code> for the
+	 * order in which they are added.
+	 */
+	private Comparator<IDataSerializable> order = null;
 	/**
 	 * The class keeps track of the overall extent of the features in a
 	 * particular collection.
@@ -108,6 +133,21 @@ public class FeatureSorter {
 	 * referenced style as well as geometry and path.
 	 */
 	public FeatureSorter(boolean splitOnStyle) {
+		this(splitOnStyle, GISFactory.sorterMemoryBudget.get());
+	}
+
+	/**
+	 * Ctor
+	 * @param splitOnStyle if <code>true</code> then split features by the
+	 * referenced style as well as geometry and path.
+	 * @param memoryBudget the approximate number of bytes of features held in
+	 * memory across all buffers, must be positive.
+	 */
+	public FeatureSorter(boolean splitOnStyle, long memoryBudget) {
+		if (memoryBudget < 1) {
+			throw new IllegalArgumentException("memoryBudget must be positive");
+		}
+		this.memoryBudget = memoryBudget;
 		try {
 			this.splitOnStyle = splitOnStyle;
 			cleanup();
@@ -116,6 +156,27 @@ public class FeatureSorter {
 		}
 	}
 
+	/**
+	 * Set the order of the rows returned by the buffers. The rows are sorted
+	 * with an external merge sort that spills sorted runs into the same file
+	 * and memory budget as unsorted buffers.
+	 * 
+	 * @param order the order of the rows within each buffer, for example a
+	 * {@link SpatialOrderComparator}, or <code>null</code> for the order in
+	 * which they are added
+	 * @throws IllegalStateException if rows have been added
+	 */
+	public void setOrder(final Comparator<? super Row> order) {
+		if (!bufferMap.isEmpty()) {
+			throw new IllegalStateException("order must be set before rows are added");
+		}
+		this.order = order == null ? null : new Comparator<IDataSerializable>() {
+			public int compare(IDataSerializable o1, IDataSerializable o2) {
+				return order.compare((Row) o1, (Row) o2);
+			}
+		};
+	}
+
 	/**
 	 * @return the known keys to the files
 	 */
@@ -184,7 +245,7 @@ public class FeatureSorter {
 				currentKey = key;
 				buffer = bufferMap.get(key);
 				if (buffer == null) {
-					buffer = new FieldCachingObjectBuffer();
+					buffer = pool.createBuffer(order);
 					bufferMap.put(key, buffer);
 				}
 			}
@@ -322,6 +383,14 @@ public class FeatureSorter {
 				}
 			}
 		}
+		if (pool != null) {
+			try {
+				pool.close();
+			} catch(IOException ioe) {
+				exception = ioe;
+			}
+		}
+		pool = new ObjectBufferPool(memoryBudget);
 		schemata = new HashMap<URI, Schema>();
 		internalSchema = new HashMap<Set<SimpleField>, Schema>();
 		bufferMap = new HashMap<FeatureKey, ObjectBuffer>();
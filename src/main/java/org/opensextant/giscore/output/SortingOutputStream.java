@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
@@ -52,6 +53,11 @@ import org.slf4j.LoggerFactory;
  * stream, which is available via the {@link #getInnerStream()} call as well
  * as by saving a reference in the caller. It is the callers responsibility to
  * call the close method on the original stream.
+ * <p>
+ * Within each container the features are written in the order they were
+ * received unless an order is given, such as a {@link SpatialOrderComparator}
+ * for consumers that benefit from spatially close features being written
+ * together.
  * 
  * @author DRAND
  * 
@@ -109,6 +115,22 @@ public class SortingOutputStream extends StreamVisitorBase implements
 		this.strategy = strategy;
 		this.extractor = extractor;
 	}
+
+	/**
+	 * Ctor
+	 * 
+	 * @param innerstream
+	 * @param strategy
+	 * @param extractor
+	 * @param order the order of the features within each container, 
+	 * <code>null</code> for the order they are received
+	 */
+	public SortingOutputStream(IGISOutputStream innerstream,
+			IContainerNameStrategy strategy, ICategoryNameExtractor extractor,
+			Comparator<? super Row> order) {
+		this(innerstream, strategy, extractor);
+		sorter.setOrder(order);
+	}
 	
 	
 	/**
@@ -0,0 +1,155 @@
+/****************************************************************************************
+ *  SpatialOrderComparator.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.output;
+
+import java.util.Comparator;
+
+import org.opensextant.geodesy.Geodetic2DBounds;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.Row;
+import org.opensextant.giscore.geometry.Geometry;
+
+/**
+ * Orders features along a space filling curve through the center of their
+ * geometry's bounding box, so features that are near each other on the
+ * ground are near each other in the output. Longitude and latitude are each
+ * scaled to 31 bits over the whole globe. Rows without geometry sort after
+ * all features with geometry.
+ *
+ * @see FeatureSorter#setOrder(Comparator)
+ */
+public class SpatialOrderComparator implements Comparator<Row> {
+
+	/**
+	 * The space filling curve
+	 */
+	public enum Curve {
+		/**
+		 * Hilbert curve, which has better locality since consecutive cells
+		 * are always adjacent
+		 */
+		HILBERT,
+		/**
+		 * Morton or Z-order curve, which interleaves the bits of the
+		 * coordinates and is cheaper to compute
+		 */
+		MORTON
+	}
+
+	private static final int BITS = 31;
+
+	private static final double SCALE = (1L << BITS) - 1;
+
+	private final Curve curve;
+
+	/**
+	 * Ctor
+	 * @param curve the curve, never <code>null</code>
+	 */
+	public SpatialOrderComparator(Curve curve) {
+		if (curve == null) {
+			throw new IllegalArgumentException("curve should never be null");
+		}
+		this.curve = curve;
+	}
+
+	/**
+	 * @return the curve
+	 */
+	public Curve getCurve() {
+		return curve;
+	}
+
+	public int compare(Row r1, Row r2) {
+		long i1 = getIndex(r1);
+		long i2 = getIndex(r2);
+		return i1 < i2 ? -1 : (i1 == i2 ? 0 : 1);
+	}
+
+	/**
+	 * Get the position of a row along the curve.
+	 * @param row the row, never <code>null</code>
+	 * @return the index, or <code>Long.MAX_VALUE</code> if the row has no geometry
+	 */
+	public long getIndex(Row row) {
+		if (!(row instanceof Feature)) return Long.MAX_VALUE;
+		Geometry geom = ((Feature) row).getGeometry();
+		Geodetic2DBounds bbox = geom != null ? geom.getBoundingBox() : null;
+		if (bbox == null) return Long.MAX_VALUE;
+		double west = bbox.getWestLon().inDegrees();
+		double east = bbox.getEastLon().inDegrees();
+		// bounding box that crosses the date line
+		if (east < west) east += 360.0;
+		double lon = (west + east) / 2.0;
+		if (lon > 180.0) lon -= 360.0;
+		double lat = (bbox.getSouthLat().inDegrees() + bbox.getNorthLat().inDegrees()) / 2.0;
+		int x = scale((lon + 180.0) / 360.0);
+		int y = scale((lat + 90.0) / 180.0);
+		return curve == Curve.HILBERT ? hilbertIndex(x, y) : mortonIndex(x, y);
+	}
+
+	private static int scale(double fraction) {
+		if (fraction <= 0.0) return 0;
+		if (fraction >= 1.0) return (int) SCALE;
+		return (int) (fraction * SCALE);
+	}
+
+	/**
+	 * Position of a cell along a Hilbert curve of order 31.
+	 * @param x the column, from 0 to 2<sup>31</sup>-1
+	 * @param y the row, from 0 to 2<sup>31</sup>-1
+	 * @return the index, from 0 to 2<sup>62</sup>-1
+	 */
+	public static long hilbertIndex(int x, int y) {
+		long d = 0;
+		for (int s = 1 << (BITS - 1); s > 0; s >>>= 1) {
+			int rx = (x & s) != 0 ? 1 : 0;
+			int ry = (y & s) != 0 ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			// rotate the quadrant so the curve is continuous
+			if (ry == 0) {
+				if (rx == 1) {
+					x = s - 1 - (x & (s - 1));
+					y = s - 1 - (y & (s - 1));
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * Position of a cell along a Morton curve, which interleaves the bits of
+	 * the column and row with the column in the lower bit.
+	 * @param x the column, from 0 to 2<sup>31</sup>-1
+	 * @param y the row, from 0 to 2<sup>31</sup>-1
+	 * @return the index, from 0 to 2<sup>62</sup>-1
+	 */
+	public static long mortonIndex(int x, int y) {
+		return spread(x) | (spread(y) << 1);
+	}
+
+	private static long spread(int v) {
+		long x = v & 0xffffffffL;
+		x = (x | (x << 16)) & 0x0000ffff0000ffffL;
+		x = (x | (x << 8)) & 0x00ff00ff00ff00ffL;
+		x = (x | (x << 4)) & 0x0f0f0f0f0f0f0f0fL;
+		x = (x | (x << 2)) & 0x3333333333333333L;
+		x = (x | (x << 1)) & 0x5555555555555555L;
+		return x;
+	}
+}
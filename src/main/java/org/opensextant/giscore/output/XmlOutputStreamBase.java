@@ -18,7 +18,6 @@ package org.opensextant.giscore.output;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.text.DecimalFormat;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +33,7 @@ import org.opensextant.giscore.events.Comment;
 import org.opensextant.giscore.events.Element;
 import org.opensextant.giscore.events.IGISObject;
 import org.opensextant.giscore.events.Row;
+import org.opensextant.giscore.utils.DecimalFormatter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,7 +49,7 @@ public class XmlOutputStreamBase extends StreamVisitorBase implements
 
     private static final Logger log = LoggerFactory.getLogger(XmlOutputStreamBase.class);
 
-	private final DecimalFormat formatter = new DecimalFormat("0.##########");
+	private final DecimalFormatter formatter = new DecimalFormatter(10);
 
     protected OutputStream stream;
     
@@ -219,9 +219,7 @@ public class XmlOutputStreamBase extends StreamVisitorBase implements
 	{
 		boolean foundSpecial = false;
 		for (int i = 0; i < outputString.length(); i++) {
-			char ch = outputString.charAt(i);
-			if (!Character.isLetterOrDigit(ch) && !Character.isWhitespace(ch)
-					&& ALLOWED_SPECIAL_CHARACTERS.indexOf(ch) == -1) {
+			if (isSpecial(outputString.charAt(i))) {
 				foundSpecial = true;
                 // unsafe/special characters include: <>&%
 				break;
@@ -233,6 +231,31 @@ public class XmlOutputStreamBase extends StreamVisitorBase implements
 			writer.writeCharacters(outputString);
 	}
 
+	/**
+	 * Output characters from an array as by {@link #handleCharacters(String)}.
+	 *
+	 * @param text the characters
+	 * @param start the index of the first character
+	 * @param len the number of characters
+	 * @throws XMLStreamException if there is an error with the underlying XML
+	 */
+	protected void handleCharacters(char[] text, int start, int len)
+			throws XMLStreamException
+	{
+		for (int i = start; i < start + len; i++) {
+			if (isSpecial(text[i])) {
+				writer.writeCData(new String(text, start, len));
+				return;
+			}
+		}
+		writer.writeCharacters(text, start, len);
+	}
+
+	private static boolean isSpecial(char ch) {
+		return !Character.isLetterOrDigit(ch) && !Character.isWhitespace(ch)
+				&& ALLOWED_SPECIAL_CHARACTERS.indexOf(ch) == -1;
+	}
+
     /**
 	 * Handle a simple element with non-null text, a common case for KML
 	 *
@@ -464,7 +487,7 @@ public class XmlOutputStreamBase extends StreamVisitorBase implements
     }
 
     /**
-     * Formats double values suitable for XML output using DecimalFormater.
+     * Formats double values suitable for XML output using DecimalFormatter.
      * Rounds off decimal value at 10-decimal places eliminating most common
      * round-off errors which are typically at 14 decimal places or beyond
      * (e.g. -34.93 may get converted to -34.93000000000001 with conversion
@@ -476,9 +499,22 @@ public class XmlOutputStreamBase extends StreamVisitorBase implements
         // note doubles like -34.93 may get formatted as -34.93000000000001
         // if using Double.toString()
         // string parsed decimal degrees -> radians -> printed out as decimal degrees
-        // using java.text.DecimalFormat("0.########") with 10 decimal places to be safe
+        // using the equivalent of java.text.DecimalFormat("0.##########") with 10 decimal places to be safe
         // since 8 decimal places .00000001 is 1mm resolution and anything beyond is round-off error
         return formatter.format(d);
     }
 
+    /**
+     * Formats double values as by {@link #formatDouble(double)} into a
+     * character array without creating a String.
+     * @param d double value
+     * @param buf the array, which must have room for
+     *            {@link DecimalFormatter#MAX_LENGTH} characters from <code>pos</code>
+     * @param pos the position of the first character
+     * @return the position after the last character
+     */
+    protected int formatDouble(double d, char[] buf, int pos) {
+        return formatter.format(d, buf, pos);
+    }
+
 }
@@ -0,0 +1,272 @@
+/****************************************************************************************
+ *  DbfFieldEncoder.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.output.dbf;
+
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Encodes the text of decimal and date fields of DBF records as ASCII bytes.
+ * The text is the same as formatting with the <code>DecimalFormat</code> and
+ * <code>SimpleDateFormat</code> patterns of the DBF output stream, but common
+ * values are written directly into a byte array without creating any
+ * objects:
+ * <ul>
+ * <li>Decimal values below 10<sup>15</sup> in magnitude whose shortest
+ * decimal representation has at most 15 significant digits and at most 16
+ * decimal places. This is the case for most measured or entered values.
+ * Other values, such as results of computations that need 17 digits to
+ * round trip, fall back to <code>DecimalFormat</code>.
+ * <li>Dates in the Gregorian calendar from 1582-10-15 to 9999-12-31 (UTC).
+ * </ul>
+ * Characters that are not ascii are encoded as '?'.
+ * <p>
+ * Not thread safe.
+ */
+public class DbfFieldEncoder {
+
+	/**
+	 * Longest text of a decimal value, the length of a DBF double field
+	 */
+	public static final int DECIMAL_LENGTH = 34;
+
+	/**
+	 * Length of a date, in the format yyyyMMdd
+	 */
+	public static final int DATE_LENGTH = 8;
+
+	private static final int MAX_FRACTION_DIGITS = 16;
+
+	/**
+	 * Bound on the digits of a value encoded directly, 15 significant digits
+	 */
+	private static final double MAX_DIRECT = 1e15;
+
+	private static final long POW10[] = new long[MAX_FRACTION_DIGITS + 1];
+
+	private static final double DOUBLE_POW10[] = new double[MAX_FRACTION_DIGITS + 1];
+
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+		for (int i = 0; i < POW10.length; i++) {
+			DOUBLE_POW10[i] = POW10[i];
+		}
+	}
+
+	private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+	/**
+	 * Start of the Gregorian calendar, 1582-10-15 UTC. Earlier dates are
+	 * Julian for <code>SimpleDateFormat</code>.
+	 */
+	private static final long GREGORIAN_CUTOVER = -12219292800000L;
+
+	/**
+	 * 10000-01-01 UTC, where years have more than 4 digits
+	 */
+	private static final long MAX_DATE = 253402300800000L;
+
+	private final byte digits[] = new byte[20];
+
+	private DecimalFormat decimalFormat;
+
+	private DateFormat dateFormat;
+
+	/**
+	 * Encode a decimal value as by the format
+	 * <tt>+###############0.################;-###############0.################</tt>,
+	 * using an exponent if that gives more than {@value #DECIMAL_LENGTH} characters.
+	 *
+	 * @param d   the value
+	 * @param buf the array, which must have room for {@value #DECIMAL_LENGTH}
+	 *            bytes from <code>pos</code>
+	 * @param pos the position of the first byte
+	 * @return the position after the last byte
+	 */
+	public int putDecimal(double d, byte buf[], int pos) {
+		byte sign = Double.doubleToRawLongBits(d) < 0 ? (byte) '-' : (byte) '+';
+		double abs = Math.abs(d);
+		if (abs == 0) {
+			buf[pos++] = sign;
+			buf[pos++] = '0';
+			return pos;
+		}
+		if (abs < MAX_DIRECT) {
+			// find the fewest decimal places that give the same double. There is
+			// at most one decimal with 15 significant digits within half an ulp
+			// so this is the shortest representation.
+			for (int places = 0; places <= MAX_FRACTION_DIGITS; places++) {
+				double scaled = Math.rint(abs * DOUBLE_POW10[places]);
+				if (scaled >= MAX_DIRECT) break;
+				if (scaled / DOUBLE_POW10[places] == abs) {
+					buf[pos++] = sign;
+					return putDecimal((long) scaled, places, buf, pos);
+				}
+			}
+		}
+		if (decimalFormat == null) {
+			decimalFormat = new DecimalFormat(
+					"+###############0.################;-###############0.################");
+		}
+		String text = decimalFormat.format(d);
+		if (text.length() > DECIMAL_LENGTH) {
+			// value would be truncated - use numeric exponent format (e.g. 1.2e+308)
+			text = doubleExpFormat(d);
+		}
+		return putAscii(text, buf, pos);
+	}
+
+	private int putDecimal(long scaled, int places, byte buf[], int pos) {
+		pos = putDigits(scaled / POW10[places], buf, pos);
+		if (places > 0) {
+			buf[pos++] = '.';
+			long fraction = scaled % POW10[places];
+			for (int i = pos + places - 1; i >= pos; i--) {
+				buf[i] = (byte) ('0' + fraction % 10);
+				fraction /= 10;
+			}
+			pos += places;
+		}
+		return pos;
+	}
+
+	/**
+	 * Encode an integer as by <code>Long.toString</code>.
+	 *
+	 * @param value the value
+	 * @param buf   the array, which must have room for 20 bytes from
+	 *              <code>pos</code>
+	 * @param pos   the position of the first byte
+	 * @return the position after the last byte
+	 */
+	public int putLong(long value, byte buf[], int pos) {
+		// magnitude kept negative so Long.MIN_VALUE does not overflow
+		int start = digits.length;
+		long v = value < 0 ? value : -value;
+		do {
+			digits[--start] = (byte) ('0' - v % 10);
+			v /= 10;
+		} while (v != 0);
+		if (value < 0) buf[pos++] = '-';
+		int n = digits.length - start;
+		System.arraycopy(digits, start, buf, pos, n);
+		return pos + n;
+	}
+
+	private static int putDigits(long value, byte buf[], int pos) {
+		int end = pos;
+		long v = value;
+		do {
+			end++;
+			v /= 10;
+		} while (v != 0);
+		for (int i = end - 1; i >= pos; i--) {
+			buf[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		return end;
+	}
+
+	/**
+	 * Encode a date as by the format <tt>yyyyMMdd</tt> in UTC. Years after
+	 * 9999 have more than {@value #DATE_LENGTH} characters.
+	 *
+	 * @param date the date, never <code>null</code>
+	 * @param buf  the array, which must have room for the text from
+	 *             <code>pos</code>
+	 * @param pos  the position of the first byte
+	 * @return the position after the last byte
+	 */
+	public int putDate(Date date, byte buf[], int pos) {
+		long time = date.getTime();
+		if (time < GREGORIAN_CUTOVER || time >= MAX_DATE) {
+			if (dateFormat == null) {
+				dateFormat = new SimpleDateFormat("yyyyMMdd");
+				dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+			}
+			return putAscii(dateFormat.format(date), buf, pos);
+		}
+		long days = time / MILLIS_PER_DAY;
+		if (time % MILLIS_PER_DAY < 0) days--;
+		// civil date from days since 1970-01-01, with years starting in March
+		long z = days + 719468;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		int dayOfEra = (int) (z - era * 146097);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int mp = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		int month = mp < 10 ? mp + 3 : mp - 9;
+		int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+		pos = putTwoDigits(year / 100, buf, pos);
+		pos = putTwoDigits(year % 100, buf, pos);
+		pos = putTwoDigits(month, buf, pos);
+		return putTwoDigits(day, buf, pos);
+	}
+
+	private static int putTwoDigits(int value, byte buf[], int pos) {
+		buf[pos++] = (byte) ('0' + value / 10);
+		buf[pos++] = (byte) ('0' + value % 10);
+		return pos;
+	}
+
+	/**
+	 * Encode text as US-ASCII, with '?' for other characters.
+	 */
+	private static int putAscii(String text, byte buf[], int pos) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			buf[pos++] = c < 0x80 ? (byte) c : (byte) '?';
+		}
+		return pos;
+	}
+
+	/**
+	 * Format decimal number in format consistent with ESRI Arc output.
+	 * Example: +987000000000000000000000000000000 => 9.87e+32
+	 *
+	 * @param d the <code>double</code> to be converted.
+	 * @return a string representation of the argument.
+	 */
+	private static String doubleExpFormat(double d) {
+		/*
+		 * Double.toString() formats exponents as 9.87E32
+		 * ESRI ArcMap outputs 9.87e+32
+		 */
+		String str = Double.toString(d);
+		int ind = str.lastIndexOf('E');
+		if (ind == -1) {
+			return str; // no exponent return as-is
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append('e');
+		if (Character.isDigit(str.charAt(ind + 1)))
+			sb.append('+');
+		sb.append(str.substring(ind + 1));
+		if (ind + sb.length() > 24) {
+			// keep up to 24 characters
+			ind = 24 - sb.length();
+			if (ind <= 0) return str;
+		}
+		sb.insert(0, str.substring(0, ind));
+		return sb.toString();
+	}
+}
@@ -21,11 +21,14 @@ package org.opensextant.giscore.output.dbf;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
-import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Date;
@@ -50,6 +53,11 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Output a DBF file using the gisoutputstream interface.
+ * <p>
+ * Rows are buffered and written on close since the record count precedes
+ * them, unless the stream writes to a file channel, in which case each row
+ * is written as it arrives and the count is patched on close. Each record is
+ * encoded into a reusable buffer and written in one call.
  *
  * @author DRAND
  */
@@ -59,8 +67,6 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
     private static final String US_ASCII = "US-ASCII";
     private static final byte[] blankpad = new byte[255];
     private final DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
-    private final DecimalFormat decimalFormat = new DecimalFormat(
-            "+###############0.################;-###############0.################");
     private final DateFormat isoDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
 
     {
@@ -82,10 +88,22 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
     private BinaryOutputStream stream;
 
     /**
-     * A data holder for the rows being written.
+     * A data holder for the rows being written, <code>null</code> if rows
+     * are written as they arrive.
      */
     private final ObjectBuffer buffer;
 
+    /**
+     * The file channel when rows are written as they arrive, used to patch
+     * the record count in the header on close. <code>null</code> otherwise.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Field lengths from the header when rows are written as they arrive.
+     */
+    private byte fieldLengths[];
+
     /**
      * The schema. The first object handled must be the schema. This value
      * should never be <code>null</code> after that. If a second schema arrives
@@ -98,6 +116,22 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
      */
     private int numRecords = 0;
 
+    /**
+     * Reusable buffer for the bytes of one record, allocated for the first
+     * record.
+     */
+    private byte record[];
+
+    /**
+     * Encoder for numeric and date values
+     */
+    private final DbfFieldEncoder encoder = new DbfFieldEncoder();
+
+    /**
+     * Scratch buffer for the text of a numeric or date value
+     */
+    private final byte text[] = new byte[DbfFieldEncoder.DECIMAL_LENGTH];
+
     /**
      * Ctor
      *
@@ -114,6 +148,7 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
         }
         stream = new BinaryOutputStream(outputStream);
         this.buffer = new FieldCachingObjectBuffer();
+        this.channel = null;
 
         // Write the xBaseFile signature (should be 0x03 for dBase III)
         stream.writeByte(SIGNATURE);
@@ -135,6 +170,7 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
         }
         this.schema = schema;
         this.buffer = buffer;
+        this.channel = null;
         stream = new BinaryOutputStream(outputStream);
         numRecords = (int) buffer.count();
 
@@ -142,6 +178,37 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
         stream.writeByte(SIGNATURE);
     }
 
+    /**
+     * Ctor for incremental output. The header is written immediately with a
+     * record count of zero, each row is written to the file as it arrives and
+     * the record count is patched in the header when the stream is closed so
+     * rows are never buffered. The field lengths only depend on the schema so
+     * they are known before the first row.
+     *
+     * @param channel   the file channel positioned at the start of the file,
+     *                  closed when this stream is closed
+     * @param schema    the schema, never <code>null</code>
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if channel or schema is null
+     */
+    public DbfOutputStream(FileChannel channel, Schema schema) throws IOException {
+        if (channel == null) {
+            throw new IllegalArgumentException("channel should never be null");
+        }
+        if (schema == null) {
+            throw new IllegalArgumentException("schema should never be null");
+        }
+        this.schema = schema;
+        this.buffer = null;
+        this.channel = channel;
+        stream = new BinaryOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel), 65536));
+
+        // Write the xBaseFile signature (should be 0x03 for dBase III)
+        stream.writeByte(SIGNATURE);
+        fieldLengths = writeHeader(0);
+    }
+
     /**
      * Write GISObject object to DBF
      *
@@ -160,14 +227,24 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
             try {
                 writeRow((Row) object);
             } catch (IOException e) {
+                // rows that are not buffered are lost so report the failure
+                if (channel != null) throw new IllegalStateException(e);
                 log.error("", e);
             }
         }
     }
 
     private void writeRow(Row object) throws IOException {
+        if (channel != null) {
+            if (numRecords == Integer.MAX_VALUE) {
+                throw new IllegalStateException(
+                        "Trying to persist too many elements to DBF file, only 2^32 - 1 are allowed");
+            }
+            writeRecord(object, fieldLengths);
+        } else {
+            buffer.write(object);
+        }
         numRecords++;
-        buffer.write(object);
     }
 
     /**
@@ -179,47 +256,33 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
     public void close() throws IOException {
         if (stream != null) {
             try {
-                if (buffer.count() > Integer.MAX_VALUE) {
-                    throw new IllegalStateException(
-                            "Trying to persist too many elements to DBF file, only 2^32 - 1 are allowed");
-                }
+                if (channel != null) {
+                    stream.flush();
+                    // Patch record count (offset 0x4) now that all rows are written
+                    ByteBuffer count = ByteBuffer.allocate(4);
+                    count.order(ByteOrder.LITTLE_ENDIAN);
+                    count.putInt(numRecords);
+                    count.flip();
+                    channel.write(count, 4);
+                } else {
+                    if (buffer.count() > Integer.MAX_VALUE) {
+                        throw new IllegalStateException(
+                                "Trying to persist too many elements to DBF file, only 2^32 - 1 are allowed");
+                    }
 
-                // Write today's date as the date of last update (3 byte binary YY
-                // MM DD
-                // format)
-                String today = dateFormat.format(new Date(System
-                        .currentTimeMillis()));
-                // 2 digit year is written with Y2K +1900 assumption so add 100
-                // since
-                // we're past 2000
-                stream.write(100 + Byte.parseByte(today.substring(2, 4)));
-                for (int i = 4; i <= 6; i += 2)
-                    stream.write(Byte.parseByte(today.substring(i, i + 2)));
-
-                // Write record count (offset 0x4), header length (based on number of fields),
-                // and
-                // record length
-                stream.writeInt((int) buffer.count(), ByteOrder.LITTLE_ENDIAN);
-                stream.writeShort((short) ((schema.getKeys().size() * 32) + 33),
-                        ByteOrder.LITTLE_ENDIAN);
-                stream.writeShort(getRecordLength(), ByteOrder.LITTLE_ENDIAN);
-
-                // Fill in reserved and unused header fields we don't care about
-                // with
-                // zeros
-                for (int k = 0; k < 20; k++)
-                    stream.writeByte(NUL);
-
-                byte len[] = outputHeader();
+                    byte len[] = writeHeader((int) buffer.count());
 
-                try {
-                    outputRows(len);
-                } catch (ClassNotFoundException e) {
-                    throw new IllegalStateException(e);
-                } catch (InstantiationException e) {
-                    throw new IllegalStateException(e);
-                } catch (IllegalAccessException e) {
-                    throw new IllegalStateException(e);
+                    try {
+                        outputRows(len);
+                    } catch (ClassNotFoundException e) {
+                        throw new IllegalStateException(e);
+                    } catch (InstantiationException e) {
+                        throw new IllegalStateException(e);
+                    } catch (IllegalAccessException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    // report errors writing any buffered output
+                    stream.flush();
                 }
             } finally {
                 IOUtils.closeQuietly(stream);
@@ -228,6 +291,43 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
         }
     }
 
+    /**
+     * Write the header following the signature byte.
+     *
+     * @param count the record count
+     * @return the field lengths
+     * @throws IOException if an I/O error occurs
+     */
+    private byte[] writeHeader(int count) throws IOException {
+        // Write today's date as the date of last update (3 byte binary YY
+        // MM DD
+        // format)
+        String today = dateFormat.format(new Date(System
+                .currentTimeMillis()));
+        // 2 digit year is written with Y2K +1900 assumption so add 100
+        // since
+        // we're past 2000
+        stream.write(100 + Byte.parseByte(today.substring(2, 4)));
+        for (int i = 4; i <= 6; i += 2)
+            stream.write(Byte.parseByte(today.substring(i, i + 2)));
+
+        // Write record count (offset 0x4), header length (based on number of fields),
+        // and
+        // record length
+        stream.writeInt(count, ByteOrder.LITTLE_ENDIAN);
+        stream.writeShort((short) ((schema.getKeys().size() * 32) + 33),
+                ByteOrder.LITTLE_ENDIAN);
+        stream.writeShort(getRecordLength(), ByteOrder.LITTLE_ENDIAN);
+
+        // Fill in reserved and unused header fields we don't care about
+        // with
+        // zeros
+        for (int k = 0; k < 20; k++)
+            stream.writeByte(NUL);
+
+        return outputHeader();
+    }
+
     private short getRecordLength() {
         short rval = 1; // Marker byte for deleted records
         for (String fieldname : schema.getKeys()) {
@@ -292,121 +392,229 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
         Row row = (Row) buffer.read();
 
         while (row != null) {
-            stream.writeByte(' ');
-            int i = 0;
-            for (SimpleField field : schema.getFields()) {
-                short length = (short) len[i++];
-                if (length < 0) length += 256;
-                Type ft = field.getType();
-                if (Type.STRING.equals(field.getType())) {
-                    String data = getString(row.getData(field));
-                    writeStringField(stream, data, length);
-                } else if (Type.DOUBLE.equals(ft) || Type.FLOAT.equals(ft)) {
-                    Number data = getNumber(row.getData(field));
-                    if (data == null)
-                        writeField(stream, "", length);
-                    else {
-                        double number = data.doubleValue();
-                        String decimalString = decimalFormat.format(number);
-                        if (decimalString.length() > 34) {
-                            // value would be truncated - use numeric exponent format (e.g. 1.2e+308)
-                            decimalString = doubleExpFormat(number);
-                        }
-                        writeField(stream, decimalString, 34);
-                    }
-                } else if (Type.INT.equals(ft) || Type.UINT.equals(ft)) {
-                    Number data = getNumber(row.getData(field));
-                    if (data != null) {
-                        int val = data.intValue();
-                        writeField(stream, Integer.toString(val), 10);
-                    } else {
-                        writeField(stream, "", 10);
-                    }
-                } else if (Type.SHORT.equals(ft) || Type.USHORT.equals(ft)) {
-                    Number data = getNumber(row.getData(field));
-                    if (data != null) {
-                        short val = data.shortValue();
-                        writeField(stream, Short.toString(val), 6);
-                    } else {
-                        writeField(stream, "", 6);
-                    }
-                } else if (Type.LONG.equals(ft) || Type.OID.equals(ft)) {
-                    Number data = getNumber(row.getData(field));
-                    if (data == null) {
-                        // some DBF implementations also interpret values starting with '*' as null
-                        writeField(stream, "", length);
-                    } else {
-                        writeField(stream, Long.toString(data.longValue()), length);
-                    }
-                } else if (Type.DATE.equals(ft)) {
-                    Date data = getDate(row.getData(field));
-                    // NOTE: dates stored as string (8-bytes) in the format (YYYYMMDD)
-                    // and timestamp if any is discarded.
-                    if (data != null) {
-                        writeStringField(stream, dateFormat.format(data), 8);
-                    } else {
-                        writeStringField(stream, "", 8);
-                    }
-                } else if (Type.BOOL.equals(ft)) {
-                    Boolean bool = getBoolean(row.getData(field));
-                    if (bool == null)
-                        writeStringField(stream, "?", 1);
-                    else if (bool)
-                        writeStringField(stream, "T", 1);
-                    else
-                        writeStringField(stream, "F", 1);
+            writeRecord(row, len);
+            row = (Row) buffer.read();
+        }
+    }
+
+    /**
+     * Write a single record. The fields are encoded into the record buffer
+     * which is then written in one call.
+     *
+     * @param row the row
+     * @param len the field lengths
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeRecord(Row row, byte len[]) throws IOException {
+        if (record == null) {
+            int size = 1; // Marker byte for deleted records
+            for (byte l : len) size += l & 0xff;
+            record = new byte[size];
+        }
+        int pos = 0;
+        record[pos++] = ' ';
+        int i = 0;
+        for (SimpleField field : schema.getFields()) {
+            int length = len[i++] & 0xff;
+            Type ft = field.getType();
+            if (Type.STRING.equals(field.getType())) {
+                String data = getString(row.getData(field));
+                pos = putStringField(data, pos, length);
+            } else if (Type.DOUBLE.equals(ft) || Type.FLOAT.equals(ft)) {
+                Number data = getNumber(row.getData(field));
+                if (data == null)
+                    pos = putBlank(pos, length);
+                else {
+                    int n = encoder.putDecimal(data.doubleValue(), text, 0);
+                    pos = putField(text, n, pos, length);
+                }
+            } else if (Type.INT.equals(ft) || Type.UINT.equals(ft)) {
+                Number data = getNumber(row.getData(field));
+                if (data != null) {
+                    pos = putField(data.intValue(), pos, length);
+                } else {
+                    pos = putBlank(pos, length);
+                }
+            } else if (Type.SHORT.equals(ft) || Type.USHORT.equals(ft)) {
+                Number data = getNumber(row.getData(field));
+                if (data != null) {
+                    pos = putField(data.shortValue(), pos, length);
+                } else {
+                    pos = putBlank(pos, length);
+                }
+            } else if (Type.LONG.equals(ft) || Type.OID.equals(ft)) {
+                Number data = getNumber(row.getData(field));
+                if (data == null) {
+                    // some DBF implementations also interpret values starting with '*' as null
+                    pos = putBlank(pos, length);
+                } else {
+                    pos = putField(data.longValue(), pos, length);
+                }
+            } else if (Type.DATE.equals(ft)) {
+                Date data = getDate(row.getData(field));
+                // NOTE: dates stored as string (8-bytes) in the format (YYYYMMDD)
+                // and timestamp if any is discarded.
+                if (data != null) {
+                    int n = encoder.putDate(data, text, 0);
+                    int end = pos + length;
+                    pos = putBytes(text, Math.min(n, length), pos);
+                    pos = putBlank(pos, end - pos);
                 } else {
-                    String data = getString(row.getData(field));
-                    writeField(stream, data, 32);
+                    pos = putBlank(pos, length);
                 }
+            } else if (Type.BOOL.equals(ft)) {
+                Boolean bool = getBoolean(row.getData(field));
+                if (bool == null)
+                    record[pos++] = '?';
+                else if (bool)
+                    record[pos++] = 'T';
+                else
+                    record[pos++] = 'F';
+            } else {
+                String data = getString(row.getData(field));
+                pos = putField(data, pos, length);
             }
-            row = (Row) buffer.read();
         }
+        stream.write(record, 0, pos);
     }
 
     /**
-     * Write the field data, truncating at the field length
+     * Put a blank field into the record buffer
+     *
+     * @param pos    the position of the field in the record
+     * @param length the field length
+     * @return the position after the field
+     */
+    private int putBlank(int pos, int length) {
+        System.arraycopy(blankpad, 0, record, pos, length);
+        return pos + length;
+    }
+
+    /**
+     * Put the field data into the record buffer right-justified, truncating
+     * at the field length
      *
-     * @param stream the stream
      * @param data   the string to write, may be more or less than the field
      *               length. This will be converted to ascii
+     * @param pos    the position of the field in the record
      * @param length the field length
-     * @throws IOException if an error occurs
+     * @return the position after the field
      */
-    private void writeField(BinaryOutputStream stream, String data, int length)
-            throws IOException {
-        byte str[] = data.getBytes(US_ASCII);
-        if (str.length < length) {
+    private int putField(String data, int pos, int length) {
+        int n = asciiLength(data);
+        if (n < length) {
             // Numeric fields are right-justified and padded with blanks to width of field in Shape DBF files
-            stream.write(blankpad, 0, length - str.length);
-            stream.write(str, 0, str.length);
-        } else {
-            if (str.length > length) {
-                log.trace("Value truncated - value too large for field: {} maxlen={}", data, length);
+            pos = putBlank(pos, length - n);
+            return putAscii(data, pos, n);
+        }
+        if (n > length) {
+            log.trace("Value truncated - value too large for field: {} maxlen={}", data, length);
+        }
+        return putAscii(data, pos, length);
+    }
+
+    /**
+     * Put the decimal digits of an integer into the record buffer as by
+     * {@link #putField(String, int, int)} without creating a string
+     *
+     * @param value  the value
+     * @param pos    the position of the field in the record
+     * @param length the field length
+     * @return the position after the field
+     */
+    private int putField(long value, int pos, int length) throws IOException {
+        return putField(text, encoder.putLong(value, text, 0), pos, length);
+    }
+
+    /**
+     * Put encoded field data into the record buffer right-justified,
+     * truncating at the field length
+     *
+     * @param data   the ascii bytes
+     * @param n      the number of bytes
+     * @param pos    the position of the field in the record
+     * @param length the field length
+     * @return the position after the field
+     */
+    private int putField(byte data[], int n, int pos, int length) throws IOException {
+        if (n < length) {
+            pos = putBlank(pos, length - n);
+        } else if (n > length) {
+            if (log.isTraceEnabled()) {
+                log.trace("Value truncated - value too large for field: {} maxlen={}",
+                        new String(data, 0, n, US_ASCII), length);
             }
-            stream.write(str, 0, length);
+            n = length;
         }
+        return putBytes(data, n, pos);
+    }
+
+    private int putBytes(byte data[], int n, int pos) {
+        System.arraycopy(data, 0, record, pos, n);
+        return pos + n;
     }
 
     /**
-     * Write String field data, truncating value at the field length
+     * Put String field data into the record buffer left-justified, truncating
+     * value at the field length
      *
-     * @param stream the stream
      * @param data   the string to write, may be more or less than the field
      *               length. This will be converted to ascii
+     * @param pos    the position of the field in the record
      * @param length the field length
-     * @throws IOException if an error occurs
+     * @return the position after the field
      */
-    private void writeStringField(BinaryOutputStream stream, String data, int length)
-            throws IOException {
-        byte str[] = data.getBytes(US_ASCII);
-        if (str.length < length) {
-            // String fields are left-justified and padded with blanks to width of field in Shape DBF files
-            stream.write(str, 0, str.length);
-            stream.write(blankpad, 0, length - str.length);
-        } else {
-            stream.write(str, 0, length);
+    private int putStringField(String data, int pos, int length) {
+        int end = pos + length;
+        pos = putAscii(data, pos, length);
+        // String fields are left-justified and padded with blanks to width of field in Shape DBF files
+        return putBlank(pos, end - pos);
+    }
+
+    /**
+     * Encode a string as US-ASCII into the record buffer the same way as
+     * <code>String.getBytes("US-ASCII")</code>: each character that is not
+     * ascii, or each surrogate pair, becomes a '?'.
+     *
+     * @param data the string
+     * @param pos  the position in the record
+     * @param max  the maximum number of bytes to put
+     * @return the position after the last byte
+     */
+    private int putAscii(String data, int pos, int max) {
+        int end = pos + max;
+        int len = data.length();
+        for (int i = 0; i < len && pos < end; i++) {
+            char c = data.charAt(i);
+            if (c < 0x80) {
+                record[pos++] = (byte) c;
+            } else {
+                record[pos++] = '?';
+                if (isSurrogatePair(data, i)) i++;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * @param data the string
+     * @return the number of bytes of the string encoded as US-ASCII
+     */
+    private static int asciiLength(String data) {
+        int len = data.length();
+        int n = len;
+        for (int i = 0; i < len; i++) {
+            if (data.charAt(i) >= 0x80 && isSurrogatePair(data, i)) {
+                n--;
+                i++;
+            }
         }
+        return n;
+    }
+
+    private static boolean isSurrogatePair(String data, int i) {
+        return Character.isHighSurrogate(data.charAt(i)) && i + 1 < data.length()
+                && Character.isLowSurrogate(data.charAt(i + 1));
     }
 
     @Nullable
@@ -417,8 +625,9 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
             String val = (String) data;
             if (val.equals("?"))
                 return null;
-            val = val.toLowerCase();
-            return val.startsWith("t") || val.startsWith("y")
+            // same as checking the lower case value, without creating it
+            char c = val.length() == 0 ? 0 : val.charAt(0);
+            return c == 't' || c == 'T' || c == 'y' || c == 'Y'
                     || "1".equals(val);
         } else {
             return Boolean.FALSE;
@@ -447,40 +656,6 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
         }
     }
 
-    /**
-     * Format decimal number in format consistent with ESRI Arc output.
-     * Example: +987000000000000000000000000000000 => 9.87e+32
-     *
-     * @param d the <code>double</code> to be converted.
-     * @return a string representation of the argument.
-     */
-    @NonNull
-    private static String doubleExpFormat(double d) {
-        /*
-         * Double.toString() formats exponents as 9.87E32
-         * ESRI ArcMap outputs 9.87e+32
-         */
-        String str = Double.toString(d);
-        int ind = str.lastIndexOf('E');
-        if (ind == -1) {
-            // ind = str.lastIndexOf('e');
-            // if (ind == -1) return str;
-            return str; // no exponent return as-is
-        }
-        StringBuilder sb = new StringBuilder();
-        sb.append('e');
-        if (Character.isDigit(str.charAt(ind + 1)))
-            sb.append('+');
-        sb.append(str.substring(ind + 1));
-        if (ind + sb.length() > 24) {
-            // keep up to 24 characters
-            ind = 24 - sb.length();
-            if (ind <= 0) return str;
-        }
-        sb.insert(0, str.substring(0, ind));
-        return sb.toString();
-    }
-
     @Nullable
     private Number getNumber(Object data) {
         if (data == null) {
@@ -30,6 +30,7 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 
 import javax.xml.stream.XMLStreamException;
@@ -85,6 +86,7 @@ import org.opensextant.giscore.output.atom.IAtomConstants;
 import org.opensextant.giscore.utils.Args;
 import org.opensextant.giscore.utils.Color;
 import org.opensextant.giscore.utils.DateTime;
+import org.opensextant.giscore.utils.DecimalFormatter;
 import org.opensextant.geodesy.SafeDateFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -165,12 +167,27 @@ public class KmlOutputStream extends XmlOutputStreamBase implements IKml {
 
     private int numberCirclePoints = NUM_CIRCLE_POINTS;
 
+    /**
+     * Longest text of one coordinate: three values, two commas and a space
+     */
+    private static final int COORDINATE_LENGTH = 3 * DecimalFormatter.MAX_LENGTH + 3;
+
+    /**
+     * Reusable buffer for the text of coordinates
+     */
+    private final char[] coordinateBuffer = new char[8 * 1024];
+
     /**
      * prefix associated with gx extension namespace if such namespace is provided
      * in root Document declarations
      */
     private Namespace gxNamespace;
 
+    /**
+     * Encoding given to the ctor, used for fragment renderers
+     */
+    private String encoding;
+
     /**
      * Ctor
      *
@@ -190,7 +207,7 @@ public class KmlOutputStream extends XmlOutputStreamBase implements IKml {
      */
     public KmlOutputStream(OutputStream stream, Object args[]) throws XMLStreamException {
     	Args argv = new Args(args);
-    	String encoding = (String) argv.get(String.class, 0);
+    	encoding = (String) argv.get(String.class, 0);
     	init(stream, encoding);
     	if (StringUtils.isBlank(encoding))
             writer.writeStartDocument();
@@ -212,6 +229,66 @@ public class KmlOutputStream extends XmlOutputStreamBase implements IKml {
         this(stream, new Object[0]);
     }
 
+    /**
+     * Create a renderer of fragments for a parent stream. Nothing is
+     * written for the document or the kml root element, and the writer binds
+     * the same namespaces as the parent's root element, so objects written to
+     * the renderer give the same bytes as when written to the parent. Several
+     * top level elements are written to the same writer.
+     *
+     * @param parent the stream that the fragments will be inserted into, after
+     *               its {@link DocumentStart} (if any) has been written
+     * @param stream OutputStream that receives the fragments
+     * @throws XMLStreamException if error occurs creating output stream
+     */
+    KmlOutputStream(KmlOutputStream parent, OutputStream stream) throws XMLStreamException {
+        encoding = parent.encoding;
+        init(stream, encoding);
+        numberCirclePoints = parent.numberCirclePoints;
+        gxNamespace = parent.gxNamespace;
+        namespaces.putAll(parent.namespaces);
+        writer.setDefaultNamespace(KML_NS);
+        for (Map.Entry<String, String> entry : namespaces.entrySet()) {
+            writer.setPrefix(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Flush the writer so everything written so far is in the underlying stream.
+     *
+     * @throws IllegalStateException if there is an error with the underlying XML
+     */
+    void flushWriter() {
+        try {
+            writer.flush();
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Insert a fragment rendered by a renderer from
+     * {@link #KmlOutputStream(KmlOutputStream, OutputStream)} at the current
+     * position of the output.
+     *
+     * @param fragment the encoded fragment
+     * @param len      number of bytes of the fragment
+     * @throws IllegalStateException if there is an error with the underlying XML
+     *                               or stream
+     */
+    void writeFragment(byte[] fragment, int len) {
+        try {
+            // finish any open start tag, then write after the buffered text
+            writer.writeCharacters("");
+            writer.flush();
+            stream.write(fragment, 0, len);
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Close this writer and free any resources associated with the
      * writer.  This also closes the underlying output stream.
@@ -1107,15 +1184,13 @@ public class KmlOutputStream extends XmlOutputStreamBase implements IKml {
                 handleGeometryAttributes(poly);
                 writer.writeStartElement(OUTER_BOUNDARY_IS);
                 writer.writeStartElement(LINEAR_RING);
-				handleSimpleElement(COORDINATES, handlePolygonCoordinates(poly
-						.getOuterRing().getPoints()));
+				handleCoordinates(poly.getOuterRing().getPoints(), true);
                 writer.writeEndElement();
                 writer.writeEndElement();
 				for (LinearRing lr : poly.getLinearRings()) {
 					writer.writeStartElement(INNER_BOUNDARY_IS);
 					writer.writeStartElement(LINEAR_RING);
-					handleSimpleElement(COORDINATES, handlePolygonCoordinates(lr
-							.getPoints()));
+					handleCoordinates(lr.getPoints(), true);
 					writer.writeEndElement();
 					writer.writeEndElement();
 				}
@@ -1136,7 +1211,7 @@ public class KmlOutputStream extends XmlOutputStreamBase implements IKml {
             try {
                 writer.writeStartElement(LINEAR_RING);
                 handleGeometryAttributes(r);
-                handleSimpleElement(COORDINATES, handleCoordinates(r.getPoints()));
+                handleCoordinates(r.getPoints(), false);
                 writer.writeEndElement();
             } catch (XMLStreamException e) {
                 throw new IllegalStateException(e);
@@ -1154,7 +1229,7 @@ public class KmlOutputStream extends XmlOutputStreamBase implements IKml {
             try {
                 writer.writeStartElement(LINE_STRING);
                 handleGeometryAttributes(l);
-                handleSimpleElement(COORDINATES, handleCoordinates(l.getPoints()));
+                handleCoordinates(l.getPoints(), false);
                 writer.writeEndElement();
             } catch (XMLStreamException e) {
                 throw new IllegalStateException(e);
@@ -1175,7 +1250,7 @@ public class KmlOutputStream extends XmlOutputStreamBase implements IKml {
                 handleGeometryAttributes(p);
                 //<extrude>0</extrude> <!-- boolean -->
                 //<altitudeMode>clampToGround</altitudeMode>
-                handleSimpleElement(COORDINATES, handleSingleCoordinate(p));
+                handleCoordinates(Collections.singletonList(p), false);
                 writer.writeEndElement();
             } catch (XMLStreamException e) {
                 throw new IllegalStateException(e);
@@ -1196,7 +1271,7 @@ public class KmlOutputStream extends XmlOutputStreamBase implements IKml {
                     handleGeometryAttributes(circle);
                     //<extrude>0</extrude> <!-- boolean -->
                     //<altitudeMode>clampToGround</altitudeMode>
-                    handleSimpleElement(COORDINATES, handleSingleCoordinate(circle));
+                    handleCoordinates(Collections.<Point>singletonList(circle), false);
                     writer.writeEndElement();
                     return;
                 }
@@ -1395,34 +1470,55 @@ public class KmlOutputStream extends XmlOutputStreamBase implements IKml {
     }
 
     /**
-     * output the coordinates. The coordinates are output as lon,lat[,altitude]
-     * and are separated by spaces
+     * Output a coordinates element. The text is formatted into a reusable
+     * buffer and written in chunks so no String is created for the
+     * coordinates of a geometry.
      *
-     * @param coordinateList the list of coordinates, never <code>null</code>
-     * @return String formatted list of coordinate points
+     * @param coordinateList the points
+     * @param polygon <code>true</code> for the rings of a polygon, which
+     *                clamps the longitude at the date line
+     * @throws XMLStreamException if there is an error with the underlying XML
      */
-    private String handleCoordinates(Collection<Point> coordinateList) {
-        StringBuilder b = new StringBuilder();
+    private void handleCoordinates(Collection<? extends Point> coordinateList, boolean polygon)
+            throws XMLStreamException {
+        writer.writeStartElement(COORDINATES);
+        final char[] buf = coordinateBuffer;
+        int len = 0;
+        boolean lastLonPositive = false;
+        boolean first = true;
         for (Point point : coordinateList) {
-            handleSingleCoordinate(b, point);
+            if (buf.length - len < COORDINATE_LENGTH) {
+                handleCharacters(buf, 0, len);
+                len = 0;
+            }
+            if (!first) {
+                buf[len++] = ' ';
+            }
+            final Geodetic2DPoint p2d = point.getCenter();
+            double lonDegrees = p2d.getLongitudeAsDegrees();
+            if (polygon) {
+                // NOTE: geodesy normalizes longitude +180 to -180 so polygons from west with longitude >= 0
+                // and east longitude at 180 must be clamped to +180 otherwise Google Earth wraps polygons
+                // other way around the world. Lines and LinearRings are drawn correctly.
+                // TODO: if first point at -180 longitude and next point >= 0 then will not appear correct in Google Earth
+                if (!first && lastLonPositive && Math.abs(lonDegrees + 180) < 1e-8) {
+                    log.debug("swap the longitude sign -180 > +180");
+                    lonDegrees = -lonDegrees; // switch the sign
+                }
+                lastLonPositive = lonDegrees >= 0;
+            }
+            len = formatDouble(lonDegrees, buf, len);
+            buf[len++] = ',';
+            len = formatDouble(p2d.getLatitudeAsDegrees(), buf, len);
+            if (p2d instanceof Geodetic3DPoint) {
+                buf[len++] = ',';
+                len = formatDouble(((Geodetic3DPoint) p2d).getElevation(), buf, len);
+            }
+            first = false;
         }
-        return b.toString();
-    }
-
-    private String handleSingleCoordinate(Point point) {
-        StringBuilder b = new StringBuilder();
-        handleSingleCoordinate(b, point);
-        return b.toString();
-    }
-
-    /**
-     * Output a single coordinate
-     *
-     * @param b     StringBuilder to write coordinate to
-     * @param point Point to be formatted for output
-     */
-    private void handleSingleCoordinate(StringBuilder b, Point point) {
-        handleSingleCoordinate(b, point.getCenter());
+        handleCharacters(buf, 0, len);
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
     }
 
     private void handleSingleCoordinate(StringBuilder b, Geodetic2DPoint p2d) {
@@ -1439,36 +1535,6 @@ public class KmlOutputStream extends XmlOutputStreamBase implements IKml {
         }
     }
 
-    private String handlePolygonCoordinates(Collection<Point> coordinateList) {
-		StringBuilder b = new StringBuilder();
-		Double lastLonValue = null;
-		for (Point point : coordinateList) {
-			if (b.length() > 0) {
-				b.append(' ');
-			}
-			final Geodetic2DPoint p2d = point.getCenter();
-			double lonDegrees = p2d.getLongitudeAsDegrees();
-			// NOTE: geodesy normalizes longitude +180 to -180 so polygons from west with longitude >= 0
-			// and east longitude at 180 must be clamped to +180 otherwise Google Earth wraps polygons
-			// other way around the world. Lines and LinearRings are drawn correctly.
-			// TODO: if first point at -180 longitude and next point >= 0 then will not appear correct in Google Earth
-			if (lastLonValue != null && lastLonValue >= 0 && Math.abs(lonDegrees + 180) < 1e-8) {
-				log.debug("swap the longitude sign -180 > +180");
-				lonDegrees = -lonDegrees; // switch the sign
-			}
-			b.append(formatDouble(lonDegrees));
-			b.append(',');
-			b.append(formatDouble(p2d.getLatitudeAsDegrees()));
-			if (p2d instanceof Geodetic3DPoint) {
-				Geodetic3DPoint p3d = (Geodetic3DPoint) p2d;
-				b.append(',');
-				b.append(formatDouble(p3d.getElevation()));
-			}
-			lastLonValue = lonDegrees;
-		}
-		return b.toString();
-    }
-
     /**
      * Visit a Schema object
      *
@@ -17,6 +17,7 @@
 package org.opensextant.giscore.output.kml;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -26,6 +27,16 @@ import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -35,6 +46,7 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.opensextant.giscore.events.ContainerEnd;
 import org.opensextant.giscore.events.ContainerStart;
+import org.opensextant.giscore.events.DocumentStart;
 import org.opensextant.giscore.events.Feature;
 import org.opensextant.giscore.events.IGISObject;
 import org.opensextant.giscore.events.NetworkLink;
@@ -47,6 +59,7 @@ import org.opensextant.giscore.events.TaggedMap;
 import org.opensextant.giscore.input.kml.IKml;
 import org.opensextant.giscore.input.kml.UrlRef;
 import org.opensextant.giscore.output.IGISOutputStream;
+import org.opensextant.giscore.utils.ParallelZipOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,6 +77,14 @@ import org.slf4j.LoggerFactory;
  * <li>write Files or contents from inputStream to entries in KMZ for networkLinked content,
  *    overlay images, icons, etc.
  * </ul>
+ *
+ * With a number of threads given to the ctor, features are rendered to KML on
+ * worker threads in batches and the rendered text is inserted into the output
+ * in the order the features were written, so the output is the same as when
+ * writing on the caller thread. Other objects (containers, styles, schemas,
+ * etc.) are written on the caller thread once the features before them are
+ * in the output. Features must not be modified after they are written since
+ * they may be rendered later.
  * 
  * Complements the {@link org.mitre.giscore.input.kml.KmlReader} class. Advanced KML
  * support with more direct access may require using the {@link KmlOutputStream}
@@ -81,6 +102,29 @@ public class KmlWriter implements IGISOutputStream {
     private ContainerStart waiting;
 	private final boolean compressed;
 
+	/**
+	 * Number of features rendered by a worker at a time
+	 */
+	private static final int BATCH_SIZE = 200;
+
+	/**
+	 * Workers rendering features, null if features are written on the caller thread
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Batches submitted but not yet written, in order
+	 */
+	private final LinkedList<Future<Renderer>> pending = new LinkedList<Future<Renderer>>();
+
+	/**
+	 * Renderers not in use by a pending batch
+	 */
+	private final LinkedList<Renderer> idle = new LinkedList<Renderer>();
+
+	private List<Feature> batch;
+	private int maxPending;
+
     /**
 	 * Construct a <tt>KmlWriter</tt> which starts writing a KML document into
 	 * the specified KML or KMZ file.  If file name ends with .kmz or .zip extension
@@ -95,25 +139,7 @@ public class KmlWriter implements IGISOutputStream {
 	 * @throws IOException if an I/O error occurs
 	 */
     public KmlWriter(File file, String encoding) throws IOException {
-        String name = file.getName().toLowerCase();
-        // if  filename ends in .zip create then treat as .KMZ file ending with .ZIP extension
-        compressed = name.endsWith(".kmz") || name.endsWith(".zip"); 
-        OutputStream os = new FileOutputStream(file);
-        try {
-            if (compressed) {
-                BufferedOutputStream boS = new BufferedOutputStream(os);
-                // Create the doc.kml file inside of a zip entry
-                zoS = new ZipOutputStream(boS);
-                ZipEntry zEnt = new ZipEntry("doc.kml");
-                zoS.putNextEntry(zEnt);
-                kos = new KmlOutputStream(zoS, encoding);
-            } else {
-                kos = new KmlOutputStream(os, encoding);
-            }
-        } catch (XMLStreamException e) {
-            throw new IOException(e);
-        }
-		// TODO: consider adding KmlWriter(InputStream is, boolean compress) constructor
+        this(file, encoding, 0, Deflater.DEFAULT_COMPRESSION);
     }
 
     /**
@@ -145,6 +171,95 @@ public class KmlWriter implements IGISOutputStream {
 		// compress = kos.getStream() instanceof ZipOutputStream
 	}
 
+	/**
+	 * Construct a <tt>KmlWriter</tt> as by {@link #KmlWriter(File, String)}
+	 * that renders features on worker threads.
+	 *
+	 * @param file the file to be opened for writing.
+	 * @param encoding the encoding to use, if null default encoding (UTF-8) is assumed
+	 * @param threads number of worker threads, 0 to write on the caller thread
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalArgumentException if threads is negative
+	 */
+	public KmlWriter(File file, String encoding, int threads) throws IOException {
+		this(file, encoding, threads, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Construct a <tt>KmlWriter</tt> as by {@link #KmlWriter(File, String)}
+	 * that renders features on worker threads. If a KMZ file is written then
+	 * its entries are deflated at the given level, in blocks on the same
+	 * number of threads with a {@link ParallelZipOutputStream} if threads is
+	 * not 0.
+	 *
+	 * @param file the file to be opened for writing.
+	 * @param encoding the encoding to use, if null default encoding (UTF-8) is assumed
+	 * @param threads number of worker threads, 0 to write on the caller thread
+	 * @param level the compression level of a KMZ file, from 0 to 9 or
+	 * 			<code>Deflater.DEFAULT_COMPRESSION</code>
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalArgumentException if threads is negative or level is not valid
+	 */
+	public KmlWriter(File file, String encoding, int threads, int level) throws IOException {
+		if (threads < 0) {
+			throw new IllegalArgumentException("threads must not be negative");
+		}
+		if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+				&& level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("invalid compression level");
+		}
+        String name = file.getName().toLowerCase();
+        // if  filename ends in .zip create then treat as .KMZ file ending with .ZIP extension
+        compressed = name.endsWith(".kmz") || name.endsWith(".zip"); 
+        OutputStream os = new FileOutputStream(file);
+        try {
+            if (compressed) {
+                BufferedOutputStream boS = new BufferedOutputStream(os);
+                // Create the doc.kml file inside of a zip entry
+                zoS = threads == 0 ? new ZipOutputStream(boS) : new ParallelZipOutputStream(boS, threads);
+                zoS.setLevel(level);
+                ZipEntry zEnt = new ZipEntry("doc.kml");
+                zoS.putNextEntry(zEnt);
+                kos = new KmlOutputStream(zoS, encoding);
+            } else {
+                kos = new KmlOutputStream(os, encoding);
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+		// TODO: consider adding KmlWriter(InputStream is, boolean compress) constructor
+		startWorkers(threads);
+	}
+
+	/**
+	 * Construct a KmlWriter with KmlOutputStream that renders features on
+	 * worker threads.
+	 *
+	 * @param os the KmlOutputStream to be opened for writing, never null.
+	 * @param threads number of worker threads, 0 to write on the caller thread
+	 * @throws IllegalArgumentException if threads is negative
+	 */
+	public KmlWriter(KmlOutputStream os, int threads) {
+		this(os);
+		if (threads < 0) {
+			throw new IllegalArgumentException("threads must not be negative");
+		}
+		startWorkers(threads);
+	}
+
+	private void startWorkers(int threads) {
+		if (threads == 0) return;
+		maxPending = threads * 2;
+		batch = new ArrayList<Feature>(BATCH_SIZE);
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "kml-writer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
     /**
      * Tests whether the output file is a compressed KMZ file.
      *
@@ -174,6 +289,23 @@ public class KmlWriter implements IGISOutputStream {
 		write(new FileInputStream(file), entryName);
     }
 
+	/**
+	 * Write file contents into entry of compressed KMZ file as by
+	 * {@link #write(File, String)}, deflated or stored without compression.
+	 *
+	 * @param file file to write into the KMZ
+	 * @param entryName the entry name for file as it will appear in the KMZ.
+	 * @param compress false to store the contents without compression, for
+	 * 			files that are already compressed such as PNG or JPEG images
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalArgumentException if arguments are null
+	 * @throws IllegalStateException if KmlWriter is not writing
+	 * 			a compressed KMZ file
+	 */
+	public void write(File file, String entryName, boolean compress) throws IOException {
+		write(new FileInputStream(file), entryName, compress);
+	}
+
 	/**
 	 * Write contents from InputStream into file named localName in compressed KMZ file.
 	 * This must be called after entire KML for main document doc.kml is written.
@@ -189,6 +321,26 @@ public class KmlWriter implements IGISOutputStream {
 	 * 			a compressed KMZ file
 	 */
 	public void write(InputStream is, String entryName) throws IOException {
+		write(is, entryName, true);
+	}
+
+	/**
+	 * Write contents from InputStream into entry of compressed KMZ file as by
+	 * {@link #write(InputStream, String)}, deflated or stored without
+	 * compression. Stored contents are read into memory first since the size
+	 * and crc of a stored entry must precede the data.
+	 * Note the InputStream is closed upon exit of this method.
+	 *
+	 * @param is InputStream to write into the KMZ
+	 * @param entryName the entry name for file as it will appear in the KMZ.
+	 * @param compress false to store the contents without compression, for
+	 * 			content that is already compressed such as PNG or JPEG images
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalArgumentException if arguments are null
+	 * @throws IllegalStateException if KmlWriter is not writing
+	 * 			a compressed KMZ file
+	 */
+	public void write(InputStream is, String entryName, boolean compress) throws IOException {
 		if (is == null) throw new IllegalArgumentException("InputStream cannot be null"); 
         try {
 			if (!compressed)
@@ -197,9 +349,15 @@ public class KmlWriter implements IGISOutputStream {
             	throw new IllegalArgumentException("localName must be non-blank file name");
 			if (zoS == null) throw new IOException("stream is already closed");
 			if (kos != null) {
+				flushFeatures();
 				kos.closeWriter();
 				zoS.closeEntry();
 			}
+			if (!compress) {
+				byte[] data = IOUtils.toByteArray(is);
+				KmzOutputStream.putStoredEntry(zoS, entryName.trim(), data, data.length);
+				return;
+			}
 			ZipEntry zEnt = new ZipEntry(entryName.trim());
 			zoS.putNextEntry(zEnt);
 			// copy input to output
@@ -228,7 +386,7 @@ public class KmlWriter implements IGISOutputStream {
 			if (object instanceof ContainerStart) {
 				// defer writing ContainerStart objects so empty containers can be dropped
 				if (waiting != null) {
-					kos.write(waiting);
+					writeObject(waiting);
 				}
 				waiting = (ContainerStart)object;
 			} else {
@@ -239,14 +397,87 @@ public class KmlWriter implements IGISOutputStream {
 						waiting = null;
 						return;
 					}
-					kos.write(waiting);
+					writeObject(waiting);
 					waiting = null;
 				}
-				kos.write(object);
+				writeObject(object);
 			}
 		}
     }
 
+	private void writeObject(IGISObject object) {
+		if (executor == null) {
+			kos.write(object);
+		} else if (object instanceof Feature) {
+			batch.add((Feature) object);
+			if (batch.size() >= BATCH_SIZE) submitBatch();
+		} else {
+			flushFeatures();
+			kos.write(object);
+			// renderers copy the namespaces of the document
+			if (object instanceof DocumentStart) idle.clear();
+		}
+	}
+
+	/**
+	 * Render the current batch of features on a worker. Waits for the oldest
+	 * batches to be written if there are too many pending.
+	 */
+	private void submitBatch() {
+		if (batch.isEmpty()) return;
+		final List<Feature> features = batch;
+		batch = new ArrayList<Feature>(BATCH_SIZE);
+		Renderer r = idle.poll();
+		if (r == null) {
+			try {
+				r = new Renderer(kos);
+			} catch (XMLStreamException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		final Renderer renderer = r;
+		pending.add(executor.submit(new Callable<Renderer>() {
+			public Renderer call() {
+				renderer.reset();
+				for (Feature feature : features) {
+					renderer.kos.write(feature);
+				}
+				renderer.kos.flushWriter();
+				return renderer;
+			}
+		}));
+		while (pending.size() > maxPending) {
+			writeBatch(pending.removeFirst());
+		}
+	}
+
+	/**
+	 * Write all features written so far into the output.
+	 */
+	private void flushFeatures() {
+		if (executor == null) return;
+		submitBatch();
+		while (!pending.isEmpty()) {
+			writeBatch(pending.removeFirst());
+		}
+	}
+
+	private void writeBatch(Future<Renderer> future) {
+		Renderer renderer;
+		try {
+			renderer = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while writing features", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		}
+		kos.writeFragment(renderer.getBuffer(), renderer.size());
+		idle.add(renderer);
+	}
+
     /**
      * Close this KmlWriter and free any resources associated with the
      * writer including underlying stream.
@@ -265,6 +496,18 @@ public class KmlWriter implements IGISOutputStream {
     public void close(boolean closeStream) {
 		// If we have any waiting element (waiting != null) then
         // we have a ContainerStart with no matching ContainerEnd so ignore it
+		if (executor != null) {
+			try {
+				if (kos != null) flushFeatures();
+			} catch (RuntimeException e) {
+				log.error("Failed to write features", e);
+			} finally {
+				executor.shutdownNow();
+				executor = null;
+				pending.clear();
+				idle.clear();
+			}
+		}
 		if (kos != null)
 			try {
                 kos.closeWriter();
@@ -396,4 +639,21 @@ public class KmlWriter implements IGISOutputStream {
 			// otherwise URL was not normalized and left unchanged
 		}
 	}
+
+	/**
+	 * Buffer for the features rendered by a worker
+	 */
+	private static class Renderer extends ByteArrayOutputStream {
+
+		final KmlOutputStream kos;
+
+		Renderer(KmlOutputStream parent) throws XMLStreamException {
+			super(64 * 1024);
+			kos = new KmlOutputStream(parent, this);
+		}
+
+		byte[] getBuffer() {
+			return buf;
+		}
+	}
 }
@@ -16,9 +16,12 @@
  ***************************************************************************************/
 package org.opensextant.giscore.output.kml;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -29,13 +32,19 @@ import org.apache.commons.io.output.ProxyOutputStream;
 import org.opensextant.giscore.events.IGISObject;
 import org.opensextant.giscore.output.IGISOutputStream;
 import org.opensextant.giscore.utils.Args;
+import org.opensextant.giscore.utils.ParallelZipOutputStream;
 
 /**
  * The kmz output stream creates a result KMZ file using the given output
  * stream. It delegates the GIS output to a {@link KmlOutputStream}.
  * <p>
  * After all of the GIS objects have been written, additional zip entries can be
- * added with the {@code addEntry()} methods.
+ * added with the {@code addEntry()} methods. Content that is already
+ * compressed, such as PNG or JPEG overlay images, can be stored without
+ * compression.
+ * <p>
+ * The compression level can be set, and the entries can be deflated in blocks
+ * on several threads with a {@link ParallelZipOutputStream}.
  * <p>
  * TODO: Add special handling for the COLLADA models:
  * http://code.google.com/apis/kml/documentation/kml_21tutorial.html
@@ -66,9 +75,27 @@ public class KmzOutputStream implements IGISOutputStream {
 	 * @throws XMLStreamException if error occurs creating output stream
 	 */
     public KmzOutputStream(final OutputStream stream, Object args[]) throws XMLStreamException {
-    	Args argv = new Args(args);
-    	String encoding = (String) argv.get(String.class, 0);
-    	zipStream = new ZipOutputStream(stream);
+    	this(stream, (String) new Args(args).get(String.class, 0), Deflater.DEFAULT_COMPRESSION, 0);
+    }
+
+    /**
+     * Creates a <code>KmzOutputStream</code> with a compression level, deflating
+     * on the caller thread or on worker threads.
+     * @param stream OutputStream to decorate as a KmzOutputStream
+     * @param encoding the encoding to use, if null default encoding (UTF-8) is assumed
+     * @param level the compression level, from 0 to 9 or <code>Deflater.DEFAULT_COMPRESSION</code>
+     * @param threads number of threads deflating blocks of the entries, 0 to
+     *  deflate on the caller thread with a <code>ZipOutputStream</code>
+     * @throws XMLStreamException if error occurs creating output stream
+     * @throws IllegalArgumentException if the level or number of threads is not valid
+     */
+    public KmzOutputStream(final OutputStream stream, String encoding, int level, int threads)
+    		throws XMLStreamException {
+    	if (threads < 0) {
+    		throw new IllegalArgumentException("threads must not be negative");
+    	}
+    	zipStream = threads == 0 ? new ZipOutputStream(stream) : new ParallelZipOutputStream(stream, threads);
+    	zipStream.setLevel(level);
 		try {
 			zipStream.putNextEntry(new ZipEntry("doc.kml"));
 		} catch (IOException e) {
@@ -160,6 +187,82 @@ public class KmzOutputStream implements IGISOutputStream {
 		};
 	}
 
+	/**
+	 * Add a new entry to the KMZ file, which is deflated as by
+	 * {@link #addEntry(String)} or stored without compression.
+	 *
+	 * @param entryName the name of the entry to add
+	 * @param compress false to store the data without compression, for
+	 *  content that is already compressed. The data is held in memory until
+	 *  the returned stream is closed since the size and crc of a stored
+	 *  entry must precede the data.
+	 * @return An {@code OutputStream} to receive the entry data. Closing it
+	 *  will finish the current entry and will not close the underlying output
+	 *  stream.
+	 * @throws java.io.IOException if there is an error creating a new entry.
+	 */
+	public OutputStream addEntry(final String entryName, boolean compress) throws IOException {
+		if (compress) {
+			return addEntry(entryName);
+		}
+		if(kmlStream != null) {
+			closeWriter();
+		}
+		return new ByteArrayOutputStream() {
+			private boolean closed = false;
+
+			@Override
+			public void close() throws IOException {
+				if(!closed) {
+					closed = true;
+					putStoredEntry(zipStream, entryName, buf, count);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Add a new entry to the KMZ file, which is deflated as by
+	 * {@link #addEntry(InputStream, String)} or stored without compression.
+	 *
+	 * @param source the data to add to the KMZ file.
+	 * @param entryName the name of the entry to add
+	 * @param compress false to store the data without compression, for
+	 *  content that is already compressed. The data is read into memory.
+	 * @throws java.io.IOException if there is an error creating a new entry.
+	 */
+	public void addEntry(final InputStream source, final String entryName, boolean compress)
+			throws IOException {
+		final OutputStream out = addEntry(entryName, compress);
+		IOUtils.copy(source, out);
+		out.close();
+	}
+
+	/**
+	 * Write a complete entry stored without compression, closing any current
+	 * entry first.
+	 *
+	 * @param zipStream the zip stream
+	 * @param entryName the name of the entry
+	 * @param data the content of the entry
+	 * @param len number of bytes of the content
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void putStoredEntry(ZipOutputStream zipStream, String entryName, byte[] data, int len)
+			throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, len);
+		ZipEntry entry = new ZipEntry(entryName);
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(len);
+		entry.setCompressedSize(len);
+		entry.setCrc(crc.getValue());
+		zipStream.closeEntry();
+		zipStream.putNextEntry(entry);
+		zipStream.write(data, 0, len);
+		zipStream.closeEntry();
+	}
+
 	/**
 	 * Add a new entry to the KMZ file. As in any other zipfile, entry names
 	 * must be unique.
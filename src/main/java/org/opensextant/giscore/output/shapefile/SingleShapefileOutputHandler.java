@@ -19,6 +19,7 @@
 package org.opensextant.giscore.output.shapefile;
 
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -64,6 +65,7 @@ import org.opensextant.giscore.utils.Color;
 import org.opensextant.giscore.utils.ICancelable;
 import org.opensextant.giscore.utils.IDataSerializable;
 import org.opensextant.giscore.utils.ObjectBuffer;
+import org.opensextant.giscore.utils.SpatialIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -79,8 +81,22 @@ import org.slf4j.LoggerFactory;
  * <li>.prj - a plaintext projection file that identifies the projection in use
  * within the shapefile. Always WGS84 for our classes.
  * </ul>
+ * If {@link #setWriteSpatialIndex(boolean) enabled} a .gsi file is written as
+ * well, holding a {@link SpatialIndex} of the bounding box of each record by
+ * its zero based record number, which
+ * {@link org.opensextant.giscore.input.shapefile.SingleShapefileInputHandler}
+ * uses to read only the records that may intersect a bounds filter. Other
+ * software ignores it. The .gsi starts with the int {@link #GSI_SIGNATURE},
+ * the length of the .shp file in bytes as a long, the record count as an
+ * int and the four doubles of the bounding box in the .shp header, all big
+ * endian, so an index left over from another version of the shapefile can
+ * be detected. The index follows at {@link #GSI_HEADER_LENGTH}.
  * This is a helper class that will not be used standalone.
  * <p/>
+ * Features are either read from a buffer by {@link #process()} or, for
+ * {@link StreamingShapefileOutputStream}, written one at a time as they arrive
+ * in which case the headers are completed once all the features are written.
+ * <p/>
  * The shapefile code is inspired by the old mediate code.
  * <code>ShpHandler</code>
  * <p/>
@@ -95,6 +111,23 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	private static final Logger logger = LoggerFactory.getLogger(SingleShapefileOutputHandler.class);
 
 	private static final int VERSION = 1000;
+
+	/**
+	 * Signature at the start of a .gsi file, "GSIX"
+	 */
+	public static final int GSI_SIGNATURE = 0x47534958;
+
+	/**
+	 * Length of the .gsi header that precedes the spatial index
+	 */
+	public static final int GSI_HEADER_LENGTH = 4 + 8 + 4 + 4 * 8;
+
+	/**
+	 * Size of the write buffers for the shp and shx files. Records are
+	 * collected in these buffers and written to the files in large blocks
+	 * rather than with a write for each record.
+	 */
+	private static final int WRITE_BUFFER_SIZE = 256 * 1024;
 	private static final String WGS84prj = "GEOGCS[\"GCS_WGS_1984\"," +
 			"DATUM[\"D_WGS_1984\"," +
 			"SPHEROID[\"WGS_1984\",6378137.0,298.257223563]]," +
@@ -112,12 +145,20 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	private final Style style;
 
 	/**
-	 * The current buffer being used to output geometry. The buffer is created
-	 * just before the current geometry's accept method is called and is set
-	 * back to <code>null</code> just afterward.
+	 * The current buffer being used to output geometry. The buffer is set to
+	 * the shp write buffer, limited to the length of the record, just before
+	 * the current geometry's accept method is called and is set back to
+	 * <code>null</code> just afterward.
 	 */
 	private ByteBuffer obuf;
 
+	/*
+	 * Write buffers for the shp and shx records, allocated when the files
+	 * are opened. The shp buffer grows if a single record does not fit.
+	 */
+	private ByteBuffer shpBuffer;
+	private ByteBuffer shxBuffer;
+
 	/*
 	 * Pointers to the four required files. Setup in the ctor and never modified
 	 * afterward.
@@ -130,6 +171,10 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	 * Optional shm file, only used if style != null and there is an icon url.
 	 */
 	private final File shmFile;
+	/*
+	 * Spatial index of the records, giscore's own format.
+	 */
+	private final File gsiFile;
 
 	/**
 	 * The buffer that holds the data to be output.
@@ -142,6 +187,33 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	 */
 	private final PointShapeMapper mapper;
 
+	/*
+	 * Output state while the shp and shx records are written. The offset is
+	 * in 16 bit words from the start of the shp file and always contains the
+	 * offset of the next record. After all the geometry is written it
+	 * contains the length of the file.
+	 */
+	private FileOutputStream shfos;
+	private FileOutputStream shxfos;
+	private FileChannel channel;
+	private FileChannel xchannel;
+	private int recordNumber;
+	private Geodetic2DBounds bbox;
+	private int shapeAll;
+	private boolean is3D;
+	private int offset;
+	private boolean writeSpatialIndex;
+	/*
+	 * Bounds of the records so far if writing the spatial index
+	 */
+	private SpatialIndex.Builder spatialIndex;
+
+	/**
+	 * The dbf output when features are written as they arrive, otherwise
+	 * <code>null</code>.
+	 */
+	private DbfOutputStream dbf;
+
 	/**
 	 * Ctor
 	 *
@@ -162,10 +234,37 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	public SingleShapefileOutputHandler(Schema schema, Style style,
 										ObjectBuffer buffer, File outputDirectory, String shapefilename,
 										PointShapeMapper mapper) {
+		this(schema, style, buffer, outputDirectory, shapefilename, mapper, false);
+	}
+
+	/**
+	 * Ctor for output of features as they arrive through {@link #add(Feature)}
+	 * rather than from a buffer.
+	 *
+	 * @param schema          the schema, never <code>null</code>.
+	 * @param style           the optional style, may be <code>null</code>
+	 * @param outputDirectory the output directory, will be created if it does not exist,
+	 *                        never <code>null</code>.
+	 * @param shapefilename   the name of the shapefile to be created, never
+	 *                        <code>null</code> or empty
+	 * @param mapper          a mapper to go from the url based icons in the Style to a
+	 *                        short value for use with ESRI, must not be <code>null</code>
+	 *                        if style is not <code>null</code>.
+	 * @throws IllegalArgumentException if couldn't create output directory or any of the required
+	 *                                  arguments are invalid
+	 */
+	SingleShapefileOutputHandler(Schema schema, Style style, File outputDirectory,
+								 String shapefilename, PointShapeMapper mapper) {
+		this(schema, style, null, outputDirectory, shapefilename, mapper, true);
+	}
+
+	private SingleShapefileOutputHandler(Schema schema, Style style,
+										 ObjectBuffer buffer, File outputDirectory, String shapefilename,
+										 PointShapeMapper mapper, boolean streaming) {
 		if (schema == null) {
 			throw new IllegalArgumentException("schema should never be null");
 		}
-		if (buffer == null || buffer.count() == 0) {
+		if (!streaming && (buffer == null || buffer.count() == 0)) {
 			throw new IllegalArgumentException(
 					"buffer should never be null and must contain at least one geometry element");
 		}
@@ -197,6 +296,27 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 		prjFile = new File(outputDirectory, shapefilename + ".prj");
 		dbfFile = new File(outputDirectory, shapefilename + ".dbf");
 		shmFile = new File(outputDirectory, shapefilename + ".shm");
+		gsiFile = new File(outputDirectory, shapefilename + ".gsi");
+	}
+
+	/**
+	 * Also write a .gsi file with a spatial index of the record bounds,
+	 * which speeds up reading with a bounds filter. The bounds of every
+	 * record are kept in memory until the shapefile is complete, so memory
+	 * use grows with the number of features. Off by default.
+	 *
+	 * @param writeSpatialIndex <code>true</code> to write the .gsi file
+	 * @throws IllegalStateException if records have already been written
+	 */
+	public void setWriteSpatialIndex(boolean writeSpatialIndex) {
+		if (recordNumber > 1) {
+			throw new IllegalStateException("records have already been written");
+		}
+		this.writeSpatialIndex = writeSpatialIndex;
+		if (channel != null) {
+			// already begun
+			spatialIndex = writeSpatialIndex ? new SpatialIndex.Builder() : null;
+		}
 	}
 
 	/**
@@ -230,13 +350,10 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	public void process(ICancelable callback) throws IOException,
 			ClassNotFoundException, InstantiationException,
 			IllegalAccessException, XMLStreamException {
-		// Write prj
-		FileOutputStream prjos = new FileOutputStream(prjFile);
-		try {
-			prjos.write(WGS84prj.getBytes("US-ASCII"));
-		} finally {
-			prjos.close();
+		if (buffer == null) {
+			throw new IllegalStateException("features are written as they arrive");
 		}
+		writePrj();
 		// Write shp and shx
 		outputFeatures(callback);
 		// Write dbf
@@ -246,7 +363,8 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 			// Modify the schema for the dbf if we have dates since shapefile's
 			// output of dates is entirely useless. Substitute string for date
 			Schema dbfschema = dbfModify(schema);
-			DbfOutputStream dbf = new DbfOutputStream(dbfos, dbfschema, buffer);
+			DbfOutputStream dbf = new DbfOutputStream(new BufferedOutputStream(dbfos,
+					WRITE_BUFFER_SIZE), dbfschema, buffer);
 			dbf.close();
 		} finally {
 			dbfos.close();
@@ -255,6 +373,70 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 		writeShm();
 	}
 
+	/**
+	 * Start output of features as they arrive. Writes the prj and opens the
+	 * shp, shx and dbf files.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	void begin() throws IOException {
+		writePrj();
+		openShapeFiles();
+		boolean ok = false;
+		try {
+			// see process() for the date substitution
+			dbf = new DbfOutputStream(new FileOutputStream(dbfFile).getChannel(),
+					dbfModify(schema));
+			ok = true;
+		} finally {
+			if (!ok) closeShapeFiles();
+		}
+	}
+
+	/**
+	 * Write the shp, shx and dbf records of a single feature. Features
+	 * without geometry are skipped.
+	 *
+	 * @param feature the feature, never <code>null</code>
+	 * @throws IOException if an I/O error occurs.
+	 * @throws IllegalArgumentException if the geometry type differs from
+	 *                                  that of the preceding features
+	 */
+	void add(Feature feature) throws IOException {
+		if (outputFeature(feature)) {
+			dbf.write(feature);
+		}
+	}
+
+	/**
+	 * Finish output of features as they arrive. Patches the shp and shx
+	 * headers with the file length, shape type and bounding box, the dbf
+	 * header with the record count and then writes the shm.
+	 *
+	 * @throws IOException        if an I/O error occurs.
+	 * @throws XMLStreamException if an error occurs writing the shm
+	 */
+	void finish() throws IOException, XMLStreamException {
+		try {
+			outputHeaders();
+		} finally {
+			closeShapeFiles();
+			// always closes the dbf file
+			dbf.close();
+			dbf = null;
+		}
+		writeShm();
+	}
+
+	private void writePrj() throws IOException {
+		FileOutputStream prjos = new FileOutputStream(prjFile);
+		try {
+			prjos.write(WGS84prj.getBytes("US-ASCII"));
+		} finally {
+			prjos.close();
+		}
+	}
+
 	/**
 	 * Find and replace and simple fields of type date with type string
 	 *
@@ -370,75 +552,144 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	private void outputFeatures(ICancelable callback) throws IOException,
 			ClassNotFoundException, InstantiationException,
 			IllegalAccessException {
-		int recordNumber = 1;
-		Geodetic2DBounds bbox = null;
-		int shapeAll = NULL_TYPE;
-		boolean is3D = false;
-		// offset is in 16 bit words from the start of the file
-		// always contains the offset into the file for the current
-		// geo. After all the geo is written contains the length
-		// of the file
-		int offset = 50;
-		int ioffset = 50;
-		FileOutputStream shfos = null;
-		FileOutputStream shxfos = null;
-
+		openShapeFiles();
 		try {
-			shfos = new FileOutputStream(shpFile);
-			shxfos = new FileOutputStream(shxFile);
-			FileChannel channel = shfos.getChannel();
-			FileChannel xchannel = shxfos.getChannel();
-
 			IDataSerializable ser = buffer.read();
 			while (ser != null) {
 				if (callback != null && callback.isCanceled()) {
 					throw new CancellationException();
 				}
-				Feature feat = (Feature) ser;
-				Geometry geo = feat.getGeometry();
-				if (geo != null) {
-					int shape = getEsriShapeType(geo);
-					if (shape != NULL_TYPE) {
-						// Make sure the type is the same as others in the feature
-						// list
-						if (shapeAll == NULL_TYPE) {
-							shapeAll = shape;
-							is3D = is3D(shape);
-						} else if (shape != shapeAll)
-							throw new IllegalArgumentException(
-									"Feature list must contain"
-											+ " geometry objects of same type: expected "
-											+ shapeAll + " but was " + shape);
-					}
-					if (bbox == null) {
-						bbox = geo.getBoundingBox(); // 3d or not depending on the
-						// must make copy of the bounding box
-						bbox = bbox instanceof Geodetic3DBounds ? new Geodetic3DBounds(
-								(Geodetic3DBounds) bbox)
-								: new Geodetic2DBounds(bbox);
-						// geo
-					} else {
-						bbox.include(geo.getBoundingBox());
-					}
-					int len = getRecLen(geo);
-					outputGeometry(channel, offset, geo, is3D, shape, recordNumber,
-							len);
-					outputIndex(xchannel, ioffset, offset, len);
-					// Records have additional 4 words of info at the start of the
-					// record
-					offset += len + 4;
-					ioffset += 4;
-					recordNumber++;
-				}
+				outputFeature((Feature) ser);
 				ser = buffer.read();
 			}
-			// Write header
-			putShapeHeader(channel, offset, shapeAll, is3D, bbox);
-			int shxlen = 50 + (recordNumber - 1) * 4;
-			putShapeHeader(xchannel, shxlen, shapeAll, is3D, bbox);
+			outputHeaders();
 		} finally {
-			IOUtils.closeQuietly(shfos);
-			IOUtils.closeQuietly(shxfos);
+			closeShapeFiles();
+		}
+	}
+
+	private void openShapeFiles() throws IOException {
+		recordNumber = 1;
+		bbox = null;
+		shapeAll = NULL_TYPE;
+		is3D = false;
+		offset = 50;
+		spatialIndex = writeSpatialIndex ? new SpatialIndex.Builder() : null;
+		try {
+			shfos = new FileOutputStream(shpFile);
+			shxfos = new FileOutputStream(shxFile);
+		} catch (IOException e) {
+			closeShapeFiles();
+			throw e;
+		}
+		channel = shfos.getChannel();
+		xchannel = shxfos.getChannel();
+		// records follow the 100 byte header, which is written last
+		channel.position(100);
+		xchannel.position(100);
+		if (shpBuffer == null) {
+			shpBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+			shxBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+		}
+		shpBuffer.clear();
+		shxBuffer.clear();
+	}
+
+	private void closeShapeFiles() {
+		IOUtils.closeQuietly(shfos);
+		IOUtils.closeQuietly(shxfos);
+		shfos = shxfos = null;
+		channel = xchannel = null;
+		spatialIndex = null;
+	}
+
+	/**
+	 * Output the shp and shx records of a feature, tracking the bounding box
+	 * and checking for consistent geometry usage.
+	 *
+	 * @param feat the feature
+	 * @return <code>true</code> if written, <code>false</code> if the feature
+	 *         has no geometry
+	 * @throws IOException if an I/O error occurs.
+	 * @throws IllegalArgumentException if the geometry type differs from
+	 *                                  that of the preceding features
+	 * @throws BufferOverflowException
+	 */
+	private boolean outputFeature(Feature feat) throws IOException {
+		Geometry geo = feat.getGeometry();
+		if (geo == null) {
+			return false;
+		}
+		int shape = getEsriShapeType(geo);
+		if (shape != NULL_TYPE) {
+			// Make sure the type is the same as others in the feature
+			// list
+			if (shapeAll == NULL_TYPE) {
+				shapeAll = shape;
+				is3D = is3D(shape);
+			} else if (shape != shapeAll)
+				throw new IllegalArgumentException(
+						"Feature list must contain"
+								+ " geometry objects of same type: expected "
+								+ shapeAll + " but was " + shape);
+		}
+		if (bbox == null) {
+			bbox = geo.getBoundingBox(); // 3d or not depending on the
+			// must make copy of the bounding box
+			bbox = bbox instanceof Geodetic3DBounds ? new Geodetic3DBounds(
+					(Geodetic3DBounds) bbox)
+					: new Geodetic2DBounds(bbox);
+			// geo
+		} else {
+			bbox.include(geo.getBoundingBox());
+		}
+		int len = getRecLen(geo);
+		outputGeometry(geo, shape, recordNumber, len);
+		outputIndex(offset, len);
+		if (spatialIndex != null) spatialIndex.add(geo.getBoundingBox(), recordNumber - 1);
+		// Records have additional 4 words of info at the start of the
+		// record
+		offset += len + 4;
+		recordNumber++;
+		return true;
+	}
+
+	/**
+	 * Write the shp and shx headers once all the records are written, then
+	 * the spatial index if enabled.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void outputHeaders() throws IOException {
+		flush(channel, shpBuffer);
+		flush(xchannel, shxBuffer);
+		ByteBuffer header = putShapeHeader(channel, offset, shapeAll, is3D, bbox);
+		int shxlen = 50 + (recordNumber - 1) * 4;
+		putShapeHeader(xchannel, shxlen, shapeAll, is3D, bbox);
+		if (spatialIndex != null) {
+			outputSpatialIndex(header);
+		}
+	}
+
+	/**
+	 * Write the .gsi file, its header identifies the shapefile by the length,
+	 * record count and bounding box of the shp.
+	 *
+	 * @param shpHeader the header written to the shp file
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void outputSpatialIndex(ByteBuffer shpHeader) throws IOException {
+		shpHeader.order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer header = ByteBuffer.allocate(GSI_HEADER_LENGTH);
+		header.putInt(GSI_SIGNATURE).putLong(2L * offset).putInt(recordNumber - 1);
+		for (int i = 0; i < 4; i++)
+			header.putDouble(shpHeader.getDouble(36 + 8 * i));
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(gsiFile));
+		try {
+			os.write(header.array());
+			spatialIndex.build().write(os);
+		} finally {
+			IOUtils.closeQuietly(os);
 		}
 	}
 
@@ -454,13 +705,28 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 		return tv.getType();
 	}
 
-	private void outputIndex(FileChannel xchannel, int offset, int recoffset,
-							 int length) throws IOException {
-		ByteBuffer buffer = ByteBuffer.allocate(8);
-		writeInt(buffer, recoffset, ByteOrder.BIG_ENDIAN);
-		writeInt(buffer, length, ByteOrder.BIG_ENDIAN);
+	private void outputIndex(int recoffset, int length) throws IOException {
+		if (shxBuffer.remaining() < 8) {
+			flush(xchannel, shxBuffer);
+		}
+		writeInt(shxBuffer, recoffset, ByteOrder.BIG_ENDIAN);
+		writeInt(shxBuffer, length, ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Write the buffered records to the end of the file and clear the buffer.
+	 *
+	 * @param channel the file channel
+	 * @param buffer  the write buffer
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private static void flush(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
 		buffer.flip();
-		xchannel.write(buffer, offset * 2L);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
 	}
 
 	@Override
@@ -659,16 +925,34 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 		}
 	}
 
-	private void outputGeometry(FileChannel channel, int offset, Geometry geom,
-								boolean is3D, int shape, int rnumber, int rlength)
+	/**
+	 * Output the record header and the geometry of a single record to the shp
+	 * write buffer.
+	 *
+	 * @param geom    the geometry
+	 * @param shape   the esri shape type of the geometry
+	 * @param rnumber the record number
+	 * @param rlength the record length in 16 bit words not including the
+	 *                record header
+	 * @throws IOException if an I/O error occurs.
+	 * @throws BufferOverflowException if the geometry does not fit the record length
+	 */
+	private void outputGeometry(Geometry geom, int shape, int rnumber, int rlength)
 			throws IOException {
-		ByteBuffer hbuffer = ByteBuffer.allocate(12);
-		writeInt(hbuffer, rnumber, ByteOrder.BIG_ENDIAN);
-		writeInt(hbuffer, rlength, ByteOrder.BIG_ENDIAN);
-		writeInt(hbuffer, shape, ByteOrder.LITTLE_ENDIAN);
-		hbuffer.flip();
-		channel.write(hbuffer, offset * 2L);
-		obuf = ByteBuffer.allocate(rlength * 2);
+		int size = 8 + rlength * 2;
+		if (shpBuffer.remaining() < size) {
+			flush(channel, shpBuffer);
+			if (shpBuffer.capacity() < size) {
+				shpBuffer = ByteBuffer.allocateDirect(size);
+			}
+		}
+		int end = shpBuffer.position() + size;
+		writeInt(shpBuffer, rnumber, ByteOrder.BIG_ENDIAN);
+		writeInt(shpBuffer, rlength, ByteOrder.BIG_ENDIAN);
+		writeInt(shpBuffer, shape, ByteOrder.LITTLE_ENDIAN);
+		// limit so the record can't overflow into the next one
+		shpBuffer.limit(end);
+		obuf = shpBuffer;
 		try {
 			geom.accept(this);
 		} catch (BufferOverflowException bfe) {
@@ -676,10 +960,14 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 					+ " bytes for geometry " + geom + " having "
 					+ geom.getNumPoints() + " points and " + geom.getNumParts() + " parts");
 			throw bfe;
+		} finally {
+			obuf = null;
+		}
+		// any unused bytes at the end of the record are zero
+		while (shpBuffer.position() < end) {
+			shpBuffer.put((byte) 0);
 		}
-		obuf.flip();
-		channel.write(obuf, offset * 2 + 12);
-		obuf = null;
+		shpBuffer.limit(shpBuffer.capacity());
 	}
 
 	/**
@@ -983,9 +1271,10 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	 * @param shapeType
 	 * @param is3D
 	 * @param bbox
+	 * @return the header that was written
 	 * @throws IOException            if an I/O error occurs.
 	 */
-	private void putShapeHeader(FileChannel channel, int fileLen,
+	private ByteBuffer putShapeHeader(FileChannel channel, int fileLen,
 								int shapeType, boolean is3D, Geodetic2DBounds bbox)
 			throws IOException {
 		ByteBuffer buffer = ByteBuffer.allocate(100);
@@ -1002,9 +1291,15 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 		// Write the shapeType
 		writeInt(buffer, shapeType, ByteOrder.LITTLE_ENDIAN);
 		// Write the overall X-Y bounding box to the shapefile header
-		obuf = buffer;
-		putBBox(bbox);
-		obuf = null;
+		if (bbox == null) {
+			// no records were written
+			for (int i = 0; i < 4; i++)
+				writeDouble(buffer, 0.0, ByteOrder.LITTLE_ENDIAN);
+		} else {
+			obuf = buffer;
+			putBBox(bbox);
+			obuf = null;
+		}
 		// In Shapefiles, Z and M bounds are usually separated from X-Y
 		// bounds
 		// (and instead grouped with their arrays of data), except for in
@@ -1020,6 +1315,7 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 		// supported)
 		buffer.flip();
 		channel.write(buffer, 0);
+		return buffer;
 	}
 
 	/**
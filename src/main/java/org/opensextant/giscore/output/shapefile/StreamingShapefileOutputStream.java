@@ -0,0 +1,142 @@
+/****************************************************************************************
+ *  StreamingShapefileOutputStream.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.output.shapefile;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.events.Schema;
+import org.opensextant.giscore.events.Style;
+import org.opensextant.giscore.output.IGISOutputStream;
+
+/**
+ * Output stream that writes a single shapefile in one pass. Unlike
+ * {@link ShapefileOutputStream}, which sorts features by schema and geometry
+ * into buffers and writes them when closed, the .shp, .shx and .dbf records
+ * are written as each feature arrives and the headers (file length, bounding
+ * box, shape type and record count) are patched when the stream is closed. So
+ * memory use does not depend on the number of features and each feature is
+ * written once.
+ * <p/>
+ * The caller guarantees that all features have the given schema and the same
+ * type of geometry. A feature with a different type of geometry is rejected
+ * with an <em>IllegalArgumentException</em>. Features without geometry are
+ * skipped and other objects such as containers, schemata and styles are
+ * ignored.
+ */
+public class StreamingShapefileOutputStream implements IGISOutputStream {
+
+	private final SingleShapefileOutputHandler handler;
+
+	private boolean closed;
+
+	/**
+	 * Ctor
+	 *
+	 * @param outputDirectory the output directory, will be created if it does not exist,
+	 *                        never <code>null</code>.
+	 * @param shapefilename   the name of the shapefile to be created. This name will be
+	 *                        modified with the standard suffixes to create the actual
+	 *                        output shapefile. never <code>null</code> or empty
+	 * @param schema          the schema of all features, never <code>null</code>.
+	 * @throws IOException if an I/O error occurs creating the files
+	 * @throws IllegalArgumentException if couldn't create output directory or any of the required
+	 *                                  arguments are invalid
+	 */
+	public StreamingShapefileOutputStream(File outputDirectory, String shapefilename,
+										  Schema schema) throws IOException {
+		this(outputDirectory, shapefilename, schema, null, null);
+	}
+
+	/**
+	 * Ctor
+	 *
+	 * @param outputDirectory the output directory, will be created if it does not exist,
+	 *                        never <code>null</code>.
+	 * @param shapefilename   the name of the shapefile to be created. This name will be
+	 *                        modified with the standard suffixes to create the actual
+	 *                        output shapefile. never <code>null</code> or empty
+	 * @param schema          the schema of all features, never <code>null</code>.
+	 * @param style           the optional style, may be <code>null</code>
+	 * @param mapper          a mapper to go from the url based icons in the Style to a
+	 *                        short value for use with ESRI, if <code>null</code> then
+	 *                        the default mapper is used.
+	 * @throws IOException if an I/O error occurs creating the files
+	 * @throws IllegalArgumentException if couldn't create output directory or any of the required
+	 *                                  arguments are invalid
+	 */
+	public StreamingShapefileOutputStream(File outputDirectory, String shapefilename,
+										  Schema schema, Style style, PointShapeMapper mapper)
+			throws IOException {
+		handler = new SingleShapefileOutputHandler(schema, style, outputDirectory,
+				shapefilename, mapper != null ? mapper : new PointShapeMapper());
+		handler.begin();
+	}
+
+	/**
+	 * Also write a .gsi spatial index of the record bounds, see
+	 * {@link SingleShapefileOutputHandler#setWriteSpatialIndex(boolean)}.
+	 * The bounds of every feature are then kept in memory until the stream is
+	 * closed. Off by default.
+	 *
+	 * @param writeSpatialIndex <code>true</code> to write the .gsi file
+	 * @throws IllegalStateException if features have already been written
+	 */
+	public void setWriteSpatialIndex(boolean writeSpatialIndex) {
+		handler.setWriteSpatialIndex(writeSpatialIndex);
+	}
+
+	/**
+	 * Write the given feature.
+	 *
+	 * @param object the object to be written, never <code>null</code>.
+	 * @throws IllegalArgumentException if the feature's geometry type differs
+	 *                                  from that of the preceding features
+	 * @throws IllegalStateException if the stream is closed or an I/O error occurs
+	 */
+	public void write(IGISObject object) {
+		if (closed) {
+			throw new IllegalStateException("stream is closed");
+		}
+		if (object instanceof Feature) {
+			try {
+				handler.add((Feature) object);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Complete the headers and close the files.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		try {
+			handler.finish();
+		} catch (XMLStreamException e) {
+			final IOException e2 = new IOException(e.getMessage());
+			e2.initCause(e);
+			throw e2;
+		}
+	}
+}
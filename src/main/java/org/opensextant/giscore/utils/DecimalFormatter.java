@@ -0,0 +1,213 @@
+/****************************************************************************************
+ *  DecimalFormatter.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.utils;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Formats doubles with at most a fixed number of decimal places, giving the
+ * same text as a <code>DecimalFormat</code> with the pattern
+ * <tt>0.###</tt> (with as many <tt>#</tt> as decimal places) and US symbols:
+ * the value is rounded half-even, trailing zeros are dropped and there is no
+ * grouping or exponent.
+ * <p>
+ * Values with at most 15 significant digits before rounding, such as
+ * coordinates and elevations, are formatted directly from the bits of the
+ * double into a character array without creating any objects. The exact
+ * binary value is rounded, which gives the same digits as
+ * <code>DecimalFormat</code> since a double has more than 15 significant
+ * digits of precision. Other values (magnitudes below 2<sup>-7</sup> that do
+ * not round to zero or with too many integer digits) and non-finite values
+ * fall back to <code>DecimalFormat</code>.
+ * <p>
+ * Not thread safe.
+ */
+public class DecimalFormatter {
+
+	/**
+	 * The largest supported number of decimal places
+	 */
+	public static final int MAX_FRACTION_DIGITS = 15;
+
+	/**
+	 * The longest text of any formatted value: sign, 309 integer digits,
+	 * decimal point and decimal places.
+	 */
+	public static final int MAX_LENGTH = 1 + 309 + 1 + MAX_FRACTION_DIGITS;
+
+	/**
+	 * The largest binary exponent of the fraction for which ten times the
+	 * remaining fraction fits in a long
+	 */
+	private static final int MAX_SCALE = 59;
+
+	private static final long POW10[] = new long[MAX_FRACTION_DIGITS + 1];
+
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	private final int fractionDigits;
+
+	/**
+	 * Magnitude below which values are rounded directly
+	 */
+	private final double limit;
+
+	/**
+	 * Magnitude below which values round to zero
+	 */
+	private final double half;
+
+	private final char scratch[] = new char[MAX_LENGTH];
+
+	private DecimalFormat fallback;
+
+	/**
+	 * Ctor
+	 * @param fractionDigits the maximum number of decimal places, from 0 to
+	 * {@value #MAX_FRACTION_DIGITS}
+	 */
+	public DecimalFormatter(int fractionDigits) {
+		if (fractionDigits < 0 || fractionDigits > MAX_FRACTION_DIGITS) {
+			throw new IllegalArgumentException("fractionDigits must be from 0 to " + MAX_FRACTION_DIGITS);
+		}
+		this.fractionDigits = fractionDigits;
+		limit = POW10[MAX_FRACTION_DIGITS - fractionDigits];
+		half = 0.5 / POW10[fractionDigits];
+	}
+
+	/**
+	 * @return the maximum number of decimal places
+	 */
+	public int getFractionDigits() {
+		return fractionDigits;
+	}
+
+	/**
+	 * Format a value.
+	 * @param d the value
+	 * @return the text, never <code>null</code>
+	 */
+	public String format(double d) {
+		return new String(scratch, 0, format(d, scratch, 0));
+	}
+
+	/**
+	 * Format a value into a character array.
+	 * @param d the value
+	 * @param buf the array, which must have room for {@link #MAX_LENGTH}
+	 * characters from <code>pos</code>
+	 * @param pos the position of the first character
+	 * @return the position after the last character
+	 */
+	public int format(double d, char buf[], int pos) {
+		long bits = Double.doubleToRawLongBits(d);
+		boolean negative = bits < 0;
+		double abs = Math.abs(d);
+		if (!(abs < limit)) {
+			// too many digits or not a number
+			return formatFallback(d, buf, pos);
+		}
+		int exponent = (int) ((bits >>> 52) & 0x7ff);
+		long mantissa = bits & 0xfffffffffffffL;
+		// value is mantissa * 2^-scale
+		int scale = 1075 - exponent;
+		if (scale > MAX_SCALE) {
+			if (abs >= half) return formatFallback(d, buf, pos);
+			// DecimalFormat keeps the sign of zero
+			if (negative) buf[pos++] = '-';
+			buf[pos++] = '0';
+			return pos;
+		}
+		mantissa |= 1L << 52;
+		long integer;
+		long fraction;
+		if (scale <= 0) {
+			integer = mantissa << -scale;
+			fraction = 0;
+		} else {
+			integer = mantissa >>> scale;
+			fraction = mantissa & ((1L << scale) - 1);
+		}
+		// decimal places as an integer, one binary fraction digit at a time
+		long digits = 0;
+		if (fraction != 0) {
+			long mask = (1L << scale) - 1;
+			for (int i = 0; i < fractionDigits; i++) {
+				fraction *= 10;
+				digits = digits * 10 + (fraction >>> scale);
+				fraction &= mask;
+			}
+			long tie = 1L << (scale - 1);
+			long last = fractionDigits == 0 ? integer : digits;
+			if (fraction > tie || (fraction == tie && (last & 1) != 0)) {
+				if (++digits == POW10[fractionDigits]) {
+					integer++;
+					digits = 0;
+				}
+			}
+		}
+		if (negative) buf[pos++] = '-';
+		pos = writeDigits(integer, buf, pos);
+		if (digits != 0) {
+			int count = fractionDigits;
+			while (digits % 10 == 0) {
+				digits /= 10;
+				count--;
+			}
+			buf[pos++] = '.';
+			for (int i = pos + count - 1; i >= pos; i--) {
+				buf[i] = (char) ('0' + digits % 10);
+				digits /= 10;
+			}
+			pos += count;
+		}
+		return pos;
+	}
+
+	private static int writeDigits(long value, char buf[], int pos) {
+		int end = pos;
+		long v = value;
+		do {
+			end++;
+			v /= 10;
+		} while (v != 0);
+		for (int i = end - 1; i >= pos; i--) {
+			buf[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return end;
+	}
+
+	private int formatFallback(double d, char buf[], int pos) {
+		if (fallback == null) {
+			StringBuilder pattern = new StringBuilder("0");
+			if (fractionDigits > 0) {
+				pattern.append('.');
+				for (int i = 0; i < fractionDigits; i++) pattern.append('#');
+			}
+			fallback = new DecimalFormat(pattern.toString(), new DecimalFormatSymbols(Locale.US));
+		}
+		String s = fallback.format(d);
+		s.getChars(0, s.length(), buf, pos);
+		return pos + s.length();
+	}
+}
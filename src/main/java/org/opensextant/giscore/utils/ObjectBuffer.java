@@ -20,10 +20,18 @@ package org.opensextant.giscore.utils;
 
 import edu.umd.cs.findbugs.annotations.Nullable;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.opensextant.giscore.GISFactory;
 
@@ -31,6 +39,13 @@ import org.opensextant.giscore.GISFactory;
  * A buffer that will hold a fixed amount of data in memory, 
  * and overflows into secondary storage if there's too much data 
  * to hold in memory (i.e. it overflows into a file). 
+ * <p>
+ * The secondary store is written in the compact format of
+ * {@link SimpleObjectOutputStream} through a large buffer and may optionally
+ * be compressed. The directory and compression default to
+ * {@link GISFactory#spillDirectory} and {@link GISFactory#spillCompression}.
+ * Once objects are read from the secondary store no more objects may be
+ * written to the buffer.
  * 
  * @author DRAND
  *
@@ -42,6 +57,29 @@ public class ObjectBuffer {
 	 * memory before overflowing into secondary storage. 
 	 */
 	private long maxElements;
+
+	/**
+	 * Size of the I/O buffers for the secondary store
+	 */
+	private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Directory for the secondary store, <code>null</code> for the default
+	 * temporary-file directory.
+	 */
+	private File spillDirectory = GISFactory.spillDirectory.get();
+
+	/**
+	 * Compress the secondary store
+	 */
+	private boolean compressed = GISFactory.spillCompression.get();
+
+	/*
+	 * The deflater and inflater of a compressed secondary store, which must
+	 * be released when their streams are closed.
+	 */
+	private Deflater deflater;
+	private Inflater inflater;
 	
 	/**
 	 * A file pointer to the secondary store, remains 
@@ -124,10 +162,7 @@ public class ObjectBuffer {
 	public void close() throws IOException {
 		try {
 			closeOutputStream();
-			if (inputStream != null) {
-				inputStream.close();
-				inputStream = null;
-			}
+			closeInputStream();
 		} finally {
 			buffer = null;
 			readIndex = 0;
@@ -147,8 +182,77 @@ public class ObjectBuffer {
 	 */
 	public void closeOutputStream() throws IOException {
 		if (outputStream != null) {
-			outputStream.close();
-			outputStream = null;
+			try {
+				outputStream.close();
+			} finally {
+				outputStream = null;
+				if (deflater != null) {
+					deflater.end();
+					deflater = null;
+				}
+			}
+		}
+	}
+
+	private void closeInputStream() {
+		if (inputStream != null) {
+			inputStream.close();
+			inputStream = null;
+		}
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+	}
+
+	/**
+	 * Set the directory for the secondary store.
+	 * @param spillDirectory the directory, <code>null</code> for the default
+	 * temporary-file directory
+	 * @throws IllegalStateException if the secondary store has been created
+	 */
+	public void setSpillDirectory(File spillDirectory) {
+		checkNoSecondaryStore();
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * @return the directory for the secondary store, <code>null</code> for the
+	 * default temporary-file directory
+	 */
+	@Nullable
+	public File getSpillDirectory() {
+		return spillDirectory;
+	}
+
+	/**
+	 * Set whether the secondary store is compressed.
+	 * @param compressed <code>true</code> to compress the secondary store
+	 * @throws IllegalStateException if the secondary store has been created
+	 */
+	public void setCompressed(boolean compressed) {
+		checkNoSecondaryStore();
+		this.compressed = compressed;
+	}
+
+	/**
+	 * @return <code>true</code> if the secondary store is compressed
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * @return the size in bytes of the secondary store, which is only
+	 * complete once the output stream is closed, or 0 if there is none.
+	 */
+	public long getSpillSize() {
+		return secondaryStore != null ? secondaryStore.length() : 0;
+	}
+
+	private void checkNoSecondaryStore() {
+		if (secondaryStore != null) {
+			throw new IllegalStateException("secondary store already created");
 		}
 	}
 	
@@ -167,8 +271,10 @@ public class ObjectBuffer {
 			buffer[(int) storeIndex] = object;
 		} else {
 			if (secondaryStore == null) {
-				secondaryStore = File.createTempFile("obj", ".buffer");
-				outputStream = new SimpleObjectOutputStream(new FileOutputStream(secondaryStore), cacher);
+				secondaryStore = File.createTempFile("obj", ".buffer", spillDirectory);
+				outputStream = new SimpleObjectOutputStream(openSpillOutput(), cacher, true);
+			} else if (outputStream == null) {
+				throw new IllegalStateException("cannot write to the buffer once the secondary store is closed");
 			}
 			outputStream.writeObject(object);
 		}
@@ -193,7 +299,9 @@ public class ObjectBuffer {
 				return buffer[(int) readIndex];
 			} else {
 				if (inputStream == null && secondaryStore != null) {
-					inputStream = new SimpleObjectInputStream(new FileInputStream(secondaryStore));
+					// complete the secondary store before reading it
+					closeOutputStream();
+					inputStream = new SimpleObjectInputStream(openSpillInput(), true);
 				}
 				if (inputStream != null)
 					return (IDataSerializable) inputStream.readObject();
@@ -217,7 +325,25 @@ public class ObjectBuffer {
 	 */
 	public void resetReadIndex() {
 		readIndex = 0;
-		inputStream = null;
+		closeInputStream();
+	}
+
+	private OutputStream openSpillOutput() throws IOException {
+		OutputStream os = new FileOutputStream(secondaryStore);
+		if (compressed) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			os = new DeflaterOutputStream(os, deflater, IO_BUFFER_SIZE);
+		}
+		return new BufferedOutputStream(os, IO_BUFFER_SIZE);
+	}
+
+	private InputStream openSpillInput() throws IOException {
+		InputStream is = new FileInputStream(secondaryStore);
+		if (compressed) {
+			inflater = new Inflater();
+			is = new InflaterInputStream(is, inflater, IO_BUFFER_SIZE);
+		}
+		return new BufferedInputStream(is, IO_BUFFER_SIZE);
 	}
 
 }
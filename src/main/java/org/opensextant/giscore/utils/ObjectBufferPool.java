@@ -0,0 +1,690 @@
+/****************************************************************************************
+ *  ObjectBufferPool.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.utils;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.opensextant.giscore.GISFactory;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.Row;
+import org.opensextant.giscore.geometry.Geometry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of object buffers that share one memory budget and one spill file.
+ * <p>
+ * Each {@link ObjectBuffer} created by the pool holds its objects in memory.
+ * When the approximate size of the objects held by all buffers of the pool
+ * exceeds the budget, the largest buffers are spilled first until the pool
+ * is back under three quarters of the budget. A spilled buffer's objects are
+ * appended as one chunk to the spill file and the buffer keeps the list of
+ * its chunks, so any number of buffers uses a single temporary file and one
+ * file handle and is written sequentially. Chunks are written in the compact
+ * format of {@link SimpleObjectOutputStream} and compressed if
+ * {@link GISFactory#spillCompression} is set.
+ * <p>
+ * A buffer may be created with a comparator, in which case it returns its
+ * objects in sorted order using an external merge sort: objects are sorted
+ * before they are spilled so every chunk is a sorted run, and the runs and
+ * the objects left in memory are merged when the buffer is read. At most
+ * {@value #MAX_MERGE_WIDTH} runs are merged at once, more runs are first
+ * merged into longer runs, so the memory used for reading does not depend on
+ * the number of objects. Objects that compare equal are returned in the
+ * order they were written.
+ * <p>
+ * A buffer that is being read is not spilled until its read index is reset.
+ * Space in the spill file is not reclaimed when a buffer is closed, only when
+ * the pool is closed, which deletes the file. The pool is not thread safe.
+ */
+public class ObjectBufferPool implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(ObjectBufferPool.class);
+
+	/**
+	 * Size of the I/O buffers for reading chunks
+	 */
+	private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Maximum number of sorted runs read at the same time
+	 */
+	public static final int MAX_MERGE_WIDTH = 32;
+
+	private final long memoryBudget;
+
+	private final File spillDirectory;
+
+	private final boolean compressed;
+
+	/**
+	 * Open buffers in order of creation
+	 */
+	private final List<PooledObjectBuffer> buffers = new ArrayList<PooledObjectBuffer>();
+
+	/**
+	 * Approximate size of the objects held in memory by all buffers
+	 */
+	private long memoryUsed;
+
+	/**
+	 * Spill file, <code>null</code> until the first chunk is written
+	 */
+	private File spillFile;
+
+	private RandomAccessFile spillRaf;
+
+	private FileChannel channel;
+
+	private long spillSize;
+
+	private int chunkCount;
+
+	/**
+	 * Create a pool with the budget of {@link GISFactory#sorterMemoryBudget}.
+	 */
+	public ObjectBufferPool() {
+		this(GISFactory.sorterMemoryBudget.get());
+	}
+
+	/**
+	 * Create a pool.
+	 * @param memoryBudget the approximate number of bytes of objects held in
+	 * memory by all buffers of the pool, must be positive.
+	 */
+	public ObjectBufferPool(long memoryBudget) {
+		if (memoryBudget < 1) {
+			throw new IllegalArgumentException("memoryBudget must be positive");
+		}
+		this.memoryBudget = memoryBudget;
+		spillDirectory = GISFactory.spillDirectory.get();
+		compressed = GISFactory.spillCompression.get();
+	}
+
+	/**
+	 * Create a buffer that shares the memory budget and spill file of this
+	 * pool. Closing the buffer releases its memory but not its space in the
+	 * spill file.
+	 * @return a new empty buffer, never <code>null</code>
+	 */
+	@NonNull
+	public ObjectBuffer createBuffer() {
+		return createBuffer(null);
+	}
+
+	/**
+	 * Create a buffer that shares the memory budget and spill file of this
+	 * pool and returns its objects in the order of the comparator. Objects
+	 * may not be written once the buffer is being read.
+	 * @param comparator the order of the objects, <code>null</code> for the
+	 * order of writing
+	 * @return a new empty buffer, never <code>null</code>
+	 */
+	@NonNull
+	public ObjectBuffer createBuffer(Comparator<IDataSerializable> comparator) {
+		PooledObjectBuffer buffer = new PooledObjectBuffer(comparator);
+		buffers.add(buffer);
+		return buffer;
+	}
+
+	/**
+	 * @return the approximate number of bytes of objects the pool holds in memory
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @return the approximate number of bytes of objects currently held in memory
+	 */
+	public long getMemoryUsed() {
+		return memoryUsed;
+	}
+
+	/**
+	 * @return the size of the spill file in bytes
+	 */
+	public long getSpillSize() {
+		return spillSize;
+	}
+
+	/**
+	 * @return the number of chunks written to the spill file
+	 */
+	public int getChunkCount() {
+		return chunkCount;
+	}
+
+	/**
+	 * Close all buffers of the pool and delete the spill file.
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void close() throws IOException {
+		try {
+			for (PooledObjectBuffer buffer : new ArrayList<PooledObjectBuffer>(buffers)) {
+				buffer.close();
+			}
+			if (spillRaf != null) spillRaf.close();
+		} finally {
+			spillRaf = null;
+			channel = null;
+			memoryUsed = 0;
+			if (spillFile != null) {
+				if (spillFile.exists() && !spillFile.delete()) {
+					spillFile.deleteOnExit();
+				}
+				spillFile = null;
+			}
+		}
+	}
+
+	/**
+	 * Approximate the heap footprint of an object. Only the extended data and
+	 * the number of points of the geometry are considered since those
+	 * dominate the size of most features.
+	 * @param object the object, never <code>null</code>
+	 * @return the approximate size in bytes
+	 */
+	static long estimateSize(IDataSerializable object) {
+		long size = 128;
+		if (object instanceof Row) {
+			size += 64L * ((Row) object).getFieldSize();
+			if (object instanceof Feature) {
+				Geometry geom = ((Feature) object).getGeometry();
+				if (geom != null) size += 96L * geom.getNumPoints();
+			}
+		}
+		return size;
+	}
+
+	private void reserve(long size) throws IOException {
+		memoryUsed += size;
+		if (memoryUsed > memoryBudget) {
+			long target = memoryBudget - memoryBudget / 4;
+			while (memoryUsed > target) {
+				PooledObjectBuffer largest = null;
+				for (PooledObjectBuffer buffer : buffers) {
+					if (buffer.readIndex == 0 && !buffer.memory.isEmpty()
+							&& (largest == null || buffer.memorySize > largest.memorySize)) {
+						largest = buffer;
+					}
+				}
+				if (largest == null) break; // everything left is being read
+				spill(largest);
+			}
+		}
+	}
+
+	/**
+	 * Append the objects held in memory by the buffer as a chunk to the
+	 * spill file, sorted first if the buffer has a comparator.
+	 */
+	private void spill(PooledObjectBuffer buffer) throws IOException {
+		if (buffer.comparator != null) {
+			Collections.sort(buffer.memory, buffer.comparator);
+		}
+		ChunkWriter writer = new ChunkWriter();
+		for (IDataSerializable object : buffer.memory) {
+			writer.write(object);
+		}
+		buffer.chunks.add(writer.finish());
+		buffer.spilled += buffer.memory.size();
+		buffer.memory.clear();
+		memoryUsed -= buffer.memorySize;
+		buffer.memorySize = 0;
+	}
+
+	/**
+	 * A run of objects of one buffer in the spill file.
+	 */
+	private static class Chunk {
+		final long offset;
+		final long length;
+		final long count;
+
+		Chunk(long offset, long length, long count) {
+			this.offset = offset;
+			this.length = length;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * Appends a chunk to the end of the spill file.
+	 */
+	private class ChunkWriter {
+		private final long offset;
+		private final Deflater deflater;
+		private final SimpleObjectOutputStream out;
+		private long count;
+
+		ChunkWriter() throws IOException {
+			if (spillFile == null) {
+				spillFile = File.createTempFile("pool", ".buffer", spillDirectory);
+				spillRaf = new RandomAccessFile(spillFile, "rw");
+				channel = spillRaf.getChannel();
+				log.debug("Spilling buffers to {}", spillFile);
+			}
+			offset = spillSize;
+			OutputStream os = new ChannelOutputStream();
+			if (compressed) {
+				deflater = new Deflater(Deflater.BEST_SPEED);
+				os = new DeflaterOutputStream(os, deflater, IO_BUFFER_SIZE);
+			} else {
+				deflater = null;
+			}
+			out = new SimpleObjectOutputStream(new BufferedOutputStream(os, IO_BUFFER_SIZE),
+					new SimpleFieldCacher(), true);
+		}
+
+		void write(IDataSerializable object) throws IOException {
+			out.writeObject(object);
+			count++;
+		}
+
+		Chunk finish() throws IOException {
+			try {
+				out.close();
+			} finally {
+				if (deflater != null) deflater.end();
+			}
+			chunkCount++;
+			return new Chunk(offset, spillSize - offset, count);
+		}
+	}
+
+	/**
+	 * Reads the objects of a chunk.
+	 */
+	private class ChunkReader {
+		private final Inflater inflater;
+		private final SimpleObjectInputStream in;
+		private long remaining;
+
+		ChunkReader(Chunk chunk) {
+			InputStream is = new ChannelInputStream(channel, chunk.offset, chunk.offset + chunk.length);
+			if (compressed) {
+				inflater = new Inflater();
+				is = new InflaterInputStream(is, inflater, IO_BUFFER_SIZE);
+			} else {
+				inflater = null;
+			}
+			in = new SimpleObjectInputStream(new BufferedInputStream(is, IO_BUFFER_SIZE), true);
+			remaining = chunk.count;
+		}
+
+		/**
+		 * @return the next object or <code>null</code> at the end of the chunk
+		 */
+		@Nullable
+		IDataSerializable read() throws ClassNotFoundException, IOException,
+				InstantiationException, IllegalAccessException {
+			if (remaining == 0) return null;
+			remaining--;
+			return (IDataSerializable) in.readObject();
+		}
+
+		void close() {
+			in.close();
+			if (inflater != null) inflater.end();
+		}
+	}
+
+	/**
+	 * Appends to the spill file with positional writes, which leaves the
+	 * file position alone for any reads.
+	 */
+	private class ChannelOutputStream extends OutputStream {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer bytes = ByteBuffer.wrap(b, off, len);
+			while (bytes.hasRemaining()) {
+				spillSize += channel.write(bytes, spillSize);
+			}
+		}
+	}
+
+	/**
+	 * One input of a merge, either a sorted run in the spill file or the
+	 * sorted objects held in memory, with the next object to merge.
+	 */
+	private static class MergeSource {
+		/**
+		 * Position of the source in the order of writing, which breaks ties
+		 */
+		final int order;
+		final ChunkReader reader;
+		final List<IDataSerializable> memory;
+		int memoryIndex;
+		IDataSerializable head;
+
+		MergeSource(int order, ChunkReader reader, List<IDataSerializable> memory) {
+			this.order = order;
+			this.reader = reader;
+			this.memory = memory;
+		}
+
+		/**
+		 * Move to the next object.
+		 * @return <code>false</code> if the source is exhausted
+		 */
+		boolean advance() throws ClassNotFoundException, IOException,
+				InstantiationException, IllegalAccessException {
+			if (reader != null) {
+				head = reader.read();
+			} else {
+				head = memoryIndex < memory.size() ? memory.get(memoryIndex++) : null;
+			}
+			return head != null;
+		}
+
+		void close() {
+			if (reader != null) reader.close();
+		}
+	}
+
+	/**
+	 * Reads a range of the spill file with positional reads so the chunks of
+	 * many buffers can be open at the same time.
+	 */
+	private static class ChannelInputStream extends InputStream {
+		private final FileChannel channel;
+		private final long end;
+		private long position;
+
+		ChannelInputStream(FileChannel channel, long position, long end) {
+			this.channel = channel;
+			this.position = position;
+			this.end = end;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (position >= end) return -1;
+			if (len == 0) return 0;
+			int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+			if (n == -1) return -1;
+			position += n;
+			return n;
+		}
+	}
+
+	/**
+	 * Buffer whose objects are held in memory until the pool spills them.
+	 * Objects are read back from the chunks in the order they were spilled
+	 * followed by the objects in memory, which is the order of writing, or
+	 * merged in the order of the comparator.
+	 */
+	private class PooledObjectBuffer extends ObjectBuffer {
+
+		final Comparator<IDataSerializable> comparator;
+
+		final List<IDataSerializable> memory = new ArrayList<IDataSerializable>();
+
+		final List<Chunk> chunks = new ArrayList<Chunk>();
+
+		long memorySize;
+
+		/**
+		 * Count of objects in the chunks
+		 */
+		long spilled;
+
+		long readIndex;
+
+		private int readChunk;
+
+		private ChunkReader reader;
+
+		/**
+		 * Sources of the merge in a sorted buffer, in the order of their
+		 * next objects
+		 */
+		private PriorityQueue<MergeSource> merge;
+
+		private boolean closed;
+
+		PooledObjectBuffer(Comparator<IDataSerializable> comparator) {
+			super(1);
+			this.comparator = comparator;
+		}
+
+		@Override
+		public void write(IDataSerializable object) throws IOException {
+			if (object == null) {
+				throw new IllegalArgumentException("object should never be null");
+			}
+			if (closed) {
+				throw new IllegalStateException("buffer is closed");
+			}
+			if (comparator != null && readIndex != 0) {
+				throw new IllegalStateException("cannot write to a sorted buffer while it is being read");
+			}
+			long size = estimateSize(object);
+			memory.add(object);
+			memorySize += size;
+			reserve(size);
+		}
+
+		@Nullable
+		@Override
+		public IDataSerializable read() throws ClassNotFoundException, IOException,
+				InstantiationException, IllegalAccessException {
+			if (closed || readIndex >= count()) {
+				return null;
+			}
+			IDataSerializable rval;
+			if (comparator != null) {
+				if (merge == null) startMerge();
+				MergeSource source = merge.poll();
+				rval = source.head;
+				if (source.advance())
+					merge.add(source);
+				else
+					source.close();
+			} else if (readIndex < spilled) {
+				if (reader == null) {
+					reader = new ChunkReader(chunks.get(readChunk++));
+				}
+				rval = reader.read();
+				if (reader.remaining == 0) closeReaders();
+			} else {
+				rval = memory.get((int) (readIndex - spilled));
+			}
+			readIndex++;
+			return rval;
+		}
+
+		/**
+		 * Merge runs until few enough are left to read at once and then
+		 * open the remaining runs and the objects in memory.
+		 */
+		private void startMerge() throws ClassNotFoundException, IOException,
+				InstantiationException, IllegalAccessException {
+			Collections.sort(memory, comparator);
+			while (chunks.size() > MAX_MERGE_WIDTH) {
+				// merged run holds the earliest objects so keeps the first place
+				PriorityQueue<MergeSource> sources = openSources(chunks.subList(0, MAX_MERGE_WIDTH), false);
+				ChunkWriter writer = new ChunkWriter();
+				try {
+					MergeSource source;
+					while ((source = sources.poll()) != null) {
+						writer.write(source.head);
+						if (source.advance())
+							sources.add(source);
+						else
+							source.close();
+					}
+				} finally {
+					for (MergeSource source : sources) {
+						source.close();
+					}
+				}
+				Chunk merged = writer.finish();
+				chunks.subList(0, MAX_MERGE_WIDTH).clear();
+				chunks.add(0, merged);
+			}
+			merge = openSources(chunks, true);
+		}
+
+		private PriorityQueue<MergeSource> openSources(List<Chunk> runs, boolean withMemory)
+				throws ClassNotFoundException, IOException,
+				InstantiationException, IllegalAccessException {
+			PriorityQueue<MergeSource> sources = new PriorityQueue<MergeSource>(runs.size() + 1,
+					new Comparator<MergeSource>() {
+						public int compare(MergeSource s1, MergeSource s2) {
+							int rval = comparator.compare(s1.head, s2.head);
+							return rval != 0 ? rval : s1.order - s2.order;
+						}
+					});
+			try {
+				int order = 0;
+				for (Chunk chunk : runs) {
+					MergeSource source = new MergeSource(order++, new ChunkReader(chunk), null);
+					if (source.advance())
+						sources.add(source);
+					else
+						source.close();
+				}
+				if (withMemory) {
+					MergeSource source = new MergeSource(order, null, memory);
+					if (source.advance()) sources.add(source);
+				}
+			} catch (IOException e) {
+				for (MergeSource source : sources) {
+					source.close();
+				}
+				throw e;
+			}
+			return sources;
+		}
+
+		@Override
+		public long count() {
+			return spilled + memory.size();
+		}
+
+		@Override
+		public void resetReadIndex() {
+			readIndex = 0;
+			readChunk = 0;
+			closeReaders();
+		}
+
+		/**
+		 * Chunks are complete when written so there is no output stream.
+		 */
+		@Override
+		public void closeOutputStream() {
+			// nothing to do
+		}
+
+		@Override
+		public void close() {
+			if (closed) return;
+			closed = true;
+			closeReaders();
+			memoryUsed -= memorySize;
+			memorySize = 0;
+			memory.clear();
+			chunks.clear();
+			spilled = 0;
+			readIndex = 0;
+			buffers.remove(this);
+		}
+
+		/**
+		 * @throws UnsupportedOperationException always since the spill file
+		 * is shared by the pool
+		 */
+		@Override
+		public void setSpillDirectory(File spillDirectory) {
+			throw new UnsupportedOperationException("spill file is shared by the pool");
+		}
+
+		@Override
+		public File getSpillDirectory() {
+			return spillDirectory;
+		}
+
+		/**
+		 * @throws UnsupportedOperationException always since the spill file
+		 * is shared by the pool
+		 */
+		@Override
+		public void setCompressed(boolean compressed) {
+			throw new UnsupportedOperationException("spill file is shared by the pool");
+		}
+
+		@Override
+		public boolean isCompressed() {
+			return compressed;
+		}
+
+		@Override
+		public long getSpillSize() {
+			long size = 0;
+			for (Chunk chunk : chunks) {
+				size += chunk.length;
+			}
+			return size;
+		}
+
+		private void closeReaders() {
+			if (reader != null) {
+				reader.close();
+				reader = null;
+			}
+			if (merge != null) {
+				for (MergeSource source : merge) {
+					source.close();
+				}
+				merge = null;
+			}
+		}
+	}
+}
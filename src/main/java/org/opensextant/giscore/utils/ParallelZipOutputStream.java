@@ -0,0 +1,618 @@
+/****************************************************************************************
+ *  ParallelZipOutputStream.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A zip output stream that deflates the data of each entry in blocks on
+ * several threads, in the manner of pigz. Each block of {@link #BLOCK_SIZE}
+ * bytes is deflated on its own with the last 32K of the previous block as the
+ * dictionary and ends on a byte boundary, so the blocks joined in order are a
+ * single deflate stream that any zip reader can inflate. The block boundaries
+ * depend only on the data, so the output does not depend on the number of
+ * threads or how the work was scheduled. The compressed data is a little
+ * larger than from a single deflater since matches do not cross into the
+ * previous block beyond the dictionary.
+ * <p>
+ * Deflated entries are written with a data descriptor. Stored entries must
+ * have their size and crc set before they are written, as with
+ * <code>ZipOutputStream</code>. Entry names and the comment are encoded as
+ * UTF-8. Only the methods of <code>ZipOutputStream</code> for writing entries
+ * are supported: everything goes to the underlying stream and the deflater
+ * of the superclass is not used.
+ */
+public class ParallelZipOutputStream extends ZipOutputStream {
+
+	/**
+	 * Number of uncompressed bytes deflated by a worker at a time
+	 */
+	public static final int BLOCK_SIZE = 128 * 1024;
+
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final long LOCSIG = 0x04034b50L;
+	private static final long EXTSIG = 0x08074b50L;
+	private static final long CENSIG = 0x02014b50L;
+	private static final long ENDSIG = 0x06054b50L;
+	private static final long ZIP64_ENDSIG = 0x06064b50L;
+	private static final long ZIP64_LOCSIG = 0x07064b50L;
+
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+	private static final int ZIP64_EXTID = 0x0001;
+
+	/**
+	 * General purpose flags: sizes in a data descriptor, UTF-8 names
+	 */
+	private static final int FLAG_DESCRIPTOR = 0x0008;
+	private static final int FLAG_UTF8 = 0x0800;
+
+	private final ExecutorService executor;
+
+	private final int maxPending;
+
+	/**
+	 * Blocks submitted but not yet written, in order
+	 */
+	private final LinkedList<Future<Block>> pending = new LinkedList<Future<Block>>();
+
+	/**
+	 * Blocks not in use
+	 */
+	private final LinkedList<Block> idle = new LinkedList<Block>();
+
+	private final List<Entry> entries = new ArrayList<Entry>();
+
+	private final Set<String> names = new HashSet<String>();
+
+	private final CRC32 crc = new CRC32();
+
+	private final byte[] header = new byte[64];
+
+	private int headerLength;
+
+	private int level = Deflater.DEFAULT_COMPRESSION;
+
+	private int method = DEFLATED;
+
+	private byte[] comment;
+
+	/**
+	 * Entry being written, or null
+	 */
+	private Entry current;
+
+	/**
+	 * Block being filled for the current deflated entry
+	 */
+	private Block block;
+
+	/**
+	 * Bytes written to the underlying stream
+	 */
+	private long written;
+
+	private boolean finished;
+
+	private boolean closed;
+
+	/**
+	 * Ctor
+	 *
+	 * @param out the underlying output stream, never <code>null</code>
+	 * @param threads number of threads deflating blocks, at least 1
+	 * @throws IllegalArgumentException if threads is less than 1
+	 */
+	public ParallelZipOutputStream(OutputStream out, int threads) {
+		super(out);
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		maxPending = threads * 2;
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "zip-deflater");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Set the compression level of deflated blocks submitted after this call.
+	 *
+	 * @param level the level, from 0 to 9 or
+	 * <code>Deflater.DEFAULT_COMPRESSION</code>
+	 * @throws IllegalArgumentException if the level is not valid
+	 */
+	@Override
+	public void setLevel(int level) {
+		if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+				&& level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("invalid compression level");
+		}
+		this.level = level;
+	}
+
+	@Override
+	public void setMethod(int method) {
+		if (method != DEFLATED && method != STORED) {
+			throw new IllegalArgumentException("invalid compression method");
+		}
+		this.method = method;
+	}
+
+	@Override
+	public void setComment(String comment) {
+		if (comment == null) {
+			this.comment = null;
+			return;
+		}
+		byte[] bytes = comment.getBytes(UTF8);
+		if (bytes.length > 0xFFFF) {
+			throw new IllegalArgumentException("ZIP file comment too long.");
+		}
+		this.comment = bytes;
+	}
+
+	@Override
+	public void putNextEntry(ZipEntry e) throws IOException {
+		ensureOpen();
+		if (current != null) {
+			closeEntry();
+		}
+		Entry entry = new Entry(e.getName());
+		entry.method = e.getMethod() == -1 ? method : e.getMethod();
+		long time = e.getTime();
+		entry.dosTime = toDosTime(time == -1 ? System.currentTimeMillis() : time);
+		if (entry.method == STORED) {
+			if (e.getSize() == -1 || e.getCrc() == -1
+					|| (e.getCompressedSize() != -1 && e.getCompressedSize() != e.getSize())) {
+				throw new ZipException("STORED entry missing size, compressed size, or crc-32");
+			}
+			entry.size = entry.compressedSize = e.getSize();
+			entry.crc = e.getCrc();
+			entry.flag = FLAG_UTF8;
+			entry.version = entry.size >= ZIP64_MAGIC ? 45 : 10;
+		} else {
+			entry.flag = FLAG_UTF8 | FLAG_DESCRIPTOR;
+			entry.version = 20;
+		}
+		if (!names.add(entry.name)) {
+			throw new ZipException("duplicate entry: " + entry.name);
+		}
+		entry.offset = written;
+		writeLocalHeader(entry);
+		crc.reset();
+		current = entry;
+		if (entry.method == DEFLATED) {
+			entry.size = 0;
+			entry.compressedSize = 0;
+			block = takeBlock();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (off < 0 || len < 0 || off > b.length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (current == null) {
+			throw new ZipException("no current ZIP entry");
+		}
+		if (len == 0) return;
+		crc.update(b, off, len);
+		if (current.method == STORED) {
+			current.written += len;
+			if (current.written > current.size) {
+				throw new ZipException("attempt to write past end of STORED entry");
+			}
+			writeBytes(b, off, len);
+			return;
+		}
+		current.size += len;
+		while (len > 0) {
+			int n = Math.min(len, BLOCK_SIZE - block.length);
+			System.arraycopy(b, off, block.input, block.length, n);
+			block.length += n;
+			off += n;
+			len -= n;
+			if (block.length == BLOCK_SIZE) {
+				submitBlock(false);
+			}
+		}
+	}
+
+	@Override
+	public void closeEntry() throws IOException {
+		ensureOpen();
+		if (current == null) return;
+		Entry entry = current;
+		if (entry.method == DEFLATED) {
+			submitBlock(true);
+			while (!pending.isEmpty()) {
+				writeBlock(pending.removeFirst());
+			}
+			entry.crc = crc.getValue();
+			if (entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC) {
+				entry.version = 45;
+				putInt(EXTSIG);
+				putInt(entry.crc);
+				putLong(entry.compressedSize);
+				putLong(entry.size);
+			} else {
+				putInt(EXTSIG);
+				putInt(entry.crc);
+				putInt(entry.compressedSize);
+				putInt(entry.size);
+			}
+			writeHeader();
+		} else {
+			if (entry.written != entry.size) {
+				throw new ZipException("invalid entry size (expected " + entry.size
+						+ " but got " + entry.written + " bytes)");
+			}
+			if (crc.getValue() != entry.crc) {
+				throw new ZipException("invalid entry crc-32 (expected 0x"
+						+ Long.toHexString(entry.crc) + " but got 0x"
+						+ Long.toHexString(crc.getValue()) + ")");
+			}
+		}
+		entries.add(entry);
+		current = null;
+	}
+
+	@Override
+	public void finish() throws IOException {
+		ensureOpen();
+		if (finished) return;
+		closeEntry();
+		long start = written;
+		for (Entry entry : entries) {
+			writeCentralHeader(entry);
+		}
+		writeEnd(start, written - start);
+		finished = true;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		try {
+			finish();
+		} finally {
+			closed = true;
+			executor.shutdownNow();
+			for (Block b : idle) {
+				b.end();
+			}
+			idle.clear();
+			pending.clear();
+			// deflater of the superclass, never used
+			def.end();
+			out.close();
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	private Block takeBlock() {
+		Block b = idle.poll();
+		if (b == null) {
+			b = new Block();
+		}
+		b.length = 0;
+		b.dictionaryLength = 0;
+		return b;
+	}
+
+	/**
+	 * Deflate the current block on a worker, then start the next block with
+	 * the end of the current block as its dictionary. Waits for the oldest
+	 * blocks to be written if there are too many pending.
+	 *
+	 * @param last true for the last block of the entry
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void submitBlock(final boolean last) throws IOException {
+		final Block b = block;
+		final int blockLevel = level;
+		block = null;
+		if (!last) {
+			block = takeBlock();
+			System.arraycopy(b.input, b.length - DICTIONARY_SIZE, block.dictionary, 0, DICTIONARY_SIZE);
+			block.dictionaryLength = DICTIONARY_SIZE;
+		}
+		pending.add(executor.submit(new Callable<Block>() {
+			public Block call() {
+				b.deflate(blockLevel, last);
+				return b;
+			}
+		}));
+		while (pending.size() > maxPending) {
+			writeBlock(pending.removeFirst());
+		}
+	}
+
+	private void writeBlock(Future<Block> future) throws IOException {
+		Block b;
+		try {
+			b = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while deflating");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new IOException(cause);
+		}
+		writeBytes(b.output, 0, b.outputLength);
+		current.compressedSize += b.outputLength;
+		idle.add(b);
+	}
+
+	private void writeLocalHeader(Entry entry) throws IOException {
+		boolean zip64 = entry.version == 45;
+		putInt(LOCSIG);
+		putShort(entry.version);
+		putShort(entry.flag);
+		putShort(entry.method);
+		putInt(entry.dosTime);
+		if ((entry.flag & FLAG_DESCRIPTOR) != 0) {
+			putInt(0);
+			putInt(0);
+			putInt(0);
+		} else {
+			putInt(entry.crc);
+			putInt(zip64 ? ZIP64_MAGIC : entry.compressedSize);
+			putInt(zip64 ? ZIP64_MAGIC : entry.size);
+		}
+		putShort(entry.nameBytes.length);
+		putShort(zip64 ? 20 : 0);
+		writeHeader();
+		writeBytes(entry.nameBytes, 0, entry.nameBytes.length);
+		if (zip64) {
+			putShort(ZIP64_EXTID);
+			putShort(16);
+			putLong(entry.size);
+			putLong(entry.compressedSize);
+			writeHeader();
+		}
+	}
+
+	private void writeCentralHeader(Entry entry) throws IOException {
+		boolean largeSize = entry.size >= ZIP64_MAGIC;
+		boolean largeCompressed = entry.compressedSize >= ZIP64_MAGIC;
+		boolean largeOffset = entry.offset >= ZIP64_MAGIC;
+		int extraLength = (largeSize ? 8 : 0) + (largeCompressed ? 8 : 0) + (largeOffset ? 8 : 0);
+		int version = extraLength > 0 ? 45 : entry.version;
+		putInt(CENSIG);
+		putShort(version);
+		putShort(version);
+		putShort(entry.flag);
+		putShort(entry.method);
+		putInt(entry.dosTime);
+		putInt(entry.crc);
+		putInt(largeCompressed ? ZIP64_MAGIC : entry.compressedSize);
+		putInt(largeSize ? ZIP64_MAGIC : entry.size);
+		putShort(entry.nameBytes.length);
+		putShort(extraLength > 0 ? extraLength + 4 : 0);
+		putShort(0); // comment length
+		putShort(0); // disk number start
+		putShort(0); // internal attributes
+		putInt(0); // external attributes
+		putInt(largeOffset ? ZIP64_MAGIC : entry.offset);
+		writeHeader();
+		writeBytes(entry.nameBytes, 0, entry.nameBytes.length);
+		if (extraLength > 0) {
+			putShort(ZIP64_EXTID);
+			putShort(extraLength);
+			if (largeSize) putLong(entry.size);
+			if (largeCompressed) putLong(entry.compressedSize);
+			if (largeOffset) putLong(entry.offset);
+			writeHeader();
+		}
+	}
+
+	private void writeEnd(long offset, long length) throws IOException {
+		int count = entries.size();
+		boolean zip64 = count >= ZIP64_MAGIC_COUNT || offset >= ZIP64_MAGIC || length >= ZIP64_MAGIC;
+		if (zip64) {
+			long end64 = written;
+			putInt(ZIP64_ENDSIG);
+			putLong(44); // size of the rest of the record
+			putShort(45); // version made by
+			putShort(45); // version needed
+			putInt(0); // number of this disk
+			putInt(0); // disk with the central directory
+			putLong(count);
+			putLong(count);
+			putLong(length);
+			putLong(offset);
+			writeHeader();
+			putInt(ZIP64_LOCSIG);
+			putInt(0); // disk with the zip64 end record
+			putLong(end64);
+			putInt(1); // total number of disks
+			writeHeader();
+		}
+		putInt(ENDSIG);
+		putShort(0); // number of this disk
+		putShort(0); // disk with the central directory
+		putShort(zip64 ? ZIP64_MAGIC_COUNT : count);
+		putShort(zip64 ? ZIP64_MAGIC_COUNT : count);
+		putInt(zip64 ? ZIP64_MAGIC : length);
+		putInt(zip64 ? ZIP64_MAGIC : offset);
+		putShort(comment == null ? 0 : comment.length);
+		writeHeader();
+		if (comment != null) {
+			writeBytes(comment, 0, comment.length);
+		}
+	}
+
+	private void putShort(int v) {
+		header[headerLength++] = (byte) v;
+		header[headerLength++] = (byte) (v >>> 8);
+	}
+
+	private void putInt(long v) {
+		putShort((int) (v & 0xFFFF));
+		putShort((int) ((v >>> 16) & 0xFFFF));
+	}
+
+	private void putLong(long v) {
+		putInt(v & ZIP64_MAGIC);
+		putInt(v >>> 32);
+	}
+
+	private void writeHeader() throws IOException {
+		writeBytes(header, 0, headerLength);
+		headerLength = 0;
+	}
+
+	private void writeBytes(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		written += len;
+	}
+
+	private static long toDosTime(long time) {
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(time);
+		int year = c.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return ((long) (year - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21)
+				| (c.get(Calendar.DAY_OF_MONTH) << 16) | (c.get(Calendar.HOUR_OF_DAY) << 11)
+				| (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+	}
+
+	/**
+	 * An entry written or being written
+	 */
+	private static class Entry {
+		final String name;
+		final byte[] nameBytes;
+		int method;
+		int flag;
+		int version;
+		long dosTime;
+		long crc;
+		long size;
+		long compressedSize;
+		long offset;
+		/**
+		 * Bytes written so far to a stored entry
+		 */
+		long written;
+
+		Entry(String name) {
+			this.name = name;
+			nameBytes = name.getBytes(UTF8);
+			if (nameBytes.length > 0xFFFF) {
+				throw new IllegalArgumentException("entry name too long");
+			}
+		}
+	}
+
+	/**
+	 * Input and deflated output of one block, with a deflater that is reused
+	 * for later blocks
+	 */
+	private static class Block {
+		final byte[] input = new byte[BLOCK_SIZE];
+		final byte[] dictionary = new byte[DICTIONARY_SIZE];
+		byte[] output = new byte[BLOCK_SIZE + BLOCK_SIZE / 16];
+		int length;
+		int dictionaryLength;
+		int outputLength;
+		private Deflater deflater;
+		private int deflaterLevel;
+
+		/**
+		 * Deflate the input. All blocks but the last end with an empty
+		 * stored block so the next block starts on a byte boundary.
+		 *
+		 * @param level compression level
+		 * @param last true for the last block of the entry
+		 */
+		void deflate(int level, boolean last) {
+			if (deflater == null || deflaterLevel != level) {
+				end();
+				deflater = new Deflater(level, true);
+				deflaterLevel = level;
+			} else {
+				deflater.reset();
+			}
+			if (dictionaryLength > 0) {
+				deflater.setDictionary(dictionary, 0, dictionaryLength);
+			}
+			deflater.setInput(input, 0, length);
+			if (last) {
+				deflater.finish();
+			}
+			int flush = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+			outputLength = 0;
+			while (true) {
+				if (outputLength == output.length) {
+					output = Arrays.copyOf(output, output.length * 2);
+				}
+				outputLength += deflater.deflate(output, outputLength, output.length - outputLength, flush);
+				if (last ? deflater.finished() : outputLength < output.length) break;
+			}
+		}
+
+		void end() {
+			if (deflater != null) {
+				deflater.end();
+				deflater = null;
+			}
+		}
+	}
+}
@@ -34,6 +34,7 @@ import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.ObjectUtils;
+import org.opensextant.giscore.events.SimpleField;
 
 /**
  * Simplified stream that doesn't hold object references on input. This class
@@ -53,6 +54,9 @@ import org.apache.commons.lang.ObjectUtils;
  *
  * <p>Primitive data types can be read from the stream using the appropriate
  * method on DataInput.
+ *
+ * <p>A stream created in compact mode reads the compact format written by a
+ * {@link SimpleObjectOutputStream} in compact mode.
  * 
  * @author DRAND
  * 
@@ -84,7 +88,19 @@ public class SimpleObjectInputStream implements Closeable {
 	 * Objects that are references in the input stream. Used to reduce small
 	 * counts of objects that are used thousands of times in the input stream.
 	 */
-	private final Map<String, Object> refs = new HashMap<String, Object>();
+	private final Map<Object, Object> refs = new HashMap<Object, Object>();
+
+	/**
+	 * Read the compact format
+	 */
+	private final boolean compact;
+
+	/*
+	 * Field layouts of rows in compact mode, the layout with id n is at
+	 * index n - 1.
+	 */
+	private final List<SimpleField[]> layoutFields = new ArrayList<SimpleField[]>();
+	private final List<byte[]> layoutTypes = new ArrayList<byte[]>();
 	
 	/**
 	 * Creates an SimpleObjectInputStream that reads from the specified InputStream.
@@ -93,10 +109,22 @@ public class SimpleObjectInputStream implements Closeable {
 	 * @throws  IllegalArgumentException if <code>in</code> is <code>null</code>
 	 */
 	public SimpleObjectInputStream(InputStream in) {
+		this(in, false);
+	}
+
+	/**
+	 * Creates an SimpleObjectInputStream that reads from the specified InputStream.
+	 *
+	 * @param	in  input stream to read from, never null
+	 * @param	compact <code>true</code> if the stream was written in compact mode
+	 * @throws  IllegalArgumentException if <code>in</code> is <code>null</code>
+	 */
+	public SimpleObjectInputStream(InputStream in, boolean compact) {
 		if (in == null) {
 			throw new IllegalArgumentException("in should never be null");
 		}
 		stream = new DataInputStream(in);
+		this.compact = compact;
 	}
 
 	/**
@@ -140,7 +168,7 @@ public class SimpleObjectInputStream implements Closeable {
 				}
 				rval.readData(this);
 			} else {
-				String ref = readString();
+				Object ref = compact ? (Object) readLong() : readString();
 				if (type == INSTANCE) {
 					rval = readClass();
 					if (rval == null) {
@@ -256,7 +284,7 @@ public class SimpleObjectInputStream implements Closeable {
 		if (isnull) {
 			return null;
 		} else {
-			int ord = stream.readInt();
+			int ord = readInt();
 			Enum[] enumValues = enumClass.getEnumConstants();
 			return enumValues != null && ord >= 0 && ord < enumValues.length
 					? enumValues[ord] : null;
@@ -270,18 +298,79 @@ public class SimpleObjectInputStream implements Closeable {
 	 */
 	@Nullable
 	public Object readScalar() throws IOException {
-		int type = stream.readShort();
+		int type = compact ? stream.readByte() : stream.readShort();
+		return readScalarValue(type);
+	}
+
+	/**
+	 * Read the values of a map of fields written by
+	 * {@link SimpleObjectOutputStream#writeFieldValues(Map)}.
+	 *
+	 * @param values the map the field values are put in, never <code>null</code>
+	 * @throws IOException if an I/O error occurs
+	 * @throws ClassNotFoundException
+	 * @throws InstantiationException
+	 * @throws IllegalAccessException
+	 * @throws UnsupportedOperationException if encounters an unknown type
+	 */
+	public void readFieldValues(Map<SimpleField, Object> values)
+			throws IOException, ClassNotFoundException, InstantiationException,
+			IllegalAccessException {
+		if (!compact) {
+			int cnt = readInt();
+			for (int i = 0; i < cnt; i++) {
+				SimpleField field = (SimpleField) readObject();
+				Object val = readScalar();
+				values.put(field, val);
+			}
+			return;
+		}
+		int id = readInt();
+		SimpleField[] fields;
+		byte[] types;
+		if (id == 0) {
+			// layout defined here
+			int cnt = readInt();
+			fields = new SimpleField[cnt];
+			types = new byte[cnt];
+			for (int i = 0; i < cnt; i++) {
+				fields[i] = (SimpleField) readObject();
+				types[i] = stream.readByte();
+			}
+			layoutFields.add(fields);
+			layoutTypes.add(types);
+		} else if (id > 0 && id <= layoutFields.size()) {
+			fields = layoutFields.get(id - 1);
+			types = layoutTypes.get(id - 1);
+		} else {
+			throw new IOException("Invalid field layout " + id);
+		}
+		for (int i = 0; i < fields.length; i++) {
+			values.put(fields[i], readScalarValue(types[i]));
+		}
+	}
+
+	/**
+	 * Read a scalar value following its type marker
+	 *
+	 * @param type the type marker
+	 * @return the value
+	 * @throws IOException if an I/O error occurs
+	 * @throws UnsupportedOperationException if encounters an unknown type
+	 */
+	@Nullable
+	private Object readScalarValue(int type) throws IOException {
 		switch (type) {
 		case NULL:
 			return null;
 		case OBJECT_NULL:
 			return ObjectUtils.NULL;
 		case SHORT:
-			return stream.readShort();
+			return readShort();
 		case INT:
-			return stream.readInt();
+			return readInt();
 		case LONG:
-			return stream.readLong();
+			return readLong();
 		case DOUBLE:
 			return stream.readDouble();
 		case FLOAT:
@@ -291,7 +380,7 @@ public class SimpleObjectInputStream implements Closeable {
 		case BOOL:
 			return stream.readBoolean();
 		case DATE:
-			return new Date(stream.readLong());
+			return new Date(readLong());
 		case COLOR:
 			int value = stream.readInt();
 			return new Color(value, true);
@@ -322,7 +411,7 @@ public class SimpleObjectInputStream implements Closeable {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public long readLong() throws IOException {
-		return stream.readLong();
+		return compact ? readVarLong() : stream.readLong();
 	}
 
 	/**
@@ -330,7 +419,7 @@ public class SimpleObjectInputStream implements Closeable {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public int readInt() throws IOException {
-		return stream.readInt();
+		return compact ? (int) readVarLong() : stream.readInt();
 	}
 
     /**
@@ -364,7 +453,28 @@ public class SimpleObjectInputStream implements Closeable {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public short readShort() throws IOException {
-		return stream.readShort();
+		return compact ? (short) readVarLong() : stream.readShort();
+	}
+
+	/**
+	 * Read a zigzag encoded variable length integer
+	 *
+	 * @return the value
+	 * @throws IOException if an I/O error occurs
+	 */
+	private long readVarLong() throws IOException {
+		long v = 0;
+		int shift = 0;
+		int b;
+		do {
+			if (shift > 63) {
+				throw new IOException("Malformed variable length integer");
+			}
+			b = stream.readUnsignedByte();
+			v |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (v >>> 1) ^ -(v & 1);
 	}
 
 }
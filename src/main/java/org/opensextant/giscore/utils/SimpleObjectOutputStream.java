@@ -22,12 +22,14 @@ import java.io.Closeable;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.lang.ObjectUtils;
+import org.opensextant.giscore.events.SimpleField;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,6 +59,14 @@ import org.slf4j.LoggerFactory;
  * writeObject method or by using the methods for primitive data types
  * supported by DataOutput.
  *
+ * <p>A stream created in compact mode writes int, long and short values and
+ * the internal markers as variable length integers, scalar type markers as a
+ * single byte and the field values of rows sharing the same fields and value
+ * types without any per-field information (see {@link #writeFieldValues}).
+ * This is meant for temporary storage, such as the secondary store of an
+ * {@link ObjectBuffer}, and can only be read by a SimpleObjectInputStream
+ * that is also in compact mode.
+ *
  * @author DRAND
  */
 public class SimpleObjectOutputStream implements Closeable {
@@ -71,6 +81,11 @@ public class SimpleObjectOutputStream implements Closeable {
 	private final DataOutputStream stream;
 	
 	private IObjectCacher cacher;
+
+	/**
+	 * Use variable length encoding and field layouts
+	 */
+	private final boolean compact;
 	
 	/**
 	 * Tracks the correspondence between a generated id and the class
@@ -82,6 +97,18 @@ public class SimpleObjectOutputStream implements Closeable {
 	 * is reserved for <code>null</code> objects.
 	 */
 	private int cid = 1;
+
+	/**
+	 * Field layouts of rows written in compact mode, the value is the layout
+	 * id. Ids are assigned in order starting at 1.
+	 */
+	private final Map<FieldLayout, FieldLayout> layouts = new HashMap<FieldLayout, FieldLayout>();
+
+	/**
+	 * The most recently used layout, which is checked first since rows
+	 * usually arrive with the same fields.
+	 */
+	private FieldLayout lastLayout;
 	
 	/**
 	 * Creates an ObjectOutputStream that writes to the specified OutputStream.
@@ -101,11 +128,25 @@ public class SimpleObjectOutputStream implements Closeable {
 	 * @throws	IllegalArgumentException if <code>s</code> is <code>null</code>
 	 */
 	public SimpleObjectOutputStream(OutputStream s, IObjectCacher cacher) {
+		this(s, cacher, false);
+	}
+
+	/**
+	 * Creates an ObjectOutputStream that writes to the specified OutputStream.
+	 *
+	 * @param s stream to hold the output data, never <code>null</code>
+	 * @param cacher the cacher that decides what objects can be deduplicated, may be <code>null</code>
+	 * @param compact <code>true</code> to write the compact format, which must be
+	 * 			read by a SimpleObjectInputStream in compact mode
+	 * @throws	IllegalArgumentException if <code>s</code> is <code>null</code>
+	 */
+	public SimpleObjectOutputStream(OutputStream s, IObjectCacher cacher, boolean compact) {
 		if (s == null) {
 			throw new IllegalArgumentException("s should never be null");
 		}
 		stream = new DataOutputStream(s);
 		this.cacher = cacher; 
+		this.compact = compact;
 	}
 	
 	/**
@@ -149,7 +190,10 @@ public class SimpleObjectOutputStream implements Closeable {
 					cacher.addToCache(object);
 				}
 				writeShort(writeData ? INSTANCE : REF);
-				writeString(cacher.getObjectOutputReference(object).toString());
+				if (compact)
+					writeLong(cacher.getObjectOutputReference(object));
+				else
+					writeString(cacher.getObjectOutputReference(object).toString());
 				if (writeData) {
 					writeClass(object);
 					object.writeData(this);
@@ -211,7 +255,7 @@ public class SimpleObjectOutputStream implements Closeable {
 			stream.writeBoolean(true);
 		} else {
 			stream.writeBoolean(false);
-			stream.writeInt(v.ordinal());
+			writeInt(v.ordinal());
 		}
 	}
 	
@@ -222,47 +266,140 @@ public class SimpleObjectOutputStream implements Closeable {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public void writeScalar(Object value) throws IOException {
+		int type = getScalarType(value);
+		if (compact)
+			stream.writeByte(type);
+		else
+			stream.writeShort(type);
+		writeScalarValue(type, value);
+	}
+
+	/**
+	 * Write the values of a map of fields such as the extended data of a row.
+	 * In compact mode rows with the same fields in the same order and values
+	 * of the same types share a layout, which is written once along with the
+	 * fields. Each row then only writes the layout id followed by the values
+	 * without type markers. Otherwise the count is written followed by each
+	 * field and its value.
+	 *
+	 * @param values the field values, never <code>null</code>
+	 * @throws IOException if an I/O error occurs
+	 * @see SimpleObjectInputStream#readFieldValues(Map)
+	 */
+	public void writeFieldValues(Map<SimpleField, Object> values) throws IOException {
+		if (!compact) {
+			writeInt(values.size());
+			for (Map.Entry<SimpleField, Object> entry : values.entrySet()) {
+				writeObject(entry.getKey());
+				writeScalar(entry.getValue());
+			}
+			return;
+		}
+		FieldLayout layout = lastLayout;
+		if (layout == null || !layout.matches(values)) {
+			FieldLayout key = new FieldLayout(values);
+			layout = layouts.get(key);
+			if (layout == null) {
+				// new layout is defined in the stream, the reader assigns the same id
+				layout = key;
+				layout.id = layouts.size() + 1;
+				layouts.put(layout, layout);
+				writeInt(0);
+				writeInt(layout.fields.length);
+				for (int i = 0; i < layout.fields.length; i++) {
+					writeObject(layout.fields[i]);
+					stream.writeByte(layout.types[i]);
+				}
+			} else {
+				writeInt(layout.id);
+			}
+			lastLayout = layout;
+		} else {
+			writeInt(layout.id);
+		}
+		int i = 0;
+		for (Object value : values.values()) {
+			writeScalarValue(layout.types[i++], value);
+		}
+	}
+
+	/**
+	 * Get the type marker for a scalar value
+	 *
+	 * @param value the value
+	 * @return the type, {@link SimpleObjectInputStream#NULL} for unsupported types
+	 */
+	private static int getScalarType(Object value) {
 		if (value == null) {
-			stream.writeShort(SimpleObjectInputStream.NULL);
+			return SimpleObjectInputStream.NULL;
 		} else if (ObjectUtils.NULL.equals(value)) {
-			stream.writeShort(SimpleObjectInputStream.OBJECT_NULL);
+			return SimpleObjectInputStream.OBJECT_NULL;
 		} else if (value instanceof Short) {
-			stream.writeShort(SimpleObjectInputStream.SHORT);
-			stream.writeShort(((Short)value).shortValue()); 
+			return SimpleObjectInputStream.SHORT;
 		} else if (value instanceof Integer) {
-			stream.writeShort(SimpleObjectInputStream.INT);
-			stream.writeInt(((Integer)value).intValue()); 
+			return SimpleObjectInputStream.INT;
 		} else if (value instanceof Long) {
-			stream.writeShort(SimpleObjectInputStream.LONG);
-			stream.writeLong(((Long)value).longValue()); 
+			return SimpleObjectInputStream.LONG;
 		} else if (value instanceof Double) {
-			stream.writeShort(SimpleObjectInputStream.DOUBLE);
-			stream.writeDouble(((Double) value).doubleValue());
+			return SimpleObjectInputStream.DOUBLE;
 		} else if (value instanceof Float) {
-			stream.writeShort(SimpleObjectInputStream.FLOAT);
-			stream.writeFloat(((Float) value).floatValue());
+			return SimpleObjectInputStream.FLOAT;
 		} else if (value instanceof String) {
-			stream.writeShort(SimpleObjectInputStream.STRING);
-			writeString((String) value);
+			return SimpleObjectInputStream.STRING;
 		} else if (value instanceof Boolean) {
-			stream.writeShort(SimpleObjectInputStream.BOOL);
-			writeBoolean((Boolean) value);
+			return SimpleObjectInputStream.BOOL;
 		} else if (value instanceof Date) {
-			stream.writeShort(SimpleObjectInputStream.DATE);
-			writeLong(((Date) value).getTime());
-        } else if (value instanceof Color) {
-            stream.writeShort(SimpleObjectInputStream.COLOR);
-            stream.writeInt(((Color)value).getRGB());
-		} else if (value instanceof java.awt.Color) {
-			stream.writeShort(SimpleObjectInputStream.COLOR);
-			stream.writeInt(((java.awt.Color)value).getRGB());
+			return SimpleObjectInputStream.DATE;
+		} else if (value instanceof Color || value instanceof java.awt.Color) {
+			return SimpleObjectInputStream.COLOR;
 		} else {
 			log.warn("Failed to serialize unsupported type: " + value.getClass().getName());
 			//throw new UnsupportedOperationException("Found unsupported type " + value.getClass());
-			stream.writeShort(SimpleObjectInputStream.NULL);
-		}		
+			return SimpleObjectInputStream.NULL;
+		}
+	}
+
+	/**
+	 * Write a scalar value without its type marker
+	 *
+	 * @param type the type from {@link #getScalarType(Object)}
+	 * @param value the value
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void writeScalarValue(int type, Object value) throws IOException {
+		switch (type) {
+			case SimpleObjectInputStream.SHORT:
+				writeShort((Short) value);
+				break;
+			case SimpleObjectInputStream.INT:
+				writeInt((Integer) value);
+				break;
+			case SimpleObjectInputStream.LONG:
+				writeLong((Long) value);
+				break;
+			case SimpleObjectInputStream.DOUBLE:
+				stream.writeDouble((Double) value);
+				break;
+			case SimpleObjectInputStream.FLOAT:
+				stream.writeFloat((Float) value);
+				break;
+			case SimpleObjectInputStream.STRING:
+				writeString((String) value);
+				break;
+			case SimpleObjectInputStream.BOOL:
+				writeBoolean((Boolean) value);
+				break;
+			case SimpleObjectInputStream.DATE:
+				writeLong(((Date) value).getTime());
+				break;
+			case SimpleObjectInputStream.COLOR:
+				stream.writeInt(value instanceof Color ? ((Color) value).getRGB()
+						: ((java.awt.Color) value).getRGB());
+				break;
+			default:
+				// NULL and OBJECT_NULL have no value
+		}
 	}
-	
 
 	/**
 	 * Helper method that aids in writing a string to the data stream
@@ -284,7 +421,10 @@ public class SimpleObjectOutputStream implements Closeable {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public void writeLong(long lval) throws IOException {
-		stream.writeLong(lval);
+		if (compact)
+			writeVarLong(lval);
+		else
+			stream.writeLong(lval);
 	}
 
 	/**
@@ -293,7 +433,10 @@ public class SimpleObjectOutputStream implements Closeable {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public void writeInt(int ival) throws IOException {
-		stream.writeInt(ival);
+		if (compact)
+			writeVarLong(ival);
+		else
+			stream.writeInt(ival);
 	}
 	
 	/**
@@ -330,7 +473,26 @@ public class SimpleObjectOutputStream implements Closeable {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public void writeShort(short sval) throws IOException {
-		stream.writeShort(sval);
+		if (compact)
+			writeVarLong(sval);
+		else
+			stream.writeShort(sval);
+	}
+
+	/**
+	 * Write a zigzag encoded variable length integer, which takes one byte for
+	 * values from -64 to 63.
+	 *
+	 * @param value the value
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void writeVarLong(long value) throws IOException {
+		long v = (value << 1) ^ (value >> 63);
+		while ((v & ~0x7FL) != 0) {
+			stream.writeByte((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		stream.writeByte((int) v);
 	}
 
 	/**
@@ -342,4 +504,46 @@ public class SimpleObjectOutputStream implements Closeable {
 		stream.flush();
 	}
 
+	/**
+	 * The fields and value types of a row in the order of its values. Fields
+	 * are compared by name as with {@link SimpleFieldCacher} so rows read back
+	 * share the field instances of the layout.
+	 */
+	private static class FieldLayout {
+		final SimpleField[] fields;
+		final byte[] types;
+		int id;
+
+		FieldLayout(Map<SimpleField, Object> values) {
+			fields = new SimpleField[values.size()];
+			types = new byte[fields.length];
+			int i = 0;
+			for (Map.Entry<SimpleField, Object> entry : values.entrySet()) {
+				fields[i] = entry.getKey();
+				types[i++] = (byte) getScalarType(entry.getValue());
+			}
+		}
+
+		boolean matches(Map<SimpleField, Object> values) {
+			if (values.size() != fields.length) return false;
+			int i = 0;
+			for (Map.Entry<SimpleField, Object> entry : values.entrySet()) {
+				SimpleField field = entry.getKey();
+				if (field != fields[i] && !field.equals(fields[i])) return false;
+				if (types[i++] != getScalarType(entry.getValue())) return false;
+			}
+			return true;
+		}
+
+		public int hashCode() {
+			return 31 * Arrays.hashCode(fields) + Arrays.hashCode(types);
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof FieldLayout)) return false;
+			FieldLayout other = (FieldLayout) obj;
+			return Arrays.equals(types, other.types) && Arrays.equals(fields, other.fields);
+		}
+	}
+
 }
@@ -0,0 +1,604 @@
+/****************************************************************************************
+ *  SpatialIndex.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.utils;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.opensextant.geodesy.Geodetic2DBounds;
+import org.opensextant.geodesy.Geodetic2DPoint;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.geometry.Geometry;
+import org.opensextant.giscore.input.IGISInputStream;
+
+/**
+ * A read-only spatial index of bounding boxes, each with a long id such as a
+ * feature ordinal, bulk loaded into an R-tree with the Sort-Tile-Recursive
+ * (STR) packing. Entries of each level are sorted into vertical slices by the
+ * longitude of their centers and each slice by latitude, then packed into
+ * full nodes, which gives nodes with little overlap and no empty space.
+ * <p>
+ * Bounds are in degrees. Bounds that cross the antimeridian (west longitude
+ * greater than east longitude) are stored as two boxes and found by queries
+ * on either side, and queries may cross it as well.
+ * <p>
+ * The tree is kept in a single buffer in the same layout as its serialized
+ * form, so an index written with {@link #write(File)} can be opened with
+ * {@link #open(File)} and queried straight from the memory mapped file without
+ * being read into the heap. An index is immutable and may be queried from
+ * several threads.
+ * <p>
+ * Example:
+ * <pre>
+ *  SpatialIndex.Builder builder = new SpatialIndex.Builder();
+ *  builder.addAll(input); // feature ordinals in stream order
+ *  SpatialIndex index = builder.build();
+ *  long[] ids = index.query(bbox);
+ * </pre>
+ */
+public class SpatialIndex {
+
+	/**
+	 * The default number of children of a node
+	 */
+	public static final int DEFAULT_NODE_CAPACITY = 16;
+
+	private static final int MAGIC = 0x47535049; // GSPI
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Bytes of each box: west, south, east, north and a long which is the id
+	 * of an entry or the position of the first child of a node
+	 */
+	private static final int BOX_SIZE = 4 * 8 + 8;
+
+	private final ByteBuffer buffer;
+
+	private final int nodeCapacity;
+
+	private final int size;
+
+	/**
+	 * End positions of the boxes of each level, from the entries to the root
+	 */
+	private final int levelEnd[];
+
+	/**
+	 * Position of the first box in the buffer
+	 */
+	private final int base;
+
+	/**
+	 * Collects the entries of an index.
+	 */
+	public static class Builder {
+
+		private final int nodeCapacity;
+
+		private double boxes[] = new double[4 * 64];
+
+		private long ids[] = new long[64];
+
+		private int count;
+
+		private int size;
+
+		/**
+		 * Ctor with the {@link SpatialIndex#DEFAULT_NODE_CAPACITY default}
+		 * node capacity
+		 */
+		public Builder() {
+			this(DEFAULT_NODE_CAPACITY);
+		}
+
+		/**
+		 * Ctor
+		 *
+		 * @param nodeCapacity the number of children of a node, at least 2
+		 * @throws IllegalArgumentException if nodeCapacity is less than 2
+		 */
+		public Builder(int nodeCapacity) {
+			if (nodeCapacity < 2)
+				throw new IllegalArgumentException("nodeCapacity must be at least 2");
+			this.nodeCapacity = nodeCapacity;
+		}
+
+		/**
+		 * Add an entry.
+		 *
+		 * @param bounds the bounds, never <code>null</code>
+		 * @param id     the id returned by queries that find the bounds
+		 * @throws IllegalArgumentException if bounds is null
+		 */
+		public void add(Geodetic2DBounds bounds, long id) {
+			if (bounds == null)
+				throw new IllegalArgumentException("bounds should never be null");
+			double west = bounds.getWestLon().inDegrees();
+			double east = bounds.getEastLon().inDegrees();
+			double south = bounds.getSouthLat().inDegrees();
+			double north = bounds.getNorthLat().inDegrees();
+			if (west > east) {
+				// crosses the antimeridian
+				add(west, south, 180, north, id);
+				add(-180, south, east, north, id);
+			} else {
+				add(west, south, east, north, id);
+			}
+			size++;
+		}
+
+		/**
+		 * Add the bounding box of a geometry.
+		 *
+		 * @param geometry the geometry, may be <code>null</code>
+		 * @param id       the id returned by queries that find the geometry
+		 * @return false if there is no geometry or bounding box to add
+		 */
+		public boolean add(Geometry geometry, long id) {
+			Geodetic2DBounds bounds = geometry == null ? null : geometry.getBoundingBox();
+			if (bounds == null) return false;
+			add(bounds, id);
+			return true;
+		}
+
+		/**
+		 * Read all the objects of a stream and add the geometry of each
+		 * feature with its ordinal, counting from 0 in the order the features
+		 * are read. Features without geometry are counted but not added.
+		 *
+		 * @param input the stream, never <code>null</code>
+		 * @return the number of features read
+		 * @throws IOException if an error occurs reading the stream
+		 */
+		public long addAll(IGISInputStream input) throws IOException {
+			if (input == null)
+				throw new IllegalArgumentException("input should never be null");
+			long ordinal = 0;
+			IGISObject object;
+			while ((object = input.read()) != null) {
+				if (object instanceof Feature) {
+					add(((Feature) object).getGeometry(), ordinal++);
+				}
+			}
+			return ordinal;
+		}
+
+		private void add(double west, double south, double east, double north, long id) {
+			if (count == ids.length) {
+				ids = Arrays.copyOf(ids, 2 * count);
+				boxes = Arrays.copyOf(boxes, 8 * count);
+			}
+			boxes[4 * count] = west;
+			boxes[4 * count + 1] = south;
+			boxes[4 * count + 2] = east;
+			boxes[4 * count + 3] = north;
+			ids[count++] = id;
+		}
+
+		/**
+		 * @return the number of entries added
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Pack the entries into an index. The builder may be used again to
+		 * add more entries and build a larger index.
+		 *
+		 * @return the index, never <code>null</code>
+		 * @throws IllegalStateException if the index would be larger than 2GB
+		 */
+		@NonNull
+		public SpatialIndex build() {
+			int m = nodeCapacity;
+			// boxes of each level, the root last
+			int levels = 1;
+			long total = count;
+			for (long n = count; n > 1; levels++) {
+				n = (n + m - 1) / m;
+				total += n;
+			}
+			long length = 4L * (5 + levels) + total * BOX_SIZE;
+			if (length > Integer.MAX_VALUE)
+				throw new IllegalStateException("Too many entries for an index: " + count);
+			int levelEnd[] = new int[levels];
+			double tree[] = new double[4 * (int) total];
+			long payload[] = new long[(int) total];
+			System.arraycopy(boxes, 0, tree, 0, 4 * count);
+			System.arraycopy(ids, 0, payload, 0, count);
+			int start = 0;
+			int end = count;
+			for (int level = 0; level < levels; level++) {
+				levelEnd[level] = end;
+				if (level == levels - 1) break;
+				sortTiles(tree, payload, start, end, m);
+				// pack the level into parent nodes after it
+				int parent = end;
+				for (int child = start; child < end; child += m, parent++) {
+					int last = Math.min(child + m, end);
+					double west = tree[4 * child], south = tree[4 * child + 1];
+					double east = tree[4 * child + 2], north = tree[4 * child + 3];
+					for (int c = child + 1; c < last; c++) {
+						west = Math.min(west, tree[4 * c]);
+						south = Math.min(south, tree[4 * c + 1]);
+						east = Math.max(east, tree[4 * c + 2]);
+						north = Math.max(north, tree[4 * c + 3]);
+					}
+					tree[4 * parent] = west;
+					tree[4 * parent + 1] = south;
+					tree[4 * parent + 2] = east;
+					tree[4 * parent + 3] = north;
+					payload[parent] = child;
+				}
+				start = end;
+				end = parent;
+			}
+			ByteBuffer buf = ByteBuffer.allocate((int) length);
+			buf.putInt(MAGIC).putInt(VERSION).putInt(m).putInt(size).putInt(levels);
+			for (int e : levelEnd) buf.putInt(e);
+			for (int i = 0; i < total; i++) {
+				buf.putDouble(tree[4 * i]).putDouble(tree[4 * i + 1])
+						.putDouble(tree[4 * i + 2]).putDouble(tree[4 * i + 3])
+						.putLong(payload[i]);
+			}
+			buf.flip();
+			return new SpatialIndex(buf);
+		}
+
+		/**
+		 * Sort the boxes from start to end in the STR order: slices of
+		 * <tt>s * m</tt> boxes by the longitude of the center, with
+		 * <tt>s</tt> the square root of the number of parent nodes, and each
+		 * slice by the latitude of the center.
+		 */
+		private static void sortTiles(double tree[], long payload[], int start, int end, int m) {
+			int n = end - start;
+			if (n <= m) return;
+			final double centerX[] = new double[n];
+			final double centerY[] = new double[n];
+			Integer order[] = new Integer[n];
+			for (int i = 0; i < n; i++) {
+				int b = 4 * (start + i);
+				centerX[i] = (tree[b] + tree[b + 2]) / 2;
+				centerY[i] = (tree[b + 1] + tree[b + 3]) / 2;
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Double.compare(centerX[a], centerX[b]);
+				}
+			});
+			int parents = (n + m - 1) / m;
+			int sliceSize = m * (int) Math.ceil(Math.sqrt(parents));
+			Comparator<Integer> byY = new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Double.compare(centerY[a], centerY[b]);
+				}
+			};
+			for (int s = 0; s < n; s += sliceSize) {
+				Arrays.sort(order, s, Math.min(s + sliceSize, n), byY);
+			}
+			double sortedTree[] = new double[4 * n];
+			long sortedPayload[] = new long[n];
+			for (int i = 0; i < n; i++) {
+				int from = order[i];
+				System.arraycopy(tree, 4 * (start + from), sortedTree, 4 * i, 4);
+				sortedPayload[i] = payload[start + from];
+			}
+			System.arraycopy(sortedTree, 0, tree, 4 * start, 4 * n);
+			System.arraycopy(sortedPayload, 0, payload, start, n);
+		}
+	}
+
+	private SpatialIndex(ByteBuffer buffer) {
+		this.buffer = buffer;
+		if (buffer.remaining() < 20 || buffer.getInt(0) != MAGIC)
+			throw new IllegalArgumentException("Not a spatial index");
+		if (buffer.getInt(4) != VERSION)
+			throw new IllegalArgumentException("Unsupported spatial index version " + buffer.getInt(4));
+		nodeCapacity = buffer.getInt(8);
+		size = buffer.getInt(12);
+		int levels = buffer.getInt(16);
+		if (levels < 1 || buffer.remaining() < 4 * (5 + levels))
+			throw new IllegalArgumentException("Not a spatial index");
+		levelEnd = new int[levels];
+		for (int i = 0; i < levels; i++) {
+			levelEnd[i] = buffer.getInt(20 + 4 * i);
+		}
+		base = 4 * (5 + levels);
+		if (buffer.remaining() < base + (long) levelEnd[levels - 1] * BOX_SIZE)
+			throw new IllegalArgumentException("Spatial index is truncated");
+	}
+
+	/**
+	 * Open an index written by {@link #write(File)}. The file is memory
+	 * mapped and not read into the heap.
+	 *
+	 * @param file the file, never <code>null</code>
+	 * @return the index, never <code>null</code>
+	 * @throws IOException if an error occurs reading the file or it is not
+	 *                     an index
+	 */
+	@NonNull
+	public static SpatialIndex open(File file) throws IOException {
+		return open(file, 0);
+	}
+
+	/**
+	 * Open an index written by {@link #write(OutputStream)} after other data
+	 * in a file. The file is memory mapped and not read into the heap.
+	 *
+	 * @param file     the file, never <code>null</code>
+	 * @param position the position of the index in the file
+	 * @return the index, never <code>null</code>
+	 * @throws IOException if an error occurs reading the file or there is no
+	 *                     index at the position
+	 */
+	@NonNull
+	public static SpatialIndex open(File file, long position) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (position < 0 || position > channel.size())
+				throw new IOException(file + ": no spatial index at " + position);
+			return new SpatialIndex(channel.map(FileChannel.MapMode.READ_ONLY, position,
+					channel.size() - position));
+		} catch (IllegalArgumentException e) {
+			throw new IOException(file + ": " + e.getMessage());
+		} finally {
+			// the mapping stays valid after the file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Write the index to a file.
+	 *
+	 * @param file the file, never <code>null</code>
+	 * @throws IOException if an error occurs writing the file
+	 */
+	public void write(File file) throws IOException {
+		OutputStream os = new FileOutputStream(file);
+		try {
+			write(os);
+		} finally {
+			IOUtils.closeQuietly(os);
+		}
+	}
+
+	/**
+	 * Write the index to a stream.
+	 *
+	 * @param out the stream, never <code>null</code>
+	 * @throws IOException if an error occurs writing the stream
+	 */
+	public void write(OutputStream out) throws IOException {
+		ByteBuffer buf = buffer.duplicate();
+		byte bytes[] = new byte[8192];
+		while (buf.hasRemaining()) {
+			int n = Math.min(bytes.length, buf.remaining());
+			buf.get(bytes, 0, n);
+			out.write(bytes, 0, n);
+		}
+	}
+
+	/**
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Find the entries whose bounds intersect a bounding box, including
+	 * bounds that only touch it.
+	 *
+	 * @param bbox the bounding box, never <code>null</code>
+	 * @return the ids of the entries in ascending order without duplicates
+	 * @throws IllegalArgumentException if bbox is null
+	 */
+	@NonNull
+	public long[] query(Geodetic2DBounds bbox) {
+		if (bbox == null)
+			throw new IllegalArgumentException("bbox should never be null");
+		double west = bbox.getWestLon().inDegrees();
+		double east = bbox.getEastLon().inDegrees();
+		double south = bbox.getSouthLat().inDegrees();
+		double north = bbox.getNorthLat().inDegrees();
+		LongList result = new LongList();
+		if (west > east) {
+			query(west, south, 180, north, result);
+			query(-180, south, east, north, result);
+		} else {
+			query(west, south, east, north, result);
+		}
+		return result.toSortedUniqueArray();
+	}
+
+	private void query(double west, double south, double east, double north, LongList result) {
+		int levels = levelEnd.length;
+		int root = levelEnd[levels - 1] - 1;
+		if (root < 0) return;
+		if (levels == 1) {
+			if (intersects(root, west, south, east, north)) result.add(getPayload(root));
+			return;
+		}
+		// stack of node positions and levels
+		int stack[] = new int[2 * levels * nodeCapacity];
+		int top = 0;
+		stack[top++] = root;
+		stack[top++] = levels - 1;
+		while (top > 0) {
+			int level = stack[--top];
+			int node = stack[--top];
+			int child = (int) getPayload(node);
+			int last = Math.min(child + nodeCapacity, levelEnd[level - 1]);
+			for (; child < last; child++) {
+				if (!intersects(child, west, south, east, north)) continue;
+				if (level == 1) {
+					result.add(getPayload(child));
+				} else {
+					stack[top++] = child;
+					stack[top++] = level - 1;
+				}
+			}
+		}
+	}
+
+	private boolean intersects(int box, double west, double south, double east, double north) {
+		int pos = base + box * BOX_SIZE;
+		return buffer.getDouble(pos) <= east && buffer.getDouble(pos + 16) >= west
+				&& buffer.getDouble(pos + 8) <= north && buffer.getDouble(pos + 24) >= south;
+	}
+
+	private long getPayload(int box) {
+		return buffer.getLong(base + box * BOX_SIZE + 32);
+	}
+
+	/**
+	 * Find the entries nearest to a point. Distance is in degrees to the
+	 * nearest point of the bounds of an entry, taking longitude differences
+	 * the short way around the globe, so it is 0 for bounds that contain the
+	 * point.
+	 *
+	 * @param point the point, never <code>null</code>
+	 * @param k     the number of entries to find
+	 * @return the ids of up to <code>k</code> entries, nearest first and by
+	 *         ascending id for equal distances
+	 * @throws IllegalArgumentException if point is null or k is negative
+	 */
+	@NonNull
+	public long[] nearest(Geodetic2DPoint point, int k) {
+		if (point == null)
+			throw new IllegalArgumentException("point should never be null");
+		if (k < 0)
+			throw new IllegalArgumentException("k must not be negative");
+		double x = point.getLongitude().inDegrees();
+		double y = point.getLatitude().inDegrees();
+		int levels = levelEnd.length;
+		int root = levelEnd[levels - 1] - 1;
+		LongList result = new LongList();
+		if (root < 0 || k == 0) return result.toArray();
+		// best first search, entries are ordered by distance then id
+		PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+		queue.add(new Candidate(distance(root, x, y), levels - 1, root, levels == 1 ? getPayload(root) : 0));
+		Set<Long> found = new HashSet<Long>();
+		Candidate c;
+		while ((c = queue.poll()) != null) {
+			if (c.level == 0) {
+				// antimeridian crossing entries are found twice
+				if (found.add(c.id)) {
+					result.add(c.id);
+					if (result.size() == k) break;
+				}
+				continue;
+			}
+			int child = (int) getPayload(c.box);
+			int last = Math.min(child + nodeCapacity, levelEnd[c.level - 1]);
+			for (; child < last; child++) {
+				queue.add(new Candidate(distance(child, x, y), c.level - 1, child,
+						c.level == 1 ? getPayload(child) : 0));
+			}
+		}
+		return result.toArray();
+	}
+
+	private double distance(int box, double x, double y) {
+		int pos = base + box * BOX_SIZE;
+		double west = buffer.getDouble(pos);
+		double south = buffer.getDouble(pos + 8);
+		double east = buffer.getDouble(pos + 16);
+		double north = buffer.getDouble(pos + 24);
+		double dx = 0;
+		if (x < west || x > east) {
+			double toWest = west - x;
+			if (toWest < 0) toWest += 360;
+			double toEast = x - east;
+			if (toEast < 0) toEast += 360;
+			dx = Math.min(toWest, toEast);
+		}
+		double dy = y < south ? south - y : y > north ? y - north : 0;
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	private static class Candidate implements Comparable<Candidate> {
+		final double distance;
+		final int level;
+		final int box;
+		final long id;
+
+		Candidate(double distance, int level, int box, long id) {
+			this.distance = distance;
+			this.level = level;
+			this.box = box;
+			this.id = id;
+		}
+
+		public int compareTo(Candidate o) {
+			int cmp = Double.compare(distance, o.distance);
+			if (cmp != 0) return cmp;
+			// nodes before entries at the same distance so all tied entries are
+			// queued before the first is taken
+			if (level != o.level) return level == 0 ? 1 : o.level == 0 ? -1 : 0;
+			return id < o.id ? -1 : id > o.id ? 1 : 0;
+		}
+	}
+
+	/**
+	 * A growable array of longs
+	 */
+	private static class LongList {
+		private long values[] = new long[16];
+		private int count;
+
+		void add(long value) {
+			if (count == values.length) values = Arrays.copyOf(values, 2 * count);
+			values[count++] = value;
+		}
+
+		int size() {
+			return count;
+		}
+
+		long[] toArray() {
+			return Arrays.copyOf(values, count);
+		}
+
+		long[] toSortedUniqueArray() {
+			Arrays.sort(values, 0, count);
+			int n = 0;
+			for (int i = 0; i < count; i++) {
+				if (n == 0 || values[i] != values[n - 1]) values[n++] = values[i];
+			}
+			return Arrays.copyOf(values, n);
+		}
+	}
+}
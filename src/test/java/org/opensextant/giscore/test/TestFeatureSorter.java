@@ -18,12 +18,17 @@
  ***************************************************************************************/
 package org.opensextant.giscore.test;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.Assert;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
+import org.opensextant.giscore.GISFactory;
 import org.opensextant.giscore.events.Feature;
 import org.opensextant.giscore.events.Schema;
 import org.opensextant.giscore.events.SimpleField;
@@ -150,4 +155,45 @@ public class TestFeatureSorter extends TestGISBase {
 		Assert.assertEquals(60, totalcount);
 		sorter.cleanup(); // Delete temp files
 	}
+
+	@Test
+	public void testManyKeys() throws Exception {
+		final int paths = 500;
+		File dir = new File(tempdir, "spill" + System.nanoTime());
+		Assert.assertTrue(dir.mkdirs());
+		GISFactory.spillDirectory.set(dir);
+		try {
+			// small budget so most of the buffers are spilled
+			FeatureSorter sorter = new FeatureSorter(false, 64 * 1024);
+			String names[] = {"hole", "distance"};
+			Map<String, List<Feature>> expected = new HashMap<String, List<Feature>>();
+			for (int i = 0; i < 10 * paths; i++) {
+				String path = "folder" + (i % paths);
+				Feature f = createFeature(Line.class, names, new Object[] { i, i * 10 });
+				List<Feature> features = expected.get(path);
+				if (features == null) {
+					features = new ArrayList<Feature>();
+					expected.put(path, features);
+				}
+				features.add(f);
+				sorter.add(f, path);
+			}
+			// one spill file is shared by all the buffers
+			Assert.assertEquals(1, dir.list().length);
+			sorter.close();
+			Assert.assertEquals(paths, sorter.keys().size());
+			for (FeatureKey key : sorter.keys()) {
+				ObjectBuffer buffer = sorter.getBuffer(key);
+				for (Feature f : expected.get(key.getPath())) {
+					Assert.assertEquals(f, buffer.read());
+				}
+				Assert.assertNull(buffer.read());
+			}
+			sorter.cleanup();
+			Assert.assertEquals(0, dir.list().length);
+		} finally {
+			GISFactory.spillDirectory.set(null);
+			FileUtils.deleteDirectory(dir);
+		}
+	}
 }
@@ -12,11 +12,13 @@ import org.opensextant.geodesy.Angle;
 import org.opensextant.geodesy.Geodetic2DBounds;
 import org.opensextant.geodesy.Geodetic2DPoint;
 import org.opensextant.geodesy.Geodetic3DBounds;
+import org.opensextant.geodesy.Geodetic3DPoint;
 import org.opensextant.geodesy.Latitude;
 import org.opensextant.geodesy.Longitude;
 import org.opensextant.geodesy.MGRS;
 import org.opensextant.giscore.events.AltitudeModeEnumType;
 import org.opensextant.giscore.geometry.Circle;
+import org.opensextant.giscore.geometry.CoordinateSequence;
 import org.opensextant.giscore.geometry.Geometry;
 import org.opensextant.giscore.geometry.GeometryBag;
 import org.opensextant.giscore.geometry.Line;
@@ -32,6 +34,7 @@ import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
@@ -605,4 +608,92 @@ public class TestBaseGeometry extends TestGISBase {
         assertTrue(bounds.intersects(bbox));
         assertTrue(bbox.intersects(bounds));
     }
+
+    @Test
+    public void testCoordinateSequence() {
+        List<Point> pts = new ArrayList<Point>(5);
+        final Point firstPt = new Point(10.5, 20.25, 100.0);
+        pts.add(firstPt);
+        pts.add(new Point(10.5, 30.0, 200.0));
+        pts.add(new Point(5.5, 30.0, 300.0));
+        pts.add(new Point(5.5, 180.0, 400.0)); // normalized to -180
+        pts.add(firstPt);
+
+        CoordinateSequence.Builder builder = new CoordinateSequence.Builder(2);
+        for (Point pt : pts) {
+            Geodetic2DPoint gp = pt.asGeodetic2DPoint();
+            builder.add(gp.getLongitudeAsDegrees(), gp.getLatitudeAsDegrees(),
+                    ((Geodetic3DPoint) gp).getElevation());
+        }
+        CoordinateSequence coords = builder.build();
+        assertEquals(5, coords.size());
+        assertTrue(coords.is3D());
+        assertTrue(coords.isClosed());
+        assertEquals(-180.0, coords.getLongitude(3), EPSILON);
+        assertEquals(300.0, coords.getElevation(2), EPSILON);
+        assertEquals(coords, CoordinateSequence.fromPoints(pts));
+
+        Line line = new Line(pts);
+        Line packedLine = new Line(coords);
+        assertEquals(line.getPoints(), packedLine.getPoints());
+        assertEquals(line, packedLine);
+        assertEquals(line.hashCode(), packedLine.hashCode());
+        assertEquals(line.getBoundingBox(), packedLine.getBoundingBox());
+        assertEquals(line.clippedAtDateLine(), packedLine.clippedAtDateLine());
+        assertTrue(packedLine.is3D());
+        assertSame(coords, packedLine.getCoordinates());
+
+        LinearRing ring = new LinearRing(pts, true);
+        LinearRing packedRing = new LinearRing(coords, true);
+        assertEquals(ring, packedRing);
+        assertEquals(ring.getBoundingBox(), packedRing.getBoundingBox());
+        assertEquals(ring.clockwise(), packedRing.clockwise());
+        assertFalse(packedRing.clockwise() == new LinearRing(coords.reverse()).clockwise());
+
+        MultiPoint mp = new MultiPoint(pts);
+        MultiPoint packedMp = new MultiPoint(coords);
+        assertEquals(mp, packedMp);
+        assertEquals(mp.getBoundingBox(), packedMp.getBoundingBox());
+        assertEquals(pts.get(1), packedMp.getPart(1));
+    }
+
+    @Test
+    public void testCoordinateSequenceRing() {
+        // open ring is closed
+        CoordinateSequence coords = CoordinateSequence.fromDegrees(new double[] {
+                0, 0, 0, 10, 10, 10, 10, 0 }, false);
+        LinearRing ring = new LinearRing(coords);
+        assertEquals(5, ring.getNumPoints());
+        assertEquals(ring.getPoints().get(0), ring.getPoints().get(4));
+        assertTrue(ring.clockwise());
+        assertTrue(ring.contains(new Geodetic2DPoint(new Longitude(5, Angle.DEGREES),
+                new Latitude(5, Angle.DEGREES))));
+        assertFalse(ring.contains(new Geodetic2DPoint(new Longitude(15, Angle.DEGREES),
+                new Latitude(5, Angle.DEGREES))));
+
+        LinearRing inner = new LinearRing(CoordinateSequence.fromDegrees(new double[] {
+                2, 2, 4, 2, 4, 4, 2, 4, 2, 2 }, false));
+        assertTrue(ring.contains(inner));
+        assertTrue(ring.intersects(inner));
+        assertFalse(ring.overlaps(inner));
+
+        // mixed dimensions are downgraded to 2d
+        CoordinateSequence mixed = new CoordinateSequence.Builder()
+                .add(1, 2, 3).add(4, 5).build();
+        assertFalse(mixed.is3D());
+        assertFalse(new Line(mixed).is3D());
+
+        try {
+            CoordinateSequence.fromDegrees(new double[] { 0, 95 }, false);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new Line(CoordinateSequence.fromDegrees(new double[] { 0, 45 }, false));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
 }
@@ -0,0 +1,254 @@
+/****************************************************************************************
+ *  TestPreparedPolygon.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.test.geometry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opensextant.geodesy.Angle;
+import org.opensextant.geodesy.Geodetic2DBounds;
+import org.opensextant.geodesy.Geodetic2DPoint;
+import org.opensextant.geodesy.Latitude;
+import org.opensextant.geodesy.Longitude;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.geometry.CoordinateSequence;
+import org.opensextant.giscore.geometry.Geometry;
+import org.opensextant.giscore.geometry.LinearRing;
+import org.opensextant.giscore.geometry.MultiPolygons;
+import org.opensextant.giscore.geometry.Polygon;
+import org.opensextant.giscore.geometry.PreparedMultiPolygons;
+import org.opensextant.giscore.geometry.PreparedPolygon;
+import org.opensextant.giscore.input.shapefile.SingleShapefileInputHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test that prepared polygons contain the same points as their rings and
+ * compare the time to classify points.
+ */
+public class TestPreparedPolygon {
+
+    private static final File shpdir = new File("data/shape");
+
+    @Test
+    public void testPolygonWithHoles() {
+        Random random = new Random(1000);
+        for (int i = 0; i < 200; i++) {
+            Polygon polygon = createPolygon(random, random.nextDouble() * 100 - 50, random.nextDouble() * 60 - 30);
+            PreparedPolygon prepared = new PreparedPolygon(polygon);
+            double lonLat[] = createPoints(random, polygon, 500);
+            boolean results[] = new boolean[lonLat.length / 2];
+            int count = prepared.containsAll(lonLat, results);
+            int expected = 0;
+            for (int j = 0; j < results.length; j++) {
+                Geodetic2DPoint p = point(lonLat[2 * j], lonLat[2 * j + 1]);
+                boolean in = contains(polygon, p);
+                assertEquals(in, prepared.contains(p));
+                assertEquals(in, results[j]);
+                if (in) expected++;
+            }
+            assertEquals(expected, count);
+            assertEquals(expected, prepared.containsAll(lonLat, null));
+        }
+    }
+
+    @Test
+    public void testMultiPolygons() throws Exception {
+        List<Polygon> polygons = new ArrayList<Polygon>();
+        Random random = new Random(2000);
+        for (int i = 0; i < 50; i++) {
+            polygons.add(createPolygon(random, random.nextDouble() * 300 - 150, random.nextDouble() * 140 - 70));
+        }
+        MultiPolygons mp = new MultiPolygons(polygons);
+        PreparedMultiPolygons prepared = new PreparedMultiPolygons(mp);
+        double lonLat[] = createPoints(random, mp, 20000);
+        int count = 0;
+        for (int j = 0; j < lonLat.length / 2; j++) {
+            Geodetic2DPoint p = point(lonLat[2 * j], lonLat[2 * j + 1]);
+            boolean in = contains(mp, p);
+            assertEquals(in, prepared.contains(p));
+            if (in) count++;
+        }
+        assertTrue(count > 0);
+        assertEquals(count, prepared.containsAll(lonLat, null));
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        PreparedPolygon prepared = new PreparedPolygon(createPolygon(new Random(1000), 0, 0));
+        assertFalse(prepared.contains(point(90, 0)));
+        try {
+            prepared.containsAll(new double[3], null);
+            fail("Expected to throw IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            prepared.containsAll(new double[4], new boolean[1]);
+            fail("Expected to throw IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new PreparedMultiPolygons(null);
+            fail("Expected to throw IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Compare the time to classify points against the polygons of the
+     * sample shapefiles with the rings and with the prepared polygons.
+     */
+    @Test
+    public void testThroughput() throws Exception {
+        for (String name : new String[] { "afghanistan", "counties67" }) {
+            List<MultiPolygons> shapes = new ArrayList<MultiPolygons>();
+            SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, name);
+            try {
+                IGISObject ob;
+                while ((ob = handler.read()) != null) {
+                    if (!(ob instanceof Feature)) continue;
+                    Geometry geo = ((Feature) ob).getGeometry();
+                    if (geo instanceof MultiPolygons) {
+                        shapes.add((MultiPolygons) geo);
+                    } else if (geo instanceof Polygon) {
+                        shapes.add(new MultiPolygons(Collections.singletonList((Polygon) geo)));
+                    }
+                }
+            } finally {
+                handler.close();
+            }
+            Random random = new Random(1000);
+            long ringTime = 0;
+            long preparedTime = 0;
+            int points = 0;
+            for (MultiPolygons mp : shapes) {
+                double lonLat[] = createPoints(random, mp, 20000);
+                points += lonLat.length / 2;
+                long start = System.nanoTime();
+                int expected = 0;
+                for (int j = 0; j < lonLat.length / 2; j++) {
+                    if (contains(mp, point(lonLat[2 * j], lonLat[2 * j + 1]))) expected++;
+                }
+                ringTime += System.nanoTime() - start;
+                start = System.nanoTime();
+                int count = new PreparedMultiPolygons(mp).containsAll(lonLat, null);
+                preparedTime += System.nanoTime() - start;
+                assertEquals(expected, count);
+            }
+            System.out.printf("%s: %d points in %d shapes, rings %d ms, prepared %d ms%n",
+                    name, points, shapes.size(), ringTime / 1000000, preparedTime / 1000000);
+        }
+    }
+
+    private static boolean contains(MultiPolygons mp, Geodetic2DPoint p) {
+        for (Polygon polygon : mp) {
+            if (contains(polygon, p)) return true;
+        }
+        return false;
+    }
+
+    private static boolean contains(Polygon polygon, Geodetic2DPoint p) {
+        if (!polygon.getOuterRing().contains(p)) return false;
+        for (LinearRing ring : polygon) {
+            if (ring.contains(p)) return false;
+        }
+        return true;
+    }
+
+    private static Geodetic2DPoint point(double lon, double lat) {
+        return new Geodetic2DPoint(new Longitude(lon, Angle.DEGREES), new Latitude(lat, Angle.DEGREES));
+    }
+
+    /**
+     * @return random points in and around the bounding box, and the vertices
+     */
+    private static double[] createPoints(Random random, Geometry geo, int n) {
+        Geodetic2DBounds bbox = geo.getBoundingBox();
+        double west = bbox.getWestLon().inDegrees();
+        double east = bbox.getEastLon().inDegrees();
+        double south = bbox.getSouthLat().inDegrees();
+        double north = bbox.getNorthLat().inDegrees();
+        List<double[]> vertices = new ArrayList<double[]>();
+        List<LinearRing> rings = new ArrayList<LinearRing>();
+        for (int i = 0; i < geo.getNumParts(); i++) {
+            Geometry part = geo.getPart(i);
+            if (part instanceof Polygon) {
+                rings.add(((Polygon) part).getOuterRing());
+                rings.addAll(((Polygon) part).getLinearRings());
+            } else if (part instanceof LinearRing) {
+                rings.add((LinearRing) part);
+            }
+        }
+        for (LinearRing ring : rings) {
+            CoordinateSequence c = ring.getCoordinates();
+            for (int i = 0; i < c.size(); i++) {
+                vertices.add(new double[] { c.getLongitude(i), c.getLatitude(i) });
+            }
+        }
+        double lonLat[] = new double[2 * n];
+        for (int i = 0; i < n; i++) {
+            if (i % 10 == 0 && !vertices.isEmpty()) {
+                double v[] = vertices.get(random.nextInt(vertices.size()));
+                lonLat[2 * i] = v[0];
+                lonLat[2 * i + 1] = v[1];
+            } else {
+                double dx = (east - west) * 0.1;
+                double dy = (north - south) * 0.1;
+                lonLat[2 * i] = west - dx + random.nextDouble() * (east - west + 2 * dx);
+                lonLat[2 * i + 1] = Math.max(-90, Math.min(90,
+                        south - dy + random.nextDouble() * (north - south + 2 * dy)));
+            }
+        }
+        return lonLat;
+    }
+
+    /**
+     * @return a polygon with a star shaped outer ring and holes
+     */
+    private static Polygon createPolygon(Random random, double x, double y) {
+        LinearRing outer = new LinearRing(createRing(random, 50, x, y, 10));
+        List<LinearRing> holes = new ArrayList<LinearRing>();
+        for (int i = 0; i < 4; i++) {
+            holes.add(new LinearRing(createRing(random, 10, x + random.nextDouble() * 8 - 4,
+                    y + random.nextDouble() * 8 - 4, 1 + random.nextDouble()).reverse()));
+        }
+        return new Polygon(outer, holes);
+    }
+
+    private static CoordinateSequence createRing(Random random, int n, double x, double y, double radius) {
+        double lonLat[] = new double[2 * n + 2];
+        for (int i = 0; i < n; i++) {
+            // clockwise
+            double angle = -2 * Math.PI * i / n;
+            double r = radius * (0.5 + random.nextDouble() / 2);
+            lonLat[2 * i] = x + r * Math.cos(angle);
+            lonLat[2 * i + 1] = y + r * Math.sin(angle);
+        }
+        lonLat[2 * n] = lonLat[0];
+        lonLat[2 * n + 1] = lonLat[1];
+        return CoordinateSequence.fromDegrees(lonLat, false);
+    }
+}
@@ -0,0 +1,256 @@
+/****************************************************************************************
+ *  TestRingTopology.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.test.geometry;
+
+import java.awt.geom.Line2D;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.geometry.CoordinateSequence;
+import org.opensextant.giscore.geometry.Geometry;
+import org.opensextant.giscore.geometry.LinearRing;
+import org.opensextant.giscore.geometry.MultiPolygons;
+import org.opensextant.giscore.geometry.Polygon;
+import org.opensextant.giscore.input.shapefile.SingleShapefileInputHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that ring and polygon topology validation gives the same result as
+ * testing all pairs of segments, and compare the time taken for the polygons
+ * of the sample shapefiles.
+ */
+public class TestRingTopology {
+
+    private static final File shpdir = new File("data/shape");
+
+    @Test
+    public void testInvalidRings() {
+        // bow tie
+        assertFalse(isValid(0, 0, 1, 1, 1, 0, 0, 1, 0, 0));
+        // touches itself at a vertex
+        assertFalse(isValid(0, 0, 2, 0, 2, 2, 1, 0, 0, 2, 0, 0));
+        // three points on a line
+        assertFalse(isValid(0, 0, 1, 0, 2, 0, 2, 2, 0, 0));
+        // closing segment on a line with the first
+        assertFalse(isValid(0, 0, 1, 0, 1, 1, -1, 0, 0, 0));
+        // not closed
+        assertFalse(isValid(0, 0, 1, 0, 1, 1, 0, 1));
+        assertTrue(isValid(0, 0, 0, 1, 1, 2, 2, 1, 1, 0, 0, 0));
+    }
+
+    @Test
+    public void testSameAsPairwise() {
+        Random random = new Random(1000);
+        for (int i = 0; i < 2000; i++) {
+            CoordinateSequence ring = createRing(random, random.nextInt(40), 0, 0, 10, i % 2 == 0);
+            assertEquals(pairwiseValid(ring), isValid(ring));
+        }
+        for (int i = 0; i < 500; i++) {
+            // clockwise outer ring and counter-clockwise holes, which may cross
+            CoordinateSequence outer = createRing(random, 100, 0, 0, 10, false);
+            List<CoordinateSequence> holes = new ArrayList<CoordinateSequence>();
+            int n = random.nextInt(8);
+            for (int j = 0; j < n; j++) {
+                holes.add(createRing(random, 20, random.nextDouble() * 14 - 7,
+                        random.nextDouble() * 14 - 7, 0.5 + random.nextDouble() * 3, false).reverse());
+            }
+            assertEquals(pairwiseValid(outer, holes), isValid(outer, holes));
+        }
+    }
+
+    /**
+     * Compare the time to validate the polygons of the sample shapefiles and
+     * a large ring with the time to test all pairs of segments.
+     */
+    @Test
+    public void testThroughput() throws Exception {
+        List<Polygon> polygons = new ArrayList<Polygon>();
+        for (String name : new String[] { "afghanistan", "Iraq", "counties67", "polys", "multipolys" }) {
+            SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, name);
+            try {
+                IGISObject ob;
+                while ((ob = handler.read()) != null) {
+                    if (!(ob instanceof Feature)) continue;
+                    Geometry geo = ((Feature) ob).getGeometry();
+                    if (geo instanceof Polygon) {
+                        polygons.add((Polygon) geo);
+                    } else if (geo instanceof MultiPolygons) {
+                        polygons.addAll(((MultiPolygons) geo).getPolygons());
+                    }
+                }
+            } finally {
+                handler.close();
+            }
+        }
+        List<CoordinateSequence> outers = new ArrayList<CoordinateSequence>();
+        List<List<CoordinateSequence>> holes = new ArrayList<List<CoordinateSequence>>();
+        int points = 0;
+        for (Polygon p : polygons) {
+            outers.add(p.getOuterRing().getCoordinates());
+            List<CoordinateSequence> inner = new ArrayList<CoordinateSequence>();
+            for (LinearRing ring : p.getLinearRings()) {
+                inner.add(ring.getCoordinates());
+            }
+            holes.add(inner);
+            points += p.getNumPoints();
+        }
+        // add a large ring
+        outers.add(createRing(new Random(1000), 20000, 0, 0, 10, false));
+        holes.add(new ArrayList<CoordinateSequence>());
+        points += 20000;
+
+        boolean valid[] = new boolean[outers.size()];
+        long start = System.nanoTime();
+        for (int i = 0; i < outers.size(); i++) {
+            valid[i] = isValid(outers.get(i), holes.get(i));
+        }
+        long sweep = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < outers.size(); i++) {
+            assertEquals(valid[i], pairwiseValid(outers.get(i), holes.get(i)));
+        }
+        long pairwise = System.nanoTime() - start;
+        System.out.printf("Validated %d polygons with %d points: sweep %d ms, all pairs %d ms%n",
+                outers.size(), points, sweep / 1000000, pairwise / 1000000);
+    }
+
+    private static boolean isValid(double... lonLat) {
+        return isValid(CoordinateSequence.fromDegrees(lonLat, false));
+    }
+
+    private static boolean isValid(CoordinateSequence ring) {
+        try {
+            new LinearRing(ring, true);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean isValid(CoordinateSequence outer, List<CoordinateSequence> holes) {
+        try {
+            List<LinearRing> rings = new ArrayList<LinearRing>();
+            for (CoordinateSequence hole : holes) {
+                rings.add(new LinearRing(hole, true));
+            }
+            new Polygon(new LinearRing(outer, true), rings, true);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create a ring around a center with random radii, which crosses itself
+     * if <code>shuffle</code> is true and two points are swapped.
+     */
+    private static CoordinateSequence createRing(Random random, int n, double x, double y,
+                                                 double radius, boolean shuffle) {
+        n += 3;
+        double lonLat[] = new double[2 * n + 2];
+        for (int i = 0; i < n; i++) {
+            // clockwise
+            double angle = -2 * Math.PI * i / n;
+            double r = radius * (0.5 + random.nextDouble() / 2);
+            lonLat[2 * i] = x + r * Math.cos(angle);
+            lonLat[2 * i + 1] = y + r * Math.sin(angle);
+        }
+        if (shuffle) {
+            int i = random.nextInt(n);
+            int j = random.nextInt(n);
+            double swap[] = { lonLat[2 * i], lonLat[2 * i + 1] };
+            lonLat[2 * i] = lonLat[2 * j];
+            lonLat[2 * i + 1] = lonLat[2 * j + 1];
+            lonLat[2 * j] = swap[0];
+            lonLat[2 * j + 1] = swap[1];
+        }
+        lonLat[2 * n] = lonLat[0];
+        lonLat[2 * n + 1] = lonLat[1];
+        return CoordinateSequence.fromDegrees(lonLat, false);
+    }
+
+    /**
+     * Validate a ring by testing every pair of segments
+     */
+    private static boolean pairwiseValid(CoordinateSequence pts) {
+        int n = pts.size();
+        if (n < 4 || !pts.isClosed()) return false;
+        for (int i = 0; i < n - 2; i++) {
+            for (int j = i + 1; j < n - 1; j++) {
+                boolean inv;
+                if (j - i == 1) {
+                    inv = ptLineDist(pts, i, pts, j + 1) == 0.0;
+                } else if (i == 0 && j == n - 2) {
+                    inv = ptLineDist(pts, i, pts, j) == 0.0;
+                } else {
+                    inv = linesIntersect(pts, i, pts, j);
+                }
+                if (inv) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Validate a polygon by testing every pair of segments
+     */
+    private static boolean pairwiseValid(CoordinateSequence outer, List<CoordinateSequence> holes) {
+        if (!pairwiseValid(outer) || !clockwise(outer)) return false;
+        for (int i = 0; i < holes.size(); i++) {
+            CoordinateSequence hole = holes.get(i);
+            if (!pairwiseValid(hole) || clockwise(hole)) return false;
+            if (overlaps(outer, hole) || !new LinearRing(outer).contains(
+                    hole.getPoint(0).asGeodetic2DPoint())) return false;
+            for (int j = i + 1; j < holes.size(); j++) {
+                if (overlaps(hole, holes.get(j))) return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean clockwise(CoordinateSequence c) {
+        return new LinearRing(c).clockwise();
+    }
+
+    private static boolean overlaps(CoordinateSequence c1, CoordinateSequence c2) {
+        for (int i = 0; i < c1.size() - 1; i++) {
+            for (int j = 0; j < c2.size() - 1; j++) {
+                if (linesIntersect(c1, i, c2, j)) return true;
+            }
+        }
+        return false;
+    }
+
+    private static double ptLineDist(CoordinateSequence c1, int i, CoordinateSequence c2, int j) {
+        return Line2D.ptLineDist(c1.getLongitudeRadians(i), c1.getLatitudeRadians(i),
+                c1.getLongitudeRadians(i + 1), c1.getLatitudeRadians(i + 1),
+                c2.getLongitudeRadians(j), c2.getLatitudeRadians(j));
+    }
+
+    private static boolean linesIntersect(CoordinateSequence c1, int i, CoordinateSequence c2, int j) {
+        return Line2D.linesIntersect(c1.getLongitudeRadians(i), c1.getLatitudeRadians(i),
+                c1.getLongitudeRadians(i + 1), c1.getLatitudeRadians(i + 1),
+                c2.getLongitudeRadians(j), c2.getLatitudeRadians(j),
+                c2.getLongitudeRadians(j + 1), c2.getLatitudeRadians(j + 1));
+    }
+}
@@ -18,16 +18,29 @@
  ***************************************************************************************/
 package org.opensextant.giscore.test.input;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
 
 import org.junit.Test;
 import org.opensextant.giscore.events.IGISObject;
 import org.opensextant.giscore.events.Row;
 import org.opensextant.giscore.events.Schema;
+import org.opensextant.giscore.events.SimpleField;
+import org.opensextant.giscore.input.dbf.DbfColumnBatch;
 import org.opensextant.giscore.input.dbf.DbfInputStream;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class TestDbfInputStream {
@@ -91,4 +104,225 @@ public class TestDbfInputStream {
         }
     }
 
+    @Test
+    public void testProjection() throws Exception {
+        File file = new File("data/shape/MBTA.dbf");
+        List<Row> rows = readRows(new DbfInputStream(file, null));
+        DbfInputStream dbfs = new DbfInputStream(file, null);
+        dbfs.setProjection(Arrays.asList("SHAPE_LEN", "LINE"));
+        assertEquals("SHAPE_LEN", dbfs.getProjection().get(0).getName());
+        List<Row> projected = readRows(dbfs);
+        assertEquals(rows.size(), projected.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            Row p = projected.get(i);
+            assertEquals(2, p.getFields().size());
+            for (SimpleField field : p.getFields()) {
+                assertEquals(row.getData(field), p.getData(field));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadProjection() throws Exception {
+        DbfInputStream dbfs = new DbfInputStream(new File("data/shape/MBTA.dbf"), null);
+        try {
+            dbfs.setProjection(Arrays.asList("LINE", "NOSUCHFIELD"));
+        } finally {
+            dbfs.close();
+        }
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        for (String name : new String[]{"MBTA", "Iraq", "afghanistan", "counties67"}) {
+            File file = new File("data/shape/" + name + ".dbf");
+            checkBatch(readRows(new DbfInputStream(file, null)), new DbfInputStream(file, null));
+        }
+    }
+
+    /**
+     * Values decoded from the record bytes must equal those parsed from the
+     * trimmed text of each field.
+     */
+    @Test
+    public void testDecodeValues() throws Exception {
+        Random r = new Random(1234);
+        String[] names = {"D", "I", "S", "L", "T", "B"};
+        char[] types = {'N', 'N', 'N', 'N', 'D', 'L'};
+        int[] lengths = {24, 9, 4, 18, 8, 1};
+        int[] decimals = {8, 0, 0, 0, 0, 0};
+        List<String[]> records = new ArrayList<String[]>();
+        String[] special = {"", "-0", "+12", "0.5", "-.25", "1.", "1e5", "*****", "007",
+                "99999", "-9999", "1234567890123456789", "0.1234567890123456789"};
+        for (String value : special) {
+            // '*' only means null in integer fields
+            records.add(new String[]{value.startsWith("*") ? "" : value, value.length() > 9 ? "" : value,
+                    value.length() > 4 ? "" : value, value.length() > 18 ? "" : value, "", "?"});
+        }
+        for (int i = 0; i < 2000; i++) {
+            double d = (r.nextDouble() - 0.5) * Math.pow(10, r.nextInt(12));
+            String dval = String.format("%." + r.nextInt(9) + "f", d);
+            records.add(new String[]{
+                    dval,
+                    Integer.toString(r.nextInt(200000000) - 10000000),
+                    Integer.toString(r.nextInt(10999) - 999),
+                    Long.toString(r.nextLong() % 100000000000000000L),
+                    String.format("%04d%02d%02d", 1900 + r.nextInt(200), r.nextInt(13), r.nextInt(32)),
+                    r.nextBoolean() ? "T" : "n"});
+        }
+        byte[] dbf = createDbf(names, types, lengths, decimals, records);
+        List<Row> rows = readRows(new DbfInputStream(new ByteArrayInputStream(dbf), null));
+        assertEquals(records.size(), rows.size());
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd");
+        fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            String[] values = records.get(i);
+            for (SimpleField field : row.getFields()) {
+                int col = Arrays.asList(names).indexOf(field.getName());
+                String text = values[col].trim();
+                Object value = row.getData(field);
+                if (text.length() == 0 || text.startsWith("*") || text.equals("?")) {
+                    assertNull(field.getName() + " " + text, value);
+                } else if (field.getType() == SimpleField.Type.DATE) {
+                    assertEquals(text, fmt.parse(text), value);
+                } else if (field.getType() == SimpleField.Type.BOOL) {
+                    assertEquals(text, text.equals("T"), value);
+                } else if (value instanceof Double) {
+                    assertEquals(text, Double.valueOf(text), value);
+                } else {
+                    assertEquals(text, Long.parseLong(text.startsWith("+") ? text.substring(1) : text),
+                            ((Number) value).longValue());
+                }
+            }
+        }
+        // SHORT fields holding larger values are widened as before
+        assertEquals(Integer.valueOf(99999), rows.get(9).getData(getField(rows.get(9), "D")));
+        assertEquals(Short.valueOf((short) 7), rows.get(8).getData(getField(rows.get(8), "S")));
+        // integer columns of a batch cannot hold the decimal values of the special cases
+        List<String[]> generated = records.subList(special.length, records.size());
+        dbf = createDbf(names, types, lengths, decimals, generated);
+        checkBatch(rows.subList(special.length, rows.size()),
+                new DbfInputStream(new ByteArrayInputStream(dbf), null));
+    }
+
+    private static SimpleField getField(Row row, String name) {
+        for (SimpleField field : row.getFields()) {
+            if (field.getName().equals(name)) return field;
+        }
+        return null;
+    }
+
+    private static void checkBatch(List<Row> rows, DbfInputStream dbfs) throws IOException {
+        try {
+            DbfColumnBatch batch = dbfs.createBatch(7);
+            int n;
+            int offset = 0;
+            while ((n = dbfs.readBatch(batch)) > 0) {
+                assertEquals(n, batch.size());
+                for (int i = 0; i < n; i++) {
+                    Row row = rows.get(offset + i);
+                    for (int col = 0; col < batch.getColumnCount(); col++) {
+                        SimpleField field = batch.getField(col);
+                        Object expected = row.getData(field);
+                        if (expected == null) {
+                            assertTrue(batch.isNull(col, i));
+                            continue;
+                        }
+                        assertTrue(!batch.isNull(col, i));
+                        switch (field.getType()) {
+                            case DOUBLE:
+                                assertEquals(((Number) expected).doubleValue(),
+                                        batch.getDoubleColumn(col)[i], 0);
+                                break;
+                            case DATE:
+                                assertEquals(((Date) expected).getTime(), batch.getLongColumn(col)[i]);
+                                break;
+                            case BOOL:
+                                assertEquals(expected, batch.getBooleanColumn(col)[i]);
+                                break;
+                            case STRING:
+                                assertEquals(expected, batch.getStringColumn(col)[i]);
+                                break;
+                            default:
+                                assertEquals(((Number) expected).longValue(), batch.getLongColumn(col)[i]);
+                        }
+                    }
+                }
+                offset += n;
+            }
+            assertEquals(rows.size(), offset);
+        } finally {
+            dbfs.close();
+        }
+    }
+
+    private static List<Row> readRows(DbfInputStream dbfs) throws IOException {
+        List<Row> rows = new ArrayList<Row>();
+        try {
+            IGISObject obj;
+            while ((obj = dbfs.read()) != null) {
+                if (obj instanceof Row) rows.add((Row) obj);
+            }
+        } finally {
+            dbfs.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Create a dBase III file with the given fields and text values, numbers
+     * right aligned and other values left aligned as written by ArcGIS.
+     */
+    private static byte[] createDbf(String[] names, char[] types, int[] lengths,
+                                    int[] decimals, List<String[]> records) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        int recordSize = 1;
+        for (int len : lengths) recordSize += len;
+        int headerLength = 32 + 32 * names.length + 1;
+        bos.write(3);
+        bos.write(114);
+        bos.write(1);
+        bos.write(1);
+        writeLE(bos, records.size(), 4);
+        writeLE(bos, headerLength, 2);
+        writeLE(bos, recordSize, 2);
+        bos.write(new byte[20], 0, 20);
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = new byte[11];
+            System.arraycopy(names[i].getBytes(), 0, name, 0, names[i].length());
+            bos.write(name, 0, name.length);
+            bos.write(types[i]);
+            bos.write(new byte[4], 0, 4);
+            bos.write(lengths[i]);
+            bos.write(decimals[i]);
+            bos.write(new byte[14], 0, 14);
+        }
+        bos.write(0x0d);
+        for (String[] values : records) {
+            bos.write(' ');
+            for (int i = 0; i < values.length; i++) {
+                String value = values[i];
+                StringBuilder sb = new StringBuilder(lengths[i]);
+                if (types[i] == 'N') {
+                    for (int j = value.length(); j < lengths[i]; j++) sb.append(' ');
+                    sb.append(value);
+                } else {
+                    sb.append(value);
+                    while (sb.length() < lengths[i]) sb.append(' ');
+                }
+                byte[] b = sb.toString().getBytes();
+                bos.write(b, 0, b.length);
+            }
+        }
+        bos.write(0x1a);
+        return bos.toByteArray();
+    }
+
+    private static void writeLE(ByteArrayOutputStream bos, int value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            bos.write((value >> (8 * i)) & 0xff);
+        }
+    }
 }
@@ -0,0 +1,348 @@
+/****************************************************************************************
+ *  TestGdbTableInputStream.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.test.input;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.junit.Test;
+import org.opensextant.geodesy.Geodetic2DBounds;
+import org.opensextant.giscore.IAcceptSchema;
+import org.opensextant.giscore.events.ContainerEnd;
+import org.opensextant.giscore.events.ContainerStart;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.events.Row;
+import org.opensextant.giscore.events.Schema;
+import org.opensextant.giscore.events.SimpleField;
+import org.opensextant.giscore.geometry.Geometry;
+import org.opensextant.giscore.geometry.Line;
+import org.opensextant.giscore.geometry.MultiLine;
+import org.opensextant.giscore.geometry.MultiPoint;
+import org.opensextant.giscore.geometry.MultiPolygons;
+import org.opensextant.giscore.geometry.Point;
+import org.opensextant.giscore.geometry.Polygon;
+import org.opensextant.giscore.input.gdb.GdbTable;
+import org.opensextant.giscore.input.gdb.GdbTableInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test reading the sample geodatabases without the FileGDB API. The
+ * feature classes of TestCrash.gdb and the multipoint and zvalues feature
+ * classes of Shapes.gdb are projected, their geometry is only read when
+ * geotools can transform their spatial reference to WGS84.
+ */
+public class TestGdbTableInputStream {
+
+	private static final File shapes = new File("data/gdb/Shapes.gdb");
+
+	private static final File ftest = new File("data/gdb/ftest1.gdb");
+
+	/**
+	 * Accept the named tables and keep every schema offered.
+	 */
+	static class NameAccept implements IAcceptSchema {
+		private final List<String> names;
+		final Map<String, Schema> offered = new HashMap<String, Schema>();
+
+		NameAccept(String... names) {
+			this.names = Arrays.asList(names);
+		}
+
+		public boolean accept(Schema schema) {
+			offered.put(schema.getName(), schema);
+			return names.contains(schema.getName());
+		}
+	}
+
+	@Test
+	public void testShapes() throws Exception {
+		NameAccept accept = new NameAccept("cities", "intrstat", "states", "cities2");
+		Map<String, List<Row>> rows = readAll(shapes, 1, accept);
+		assertEquals(4, rows.size());
+		assertEquals(new GdbTable(new File(shapes, "a00000012.gdbtable")).getRowCount(),
+				rows.get("cities").size());
+		assertEquals(3149, rows.get("cities").size());
+		assertEquals(233, rows.get("intrstat").size());
+		assertEquals(51, rows.get("states").size());
+		assertEquals(0, rows.get("cities2").size());
+
+		Schema cities = accept.offered.get("cities");
+		assertNotNull(cities.getOidField());
+		assertEquals(SimpleField.Type.STRING, cities.get("CITY_NAME").getType());
+		assertEquals(SimpleField.Type.SHORT, cities.get("ELEVATION").getType());
+		Feature bellingham = (Feature) rows.get("cities").get(0);
+		assertEquals("Bellingham", bellingham.getData(cities.get("CITY_NAME")));
+		assertEquals(1, bellingham.getData(cities.getOidField()));
+		Point p = (Point) bellingham.getGeometry();
+		assertEquals(-122.468, p.getCenter().getLongitude().inDegrees(), 1e-3);
+		assertEquals(48.744, p.getCenter().getLatitude().inDegrees(), 1e-3);
+
+		for (Row row : rows.get("intrstat")) {
+			Geometry geo = ((Feature) row).getGeometry();
+			assertTrue(geo instanceof Line || geo instanceof MultiLine);
+		}
+		Schema states = accept.offered.get("states");
+		Feature hawaii = (Feature) rows.get("states").get(0);
+		assertEquals("Hawaii", hawaii.getData(states.get("STATE_NAME")));
+		assertEquals(7, ((MultiPolygons) hawaii.getGeometry()).getNumParts());
+		assertTrue(((Feature) rows.get("states").get(2)).getGeometry() instanceof Polygon);
+		checkExtent(new File(shapes, "a00000014.gdbtable"), rows.get("states"));
+		checkExtent(new File(shapes, "a00000012.gdbtable"), rows.get("cities"));
+	}
+
+	@Test
+	public void testFtest() throws Exception {
+		Map<String, List<Row>> rows = readAll(ftest, 1, null);
+		assertEquals(7, rows.size());
+		assertEquals(1, rows.get("data").size());
+		assertTrue(rows.get("data").get(0).getClass() == Row.class);
+		assertEquals(20, rows.get("individual_dots_Point").size());
+		assertEquals(40, rows.get("geo_lines_Line").size());
+		Geometry multipoint = ((Feature) rows.get("multipoint_MultiPoint").get(0)).getGeometry();
+		assertEquals(10, ((MultiPoint) multipoint).getNumPoints());
+		Polygon poly = (Polygon) ((Feature) rows.get("poly2_Polygon").get(0)).getGeometry();
+		assertEquals(1, poly.getLinearRings().size());
+		String files[] = { "a0000000a", "a0000000b", "a0000000c", "a0000000d", "a0000000e", "a0000000f" };
+		String names[] = { "individual_dots_Point", "multipoint_MultiPoint", "geo_lines_Line",
+				"ring_LinearRing", "poly_Polygon", "poly2_Polygon" };
+		for (int i = 0; i < files.length; i++) {
+			checkExtent(new File(ftest, files[i] + ".gdbtable"), rows.get(names[i]));
+		}
+	}
+
+	/**
+	 * The EH sample lists a feature class whose gdbtable file is missing,
+	 * which is left out instead of failing.
+	 */
+	@Test
+	public void testMissingTable() throws Exception {
+		GdbTableInputStream gis = new GdbTableInputStream(new File("data/gdb/EH_20090331144528.gdb"),
+				new Object[] { new NameAccept("EHFC_20090331144528") });
+		try {
+			assertNull(gis.read());
+		} finally {
+			gis.close();
+		}
+	}
+
+	/**
+	 * Read the projected feature classes, with their geometry if it can be
+	 * transformed and otherwise check they are skipped by the stream and
+	 * read their attributes.
+	 */
+	@Test
+	public void testProjected() throws Exception {
+		File gdb = new File("data/gdb/TestCrash.gdb");
+		NameAccept accept = new NameAccept("Crash2009_11", "Crash2012");
+		Map<String, List<Row>> rows = readAll(gdb, 2, accept);
+		String files[] = { "a00000009", "a0000000a" };
+		String names[] = { "Crash2009_11", "Crash2012" };
+		int counts[] = { 674, 279 };
+		for (int i = 0; i < files.length; i++) {
+			GdbTable table = new GdbTable(new File(gdb, files[i] + ".gdbtable"));
+			assertTrue(table.hasGeometry());
+			assertTrue(table.getSpatialReference().startsWith("PROJCS"));
+			assertEquals(counts[i], table.getRowCount());
+			List<SimpleField> fields = table.getFields();
+			int lat = -1;
+			int lon = -1;
+			for (int j = 0; j < fields.size(); j++) {
+				// the geometry field is second
+				if (fields.get(j).getName().equals("LAT_DD")) lat = j + 1;
+				if (fields.get(j).getName().equals("LONGTD_DD")) lon = j + 1;
+			}
+			if (table.canReadGeometry()) {
+				Schema schema = accept.offered.get(names[i]);
+				assertEquals(new URI("uri:/" + names[i]), schema.getId());
+				assertEquals(SimpleField.Type.DATE, schema.get("CRASH_DT").getType());
+				assertEquals(counts[i], rows.get(names[i]).size());
+				for (Row row : rows.get(names[i])) {
+					Point p = (Point) ((Feature) row).getGeometry();
+					Double y = (Double) row.getData(schema.get("LAT_DD"));
+					Double x = (Double) row.getData(schema.get("LONGTD_DD"));
+					if (x != null && y != null) {
+						assertEquals(y, p.getCenter().getLatitude().inDegrees(), 0.01);
+						assertEquals(x, p.getCenter().getLongitude().inDegrees(), 0.01);
+					}
+				}
+			} else {
+				assertNull(rows.get(names[i]));
+				try {
+					table.readValues(1);
+					fail("Expected to throw IOException");
+				} catch (IOException e) {
+					// expected
+				}
+				int n = 0;
+				for (int id = 1; id <= table.getMaxObjectId(); id++) {
+					Object values[] = table.readValues(id, false);
+					if (values == null) continue;
+					n++;
+					assertNull(values[1]);
+					if (values[lat] != null) {
+						assertTrue(((Double) values[lat]) > 41 && ((Double) values[lat]) < 47);
+						assertTrue(((Double) values[lon]) > -125 && ((Double) values[lon]) < -116);
+					}
+				}
+				assertEquals(counts[i], n);
+			}
+		}
+
+		// the z values of a projected polyline
+		GdbTable zvalues = new GdbTable(new File(shapes, "a00000028.gdbtable"));
+		assertTrue(zvalues.hasZ());
+		if (zvalues.canReadGeometry()) {
+			Geometry geo = (Geometry) zvalues.readValues(1)[1];
+			assertTrue(geo.is3D());
+			assertTrue(geo.getNumPoints() > 0);
+		}
+		// the stream reads the rest of the geodatabase
+		rows = readAll(shapes, 1, null);
+		assertEquals(51, rows.get("states").size());
+		assertEquals(zvalues.canReadGeometry(), rows.containsKey("zvalues"));
+	}
+
+	@Test
+	public void testValues() throws Exception {
+		GdbTable catalog = new GdbTable(new File(shapes, "a00000001.gdbtable"));
+		assertEquals("GDB_SystemCatalog", catalog.readValues(1)[1]);
+		assertEquals("states", catalog.readValues(20)[1]);
+		assertNull(catalog.readValues(0));
+		assertNull(catalog.readValues(catalog.getMaxObjectId() + 1));
+		// a GUID
+		GdbTable items = new GdbTable(new File(shapes, "a00000004.gdbtable"));
+		String uuid = (String) items.readValues(1)[1];
+		assertTrue(uuid, uuid.matches("\\{[0-9A-F]{8}(-[0-9A-F]{4}){3}-[0-9A-F]{12}\\}"));
+		// a date, days since 1899-12-30
+		GdbTable crash = new GdbTable(new File("data/gdb/TestCrash.gdb/a00000009.gdbtable"));
+		int dateField = -1;
+		int i = 0;
+		for (SimpleField field : crash.getFields()) {
+			// the geometry field is second
+			if (field.getName().equals("CRASH_DT")) dateField = i + 1;
+			i++;
+		}
+		Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		cal.setTime((Date) crash.readValues(1, false)[dateField]);
+		assertEquals(2009, cal.get(Calendar.YEAR));
+		assertEquals(Calendar.JANUARY, cal.get(Calendar.MONTH));
+		assertEquals(5, cal.get(Calendar.DAY_OF_MONTH));
+	}
+
+	@Test
+	public void testParallel() throws Exception {
+		// the geographic feature classes of each sample
+		NameAccept shapesAccept = new NameAccept("cities", "intrstat", "states");
+		for (File gdb : new File[] { shapes, ftest }) {
+			IAcceptSchema accept = gdb == shapes ? shapesAccept : null;
+			List<IGISObject> sequential = readObjects(gdb, 1, accept);
+			List<IGISObject> parallel = readObjects(gdb, 3, accept);
+			assertEquals(sequential.size(), parallel.size());
+			for (int i = 0; i < sequential.size(); i++) {
+				IGISObject s = sequential.get(i);
+				IGISObject p = parallel.get(i);
+				assertEquals(s.getClass(), p.getClass());
+				if (s instanceof Row) {
+					assertEquals(s, p);
+				}
+			}
+		}
+	}
+
+	private static List<IGISObject> readObjects(File gdb, int threads, IAcceptSchema accept) throws Exception {
+		List<IGISObject> objects = new ArrayList<IGISObject>();
+		GdbTableInputStream gis = new GdbTableInputStream(gdb, threads, new Object[] { accept });
+		try {
+			IGISObject ob;
+			while ((ob = gis.read()) != null) {
+				objects.add(ob);
+			}
+		} finally {
+			gis.close();
+		}
+		return objects;
+	}
+
+	/**
+	 * Read a geodatabase checking the order of the schema, container and rows
+	 * of each table.
+	 *
+	 * @return the rows of each table by name
+	 */
+	private static Map<String, List<Row>> readAll(File gdb, int threads, IAcceptSchema accept) throws Exception {
+		Map<String, List<Row>> rows = new HashMap<String, List<Row>>();
+		List<Row> current = null;
+		Schema schema = null;
+		boolean features = false;
+		for (IGISObject ob : readObjects(gdb, threads, accept)) {
+			if (ob instanceof Schema) {
+				assertNull(current);
+				schema = (Schema) ob;
+				current = new ArrayList<Row>();
+				rows.put(schema.getName(), current);
+			} else if (ob instanceof ContainerStart) {
+				assertNotNull(schema);
+				assertEquals(schema.getId(), ((ContainerStart) ob).getSchema());
+			} else if (ob instanceof ContainerEnd) {
+				assertNotNull(current);
+				current = null;
+			} else {
+				Row row = (Row) ob;
+				assertNotNull(current);
+				assertEquals(schema.getId(), row.getSchema());
+				// tables come before feature classes
+				if (row instanceof Feature) features = true;
+				else assertTrue(!features);
+				current.add(row);
+			}
+		}
+		assertNull(current);
+		return rows;
+	}
+
+	/**
+	 * Check the features are inside the extent in the header of the table.
+	 */
+	private static void checkExtent(File file, List<Row> rows) throws Exception {
+		GdbTable table = new GdbTable(file);
+		assertEquals(table.getRowCount(), rows.size());
+		double extent[] = table.getExtent();
+		double tolerance = 1e-3 * Math.max(1, extent[2] - extent[0]);
+		for (Row row : rows) {
+			Geometry geo = ((Feature) row).getGeometry();
+			assertNotNull(geo);
+			Geodetic2DBounds bbox = geo.getBoundingBox();
+			assertTrue(file + " " + bbox, bbox.getWestLon().inDegrees() >= extent[0] - tolerance);
+			assertTrue(file + " " + bbox, bbox.getSouthLat().inDegrees() >= extent[1] - tolerance);
+			assertTrue(file + " " + bbox, bbox.getEastLon().inDegrees() <= extent[2] + tolerance);
+			assertTrue(file + " " + bbox, bbox.getNorthLat().inDegrees() <= extent[3] + tolerance);
+		}
+	}
+}
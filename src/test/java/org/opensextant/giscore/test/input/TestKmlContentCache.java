@@ -0,0 +1,175 @@
+/*
+ *  TestKmlContentCache.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ */
+package org.opensextant.giscore.test.input;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.input.kml.CachedContent;
+import org.opensextant.giscore.input.kml.DiskContentCache;
+import org.opensextant.giscore.input.kml.KmlReader;
+import org.opensextant.giscore.test.TestGISBase;
+import org.opensextant.giscore.test.utils.KmlLinkTestServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test caching NetworkLink content with conditional requests against a
+ * local HTTP server.
+ */
+public class TestKmlContentCache extends TestGISBase {
+
+	private static final int DOCUMENTS = 15;
+
+	private static KmlLinkTestServer server;
+
+	private File dir;
+
+	@BeforeClass
+	public static void oneTimeSetUp() throws Exception {
+		server = new KmlLinkTestServer(DOCUMENTS);
+		server.start();
+	}
+
+	@AfterClass
+	public static void oneTimeTearDown() throws Exception {
+		if (server != null) {
+			server.stop();
+			server = null;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		dir = new File(tempdir, "cache" + System.nanoTime());
+		server.setVersion(0);
+		server.reset();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (autoDelete) FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void testRevalidate() throws Exception {
+		DiskContentCache cache = new DiskContentCache(dir, 1 << 20);
+		List<IGISObject> expected = importAll(cache);
+		assertEquals(DOCUMENTS, cache.getMissCount());
+		// root document is fetched again by its self-link
+		assertEquals(1, cache.getHitCount());
+		assertEquals(DOCUMENTS, cache.getEntryCount());
+		assertEquals(1, server.getNotModifiedCount());
+
+		// unchanged content served from the cache
+		assertEquals(expected, importAll(cache));
+		assertEquals(DOCUMENTS, cache.getMissCount());
+		assertEquals(DOCUMENTS + 2, cache.getHitCount());
+		assertEquals(DOCUMENTS + 2, server.getNotModifiedCount());
+
+		// modified content is downloaded again
+		server.setVersion(1);
+		List<IGISObject> objects = importAll(cache);
+		assertEquals(expected.size(), objects.size());
+		assertTrue(!expected.equals(objects));
+		assertEquals(2 * DOCUMENTS, cache.getMissCount());
+		assertEquals(DOCUMENTS, cache.getEntryCount());
+	}
+
+	@Test
+	public void testPersistence() throws Exception {
+		DiskContentCache cache = new DiskContentCache(dir, 1 << 20);
+		List<IGISObject> expected = importAll(cache);
+		long size = cache.getSize();
+
+		DiskContentCache reopened = new DiskContentCache(dir, 1 << 20);
+		assertEquals(DOCUMENTS, reopened.getEntryCount());
+		assertEquals(size, reopened.getSize());
+		assertEquals(expected, importAll(reopened));
+		assertEquals(0, reopened.getMissCount());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		DiskContentCache cache = new DiskContentCache(dir, 250);
+		URL a = new URL("http://localhost/a.kml");
+		URL b = new URL("http://localhost/b.kml");
+		URL c = new URL("http://localhost/c.kml");
+		// file times are used for the access order when reopened
+		put(cache, a, 100);
+		pause();
+		put(cache, b, 100);
+		pause();
+		// touch a so b is least recently used
+		assertNotNull(cache.get(a));
+		pause();
+		put(cache, c, 100);
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(2, cache.getEntryCount());
+		assertEquals(200, cache.getSize());
+		assertNull(cache.get(b));
+
+		// access order is restored when the cache is opened again
+		DiskContentCache reopened = new DiskContentCache(dir, 150);
+		assertEquals(1, reopened.getEntryCount());
+		CachedContent entry = reopened.get(c);
+		assertNotNull(entry);
+		InputStream is = entry.openStream();
+		try {
+			assertEquals(100, IOUtils.toByteArray(is).length);
+		} finally {
+			is.close();
+		}
+
+		reopened.clear();
+		assertEquals(0, reopened.getSize());
+		assertEquals(0, new DiskContentCache(dir, 150).getEntryCount());
+	}
+
+	private static void put(DiskContentCache cache, URL url, int size) throws IOException {
+		cache.put(url, KmlLinkTestServer.KML_MIME_TYPE, "\"" + url.getPath() + "\"", 0,
+				new ByteArrayInputStream(new byte[size]));
+	}
+
+	private static void pause() {
+		try {
+			Thread.sleep(1100);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static List<IGISObject> importAll(DiskContentCache cache) throws IOException {
+		KmlReader reader = new KmlReader(server.getUrl(0), null, cache);
+		List<IGISObject> objects = reader.readAll();
+		objects.addAll(reader.importFromNetworkLinks());
+		return objects;
+	}
+}
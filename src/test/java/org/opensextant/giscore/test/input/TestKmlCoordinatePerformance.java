@@ -0,0 +1,156 @@
+/****************************************************************************************
+ *  TestKmlCoordinatePerformance.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.test.input;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import org.junit.Test;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.geometry.CoordinateSequence;
+import org.opensextant.giscore.geometry.Point;
+import org.opensextant.giscore.input.kml.KmlInputStream;
+import org.opensextant.giscore.test.TestGISBase;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measure coordinate parsing on large LineString and Polygon KML. The number
+ * of coordinates per geometry can be set with the system property
+ * <code>kmlPerfCoords</code> and the number of placemarks with
+ * <code>kmlPerfFeatures</code>.
+ */
+public class TestKmlCoordinatePerformance extends TestGISBase {
+
+	private static final int ROUNDS = 5;
+
+	@Test
+	public void testParseCoordinateText() {
+		int n = Integer.getInteger("kmlPerfCoords", 20000);
+		String text = createCoordinates(n, 0);
+
+		// warm up
+		KmlInputStream.parseCoord(text);
+		KmlInputStream.parseCoordSequence(text);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			List<Point> pts = KmlInputStream.parseCoord(text);
+			assertEquals(n, pts.size());
+		}
+		long points = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			CoordinateSequence seq = KmlInputStream.parseCoordSequence(text);
+			assertEquals(n, seq.size());
+		}
+		long packed = System.nanoTime() - start;
+
+		System.out.println("Parse " + n + " coordinates x " + ROUNDS);
+		System.out.println(" point list:          " + points / 1000000 + " ms");
+		System.out.println(" coordinate sequence: " + packed / 1000000 + " ms");
+	}
+
+	@Test
+	public void testReadLargeGeometries() throws IOException {
+		int n = Integer.getInteger("kmlPerfCoords", 20000);
+		int features = Integer.getInteger("kmlPerfFeatures", 20);
+		File file = createTemp("perf", ".kml");
+		try {
+			createKml(file, features, n);
+			readAll(file); // warm up
+			long start = System.nanoTime();
+			int count = 0;
+			for (int i = 0; i < ROUNDS; i++) {
+				count = readAll(file);
+			}
+			long elapsed = (System.nanoTime() - start) / ROUNDS;
+			assertEquals(features, count);
+			double mb = file.length() / (1024.0 * 1024.0);
+			System.out.format("Read %d placemarks (%.1f MB) in %d ms: %.1f MB/s%n",
+					count, mb, elapsed / 1000000, mb * 1e9 / elapsed);
+		} finally {
+			if (autoDelete) file.delete();
+		}
+	}
+
+	private static int readAll(File file) throws IOException {
+		InputStream is = new FileInputStream(file);
+		KmlInputStream kis = new KmlInputStream(is);
+		int count = 0;
+		try {
+			IGISObject ob;
+			while ((ob = kis.read()) != null) {
+				if (ob instanceof Feature) count++;
+			}
+		} finally {
+			kis.close();
+		}
+		return count;
+	}
+
+	private static void createKml(File file, int features, int n) throws IOException {
+		Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			w.write("<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Document>\n");
+			for (int i = 0; i < features; i++) {
+				w.write("<Placemark><name>f" + i + "</name>");
+				if (i % 2 == 0) {
+					w.write("<LineString><coordinates>");
+					w.write(createCoordinates(n, i));
+					w.write("</coordinates></LineString>");
+				} else {
+					w.write("<Polygon><outerBoundaryIs><LinearRing><coordinates>");
+					String ring = createCoordinates(n, i);
+					w.write(ring);
+					// close the ring with the first coordinate
+					w.write(ring.substring(0, ring.indexOf(' ')));
+					w.write("</coordinates></LinearRing></outerBoundaryIs></Polygon>");
+				}
+				w.write("</Placemark>\n");
+			}
+			w.write("</Document></kml>\n");
+		} finally {
+			w.close();
+		}
+	}
+
+	/**
+	 * Create coordinate text of n tuples along a circle with elevations
+	 */
+	private static String createCoordinates(int n, int seed) {
+		StringBuilder sb = new StringBuilder(n * 40);
+		double cx = (seed % 300) - 150.0;
+		double cy = (seed % 120) - 60.0;
+		for (int i = 0; i < n; i++) {
+			double a = 2 * Math.PI * i / n;
+			// 7 decimal places like most KML sources
+			sb.append(Math.round((cx + 10 * Math.cos(a)) * 1e7) / 1e7).append(',')
+					.append(Math.round((cy + 10 * Math.sin(a)) * 1e7) / 1e7).append(',')
+					.append(i % 1000).append(".5 ");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,129 @@
+/****************************************************************************************
+ *  TestKmlEnginePerformance.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.test.input;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.junit.Test;
+import org.opensextant.giscore.DocumentType;
+import org.opensextant.giscore.GISFactory;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.input.IGISInputStream;
+import org.opensextant.giscore.input.XmlInputStream;
+import org.opensextant.giscore.test.TestGISBase;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compare the throughput of the event and cursor KML parsing engines on a
+ * large generated, indented KML file with styles, extended data and
+ * geometries. The size of the file can be set in MB with the system
+ * property <code>kmlPerfSize</code>, e.g. -DkmlPerfSize=1024 for 1GB.
+ */
+public class TestKmlEnginePerformance extends TestGISBase {
+
+	@Test
+	public void testEngineThroughput() throws IOException {
+		long size = Long.getLong("kmlPerfSize", 20) * 1024 * 1024;
+		File file = createTemp("engine", ".kml");
+		try {
+			int features = createKml(file, size);
+			double mb = file.length() / (1024.0 * 1024.0);
+			// warm up both engines
+			readAll(file, XmlInputStream.Engine.EVENT);
+			readAll(file, XmlInputStream.Engine.CURSOR);
+			System.out.format("Read %d placemarks (%.1f MB)%n", features, mb);
+			for (XmlInputStream.Engine engine : XmlInputStream.Engine.values()) {
+				long start = System.nanoTime();
+				assertEquals(features, readAll(file, engine));
+				long elapsed = System.nanoTime() - start;
+				System.out.format(" %-6s %6d ms: %.1f MB/s%n", engine,
+						elapsed / 1000000, mb * 1e9 / elapsed);
+			}
+		} finally {
+			if (autoDelete) file.delete();
+		}
+	}
+
+	private static int readAll(File file, XmlInputStream.Engine engine) throws IOException {
+		IGISInputStream kis = GISFactory.getInputStream(DocumentType.KML,
+				new BufferedInputStream(new FileInputStream(file)), engine);
+		int count = 0;
+		try {
+			IGISObject ob;
+			while ((ob = kis.read()) != null) {
+				if (ob instanceof Feature) count++;
+			}
+		} finally {
+			kis.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Write placemarks until the file reaches at least the given size.
+	 *
+	 * @return the number of placemarks written
+	 */
+	private static int createKml(File file, long size) throws IOException {
+		Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		long written = 0;
+		int count = 0;
+		try {
+			w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			w.write("<kml xmlns=\"http://www.opengis.net/kml/2.2\">\n<Document>\n");
+			StringBuilder sb = new StringBuilder(4096);
+			while (written < size) {
+				sb.setLength(0);
+				double lon = (count % 3500) / 10.0 - 175.0;
+				double lat = ((count / 3500) % 1600) / 10.0 - 80.0;
+				sb.append("  <Placemark id=\"p").append(count).append("\">\n");
+				sb.append("    <name>Placemark ").append(count).append("</name>\n");
+				sb.append("    <description><![CDATA[<b>feature</b> ").append(count).append("]]></description>\n");
+				sb.append("    <!-- generated -->\n");
+				sb.append("    <Style>\n      <LineStyle>\n        <color>ff0000ff</color>\n");
+				sb.append("        <width>2</width>\n      </LineStyle>\n    </Style>\n");
+				sb.append("    <ExtendedData>\n");
+				for (int i = 0; i < 4; i++) {
+					sb.append("      <Data name=\"field").append(i).append("\">\n");
+					sb.append("        <value>").append(count * 4 + i).append("</value>\n");
+					sb.append("      </Data>\n");
+				}
+				sb.append("    </ExtendedData>\n");
+				sb.append("    <LineString>\n      <tessellate>1</tessellate>\n      <coordinates>\n");
+				for (int i = 0; i < 10; i++) {
+					sb.append("        ").append(lon + i * 0.01).append(',')
+							.append(lat + i * 0.01).append(",0\n");
+				}
+				sb.append("      </coordinates>\n    </LineString>\n  </Placemark>\n");
+				w.append(sb);
+				written += sb.length();
+				count++;
+			}
+			w.write("</Document>\n</kml>\n");
+		} finally {
+			w.close();
+		}
+		return count;
+	}
+}
@@ -26,11 +26,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
 import java.util.TimeZone;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
 import org.junit.Test;
@@ -51,13 +54,16 @@ import org.opensextant.giscore.events.SimpleField;
 import org.opensextant.giscore.events.Style;
 import org.opensextant.giscore.events.StyleMap;
 import org.opensextant.giscore.events.StyleSelector;
+import org.opensextant.giscore.geometry.CoordinateSequence;
 import org.opensextant.giscore.geometry.Point;
 import org.opensextant.giscore.input.IGISInputStream;
+import org.opensextant.giscore.input.XmlInputStream;
 import org.opensextant.giscore.input.kml.IKml;
 import org.opensextant.giscore.input.kml.KmlInputStream;
 import org.opensextant.giscore.test.TestGISBase;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -352,6 +358,53 @@ public class TestKmlInputStream extends TestGISBase {
 		);
 	}
 
+	/**
+	 * Coordinate values must be the same as Double.parseDouble() on the
+	 * decimal text, e.g. 5.5 must not become 5.499999999999999.
+	 */
+	@Test public void testParseCoordExact() {
+		String[] values = { "5.5", "-81.9916466079043", "29.9420387052815", "0.1", "-0.0001",
+				"7.76166643845e-007", "1.0E+2", "123456789.123456789", "1e-30",
+				"0.30000000000000004", ".5", "-.25", "179.99999999999999999" };
+		for (String value : values) {
+			double expected = Double.parseDouble(value);
+			List<Point> list = KmlInputStream.parseCoord("0,0," + value);
+			assertEquals(1, list.size());
+			assertEquals(value, expected, ((Geodetic3DPoint) list.get(0).asGeodetic2DPoint()).getElevation(), 0.0);
+		}
+		Random r = new Random(1234);
+		for (int i = 0; i < 1000; i++) {
+			String lon = Double.toString(r.nextDouble() * 360 - 180);
+			String lat = Double.toString(r.nextDouble() * 180 - 90);
+			CoordinateSequence seq = KmlInputStream.parseCoordSequence(lon + "," + lat);
+			assertEquals(1, seq.size());
+			assertEquals(makePoint(Double.parseDouble(lon), Double.parseDouble(lat)),
+					seq.getPoint(0).asGeodetic2DPoint());
+		}
+	}
+
+	@Test public void testParseCoordSequence() {
+		CoordinateSequence seq = KmlInputStream.parseCoordSequence(
+				"-81.9916466079043,29.9420387052815,0.0 -81.9980316162109,29.9407501220703,567.794982910156");
+		assertEquals(2, seq.size());
+		assertTrue(seq.is3D());
+		assertEquals(567.794982910156, seq.getElevation(1), 0.0);
+		assertEquals(makePoint(-81.9980316162109, 29.9407501220703, 567.794982910156),
+				seq.getPoint(1).asGeodetic2DPoint());
+
+		// mixed 2d and 3d tuples give a 2d sequence
+		seq = KmlInputStream.parseCoordSequence("10 20 30 1,2,3");
+		assertEquals(4, seq.size());
+		assertFalse(seq.is3D());
+
+		// invalid tuples dropped
+		seq = KmlInputStream.parseCoordSequence("1,2 0,500,0 3,4");
+		assertEquals(2, seq.size());
+		assertEquals(3.0, seq.getLongitude(1), 1e-12);
+
+		assertEquals(0, KmlInputStream.parseCoordSequence("  ").size());
+	}
+
 	private void checkCoordString(String coord, Geodetic2DPoint[] geoPoints) {
 		List<Point> list = KmlInputStream.parseCoord(coord);
 		if (list.isEmpty() && geoPoints.length == 0) return;
@@ -393,6 +446,50 @@ public class TestKmlInputStream extends TestGISBase {
 		}
 	}
 
+	/**
+	 * The cursor engine must return the same objects as the event engine
+	 * for every KML sample.
+	 */
+	@Test
+	public void testCursorEngine() throws IOException {
+		Collection<File> files = FileUtils.listFiles(new File("data/kml"), new String[] { "kml" }, true);
+		assertFalse(files.isEmpty());
+		for (File file : files) {
+			List<IGISObject> events = readAll(file, XmlInputStream.Engine.EVENT);
+			if (events == null) continue; // not parsable
+			List<IGISObject> cursor = readAll(file, XmlInputStream.Engine.CURSOR);
+			assertNotNull(file.toString(), cursor);
+			assertEquals(file.toString(), events.size(), cursor.size());
+			for (int i = 0; i < events.size(); i++) {
+				IGISObject expected = events.get(i);
+				IGISObject actual = cursor.get(i);
+				if (expected instanceof Schema) {
+					// schema ids and missing names are generated from a global counter
+					assertTrue(actual instanceof Schema);
+					assertEquals(((Schema) expected).getKeys(), ((Schema) actual).getKeys());
+				} else {
+					assertEquals(file.toString(), expected, actual);
+				}
+			}
+		}
+	}
+
+	private static List<IGISObject> readAll(File file, XmlInputStream.Engine engine) throws IOException {
+		List<IGISObject> list = new ArrayList<IGISObject>();
+		IGISInputStream kis = GISFactory.getInputStream(DocumentType.KML, file, engine);
+		try {
+			IGISObject ob;
+			while ((ob = kis.read()) != null) {
+				list.add(ob);
+			}
+		} catch (IOException e) {
+			return null;
+		} finally {
+			kis.close();
+		}
+		return list;
+	}
+
 	private static void printPoint(Geodetic2DPoint pt) {
     System.out.format("\t%f %f %s%n", pt.getLongitudeAsDegrees(), pt.getLatitudeAsDegrees(),
 							pt instanceof Geodetic3DPoint ? Double.toString(((Geodetic3DPoint)pt).getElevation()) : "");
@@ -0,0 +1,174 @@
+/*
+ *  TestKmlNetworkLinkImport.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ */
+package org.opensextant.giscore.test.input;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensextant.giscore.events.Common;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.input.kml.KmlReader;
+import org.opensextant.giscore.input.kml.UrlRef;
+import org.opensextant.giscore.test.utils.KmlLinkTestServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test importing NetworkLinks with several threads against a local HTTP
+ * server compared to the single threaded import.
+ */
+public class TestKmlNetworkLinkImport {
+
+	private static final int DOCUMENTS = 63;
+
+	private static KmlLinkTestServer server;
+
+	@BeforeClass
+	public static void oneTimeSetUp() throws Exception {
+		server = new KmlLinkTestServer(DOCUMENTS);
+		server.start();
+	}
+
+	@AfterClass
+	public static void oneTimeTearDown() throws Exception {
+		if (server != null) {
+			server.stop();
+			server = null;
+		}
+	}
+
+	@Test
+	public void testOrderedImport() throws Exception {
+		KmlReader sequential = createReader(1);
+		List<IGISObject> expected = sequential.importFromNetworkLinks();
+		// every child document and the link back to the root document
+		assertEquals(DOCUMENTS, sequential.getNetworkLinks().size());
+
+		KmlReader parallel = createReader(4);
+		List<IGISObject> objects = parallel.importFromNetworkLinks();
+		assertEquals(expected, objects);
+		assertEquals(sequential.getNetworkLinks(), parallel.getNetworkLinks());
+		assertFalse(parallel.isMaxLinkCountExceeded());
+
+		// same order through the handler
+		final List<IGISObject> handled = new ArrayList<IGISObject>();
+		createReader(4).importFromNetworkLinks(new KmlReader.ImportEventHandler() {
+			public boolean handleEvent(UrlRef ref, IGISObject gisObj) {
+				handled.add(gisObj);
+				return true;
+			}
+
+			public void handleError(URI uri, Exception e) {
+				throw new AssertionError(e);
+			}
+		});
+		assertEquals(expected, handled);
+	}
+
+	@Test
+	public void testUnorderedImport() throws Exception {
+		List<String> expected = getNames(createReader(1).importFromNetworkLinks());
+		KmlReader reader = createReader(4);
+		reader.setOrderedImport(false);
+		List<String> names = getNames(reader.importFromNetworkLinks());
+		Collections.sort(expected);
+		Collections.sort(names);
+		assertEquals(expected, names);
+	}
+
+	@Test
+	public void testMaxLinkCount() throws Exception {
+		KmlReader sequential = createReader(1);
+		sequential.setMaxLinkCount(10);
+		List<IGISObject> expected = sequential.importFromNetworkLinks();
+		assertTrue(sequential.isMaxLinkCountExceeded());
+
+		KmlReader parallel = createReader(4);
+		parallel.setMaxLinkCount(10);
+		server.reset();
+		List<IGISObject> objects = parallel.importFromNetworkLinks();
+		assertTrue(parallel.isMaxLinkCountExceeded());
+		assertEquals(expected, objects);
+		assertEquals(10, server.getRequestCount());
+	}
+
+	@Test
+	public void testAbortImport() throws Exception {
+		final int[] count = new int[1];
+		// separate server since fetches in progress may still arrive after the abort
+		KmlLinkTestServer abortServer = new KmlLinkTestServer(DOCUMENTS);
+		abortServer.start();
+		try {
+			KmlReader reader = createReader(abortServer, 4);
+			reader.importFromNetworkLinks(new KmlReader.ImportEventHandler() {
+				public boolean handleEvent(UrlRef ref, IGISObject gisObj) {
+					return ++count[0] < 5;
+				}
+
+				public void handleError(URI uri, Exception e) {
+					// ignore
+				}
+			});
+			assertEquals(5, count[0]);
+			assertTrue(abortServer.getRequestCount() < DOCUMENTS);
+		} finally {
+			abortServer.stop();
+		}
+	}
+
+	@Test
+	public void testMaxConnectionsPerHost() throws Exception {
+		// separate server so requests left over from other tests are not counted
+		KmlLinkTestServer slowServer = new KmlLinkTestServer(DOCUMENTS);
+		slowServer.setDelay(20);
+		slowServer.start();
+		try {
+			KmlReader reader = createReader(slowServer, 8);
+			reader.setMaxConnectionsPerHost(2);
+			reader.importFromNetworkLinks();
+			assertTrue(slowServer.getMaxConcurrentRequests() <= 2);
+			assertEquals(DOCUMENTS, reader.getNetworkLinks().size());
+		} finally {
+			slowServer.stop();
+		}
+	}
+
+	private static KmlReader createReader(int threads) throws IOException {
+		return createReader(server, threads);
+	}
+
+	private static KmlReader createReader(KmlLinkTestServer server, int threads) throws IOException {
+		KmlReader reader = new KmlReader(server.getUrl(0));
+		reader.setImportThreads(threads);
+		reader.readAll();
+		return reader;
+	}
+
+	private static List<String> getNames(List<IGISObject> objects) {
+		List<String> names = new ArrayList<String>();
+		for (IGISObject o : objects) {
+			if (o instanceof Common) names.add(o.getClass().getSimpleName() + ":" + ((Common) o).getName());
+		}
+		return names;
+	}
+}
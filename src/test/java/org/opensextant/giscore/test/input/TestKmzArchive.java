@@ -0,0 +1,116 @@
+/*
+ *  TestKmzArchive.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ */
+package org.opensextant.giscore.test.input;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.input.kml.KmlReader;
+import org.opensextant.giscore.input.kml.KmzArchive;
+import org.opensextant.giscore.test.utils.KmlLinkTestServer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Test random access to KMZ entries and reading NetworkLinks from a remote
+ * KMZ file.
+ */
+public class TestKmzArchive {
+
+	@Test
+	public void testEntries() throws IOException {
+		File file = new File("data/kml/kmz/dir/content.kmz");
+		KmzArchive archive = new KmzArchive(file);
+		try {
+			assertNotNull(archive.getRootEntry());
+			// every entry has the same content as when scanning the stream
+			ZipInputStream zis = new ZipInputStream(new FileInputStream(file));
+			int count = 0;
+			try {
+				ZipEntry entry;
+				while ((entry = zis.getNextEntry()) != null) {
+					if (entry.isDirectory()) continue;
+					InputStream is = archive.getInputStream(entry.getName());
+					try {
+						assertArrayEquals(entry.getName(), IOUtils.toByteArray(zis), IOUtils.toByteArray(is));
+					} finally {
+						is.close();
+					}
+					count++;
+				}
+			} finally {
+				zis.close();
+			}
+			assertEquals(count, archive.size());
+			assertNotNull(archive.getEntry("./kml/hi.kml"));
+			try {
+				archive.getInputStream("kml/missing.kml");
+				fail("expected FileNotFoundException");
+			} catch (FileNotFoundException e) {
+				// expected
+			}
+		} finally {
+			archive.close();
+		}
+	}
+
+	@Test
+	public void testEscapedWhitespace() throws IOException {
+		KmzArchive archive = new KmzArchive(new File("data/kml/kmz/simple/spaceInLink1.kmz"));
+		try {
+			assertEquals("doc.kml", archive.getRootEntry().getName());
+			assertEquals("my office.kml", archive.getEntry("my%20office.kml").getName());
+			assertEquals("my office.kml", archive.getEntry("my office.kml").getName());
+		} finally {
+			archive.close();
+		}
+	}
+
+	@Test
+	public void testRemoteKmz() throws Exception {
+		final int documents = 31;
+		KmlLinkTestServer server = new KmlLinkTestServer(documents);
+		server.start();
+		try {
+			KmlReader reader = new KmlReader(server.getKmzUrl());
+			List<IGISObject> objects = reader.readAll();
+			objects.addAll(reader.importFromNetworkLinks());
+			assertEquals(documents, reader.getNetworkLinks().size());
+			int features = 0;
+			for (IGISObject o : objects) {
+				if (o.getClass() == Feature.class) features++;
+			}
+			// root document is imported again by its self-link
+			assertEquals(documents + 1, features);
+			// downloaded once for the root document and once for all linked entries
+			assertEquals(2, server.getRequestCount());
+		} finally {
+			server.stop();
+		}
+	}
+}
@@ -23,9 +23,23 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.zip.ZipInputStream;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
+import org.opensextant.geodesy.Angle;
+import org.opensextant.geodesy.Geodetic2DBounds;
+import org.opensextant.geodesy.Geodetic2DPoint;
+import org.opensextant.geodesy.Latitude;
+import org.opensextant.geodesy.Longitude;
 import org.opensextant.giscore.DocumentType;
 import org.opensextant.giscore.GISFactory;
 import org.opensextant.giscore.IAcceptSchema;
@@ -41,9 +55,14 @@ import org.opensextant.giscore.geometry.MultiPolygons;
 import org.opensextant.giscore.geometry.Point;
 import org.opensextant.giscore.geometry.Polygon;
 import org.opensextant.giscore.input.IGISInputStream;
+import org.opensextant.giscore.input.shapefile.ParallelShapefileInputHandler;
+import org.opensextant.giscore.input.shapefile.ShapefileComponent;
 import org.opensextant.giscore.input.shapefile.ShapefileInputStream;
 import org.opensextant.giscore.input.shapefile.SingleShapefileInputHandler;
+import org.opensextant.giscore.output.shapefile.StreamingShapefileOutputStream;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -192,6 +211,291 @@ public class TestShapefileInput {
 		}
 	}
 
+	@Test public void testRandomAccess() throws Exception {
+		List<Feature> features = readSequential("counties67");
+		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, "counties67");
+		try {
+			assertTrue(handler.hasIndex());
+			assertEquals(features.size(), handler.getRecordCount());
+			// read backwards to force dbf seeking
+			for (int i = features.size() - 1; i >= 0; i--) {
+				assertEquals(features.get(i), handler.read(i));
+			}
+			assertEquals(features.subList(10, 20), handler.readRange(10, 20));
+			// sequential reads are unaffected by random access
+			assertTrue(handler.read() instanceof Schema);
+			assertEquals(features.get(0), handler.read());
+			assertEquals(features.get(5), handler.read(5));
+			assertEquals(features.get(1), handler.read());
+		} finally {
+			handler.close();
+		}
+	}
+
+	@Test public void testParallelRead() throws Exception {
+		List<Feature> features = readSequential("counties67");
+		ParallelShapefileInputHandler handler = new ParallelShapefileInputHandler(shpdir, "counties67", 3, 7);
+		try {
+			assertTrue(handler.read() instanceof Schema);
+			List<Feature> parallel = new ArrayList<Feature>();
+			IGISObject ob;
+			while((ob = handler.read()) != null) {
+				parallel.add((Feature) ob);
+			}
+			assertEquals(features, parallel);
+		} finally {
+			handler.close();
+		}
+	}
+
+	@Test public void testParallelShapefileInputStream() throws Exception {
+		ShapefileInputStream sequential = new ShapefileInputStream(shpdir, (IAcceptSchema) null);
+		ShapefileInputStream parallel = new ShapefileInputStream(shpdir, (IAcceptSchema) null);
+		parallel.setReadThreads(4);
+		try {
+			int count = 0;
+			IGISObject ob;
+			while((ob = sequential.read()) != null) {
+				IGISObject other = parallel.read();
+				if (ob instanceof Feature) {
+					assertEquals(ob, other);
+					count++;
+				} else {
+					assertEquals(ob.getClass(), other.getClass());
+				}
+			}
+			assertNull(parallel.read());
+			assertTrue(count > 0);
+		} finally {
+			sequential.close();
+			parallel.close();
+		}
+	}
+
+	@Test public void testBoundsFilter() throws Exception {
+		List<Feature> features = readSequential("counties67");
+		Geodetic2DBounds bounds = new Geodetic2DBounds(
+				new Geodetic2DPoint(new Longitude(-77.5, Angle.DEGREES), new Latitude(40.0, Angle.DEGREES)),
+				new Geodetic2DPoint(new Longitude(-76.0, Angle.DEGREES), new Latitude(41.0, Angle.DEGREES)));
+		List<Feature> expected = new ArrayList<Feature>();
+		for (Feature f : features) {
+			if (f.getGeometry().getBoundingBox().intersects(bounds)) expected.add(f);
+		}
+		assertTrue(expected.size() > 0 && expected.size() < features.size());
+
+		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, "counties67");
+		handler.setBoundsFilter(bounds);
+		assertEquals(expected, readFeatures(handler));
+		handler = new SingleShapefileInputHandler(shpdir, "counties67");
+		handler.setBoundsFilter(bounds);
+		try {
+			assertEquals(expected, handler.readRange(0, handler.getRecordCount()));
+		} finally {
+			handler.close();
+		}
+
+		// streams skip dbf rows by reading forward
+		Map<ShapefileComponent, InputStream> streams = new EnumMap<ShapefileComponent, InputStream>(ShapefileComponent.class);
+		streams.put(ShapefileComponent.DBF, new FileInputStream(new File(shpdir, "counties67.dbf")));
+		handler = new SingleShapefileInputHandler(new FileInputStream(new File(shpdir, "counties67.shp")),
+				streams, "counties67");
+		handler.setBoundsFilter(bounds);
+		assertEquals(expected, readFeatures(handler));
+
+		ParallelShapefileInputHandler parallel = new ParallelShapefileInputHandler(shpdir, "counties67", 2, 5);
+		parallel.setBoundsFilter(bounds);
+		List<Feature> found = new ArrayList<Feature>();
+		try {
+			IGISObject ob;
+			while((ob = parallel.read()) != null) {
+				if (ob instanceof Feature) found.add((Feature) ob);
+			}
+		} finally {
+			parallel.close();
+		}
+		assertEquals(expected, found);
+	}
+
+	@Test public void testBoundsFilterAntimeridian() throws Exception {
+		// bounds from 170E across the anti-meridian to 60W contains the US
+		Geodetic2DBounds bounds = new Geodetic2DBounds(
+				new Geodetic2DPoint(new Longitude(170.0, Angle.DEGREES), new Latitude(0.0, Angle.DEGREES)));
+		bounds.include(new Geodetic2DPoint(new Longitude(-60.0, Angle.DEGREES), new Latitude(60.0, Angle.DEGREES)));
+		ShapefileInputStream stream = new ShapefileInputStream(new File(shpdir, "counties67.shp"), (IAcceptSchema) null);
+		stream.setBoundsFilter(bounds);
+		int count = 0;
+		try {
+			IGISObject ob;
+			while((ob = stream.read()) != null) {
+				if (ob instanceof Feature) count++;
+			}
+		} finally {
+			stream.close();
+		}
+		assertEquals(readSequential("counties67").size(), count);
+
+		// afghanistan is outside the bounds
+		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, "afghanistan");
+		handler.setBoundsFilter(bounds);
+		assertTrue(readFeatures(handler).isEmpty());
+	}
+
+	@Test public void testBoundsFilterPointM() throws Exception {
+		// a PointM record has no bounding box, only x, y and m
+		ByteBuffer shp = ByteBuffer.allocate(100 + 8 + 28);
+		shp.putInt(9994).put(new byte[20]).putInt(shp.capacity() / 2);
+		shp.order(ByteOrder.LITTLE_ENDIAN).putInt(1000).putInt(21);
+		shp.putDouble(10).putDouble(20).putDouble(10).putDouble(20).put(new byte[32]);
+		shp.order(ByteOrder.BIG_ENDIAN).putInt(1).putInt(14);
+		shp.order(ByteOrder.LITTLE_ENDIAN).putInt(21).putDouble(10).putDouble(20).putDouble(0);
+		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(
+				new ByteArrayInputStream(shp.array()), null, "pointm");
+		handler.setBoundsFilter(new Geodetic2DBounds(
+				new Geodetic2DPoint(new Longitude(-77.5, Angle.DEGREES), new Latitude(40.0, Angle.DEGREES)),
+				new Geodetic2DPoint(new Longitude(-76.0, Angle.DEGREES), new Latitude(41.0, Angle.DEGREES))));
+		assertTrue(readFeatures(handler).isEmpty());
+	}
+
+	@Test public void testSpatialIndex() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "shpindex" + System.nanoTime());
+		try {
+			Random random = new Random(1000);
+			for (String name : new String[] { "afghanistan", "counties67" }) {
+				// the sample files come with an sbn
+				File plain = new File(dir, "plain");
+				copyShapefile(shpdir, plain, name);
+				compareFiltered(random, shpdir, plain, name);
+
+				// and written files with a gsi
+				File written = new File(dir, "written");
+				StreamingShapefileOutputStream os = null;
+				Schema schema = null;
+				SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, name);
+				try {
+					IGISObject ob;
+					while ((ob = handler.read()) != null) {
+						if (ob instanceof Schema) {
+							schema = (Schema) ob;
+							os = new StreamingShapefileOutputStream(written, name, schema);
+							os.setWriteSpatialIndex(true);
+						} else {
+							os.write(ob);
+						}
+					}
+				} finally {
+					handler.close();
+					if (os != null) os.close();
+				}
+				assertTrue(new File(written, name + ".gsi").exists());
+				plain = new File(dir, "writtenplain");
+				copyShapefile(written, plain, name);
+				compareFiltered(random, written, plain, name);
+
+				// rewriting the shapefile without the index leaves a stale
+				// .gsi that must be ignored
+				List<Feature> features = readSequential(name);
+				os = new StreamingShapefileOutputStream(written, name, schema);
+				try {
+					for (Feature f : features.subList(0, features.size() - 1)) {
+						os.write(f);
+					}
+				} finally {
+					os.close();
+				}
+				SingleShapefileInputHandler stale = new SingleShapefileInputHandler(written, name);
+				try {
+					assertFalse(stale.hasSpatialIndex());
+					assertEquals(features.size() - 1, stale.getRecordCount());
+				} finally {
+					stale.close();
+				}
+			}
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	/**
+	 * Compare the features found with the spatial index with those found by
+	 * testing every record for random bounds around the shapefile.
+	 */
+	private void compareFiltered(Random random, File indexed, File plain, String name) throws IOException {
+		Geodetic2DBounds extent = null;
+		for (Feature f : readSequential(name)) {
+			if (extent == null) extent = new Geodetic2DBounds(f.getGeometry().getBoundingBox());
+			else extent.include(f.getGeometry().getBoundingBox());
+		}
+		double west = extent.getWestLon().inDegrees();
+		double south = extent.getSouthLat().inDegrees();
+		double width = extent.getEastLon().inDegrees() - west;
+		double height = extent.getNorthLat().inDegrees() - south;
+		SingleShapefileInputHandler withIndex = new SingleShapefileInputHandler(indexed, name);
+		SingleShapefileInputHandler without = new SingleShapefileInputHandler(plain, name);
+		try {
+			assertTrue(withIndex.hasSpatialIndex());
+			assertFalse(without.hasSpatialIndex());
+			for (int i = 0; i < 50; i++) {
+				double x = west - width / 4 + random.nextDouble() * width * 1.5;
+				double y = south - height / 4 + random.nextDouble() * height * 1.5;
+				double size = random.nextDouble() * width / 3;
+				Geodetic2DBounds bounds = new Geodetic2DBounds(
+						new Geodetic2DPoint(new Longitude(x, Angle.DEGREES), new Latitude(y, Angle.DEGREES)),
+						new Geodetic2DPoint(new Longitude(x + size, Angle.DEGREES),
+								new Latitude(Math.min(90.0, y + size), Angle.DEGREES)));
+				withIndex.setBoundsFilter(bounds);
+				without.setBoundsFilter(bounds);
+				int count = without.getRecordCount();
+				assertEquals(bounds.toString(), without.readRange(0, count), withIndex.readRange(0, count));
+				assertEquals(without.readRange(count / 3, count / 2), withIndex.readRange(count / 3, count / 2));
+			}
+		} finally {
+			withIndex.close();
+			without.close();
+		}
+		// sequential reads seek to the records found
+		Geodetic2DBounds bounds = new Geodetic2DBounds(extent.getCenter());
+		withIndex = new SingleShapefileInputHandler(indexed, name);
+		withIndex.setBoundsFilter(bounds);
+		without = new SingleShapefileInputHandler(plain, name);
+		without.setBoundsFilter(bounds);
+		List<Feature> expected = readFeatures(without);
+		assertFalse(expected.isEmpty());
+		assertEquals(expected, readFeatures(withIndex));
+	}
+
+	private static void copyShapefile(File from, File to, String name) throws IOException {
+		for (String ext : new String[] { ".shp", ".shx", ".dbf" }) {
+			FileUtils.copyFile(new File(from, name + ext), new File(to, name + ext));
+		}
+	}
+
+	private List<Feature> readFeatures(SingleShapefileInputHandler handler) throws IOException {
+		List<Feature> features = new ArrayList<Feature>();
+		try {
+			IGISObject ob;
+			while((ob = handler.read()) != null) {
+				if (ob instanceof Feature) features.add((Feature) ob);
+			}
+		} finally {
+			handler.close();
+		}
+		return features;
+	}
+
+	private List<Feature> readSequential(String file) throws IOException {
+		List<Feature> features = new ArrayList<Feature>();
+		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, file);
+		try {
+			IGISObject ob;
+			while((ob = handler.read()) != null) {
+				if (ob instanceof Feature) features.add((Feature) ob);
+			}
+		} finally {
+			handler.close();
+		}
+		return features;
+	}
+
 	private void doTest(String file, Class geoclass) throws URISyntaxException, IOException {
 		System.out.println("Test " + file);
 		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, file);
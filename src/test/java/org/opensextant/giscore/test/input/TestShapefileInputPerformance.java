@@ -0,0 +1,140 @@
+/****************************************************************************************
+ *  TestShapefileInputPerformance.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.test.input;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import org.junit.Test;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.input.shapefile.SingleShapefileInputHandler;
+import org.opensextant.giscore.test.TestGISBase;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compare reading a large generated shapefile with a single mapped window
+ * against mapping each record individually. The size of the generated shp
+ * file can be set with the system property <code>shpPerfSize</code> (in MB),
+ * use several GB to measure the mapping overhead on large files.
+ */
+public class TestShapefileInputPerformance extends TestGISBase {
+
+	private static final int POINTS_PER_LINE = 20;
+
+	@Test
+	public void testMappedWindowVsPerRecord() throws Exception {
+		long size = Long.getLong("shpPerfSize", 20) * 1024 * 1024;
+		File shp = createTemp("perf", ".shp");
+		int records = createLineShapefile(shp, size);
+		String basename = shp.getName().substring(0, shp.getName().length() - 4);
+		try {
+			long start = System.currentTimeMillis();
+			assertEquals(records, readAll(shp.getParentFile(), basename, 0));
+			long perRecord = System.currentTimeMillis() - start;
+
+			start = System.currentTimeMillis();
+			assertEquals(records, readAll(shp.getParentFile(), basename,
+					SingleShapefileInputHandler.DEFAULT_MAP_WINDOW_SIZE));
+			long whole = System.currentTimeMillis() - start;
+
+			// small window forces remapping while reading
+			start = System.currentTimeMillis();
+			assertEquals(records, readAll(shp.getParentFile(), basename, 1024 * 1024));
+			long windowed = System.currentTimeMillis() - start;
+
+			System.out.println("Read " + records + " records (" + shp.length() / 1024 + " KB)");
+			System.out.println(" per record map: " + perRecord + " ms");
+			System.out.println(" single map:     " + whole + " ms");
+			System.out.println(" 1 MB windows:   " + windowed + " ms");
+		} finally {
+			if (autoDelete) shp.delete();
+		}
+	}
+
+	private int readAll(File dir, String basename, long window) throws IOException {
+		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(dir, basename);
+		handler.setMapWindowSize(window);
+		int count = 0;
+		try {
+			IGISObject ob;
+			while ((ob = handler.read()) != null) {
+				if (ob instanceof Feature) count++;
+			}
+		} finally {
+			handler.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Write a PolyLine shapefile with records of a single part until the
+	 * file reaches at least the given size.
+	 *
+	 * @return the number of records written
+	 */
+	private int createLineShapefile(File shp, long size) throws IOException {
+		int contentLen = 4 + 32 + 4 + 4 + 4 + POINTS_PER_LINE * 16; // bytes
+		int records = (int) Math.max(1, (size - 100) / (contentLen + 8));
+		long fileLength = 100L + (long) records * (contentLen + 8);
+		FileOutputStream os = new FileOutputStream(shp);
+		FileChannel channel = os.getChannel();
+		try {
+			ByteBuffer header = ByteBuffer.allocate(100);
+			header.order(ByteOrder.BIG_ENDIAN);
+			header.putInt(9994);
+			for (int i = 0; i < 5; i++) header.putInt(0);
+			header.putInt((int) (fileLength / 2));
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(1000);
+			header.putInt(3);
+			header.putDouble(-180).putDouble(-90).putDouble(180).putDouble(90);
+			header.putDouble(0).putDouble(0).putDouble(0).putDouble(0);
+			header.flip();
+			channel.write(header);
+
+			ByteBuffer rec = ByteBuffer.allocate(contentLen + 8);
+			for (int r = 0; r < records; r++) {
+				double lon = (r % 3600) / 10.0 - 180.0;
+				double lat = ((r / 3600) % 1700) / 10.0 - 85.0;
+				rec.clear();
+				rec.order(ByteOrder.BIG_ENDIAN);
+				rec.putInt(r + 1);
+				rec.putInt(contentLen / 2);
+				rec.order(ByteOrder.LITTLE_ENDIAN);
+				rec.putInt(3);
+				rec.putDouble(lon).putDouble(lat);
+				rec.putDouble(lon + POINTS_PER_LINE * 0.001).putDouble(lat + POINTS_PER_LINE * 0.001);
+				rec.putInt(1);
+				rec.putInt(POINTS_PER_LINE);
+				rec.putInt(0);
+				for (int i = 0; i < POINTS_PER_LINE; i++) {
+					rec.putDouble(lon + i * 0.001).putDouble(lat + i * 0.001);
+				}
+				rec.flip();
+				channel.write(rec);
+			}
+		} finally {
+			channel.close();
+			os.close();
+		}
+		return records;
+	}
+}
@@ -0,0 +1,222 @@
+/****************************************************************************************
+ *  TestDbfFieldEncoder.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.test.output;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.opensextant.giscore.events.Row;
+import org.opensextant.giscore.events.Schema;
+import org.opensextant.giscore.events.SimpleField;
+import org.opensextant.giscore.input.dbf.DbfInputStream;
+import org.opensextant.giscore.output.dbf.DbfFieldEncoder;
+import org.opensextant.giscore.output.dbf.DbfOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that the DBF field encoder gives the same text as the formats it
+ * replaces, that the values read back, and compare their throughput.
+ */
+public class TestDbfFieldEncoder {
+
+	private static final double SPECIAL[] = {
+			0.0, -0.0, 1.0, -1.0, 0.5, -34.93, 0.1, 0.2, 0.3, 1e-5, 1.5e-16,
+			1e-17, 123456789012345.0, 999999999999999.0, 1e15, 1e16,
+			0.1 + 0.2, 1 / 3.0, Math.PI, 5.684341886080802E-14,
+			Long.MAX_VALUE, 9.87e32, -1e300, Double.MIN_VALUE, Double.MAX_VALUE,
+			Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+	};
+
+	private final DecimalFormat decimalFormat = new DecimalFormat(
+			"+###############0.################;-###############0.################");
+
+	private final DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
+
+	{
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	@Test
+	public void testSameAsDecimalFormat() throws Exception {
+		DbfFieldEncoder encoder = new DbfFieldEncoder();
+		byte buf[] = new byte[DbfFieldEncoder.DECIMAL_LENGTH];
+		for (double d : SPECIAL) {
+			checkDecimal(encoder, buf, d);
+		}
+		for (double d : createDecimals(200000, 1000)) {
+			checkDecimal(encoder, buf, d);
+		}
+	}
+
+	private void checkDecimal(DbfFieldEncoder encoder, byte buf[], double d) throws Exception {
+		String text = new String(buf, 0, encoder.putDecimal(d, buf, 0), "US-ASCII");
+		String expected = decimalFormat.format(d);
+		if (expected.length() <= DbfFieldEncoder.DECIMAL_LENGTH) {
+			assertEquals(Double.toString(d), new String(expected.getBytes("US-ASCII"), "US-ASCII"), text);
+		} else {
+			// exponent format
+			assertTrue(text, text.indexOf('e') > 0);
+		}
+	}
+
+	@Test
+	public void testSameAsDateFormat() throws Exception {
+		DbfFieldEncoder encoder = new DbfFieldEncoder();
+		byte buf[] = new byte[DbfFieldEncoder.DECIMAL_LENGTH];
+		Random random = new Random(1000);
+		for (int i = 0; i < 100000; i++) {
+			// from before the Gregorian calendar to after the year 9999
+			Date date = new Date(random.nextLong() >> (18 + random.nextInt(8)));
+			String text = new String(buf, 0, encoder.putDate(date, buf, 0), "US-ASCII");
+			assertEquals(date.toString(), dateFormat.format(date), text);
+		}
+		long cutover = -12219292800000L;
+		for (long time : new long[] { cutover - 1, cutover, -1, 0, 951782400000L, 253402300799999L, 253402300800000L }) {
+			Date date = new Date(time);
+			String text = new String(buf, 0, encoder.putDate(date, buf, 0), "US-ASCII");
+			assertEquals(dateFormat.format(date), text);
+		}
+	}
+
+	/**
+	 * Write decimals and dates to a DBF file and check the values read back
+	 * are the values of the formatted text.
+	 */
+	@Test
+	public void testRoundTrip() throws Exception {
+		Schema schema = new Schema();
+		SimpleField d = new SimpleField("d", SimpleField.Type.DOUBLE);
+		SimpleField date = new SimpleField("date", SimpleField.Type.DATE);
+		schema.put(d);
+		schema.put(date);
+		double values[] = createDecimals(20000, 2000);
+		Random random = new Random(2000);
+		Date dates[] = new Date[values.length];
+		File temp = File.createTempFile("test", ".dbf");
+		OutputStream os = new FileOutputStream(temp);
+		try {
+			DbfOutputStream dbfos = new DbfOutputStream(os, null);
+			dbfos.write(schema);
+			for (int i = 0; i < values.length; i++) {
+				dates[i] = new Date(random.nextLong() >> 22);
+				Row r = new Row();
+				r.putData(d, values[i]);
+				r.putData(date, dates[i]);
+				dbfos.write(r);
+			}
+			dbfos.close();
+		} finally {
+			IOUtils.closeQuietly(os);
+		}
+		InputStream is = new FileInputStream(temp);
+		try {
+			DbfInputStream dbfis = new DbfInputStream(is, null);
+			Schema readschema = (Schema) dbfis.read();
+			SimpleField readDouble = readschema.get("d");
+			SimpleField readDate = readschema.get("date");
+			for (int i = 0; i < values.length; i++) {
+				Row row = (Row) dbfis.read();
+				String text = decimalFormat.format(values[i]);
+				if (!Double.isNaN(values[i]) && text.length() <= DbfFieldEncoder.DECIMAL_LENGTH) {
+					Number n = (Number) row.getData(readDouble);
+					assertEquals(text, Double.parseDouble(text), n.doubleValue(), 0.0);
+				}
+				Date readValue = (Date) row.getData(readDate);
+				assertEquals(dateFormat.format(dates[i]), dateFormat.format(readValue));
+			}
+		} finally {
+			IOUtils.closeQuietly(is);
+			if (temp.exists() && !temp.delete()) temp.deleteOnExit();
+		}
+	}
+
+	/**
+	 * Compare the time to encode decimals with DecimalFormat and with the
+	 * encoder.
+	 */
+	@Test
+	public void testThroughput() throws Exception {
+		final int count = 1000000;
+		Random random = new Random(1000);
+		double values[] = new double[count];
+		for (int i = 0; i < count; i++) {
+			// measurements with a few decimal places
+			values[i] = Math.round(random.nextGaussian() * 1e7) / 1e3;
+		}
+		DbfFieldEncoder encoder = new DbfFieldEncoder();
+		byte buf[] = new byte[DbfFieldEncoder.DECIMAL_LENGTH];
+		long total = 0;
+		// warm up
+		for (int i = 0; i < count / 10; i++) {
+			total += decimalFormat.format(values[i]).getBytes("US-ASCII").length + encoder.putDecimal(values[i], buf, 0);
+		}
+		long start = System.nanoTime();
+		for (double d : values) {
+			total += decimalFormat.format(d).getBytes("US-ASCII").length;
+		}
+		long formatted = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (double d : values) {
+			total += encoder.putDecimal(d, buf, 0);
+		}
+		long encoded = System.nanoTime() - start;
+		System.out.printf("DecimalFormat %.0f ns, DbfFieldEncoder %.0f ns per value (%d)%n",
+				(double) formatted / count, (double) encoded / count, total);
+	}
+
+	/**
+	 * @return a corpus of short decimals, computed values, coordinates and
+	 * values with any bits
+	 */
+	private static double[] createDecimals(int count, long seed) {
+		Random random = new Random(seed);
+		double values[] = new double[count];
+		for (int i = 0; i < count; i++) {
+			double d;
+			switch (i % 5) {
+				case 0:
+					d = Math.round(random.nextGaussian() * Math.pow(10, random.nextInt(16)))
+							/ Math.pow(10, random.nextInt(17));
+					break;
+				case 1:
+					d = random.nextDouble() * 360 - 180;
+					break;
+				case 2:
+					d = random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20);
+					break;
+				case 3:
+					d = random.nextFloat();
+					break;
+				default:
+					d = Double.longBitsToDouble(random.nextLong());
+			}
+			values[i] = d;
+		}
+		return values;
+	}
+}
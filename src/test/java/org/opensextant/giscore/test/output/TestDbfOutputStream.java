@@ -22,6 +22,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -30,6 +31,7 @@ import java.util.Map;
 import java.util.Random;
 import java.util.TimeZone;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
@@ -435,6 +437,76 @@ public class TestDbfOutputStream {
         }
     }
 
+    /**
+     * Rows written as they arrive to a file channel give the same file as
+     * rows buffered until close, including non-ascii and truncated values.
+     */
+    @Test
+    public void testDbfOutputStreamIncremental() throws Exception {
+        Schema s = new Schema();
+        SimpleField name = new SimpleField("name");
+        name.setLength(8);
+        SimpleField count = new SimpleField("count", Type.INT);
+        SimpleField id = new SimpleField("id", Type.LONG);
+        SimpleField small = new SimpleField("small", Type.SHORT);
+        s.put(name);
+        s.put(count);
+        s.put(id);
+        s.put(small);
+        String[] names = { "", "abc", "caf\u00e9", "\ud83d\ude00 smile", "\ud800", "a string longer than the field" };
+        long[] values = { 0, -1, 42, Integer.MIN_VALUE, Integer.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE };
+        List<Row> rows = new ArrayList<Row>();
+        for (int i = 0; i < 200; i++) {
+            Row r = new Row();
+            r.putData(name, names[i % names.length]);
+            if (i % 9 != 0) {
+                long v = values[i % values.length] + rand.nextInt(10);
+                r.putData(count, (int) v);
+                r.putData(id, v);
+                r.putData(small, (short) v);
+            }
+            rows.add(r);
+        }
+
+        File buffered = File.createTempFile("test", ".dbf");
+        File incremental = File.createTempFile("test", ".dbf");
+        try {
+            DbfOutputStream dbfos = new DbfOutputStream(new FileOutputStream(buffered), null);
+            dbfos.write(s);
+            for (Row r : rows) dbfos.write(r);
+            dbfos.close();
+
+            dbfos = new DbfOutputStream(new FileOutputStream(incremental).getChannel(), s);
+            for (Row r : rows) dbfos.write(r);
+            dbfos.close();
+
+            assertTrue(Arrays.equals(FileUtils.readFileToByteArray(buffered),
+                    FileUtils.readFileToByteArray(incremental)));
+
+            FileInputStream is = new FileInputStream(incremental);
+            try {
+                DbfInputStream dbfis = new DbfInputStream(is, null);
+                Schema readschema = (Schema) dbfis.read();
+                Row readrow = null;
+                int n = 0;
+                Row r;
+                while ((r = (Row) dbfis.read()) != null) {
+                    if (n == 3) readrow = r;
+                    n++;
+                }
+                assertEquals(rows.size(), n);
+                assertNotNull(readrow);
+                // one '?' for a surrogate pair as by String.getBytes
+                assertEquals("? smile", readrow.getData(readschema.get("name")));
+            } finally {
+                is.close();
+            }
+        } finally {
+            if (!buffered.delete()) buffered.deleteOnExit();
+            if (!incremental.delete()) incremental.deleteOnExit();
+        }
+    }
+
     private void compare(SimpleField orig, SimpleField read) {
         assertEquals(orig.getName(), read.getName());
         // Not really correct as the lengths from the dbf file are generally longer
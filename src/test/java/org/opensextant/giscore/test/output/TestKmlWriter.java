@@ -3,10 +3,12 @@ package org.opensextant.giscore.test.output;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
@@ -19,12 +21,15 @@ import org.opensextant.geodesy.Geodetic2DPoint;
 import org.opensextant.geodesy.Latitude;
 import org.opensextant.geodesy.Longitude;
 import org.opensextant.giscore.DocumentType;
+import org.opensextant.giscore.events.ContainerEnd;
+import org.opensextant.giscore.events.ContainerStart;
 import org.opensextant.giscore.events.DocumentStart;
 import org.opensextant.giscore.events.Feature;
 import org.opensextant.giscore.events.IGISObject;
 import org.opensextant.giscore.events.NetworkLink;
 import org.opensextant.giscore.events.TaggedMap;
 import org.opensextant.giscore.geometry.Geometry;
+import org.opensextant.giscore.geometry.Line;
 import org.opensextant.giscore.geometry.Point;
 import org.opensextant.giscore.input.kml.IKml;
 import org.opensextant.giscore.input.kml.KmlInputStream;
@@ -473,4 +478,96 @@ public class TestKmlWriter extends TestGISBase {
         // and compare to original.
         checkDir(new File("data/kml"));
     }
+
+	@Test
+	public void test_parallel_same_output() throws Exception {
+		List<File> files = new ArrayList<File>();
+		listKmlFiles(new File("data/kml"), files);
+		int count = 0;
+		for (File file : files) {
+			List<IGISObject> objs = new ArrayList<IGISObject>();
+			KmlInputStream kis = new KmlInputStream(new FileInputStream(file));
+			try {
+				IGISObject o;
+				while ((o = kis.read()) != null) {
+					objs.add(o);
+				}
+			} catch (Exception e) {
+				// skip invalid test files
+				continue;
+			} finally {
+				kis.close();
+			}
+			for (String encoding : new String[] { null, "ISO-8859-1" }) {
+				byte[] serial = writeKml(objs, encoding, 0);
+				byte[] parallel = writeKml(objs, encoding, 3);
+				assertTrue(file + " " + encoding, Arrays.equals(serial, parallel));
+			}
+			count++;
+		}
+		assertTrue(count > 0);
+	}
+
+	/**
+	 * Compare the time to write many line features in nested folders on the
+	 * caller thread and with worker threads.
+	 */
+	@Test
+	public void test_parallel_throughput() throws Exception {
+		List<IGISObject> objs = new ArrayList<IGISObject>();
+		objs.add(new DocumentStart(DocumentType.KML));
+		for (int i = 0; i < 40000; i++) {
+			if (i % 1000 == 0) {
+				if (i > 0) objs.add(new ContainerEnd());
+				ContainerStart cs = new ContainerStart(IKml.FOLDER);
+				cs.setName("folder " + i);
+				objs.add(cs);
+			}
+			Feature f = createBasicFeature(Point.class);
+			List<Point> pts = new ArrayList<Point>();
+			for (int j = 0; j < 50; j++) {
+				pts.add(new Point(new Geodetic2DPoint(random)));
+			}
+			f.setGeometry(new Line(pts));
+			objs.add(f);
+		}
+		objs.add(new ContainerEnd());
+		int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		// warm up
+		writeKml(objs.subList(0, 5000), null, threads);
+		long start = System.nanoTime();
+		byte[] serial = writeKml(objs, null, 0);
+		long serialTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		byte[] parallel = writeKml(objs, null, threads);
+		long parallelTime = System.nanoTime() - start;
+		assertTrue(Arrays.equals(serial, parallel));
+		System.out.printf("KML output %d bytes: caller thread %d ms, %d threads %d ms%n",
+				serial.length, serialTime / 1000000, threads, parallelTime / 1000000);
+	}
+
+	private static byte[] writeKml(List<IGISObject> objs, String encoding, int threads)
+			throws XMLStreamException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		KmlOutputStream kos = new KmlOutputStream(bos, encoding);
+		KmlWriter writer = threads == 0 ? new KmlWriter(kos) : new KmlWriter(kos, threads);
+		try {
+			for (IGISObject o : objs) {
+				writer.write(o);
+			}
+		} finally {
+			writer.close();
+		}
+		return bos.toByteArray();
+	}
+
+	private static void listKmlFiles(File dir, List<File> files) {
+		File[] list = dir.listFiles();
+		if (list == null) return;
+		Arrays.sort(list);
+		for (File file : list) {
+			if (file.isDirectory()) listKmlFiles(file, files);
+			else if (file.getName().toLowerCase().endsWith(".kml")) files.add(file);
+		}
+	}
 }
@@ -22,6 +22,7 @@ import java.io.FileOutputStream;
 import java.net.URI;
 import java.net.URL;
 import java.util.List;
+import java.util.Random;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
@@ -47,6 +48,7 @@ import org.opensextant.giscore.output.XmlOutputStreamBase;
 import org.opensextant.giscore.output.kml.KmlOutputStream;
 import org.opensextant.giscore.output.kml.KmlWriter;
 import org.opensextant.giscore.output.kml.KmzOutputStream;
+import org.opensextant.giscore.utils.ParallelZipOutputStream;
 
 /**
  * This is basically just a subset of {@code TestKmlWriter} pointed at a
@@ -177,4 +179,40 @@ public class TestKmzOutputStream {
 		Assert.assertEquals(f, features.get(1));
 	}
 
+	@Test
+	public void testStoredEntryParallelDeflate() throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		KmzOutputStream kmzos = new KmzOutputStream(bos, null, 9, 2);
+		kmzos.write(new DocumentStart(DocumentType.KML));
+		Random random = new Random(1000);
+		for (int i = 0; i < 5000; i++) {
+			Feature f = new Feature();
+			f.setName("test " + i);
+			f.setGeometry(new Point(new Geodetic2DPoint(random)));
+			kmzos.write(f);
+		}
+		// random bytes like a compressed image
+		byte[] image = new byte[100000];
+		random.nextBytes(image);
+		kmzos.addEntry(new ByteArrayInputStream(image), "images/image.png", false);
+		kmzos.close();
+
+		ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(bos.toByteArray()));
+		ZipEntry entry = zis.getNextEntry();
+		Assert.assertEquals("doc.kml", entry.getName());
+		Assert.assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+		Assert.assertTrue(IOUtils.toByteArray(zis).length > 2 * ParallelZipOutputStream.BLOCK_SIZE);
+		entry = zis.getNextEntry();
+		Assert.assertEquals("images/image.png", entry.getName());
+		Assert.assertEquals(ZipEntry.STORED, entry.getMethod());
+		Assert.assertArrayEquals(image, IOUtils.toByteArray(zis));
+		Assert.assertNull(zis.getNextEntry());
+		zis.close();
+
+		KmlReader reader = new KmlReader(new ByteArrayInputStream(bos.toByteArray()),
+				new URL("http://localhost/test.kmz"), null);
+		List<IGISObject> features = reader.readAll(); // implicit close
+		Assert.assertEquals(5001, features.size());
+	}
+
 }
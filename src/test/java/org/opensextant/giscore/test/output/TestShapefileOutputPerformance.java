@@ -20,9 +20,16 @@ package org.opensextant.giscore.test.output;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.math.RandomUtils;
@@ -35,6 +42,7 @@ import org.opensextant.giscore.events.Row;
 import org.opensextant.giscore.events.Schema;
 import org.opensextant.giscore.events.SimpleField;
 import org.opensextant.giscore.events.SimpleField.Type;
+import org.opensextant.giscore.geometry.Line;
 import org.opensextant.giscore.geometry.Point;
 import org.opensextant.giscore.input.IGISInputStream;
 import org.opensextant.giscore.output.IGISOutputStream;
@@ -42,6 +50,8 @@ import org.opensextant.giscore.output.shapefile.SingleShapefileOutputHandler;
 import org.opensextant.giscore.test.TestGISBase;
 import org.opensextant.giscore.utils.FieldCachingObjectBuffer;
 
+import static org.junit.Assert.assertArrayEquals;
+
 /**
  * Create a shapefile with comp
  * 
@@ -138,6 +148,105 @@ public class TestShapefileOutputPerformance extends TestGISBase {
 		}
 	}
 
+	/**
+	 * Compare write throughput of the shp records written with the write
+	 * buffers against a positional write for each record as the handler did
+	 * before. Both write the same bytes.
+	 */
+	@Test public void testWriteThroughput() throws Exception {
+		final int count = 5000;
+		Schema schema = new Schema(new URI("urn:test"));
+		SimpleField id = new SimpleField("id", Type.INT);
+		schema.put(id);
+		FieldCachingObjectBuffer buffer = new FieldCachingObjectBuffer();
+		File dir = new File(tempdir, "throughput");
+		try {
+			for (int i = 0; i < count; i++) {
+				List<Point> pts = new ArrayList<Point>(20);
+				for (int j = 0; j < 20; j++) {
+					pts.add(new Point(RandomUtils.nextDouble() * 5.0 + 30.0,
+							RandomUtils.nextDouble() * 5.0 + 30.0));
+				}
+				Feature f = new Feature();
+				f.setGeometry(new Line(pts));
+				f.putData(id, i);
+				buffer.write(f);
+			}
+			long start = System.nanoTime();
+			new SingleShapefileOutputHandler(schema, null, buffer, dir, "lines", null).process();
+			long handlerTime = System.nanoTime() - start;
+			File shp = new File(dir, "lines.shp");
+			File shx = new File(dir, "lines.shx");
+			File dbf = new File(dir, "lines.dbf");
+			byte[] records = FileUtils.readFileToByteArray(shp);
+			File positional = new File(dir, "positional.shp");
+			File combined = new File(dir, "combined.shp");
+			// warm up
+			writeRecords(records, positional, false);
+			writeRecords(records, combined, true);
+			start = System.nanoTime();
+			writeRecords(records, positional, false);
+			long positionalTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			writeRecords(records, combined, true);
+			long combinedTime = System.nanoTime() - start;
+			assertArrayEquals(records, FileUtils.readFileToByteArray(positional));
+			assertArrayEquals(records, FileUtils.readFileToByteArray(combined));
+
+			System.out.format("Shapefile output of %d records read from the buffer: %.1f MB/s%n", count,
+					mbPerSec(shp.length() + shx.length() + dbf.length(), handlerTime));
+			System.out.format("  record per write:  %.1f MB/s%n", mbPerSec(records.length, positionalTime));
+			System.out.format("  buffered writes:   %.1f MB/s%n", mbPerSec(records.length, combinedTime));
+		} finally {
+			buffer.close();
+			if (autoDelete) FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	/**
+	 * Write the shp records, either each with its own positional writes or
+	 * collected in a large buffer, followed by the header.
+	 */
+	private static void writeRecords(byte[] shp, File file, boolean buffered) throws IOException {
+		FileOutputStream os = new FileOutputStream(file);
+		try {
+			FileChannel channel = os.getChannel();
+			ByteBuffer wbuf = ByteBuffer.allocateDirect(256 * 1024);
+			channel.position(100);
+			int offset = 100;
+			while (offset < shp.length) {
+				int len = 8 + 2 * ByteBuffer.wrap(shp, offset + 4, 4).getInt();
+				if (buffered) {
+					if (wbuf.remaining() < len) {
+						wbuf.flip();
+						while (wbuf.hasRemaining()) channel.write(wbuf);
+						wbuf.clear();
+					}
+					wbuf.put(shp, offset, len);
+				} else {
+					ByteBuffer hbuffer = ByteBuffer.allocate(12);
+					hbuffer.put(shp, offset, 12);
+					hbuffer.flip();
+					channel.write(hbuffer, offset);
+					ByteBuffer obuf = ByteBuffer.allocate(len - 12);
+					obuf.put(shp, offset + 12, len - 12);
+					obuf.flip();
+					channel.write(obuf, offset + 12);
+				}
+				offset += len;
+			}
+			wbuf.flip();
+			while (wbuf.hasRemaining()) channel.write(wbuf);
+			channel.write(ByteBuffer.wrap(shp, 0, 100), 0);
+		} finally {
+			os.close();
+		}
+	}
+
+	private static double mbPerSec(long bytes, long nanos) {
+		return bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+	}
+
 	private Object getRandomText(SimpleField simpleTextField) {
 		int len = simpleTextField.getLength();
 		StringBuilder sb = new StringBuilder(20);
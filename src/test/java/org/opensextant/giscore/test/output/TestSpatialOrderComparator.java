@@ -0,0 +1,164 @@
+/****************************************************************************************
+ *  TestSpatialOrderComparator.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.test.output;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.Row;
+import org.opensextant.giscore.events.SimpleField;
+import org.opensextant.giscore.geometry.Point;
+import org.opensextant.giscore.output.FeatureKey;
+import org.opensextant.giscore.output.FeatureSorter;
+import org.opensextant.giscore.output.SpatialOrderComparator;
+import org.opensextant.giscore.output.SpatialOrderComparator.Curve;
+import org.opensextant.giscore.test.TestGISBase;
+import org.opensextant.giscore.utils.ObjectBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the space filling curves and the external merge sort of the feature
+ * sorter.
+ */
+public class TestSpatialOrderComparator extends TestGISBase {
+
+	@Test
+	public void testHilbertCurve() {
+		// the curve fills the 16 x 16 cells at the origin before leaving them
+		final int n = 16;
+		int cells[][] = new int[n * n][];
+		for (int x = 0; x < n; x++) {
+			for (int y = 0; y < n; y++) {
+				long d = SpatialOrderComparator.hilbertIndex(x, y);
+				assertTrue(d < n * n);
+				assertNull(cells[(int) d]);
+				cells[(int) d] = new int[] { x, y };
+			}
+		}
+		// consecutive cells are adjacent
+		for (int d = 1; d < n * n; d++) {
+			int dx = Math.abs(cells[d][0] - cells[d - 1][0]);
+			int dy = Math.abs(cells[d][1] - cells[d - 1][1]);
+			assertEquals(1, dx + dy);
+		}
+		long max = SpatialOrderComparator.hilbertIndex(Integer.MAX_VALUE, 0);
+		assertEquals((1L << 62) - 1, max);
+	}
+
+	@Test
+	public void testMortonCurve() {
+		assertEquals(0, SpatialOrderComparator.mortonIndex(0, 0));
+		assertEquals(1, SpatialOrderComparator.mortonIndex(1, 0));
+		assertEquals(2, SpatialOrderComparator.mortonIndex(0, 1));
+		assertEquals(15, SpatialOrderComparator.mortonIndex(3, 3));
+		assertEquals((1L << 62) - 1, SpatialOrderComparator.mortonIndex(Integer.MAX_VALUE, Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void testSpatialSort() throws Exception {
+		for (Curve curve : Curve.values()) {
+			SpatialOrderComparator comparator = new SpatialOrderComparator(curve);
+			List<Row> rows = sort(comparator, 5000);
+			for (int i = 1; i < rows.size(); i++) {
+				assertTrue(comparator.getIndex(rows.get(i - 1)) <= comparator.getIndex(rows.get(i)));
+			}
+			// rows without geometry are last
+			assertEquals(Long.MAX_VALUE, comparator.getIndex(rows.get(rows.size() - 1)));
+		}
+	}
+
+	@Test
+	public void testFieldSort() throws Exception {
+		final SimpleField rank = new SimpleField("rank", SimpleField.Type.INT);
+		final SimpleField seq = new SimpleField("seq", SimpleField.Type.INT);
+		FeatureSorter sorter = new FeatureSorter(false, 32 * 1024);
+		sorter.setOrder(new Comparator<Row>() {
+			public int compare(Row r1, Row r2) {
+				return (Integer) r1.getData(rank) - (Integer) r2.getData(rank);
+			}
+		});
+		for (int i = 0; i < 5000; i++) {
+			Feature f = createBasicFeature(Point.class);
+			f.putData(rank, random.nextInt(10));
+			f.putData(seq, i);
+			sorter.add(f, null);
+		}
+		try {
+			sorter.setOrder(null);
+			fail("expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		FeatureKey key = sorter.keys().iterator().next();
+		ObjectBuffer buffer = sorter.getBuffer(key);
+		Row last = (Row) buffer.read();
+		int count = 1;
+		Row row;
+		while ((row = (Row) buffer.read()) != null) {
+			int r1 = (Integer) last.getData(rank);
+			int r2 = (Integer) row.getData(rank);
+			assertTrue(r1 <= r2);
+			// equal rows keep the order they were added
+			if (r1 == r2) assertTrue((Integer) last.getData(seq) < (Integer) row.getData(seq));
+			last = row;
+			count++;
+		}
+		assertEquals(5000, count);
+		sorter.cleanup();
+	}
+
+	/**
+	 * Sort features with a small memory budget so there are more runs than
+	 * are merged at once.
+	 */
+	private List<Row> sort(Comparator<Row> comparator, int count) throws Exception {
+		FeatureSorter sorter = new FeatureSorter(false, 16 * 1024);
+		sorter.setOrder(comparator);
+		List<Row> expected = new ArrayList<Row>();
+		for (int i = 0; i < count; i++) {
+			Feature f = i % 100 == 0 ? new Feature() : createBasicFeature(Point.class);
+			expected.add(f);
+			sorter.add(f, null);
+		}
+		Collections.sort(expected, comparator);
+		// features without geometry have a different key
+		Map<Class<?>, List<Row>> byGeometry = new HashMap<Class<?>, List<Row>>();
+		List<Row> rows = new ArrayList<Row>();
+		for (FeatureKey key : sorter.keys()) {
+			ObjectBuffer buffer = sorter.getBuffer(key);
+			List<Row> list = new ArrayList<Row>();
+			Row row;
+			while ((row = (Row) buffer.read()) != null) {
+				list.add(row);
+			}
+			byGeometry.put(key.getGeoclass(), list);
+		}
+		rows.addAll(byGeometry.get(Point.class));
+		rows.addAll(byGeometry.get(null));
+		assertEquals(expected, rows);
+		sorter.cleanup();
+		return rows;
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ *  TestStreamingShapefileOutput.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ */
+package org.opensextant.giscore.test.output;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.events.Schema;
+import org.opensextant.giscore.events.SimpleField;
+import org.opensextant.giscore.geometry.Line;
+import org.opensextant.giscore.geometry.Point;
+import org.opensextant.giscore.input.shapefile.SingleShapefileInputHandler;
+import org.opensextant.giscore.output.shapefile.SingleShapefileOutputHandler;
+import org.opensextant.giscore.output.shapefile.StreamingShapefileOutputStream;
+import org.opensextant.giscore.test.TestGISBase;
+import org.opensextant.giscore.utils.FieldCachingObjectBuffer;
+import org.opensextant.giscore.utils.ObjectBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the single pass shapefile output against the buffered output of the
+ * same features.
+ */
+public class TestStreamingShapefileOutput extends TestGISBase {
+
+	private static final String[] SHAPEFILES = {
+		"points", "pointz", "multipoint", "lines", "linez", "multilines",
+		"rings", "ringz", "multirings", "polys", "polyz", "multipolys",
+		"multipolyz", "afghanistan", "counties67"
+	};
+
+	@Test
+	public void testSameAsBuffered() throws Exception {
+		File dir = new File(tempdir, "streaming" + System.nanoTime());
+		for (String name : SHAPEFILES) {
+			File buffered = new File(dir, "buffered");
+			File streamed = new File(dir, "streamed");
+			Schema schema = null;
+			ObjectBuffer buffer = new FieldCachingObjectBuffer();
+			StreamingShapefileOutputStream os = null;
+			SingleShapefileInputHandler handler = new SingleShapefileInputHandler(new File("data/shape"), name);
+			try {
+				IGISObject ob;
+				while ((ob = handler.read()) != null) {
+					if (ob instanceof Schema) {
+						schema = (Schema) ob;
+						os = new StreamingShapefileOutputStream(streamed, name, schema);
+					} else if (ob instanceof Feature) {
+						buffer.write((Feature) ob);
+						os.write(ob);
+					}
+				}
+				os.close();
+				new SingleShapefileOutputHandler(schema, null, buffer, buffered, name, null).process();
+			} finally {
+				handler.close();
+				buffer.close();
+			}
+			for (String ext : new String[] { ".shp", ".shx", ".dbf", ".prj" }) {
+				assertArrayEquals(name + ext,
+						FileUtils.readFileToByteArray(new File(buffered, name + ext)),
+						FileUtils.readFileToByteArray(new File(streamed, name + ext)));
+			}
+		}
+		if (autoDelete) FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		File dir = new File(tempdir, "streaming" + System.nanoTime());
+		Schema schema = createSchema();
+		StreamingShapefileOutputStream os = new StreamingShapefileOutputStream(dir, "empty", schema);
+		// skipped since there is no geometry
+		os.write(new Feature());
+		os.close();
+		assertEquals(100, new File(dir, "empty.shp").length());
+		assertEquals(100, new File(dir, "empty.shx").length());
+		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(dir, "empty");
+		try {
+			assertTrue(handler.read() instanceof Schema);
+			assertNull(handler.read());
+		} finally {
+			handler.close();
+		}
+		if (autoDelete) FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void testMixedGeometry() throws Exception {
+		File dir = new File(tempdir, "streaming" + System.nanoTime());
+		Schema schema = createSchema();
+		StreamingShapefileOutputStream os = new StreamingShapefileOutputStream(dir, "mixed", schema);
+		try {
+			Feature f = new Feature();
+			f.setGeometry(new Point(40.0, 40.0));
+			os.write(f);
+			f = new Feature();
+			f.setGeometry(new Line(Arrays.asList(new Point(40.0, 40.0), new Point(41.0, 41.0))));
+			os.write(f);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		} finally {
+			os.close();
+		}
+		if (autoDelete) FileUtils.deleteDirectory(dir);
+	}
+
+	private static Schema createSchema() {
+		Schema schema = new Schema(URI.create("urn:test"));
+		SimpleField id = new SimpleField("testid");
+		id.setLength(10);
+		schema.put(id);
+		return schema;
+	}
+}
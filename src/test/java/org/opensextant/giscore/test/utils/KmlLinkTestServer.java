@@ -0,0 +1,204 @@
+/*
+ *  KmlLinkTestServer.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ */
+package org.opensextant.giscore.test.utils;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Ignore;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+/**
+ * Local HTTP server that generates a tree of linked KML documents. Document
+ * <tt>/doc/N.kml</tt> has a single Placemark and NetworkLinks to documents
+ * 2N+1 and 2N+2 if they exist, and a NetworkLink back to the root document.
+ * The number of requests and the maximum number of concurrent requests are
+ * recorded. Each document has an ETag that changes with the content version
+ * and conditional requests with a matching ETag get a 304 response.
+ * All documents are also served as entries <tt>N.kml</tt> of the KMZ file
+ * <tt>/doc/tree.kmz</tt> where the links are relative to the archive.
+ */
+@Ignore
+public class KmlLinkTestServer extends Server {
+
+	public static final String KML_MIME_TYPE = "application/vnd.google-earth.kml+xml";
+	public static final String KMZ_MIME_TYPE = "application/vnd.google-earth.kmz";
+
+	private final int documents;
+	private volatile long delay;
+	private volatile int version;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger maxActive = new AtomicInteger();
+	private final AtomicInteger notModified = new AtomicInteger();
+
+	/**
+	 * @param documents number of documents in the tree
+	 */
+	public KmlLinkTestServer(int documents) {
+		super(0);
+		this.documents = documents;
+		setHandler(new AbstractHandler() {
+			public void handle(String target, HttpServletRequest request,
+							   HttpServletResponse response, int dispatch) throws IOException {
+				int n = active.incrementAndGet();
+				try {
+					requests.incrementAndGet();
+					int max;
+					while (n > (max = maxActive.get()) && !maxActive.compareAndSet(max, n)) {
+						// retry
+					}
+					if (delay > 0) {
+						try {
+							Thread.sleep(delay);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					serve(target, request, response);
+					((Request) request).setHandled(true);
+				} finally {
+					active.decrementAndGet();
+				}
+			}
+		});
+	}
+
+	private void serve(String target, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		if (target.equals("/doc/tree.kmz")) {
+			response.setContentType(KMZ_MIME_TYPE);
+			ZipOutputStream zos = new ZipOutputStream(response.getOutputStream());
+			for (int id = 0; id < documents; id++) {
+				zos.putNextEntry(new ZipEntry(id + ".kml"));
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(zos, "UTF-8"));
+				writeDocument(out, id);
+				out.flush();
+				zos.closeEntry();
+			}
+			zos.finish();
+			return;
+		}
+		int id = -1;
+		if (target.startsWith("/doc/") && target.endsWith(".kml")) {
+			try {
+				id = Integer.parseInt(target.substring(5, target.length() - 4));
+			} catch (NumberFormatException e) {
+				// not found
+			}
+		}
+		if (id < 0 || id >= documents) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		String eTag = "\"" + id + "-" + version + "\"";
+		if (eTag.equals(request.getHeader("If-None-Match"))) {
+			notModified.incrementAndGet();
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		response.setHeader("ETag", eTag);
+		response.setContentType(KML_MIME_TYPE);
+		writeDocument(response.getWriter(), id);
+	}
+
+	private void writeDocument(PrintWriter out, int id) {
+		out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		out.println("<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Document>");
+		out.println("<name>doc " + id + " version " + version + "</name>");
+		out.println("<Placemark><name>placemark " + id + "</name>");
+		out.println("<Point><coordinates>" + (id % 360 - 180) + ",0</coordinates></Point></Placemark>");
+		for (int child = 2 * id + 1; child <= 2 * id + 2; child++) {
+			if (child < documents) writeLink(out, child);
+		}
+		writeLink(out, 0);
+		out.println("</Document></kml>");
+	}
+
+	private static void writeLink(PrintWriter out, int id) {
+		out.println("<NetworkLink><name>link " + id + "</name><Link><href>" + id
+				+ ".kml</href></Link></NetworkLink>");
+	}
+
+	public int getPort() {
+		return getConnectors()[0].getLocalPort();
+	}
+
+	/**
+	 * @return URL of the given document
+	 */
+	public URL getUrl(int id) throws MalformedURLException {
+		return new URL("http://localhost:" + getPort() + "/doc/" + id + ".kml");
+	}
+
+	/**
+	 * @return URL of the KMZ file with all documents
+	 */
+	public URL getKmzUrl() throws MalformedURLException {
+		return new URL("http://localhost:" + getPort() + "/doc/tree.kmz");
+	}
+
+	/**
+	 * Set delay in milliseconds before each response is sent
+	 */
+	public void setDelay(long delay) {
+		this.delay = delay;
+	}
+
+	/**
+	 * Set version of the content, which changes the ETag of every document
+	 */
+	public void setVersion(int version) {
+		this.version = version;
+	}
+
+	public int getRequestCount() {
+		return requests.get();
+	}
+
+	public int getMaxConcurrentRequests() {
+		return maxActive.get();
+	}
+
+	/**
+	 * @return number of conditional requests answered with 304 Not Modified
+	 */
+	public int getNotModifiedCount() {
+		return notModified.get();
+	}
+
+	/**
+	 * Wait for requests in progress to finish and reset the counts
+	 */
+	public void reset() throws InterruptedException {
+		for (int i = 0; i < 100 && active.get() != 0; i++) {
+			Thread.sleep(50);
+		}
+		requests.set(0);
+		maxActive.set(0);
+		notModified.set(0);
+	}
+}
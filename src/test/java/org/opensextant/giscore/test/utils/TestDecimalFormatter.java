@@ -0,0 +1,138 @@
+/****************************************************************************************
+ *  TestDecimalFormatter.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.test.utils;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opensextant.giscore.utils.DecimalFormatter;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test that the decimal formatter gives the same text as DecimalFormat and
+ * compare their throughput.
+ */
+public class TestDecimalFormatter {
+
+	private static final double SPECIAL[] = {
+			0.0, -0.0, 1.0, -1.0, 0.5, 1.5, 2.5, -2.5,
+			// exact ties at the 11th decimal place
+			1 / 2048.0, -1 / 2048.0, 3 / 2048.0,
+			-34.93, 179.99999999995, -179.999999999951, 0.99999999999, 9.99999999995,
+			1e-12, -1e-12, 5e-11, 0.0078125, 0.0078124, 1e5, 123456.78901234,
+			Long.MAX_VALUE, 1e19, -1e300, Double.MIN_VALUE, Double.MAX_VALUE,
+			Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+	};
+
+	@Test
+	public void testSameAsDecimalFormat() {
+		Random random = new Random(1000);
+		for (int digits = 0; digits <= DecimalFormatter.MAX_FRACTION_DIGITS; digits++) {
+			DecimalFormat format = createDecimalFormat(digits);
+			DecimalFormatter formatter = new DecimalFormatter(digits);
+			for (double d : SPECIAL) {
+				assertEquals(digits + ": " + d, format.format(d), formatter.format(d));
+			}
+			for (int i = 0; i < 20000; i++) {
+				double d;
+				switch (i % 4) {
+					case 0:
+						// coordinates
+						d = random.nextDouble() * 360 - 180;
+						break;
+					case 1:
+						// any bits
+						d = Double.longBitsToDouble(random.nextLong());
+						break;
+					case 2:
+						// short decimals
+						d = Math.round(random.nextDouble() * 1e6) / 1e4 - 50;
+						break;
+					default:
+						// binary fractions, which may be exact ties
+						d = random.nextInt(1 << 20) / (double) (1L << random.nextInt(40)) - 10;
+				}
+				assertEquals(digits + ": " + d, format.format(d), formatter.format(d));
+			}
+		}
+	}
+
+	@Test
+	public void testCharArray() {
+		DecimalFormatter formatter = new DecimalFormatter(10);
+		char buf[] = new char[2 + DecimalFormatter.MAX_LENGTH];
+		buf[0] = '[';
+		int end = formatter.format(-Double.MAX_VALUE, buf, 1);
+		buf[end++] = ']';
+		assertEquals("[" + createDecimalFormat(10).format(-Double.MAX_VALUE) + "]", new String(buf, 0, end));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyDigits() {
+		new DecimalFormatter(DecimalFormatter.MAX_FRACTION_DIGITS + 1);
+	}
+
+	/**
+	 * Compare the time to format coordinates with DecimalFormat and with the
+	 * formatter into a String and into a character array.
+	 */
+	@Test
+	public void testThroughput() {
+		final int count = 1000000;
+		double values[] = new double[count];
+		Random random = new Random(1000);
+		for (int i = 0; i < count; i++) {
+			values[i] = random.nextDouble() * 360 - 180;
+		}
+		DecimalFormat format = createDecimalFormat(10);
+		DecimalFormatter formatter = new DecimalFormatter(10);
+		char buf[] = new char[DecimalFormatter.MAX_LENGTH];
+		long total = 0;
+		// warm up
+		for (int i = 0; i < count / 10; i++) {
+			total += format.format(values[i]).length() + formatter.format(values[i], buf, 0);
+		}
+		long start = System.nanoTime();
+		for (double d : values) {
+			total += format.format(d).length();
+		}
+		long decimalFormat = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (double d : values) {
+			total += formatter.format(d).length();
+		}
+		long string = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (double d : values) {
+			total += formatter.format(d, buf, 0);
+		}
+		long chars = System.nanoTime() - start;
+		System.out.printf("DecimalFormat %.0f ns, DecimalFormatter String %.0f ns, char[] %.0f ns per value (%d)%n",
+				(double) decimalFormat / count, (double) string / count, (double) chars / count, total);
+	}
+
+	private static DecimalFormat createDecimalFormat(int digits) {
+		StringBuilder pattern = new StringBuilder("0");
+		if (digits > 0) {
+			pattern.append('.');
+			for (int i = 0; i < digits; i++) pattern.append('#');
+		}
+		return new DecimalFormat(pattern.toString(), new DecimalFormatSymbols(Locale.US));
+	}
+}
@@ -18,6 +18,9 @@
  ***************************************************************************************/
 package org.opensextant.giscore.test.utils;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -25,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.math.RandomUtils;
 import org.junit.Test;
 import org.opensextant.giscore.events.Feature;
@@ -32,13 +36,19 @@ import org.opensextant.giscore.events.Row;
 import org.opensextant.giscore.events.Schema;
 import org.opensextant.giscore.events.SimpleField;
 import org.opensextant.giscore.geometry.Point;
+import org.opensextant.giscore.utils.Color;
 import org.opensextant.giscore.utils.FieldCachingObjectBuffer;
 import org.opensextant.giscore.utils.IDataSerializable;
 import org.opensextant.giscore.utils.ObjectBuffer;
+import org.opensextant.giscore.utils.SimpleFieldCacher;
+import org.opensextant.giscore.utils.SimpleObjectInputStream;
+import org.opensextant.giscore.utils.SimpleObjectOutputStream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Test object buffers for several different scenarios
@@ -142,6 +152,174 @@ public class TestObjectBuffer {
         }
 	}
 
+	@Test
+	public void testMixedValues() throws Exception {
+		ObjectBuffer buffer = new FieldCachingObjectBuffer(3);
+		doTest(setupMixedTest(50, buffer), buffer);
+	}
+
+	@Test
+	public void testCompressed() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "spill" + System.nanoTime());
+		assertTrue(dir.mkdirs());
+		try {
+			ObjectBuffer buffer = new FieldCachingObjectBuffer(3);
+			buffer.setCompressed(true);
+			buffer.setSpillDirectory(dir);
+			IDataSerializable objects[] = setupMixedTest(50, buffer);
+			assertEquals(1, dir.list().length);
+			try {
+				buffer.setCompressed(false);
+				fail("expected IllegalStateException");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+			doTest(objects, buffer);
+			// secondary store is deleted when closed
+			assertEquals(0, dir.list().length);
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	public void testReset() throws Exception {
+		ObjectBuffer buffer = new FieldCachingObjectBuffer(3);
+		IDataSerializable objects[] = setupMixedTest(10, buffer);
+		for (int i = 0; i < 5; i++) {
+			assertEquals(objects[i], buffer.read());
+		}
+		buffer.resetReadIndex();
+		doTest(objects, buffer);
+	}
+
+	@Test
+	public void testWriteAfterRead() throws Exception {
+		ObjectBuffer buffer = new FieldCachingObjectBuffer(3);
+		setupTest(5, buffer);
+		try {
+			// the fourth object is read from the secondary store
+			for (int i = 0; i < 4; i++) {
+				assertNotNull(buffer.read());
+			}
+			try {
+				buffer.write(new Row());
+				fail("expected IllegalStateException");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		} finally {
+			buffer.close();
+		}
+	}
+
+	/**
+	 * Compare the spill throughput and size of the secondary store of the
+	 * original format, which wrote directly to the file, with the compact
+	 * buffered format with and without compression.
+	 */
+	@Test
+	public void testSpillThroughput() throws Exception {
+		final int count = 20000;
+		ObjectBuffer source = new FieldCachingObjectBuffer(count);
+		IDataSerializable objects[];
+		try {
+			objects = setupMixedTest(count, source);
+		} finally {
+			source.close();
+		}
+
+		File file = File.createTempFile("obj", ".buffer");
+		try {
+			long start = System.nanoTime();
+			SimpleObjectOutputStream os = new SimpleObjectOutputStream(new FileOutputStream(file),
+					new SimpleFieldCacher());
+			try {
+				for (IDataSerializable object : objects) {
+					os.writeObject(object);
+				}
+			} finally {
+				os.close();
+			}
+			long mid = System.nanoTime();
+			SimpleObjectInputStream is = new SimpleObjectInputStream(new FileInputStream(file));
+			try {
+				for (IDataSerializable object : objects) {
+					assertEquals(object, is.readObject());
+				}
+			} finally {
+				is.close();
+			}
+			report("original", count, file.length(), start, mid, System.nanoTime());
+		} finally {
+			if (!file.delete()) file.deleteOnExit();
+		}
+
+		for (boolean compressed : new boolean[] { false, true }) {
+			ObjectBuffer buffer = new FieldCachingObjectBuffer(1);
+			buffer.setCompressed(compressed);
+			try {
+				long start = System.nanoTime();
+				for (IDataSerializable object : objects) {
+					buffer.write(object);
+				}
+				buffer.closeOutputStream();
+				long mid = System.nanoTime();
+				for (IDataSerializable object : objects) {
+					assertEquals(object, buffer.read());
+				}
+				report(compressed ? "compressed" : "compact", count, buffer.getSpillSize(),
+						start, mid, System.nanoTime());
+			} finally {
+				buffer.close();
+			}
+		}
+	}
+
+	private static void report(String format, int count, long size, long start, long mid, long end) {
+		System.out.printf("%-10s %8d bytes  spill %8.0f objects/s  replay %8.0f objects/s%n",
+				format, size, count * 1e9 / (mid - start), count * 1e9 / (end - mid));
+	}
+
+	/**
+	 * Rows with values of each supported type, including <code>null</code>
+	 * and a value that is missing, so more than one field layout is written.
+	 */
+	private IDataSerializable[] setupMixedTest(int count, ObjectBuffer buffer)
+			throws URISyntaxException, IOException {
+		URI suri = new URI("urn:mitre:test:mixed");
+		SimpleField fields[] = {
+				new SimpleField("text"),
+				new SimpleField("int", SimpleField.Type.INT),
+				new SimpleField("long", SimpleField.Type.LONG),
+				new SimpleField("short", SimpleField.Type.SHORT),
+				new SimpleField("double", SimpleField.Type.DOUBLE),
+				new SimpleField("float", SimpleField.Type.FLOAT),
+				new SimpleField("bool", SimpleField.Type.BOOL),
+				new SimpleField("date", SimpleField.Type.DATE),
+				new SimpleField("color", SimpleField.Type.STRING)
+		};
+		IDataSerializable objects[] = new IDataSerializable[count];
+		for (int i = 0; i < count; i++) {
+			Row r = new Row();
+			r.setSchema(suri);
+			r.putData(fields[0], i % 7 == 0 ? null : "test text " + i);
+			r.putData(fields[1], i * 1000003);
+			r.putData(fields[2], -1L - ((long) i << 40));
+			r.putData(fields[3], (short) -i);
+			r.putData(fields[4], i / 3.0);
+			r.putData(fields[5], i / 7.0f);
+			if (i % 5 != 0) {
+				r.putData(fields[6], i % 2 == 0);
+			}
+			r.putData(fields[7], new Date(1262304000000L + i * 60000L));
+			r.putData(fields[8], new Color(i & 0xff, 10, 20, 255));
+			objects[i] = r;
+			buffer.write(r);
+		}
+		return objects;
+	}
+
 	private IDataSerializable[] setupTest(int count, ObjectBuffer buffer)
 			throws URISyntaxException, IOException {
 		URI suri = new URI("urn:mitre:test:uri1");
@@ -0,0 +1,151 @@
+/****************************************************************************************
+ *  TestObjectBufferPool.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.test.utils;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.opensextant.giscore.GISFactory;
+import org.opensextant.giscore.events.Row;
+import org.opensextant.giscore.events.SimpleField;
+import org.opensextant.giscore.utils.IDataSerializable;
+import org.opensextant.giscore.utils.ObjectBuffer;
+import org.opensextant.giscore.utils.ObjectBufferPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test buffers sharing the memory budget and spill file of a pool.
+ */
+public class TestObjectBufferPool {
+
+	private static final SimpleField TEXT = new SimpleField("text");
+
+	@Test
+	public void testLargestFirst() throws Exception {
+		ObjectBufferPool pool = new ObjectBufferPool(100 * 1024);
+		try {
+			ObjectBuffer large = pool.createBuffer();
+			ObjectBuffer small = pool.createBuffer();
+			List<Row> largeRows = new ArrayList<Row>();
+			List<Row> smallRows = new ArrayList<Row>();
+			for (int i = 0; i < 2000; i++) {
+				Row row = createRow(i);
+				if (i % 20 == 0) {
+					smallRows.add(row);
+					small.write(row);
+				} else {
+					largeRows.add(row);
+					large.write(row);
+				}
+			}
+			assertTrue(large.getSpillSize() > 0);
+			assertEquals(0, small.getSpillSize());
+			assertTrue(pool.getMemoryUsed() <= pool.getMemoryBudget());
+			assertEquals(pool.getSpillSize(), large.getSpillSize());
+			checkRows(largeRows, large);
+			checkRows(smallRows, small);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testReadWhileWriting() throws Exception {
+		ObjectBufferPool pool = new ObjectBufferPool(10 * 1024);
+		try {
+			ObjectBuffer reading = pool.createBuffer();
+			ObjectBuffer other = pool.createBuffer();
+			List<Row> rows = new ArrayList<Row>();
+			for (int i = 0; i < 200; i++) {
+				Row row = createRow(i);
+				rows.add(row);
+				reading.write(row);
+			}
+			assertTrue(pool.getChunkCount() > 0);
+			for (int i = 0; i < 100; i++) {
+				assertEquals(rows.get(i), reading.read());
+			}
+			// a buffer being read is not spilled, others are
+			long spilled = reading.getSpillSize();
+			for (int i = 0; i < 500; i++) {
+				other.write(createRow(i));
+			}
+			assertEquals(spilled, reading.getSpillSize());
+			assertTrue(other.getSpillSize() > 0);
+			for (int i = 100; i < 200; i++) {
+				assertEquals(rows.get(i), reading.read());
+			}
+			assertNull(reading.read());
+			reading.resetReadIndex();
+			checkRows(rows, reading);
+			other.close();
+			assertEquals(0, other.count());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testCompressed() throws Exception {
+		GISFactory.spillCompression.set(true);
+		ObjectBufferPool pool;
+		try {
+			pool = new ObjectBufferPool(10 * 1024);
+		} finally {
+			GISFactory.spillCompression.set(false);
+		}
+		try {
+			List<ObjectBuffer> buffers = new ArrayList<ObjectBuffer>();
+			List<List<Row>> rows = new ArrayList<List<Row>>();
+			for (int i = 0; i < 50; i++) {
+				buffers.add(pool.createBuffer());
+				rows.add(new ArrayList<Row>());
+			}
+			for (int i = 0; i < 5000; i++) {
+				Row row = createRow(i);
+				rows.get(i % 50).add(row);
+				buffers.get(i % 50).write(row);
+			}
+			assertTrue(pool.getChunkCount() > 50);
+			for (int i = 0; i < 50; i++) {
+				assertTrue(buffers.get(i).isCompressed());
+				checkRows(rows.get(i), buffers.get(i));
+			}
+		} finally {
+			pool.close();
+		}
+	}
+
+	private static Row createRow(int i) {
+		Row row = new Row();
+		row.setSchema(URI.create("urn:test:pool"));
+		row.putData(TEXT, "test text " + i);
+		return row;
+	}
+
+	private static void checkRows(List<Row> rows, ObjectBuffer buffer) throws Exception {
+		assertEquals(rows.size(), buffer.count());
+		for (Row row : rows) {
+			IDataSerializable ob = buffer.read();
+			assertEquals(row, ob);
+		}
+		assertNull(buffer.read());
+	}
+}
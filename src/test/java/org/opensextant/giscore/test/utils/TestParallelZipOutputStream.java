@@ -0,0 +1,251 @@
+/****************************************************************************************
+ *  TestParallelZipOutputStream.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.test.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Test;
+import org.opensextant.giscore.utils.ParallelZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test that zip files deflated in blocks on several threads can be read by
+ * <code>ZipFile</code> and <code>ZipInputStream</code>, and compare the
+ * throughput with <code>ZipOutputStream</code>. The size of the synthetic KML
+ * written by the benchmark is set in megabytes by the system property
+ * <tt>giscore.benchmark.kmzMB</tt> (e.g. 500).
+ */
+public class TestParallelZipOutputStream {
+
+	private static final String[] NAMES = { "doc.kml", "empty.txt", "small.txt", "images/image.png", "files/child.kml" };
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		byte[][] contents = createContents();
+		byte[] zip = writeZip(contents, 3, Deflater.DEFAULT_COMPRESSION);
+
+		// read with the central directory
+		File temp = File.createTempFile("test", ".zip");
+		try {
+			FileOutputStream fos = new FileOutputStream(temp);
+			fos.write(zip);
+			fos.close();
+			ZipFile zipFile = new ZipFile(temp);
+			try {
+				Enumeration<? extends ZipEntry> entries = zipFile.entries();
+				for (int i = 0; i < NAMES.length; i++) {
+					ZipEntry entry = entries.nextElement();
+					assertEquals(NAMES[i], entry.getName());
+					assertEquals(contents[i].length, entry.getSize());
+					assertEquals(i == 3 ? ZipEntry.STORED : ZipEntry.DEFLATED, entry.getMethod());
+					assertArrayEquals(contents[i], IOUtils.toByteArray(zipFile.getInputStream(entry)));
+				}
+				assertFalse(entries.hasMoreElements());
+			} finally {
+				zipFile.close();
+			}
+		} finally {
+			temp.delete();
+		}
+
+		// read with the local headers and data descriptors
+		ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip));
+		for (int i = 0; i < NAMES.length; i++) {
+			ZipEntry entry = zis.getNextEntry();
+			assertEquals(NAMES[i], entry.getName());
+			assertArrayEquals(contents[i], IOUtils.toByteArray(zis));
+		}
+		assertNull(zis.getNextEntry());
+		zis.close();
+	}
+
+	@Test
+	public void testSameForAnyThreads() throws Exception {
+		byte[][] contents = createContents();
+		byte[] zip = writeZip(contents, 1, Deflater.DEFAULT_COMPRESSION);
+		assertArrayEquals(zip, writeZip(contents, 4, Deflater.DEFAULT_COMPRESSION));
+	}
+
+	@Test
+	public void testLevels() throws Exception {
+		byte[][] contents = createContents();
+		byte[] stored = writeZip(contents, 2, Deflater.NO_COMPRESSION);
+		byte[] best = writeZip(contents, 2, Deflater.BEST_COMPRESSION);
+		assertTrue(stored.length > contents[0].length);
+		assertTrue(best.length < contents[0].length / 2);
+		for (byte[] zip : new byte[][] { stored, best }) {
+			ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip));
+			assertEquals(NAMES[0], zis.getNextEntry().getName());
+			assertArrayEquals(contents[0], IOUtils.toByteArray(zis));
+			zis.close();
+		}
+	}
+
+	@Test
+	public void testInvalidEntries() throws Exception {
+		ParallelZipOutputStream zos = new ParallelZipOutputStream(new ByteArrayOutputStream(), 1);
+		try {
+			zos.putNextEntry(new ZipEntry("a.txt"));
+			try {
+				zos.putNextEntry(new ZipEntry("a.txt"));
+				fail("expected ZipException for duplicate entry");
+			} catch (ZipException e) {
+				// expected
+			}
+			ZipEntry entry = new ZipEntry("b.png");
+			entry.setMethod(ZipEntry.STORED);
+			try {
+				zos.putNextEntry(entry);
+				fail("expected ZipException for stored entry without crc");
+			} catch (ZipException e) {
+				// expected
+			}
+		} finally {
+			zos.close();
+		}
+	}
+
+	/**
+	 * Compare the time to compress synthetic KML with a
+	 * <code>ZipOutputStream</code> and with the parallel stream.
+	 */
+	@Test
+	public void testThroughput() throws Exception {
+		long size = Integer.getInteger("giscore.benchmark.kmzMB", 16) * 1024L * 1024L;
+		byte[] kml = createKml(8 * 1024 * 1024, new Random(1000));
+		int cores = Runtime.getRuntime().availableProcessors();
+		// warm up
+		compress(0, Deflater.DEFAULT_COMPRESSION, kml, kml.length);
+		compress(2, Deflater.DEFAULT_COMPRESSION, kml, kml.length);
+
+		report("ZipOutputStream level 6", 0, Deflater.DEFAULT_COMPRESSION, kml, size);
+		report("ZipOutputStream level 1", 0, Deflater.BEST_SPEED, kml, size);
+		report("ZipOutputStream level 0", 0, Deflater.NO_COMPRESSION, kml, size);
+		for (int threads = 1; threads <= Math.max(2, cores); threads *= 2) {
+			report("parallel " + threads + " threads level 6", threads, Deflater.DEFAULT_COMPRESSION, kml, size);
+		}
+		report("parallel " + cores + " threads level 1", cores, Deflater.BEST_SPEED, kml, size);
+	}
+
+	private static void report(String label, int threads, int level, byte[] kml, long size) throws IOException {
+		long start = System.nanoTime();
+		long compressed = compress(threads, level, kml, size);
+		long time = System.nanoTime() - start;
+		System.out.printf("%s: %d MB in %d ms, %.1f MB/s, ratio %.3f%n", label, size >> 20,
+				time / 1000000, size * 1000.0 / time, (double) compressed / size);
+	}
+
+	/**
+	 * Write the synthetic KML repeatedly into a doc.kml entry.
+	 *
+	 * @param threads number of threads, 0 for a <code>ZipOutputStream</code>
+	 * @return size of the zip file
+	 */
+	private static long compress(int threads, int level, byte[] kml, long size) throws IOException {
+		CountingOutputStream counter = new CountingOutputStream(new NullOutputStream());
+		ZipOutputStream zos = threads == 0 ? new ZipOutputStream(counter)
+				: new ParallelZipOutputStream(counter, threads);
+		zos.setLevel(level);
+		zos.putNextEntry(new ZipEntry("doc.kml"));
+		for (long written = 0; written < size; written += kml.length) {
+			zos.write(kml, 0, (int) Math.min(kml.length, size - written));
+		}
+		zos.close();
+		return counter.getByteCount();
+	}
+
+	private static byte[] writeZip(byte[][] contents, int threads, int level) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ParallelZipOutputStream zos = new ParallelZipOutputStream(bos, threads);
+		zos.setLevel(level);
+		zos.setComment("test comment");
+		for (int i = 0; i < NAMES.length; i++) {
+			ZipEntry entry = new ZipEntry(NAMES[i]);
+			entry.setTime(1400000000000L);
+			if (i == 3) {
+				CRC32 crc = new CRC32();
+				crc.update(contents[i]);
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(contents[i].length);
+				entry.setCrc(crc.getValue());
+			}
+			zos.putNextEntry(entry);
+			// write in odd sized pieces so blocks are filled across writes
+			for (int off = 0; off < contents[i].length; off += 10007) {
+				zos.write(contents[i], off, Math.min(10007, contents[i].length - off));
+			}
+		}
+		zos.close();
+		return bos.toByteArray();
+	}
+
+	private static byte[][] createContents() {
+		Random random = new Random(1000);
+		byte[][] contents = new byte[NAMES.length][];
+		contents[0] = createKml(3 * ParallelZipOutputStream.BLOCK_SIZE * 5 + 1234, random);
+		contents[1] = new byte[0];
+		contents[2] = "small entry".getBytes();
+		contents[3] = new byte[50000];
+		random.nextBytes(contents[3]);
+		contents[4] = Arrays.copyOf(contents[0], ParallelZipOutputStream.BLOCK_SIZE);
+		return contents;
+	}
+
+	/**
+	 * Create KML text of placemarks with random coordinates.
+	 */
+	private static byte[] createKml(int size, Random random) {
+		StringBuilder b = new StringBuilder(size + 1000);
+		b.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<kml xmlns=\"http://www.opengis.net/kml/2.2\">\n<Document>\n");
+		for (int i = 0; b.length() < size; i++) {
+			b.append("<Placemark>\n<name>feature ").append(i).append("</name>\n");
+			b.append("<description>synthetic feature ").append(random.nextInt(100000)).append("</description>\n");
+			b.append("<LineString>\n<coordinates>");
+			for (int j = 0; j < 20; j++) {
+				b.append(random.nextDouble() * 360 - 180).append(',').append(random.nextDouble() * 180 - 90).append(' ');
+			}
+			b.append("</coordinates>\n</LineString>\n</Placemark>\n");
+		}
+		b.setLength(size);
+		try {
+			return b.toString().getBytes("UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,263 @@
+/****************************************************************************************
+ *  TestSpatialIndex.java
+ *
+ *  (C) Copyright MITRE Corporation 2014
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.test.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opensextant.geodesy.Angle;
+import org.opensextant.geodesy.Geodetic2DBounds;
+import org.opensextant.geodesy.Geodetic2DPoint;
+import org.opensextant.geodesy.Latitude;
+import org.opensextant.geodesy.Longitude;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.input.shapefile.SingleShapefileInputHandler;
+import org.opensextant.giscore.utils.SpatialIndex;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the STR packed spatial index against scanning all bounds.
+ */
+public class TestSpatialIndex {
+
+    @Test
+    public void testQuery() throws Exception {
+        Random random = new Random(1000);
+        for (int capacity : new int[] { 2, 5, SpatialIndex.DEFAULT_NODE_CAPACITY }) {
+            for (int n : new int[] { 0, 1, 7, 100, 5000 }) {
+                List<Geodetic2DBounds> bounds = createBounds(random, n);
+                SpatialIndex index = build(bounds, capacity);
+                assertEquals(n, index.size());
+                for (int q = 0; q < 200; q++) {
+                    Geodetic2DBounds bbox = createBox(random, random.nextInt(4) == 0 ? 120 : 20);
+                    assertArrayEquals(bbox.toString(), scan(bounds, bbox), index.query(bbox));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNearest() {
+        Random random = new Random(2000);
+        List<Geodetic2DBounds> bounds = createBounds(random, 3000);
+        SpatialIndex index = build(bounds, 8);
+        for (int q = 0; q < 200; q++) {
+            Geodetic2DPoint p = point(random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90);
+            int k = 1 + random.nextInt(20);
+            assertArrayEquals(p.toString(), nearest(bounds, p, k), index.nearest(p, k));
+        }
+        assertEquals(0, index.nearest(point(0, 0), 0).length);
+        assertEquals(bounds.size(), index.nearest(point(0, 0), 5000).length);
+    }
+
+    @Test
+    public void testWriteAndOpen() throws Exception {
+        Random random = new Random(3000);
+        List<Geodetic2DBounds> bounds = createBounds(random, 2000);
+        SpatialIndex index = build(bounds, SpatialIndex.DEFAULT_NODE_CAPACITY);
+        File file = File.createTempFile("test", ".idx");
+        try {
+            index.write(file);
+            SpatialIndex opened = SpatialIndex.open(file);
+            assertEquals(index.size(), opened.size());
+            for (int q = 0; q < 100; q++) {
+                Geodetic2DBounds bbox = createBox(random, 30);
+                assertArrayEquals(index.query(bbox), opened.query(bbox));
+                Geodetic2DPoint p = bbox.getCenter();
+                assertArrayEquals(index.nearest(p, 5), opened.nearest(p, 5));
+            }
+            // not an index
+            FileOutputStream os = new FileOutputStream(file);
+            os.write(new byte[100]);
+            os.close();
+            try {
+                SpatialIndex.open(file);
+                fail("Expected to throw IOException");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            if (file.exists() && !file.delete()) file.deleteOnExit();
+        }
+    }
+
+    @Test
+    public void testFeatureStream() throws Exception {
+        File shpdir = new File("data/shape");
+        SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, "afghanistan");
+        SpatialIndex.Builder builder = new SpatialIndex.Builder();
+        long count;
+        try {
+            count = builder.addAll(handler);
+        } finally {
+            handler.close();
+        }
+        List<Geodetic2DBounds> bounds = new ArrayList<Geodetic2DBounds>();
+        handler = new SingleShapefileInputHandler(shpdir, "afghanistan");
+        try {
+            IGISObject ob;
+            while ((ob = handler.read()) != null) {
+                if (ob instanceof Feature) bounds.add(((Feature) ob).getGeometry().getBoundingBox());
+            }
+        } finally {
+            handler.close();
+        }
+        assertEquals(bounds.size(), count);
+        SpatialIndex index = builder.build();
+        assertEquals(count, index.size());
+        Geodetic2DBounds bbox = new Geodetic2DBounds(point(65, 30), point(70, 35));
+        assertArrayEquals(scan(bounds, bbox), index.query(bbox));
+    }
+
+    /**
+     * Compare the time of bounding box queries with the index and with a
+     * scan of all bounds.
+     */
+    @Test
+    public void testThroughput() {
+        Random random = new Random(4000);
+        List<Geodetic2DBounds> bounds = createBounds(random, 200000);
+        long start = System.nanoTime();
+        SpatialIndex index = build(bounds, SpatialIndex.DEFAULT_NODE_CAPACITY);
+        long build = System.nanoTime() - start;
+        List<Geodetic2DBounds> queries = new ArrayList<Geodetic2DBounds>();
+        for (int q = 0; q < 200; q++) {
+            queries.add(createBox(random, 5));
+        }
+        long found = 0;
+        start = System.nanoTime();
+        for (Geodetic2DBounds bbox : queries) {
+            found += index.query(bbox).length;
+        }
+        long indexed = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (Geodetic2DBounds bbox : queries) {
+            found -= scan(bounds, bbox).length;
+        }
+        long scanned = System.nanoTime() - start;
+        assertEquals(0, found);
+        System.out.printf("%d bounds: build %d ms, %d queries indexed %d ms, scanned %d ms%n",
+                bounds.size(), build / 1000000, queries.size(), indexed / 1000000, scanned / 1000000);
+    }
+
+    private static SpatialIndex build(List<Geodetic2DBounds> bounds, int capacity) {
+        SpatialIndex.Builder builder = new SpatialIndex.Builder(capacity);
+        for (int i = 0; i < bounds.size(); i++) {
+            builder.add(bounds.get(i), i);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return small boxes and points, some crossing the antimeridian
+     */
+    private static List<Geodetic2DBounds> createBounds(Random random, int n) {
+        List<Geodetic2DBounds> bounds = new ArrayList<Geodetic2DBounds>(n);
+        for (int i = 0; i < n; i++) {
+            bounds.add(createBox(random, i % 10 == 0 ? 0 : 2));
+        }
+        return bounds;
+    }
+
+    private static Geodetic2DBounds createBox(Random random, double size) {
+        double west = random.nextDouble() * 360 - 180;
+        double south = random.nextDouble() * (180 - size) - 90;
+        double width = random.nextDouble() * size;
+        double height = random.nextDouble() * size;
+        double east = west + width;
+        if (east >= 180) east -= 360;
+        return new Geodetic2DBounds(point(west, south), point(east, south + height));
+    }
+
+    private static Geodetic2DPoint point(double lon, double lat) {
+        return new Geodetic2DPoint(new Longitude(lon, Angle.DEGREES), new Latitude(lat, Angle.DEGREES));
+    }
+
+    private static long[] scan(List<Geodetic2DBounds> bounds, Geodetic2DBounds bbox) {
+        List<Long> ids = new ArrayList<Long>();
+        for (int i = 0; i < bounds.size(); i++) {
+            if (intersects(bounds.get(i), bbox)) ids.add((long) i);
+        }
+        long result[] = new long[ids.size()];
+        for (int i = 0; i < result.length; i++) result[i] = ids.get(i);
+        return result;
+    }
+
+    private static boolean intersects(Geodetic2DBounds b1, Geodetic2DBounds b2) {
+        if (b1.getSouthLat().inDegrees() > b2.getNorthLat().inDegrees()
+                || b1.getNorthLat().inDegrees() < b2.getSouthLat().inDegrees()) return false;
+        for (double[] x1 : intervals(b1)) {
+            for (double[] x2 : intervals(b2)) {
+                if (x1[0] <= x2[1] && x1[1] >= x2[0]) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the longitude intervals of bounds, two if crossing the antimeridian
+     */
+    private static double[][] intervals(Geodetic2DBounds b) {
+        double west = b.getWestLon().inDegrees();
+        double east = b.getEastLon().inDegrees();
+        if (west > east) return new double[][] { { west, 180 }, { -180, east } };
+        return new double[][] { { west, east } };
+    }
+
+    private static long[] nearest(List<Geodetic2DBounds> bounds, Geodetic2DPoint p, int k) {
+        final double x = p.getLongitude().inDegrees();
+        final double y = p.getLatitude().inDegrees();
+        final double distance[] = new double[bounds.size()];
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < bounds.size(); i++) {
+            Geodetic2DBounds b = bounds.get(i);
+            double dy = Math.max(0, Math.max(b.getSouthLat().inDegrees() - y, y - b.getNorthLat().inDegrees()));
+            double dx = Double.MAX_VALUE;
+            for (double[] interval : intervals(b)) {
+                if (x >= interval[0] && x <= interval[1]) {
+                    dx = 0;
+                } else {
+                    double toWest = interval[0] - x;
+                    if (toWest < 0) toWest += 360;
+                    double toEast = x - interval[1];
+                    if (toEast < 0) toEast += 360;
+                    dx = Math.min(dx, Math.min(toWest, toEast));
+                }
+            }
+            distance[i] = Math.sqrt(dx * dx + dy * dy);
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int cmp = Double.compare(distance[a], distance[b]);
+                return cmp != 0 ? cmp : a - b;
+            }
+        });
+        long result[] = new long[Math.min(k, order.size())];
+        for (int i = 0; i < result.length; i++) result[i] = order.get(i);
+        return result;
+    }
+}